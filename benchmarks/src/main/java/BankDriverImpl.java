@@ -0,0 +1,118 @@
+import benchmarks.BankDriver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+public class BankDriverImpl implements BankDriver {
+    private static final long START_BALANCE_CENTS = Money.ofWholeKronor(1_000_000_000L); // Stort saldo så att uttag aldrig tar slut
+
+    private Bank bank;
+    private String[] ids;
+    private PinHash pinHash;
+
+    @Override
+    public void populate(int accounts) {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none()); // Konsolutskrifter ska inte dominera mätningarna
+        bank.setAttemptTracker(PinAttemptTracker.unlimited()); // Samma konton loggar in många gånger per sekund
+        ids = new String[accounts];
+        pinHash = PinHash.create(PIN); // PBKDF2 en gång, inte en gång per syntetiskt konto
+        List<User> users = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = Integer.toString(10_000_000 + i); // Krockar inte med standardanvändaren 12345
+            users.add(User.withPinHash(ids[i], pinHash, START_BALANCE_CENTS));
+        }
+        bank.addUsers(users);
+    }
+
+    @Override
+    public String accountId(int index) {
+        return ids[index];
+    }
+
+    @Override
+    public Object getUserById(String id) {
+        return bank.getUserById(id);
+    }
+
+    @Override
+    public boolean verifyPin(String id, String pin) {
+        return bank.verifyPin(id, pin);
+    }
+
+    @Override
+    public void deposit(String id, double amount) {
+        bank.deposit(id, amount);
+    }
+
+    @Override
+    public boolean withdraw(String id, double amount) {
+        return bank.withdraw(id, amount);
+    }
+
+    @Override
+    public boolean addThenDeleteUser(String id) {
+        bank.addUser(User.withPinHash(id, pinHash, 0));
+        return bank.deleteUser(id);
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, double amount) {
+        bank.transfer(fromId, toId, amount);
+    }
+
+    @Override
+    public int withdrawEach(int[] accountIndexes, double amount) {
+        int succeeded = 0;
+        for (int index : accountIndexes) {
+            if (bank.withdraw(ids[index], amount)) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    @Override
+    public int withdrawBatch(int[] accountIndexes, double amount) {
+        long amountCents = Money.ofKronor(amount);
+        List<BankOperation> operations = new ArrayList<>(accountIndexes.length);
+        for (int index : accountIndexes) {
+            operations.add(BankOperation.withdraw(ids[index], amountCents));
+        }
+        return bank.applyBatch(operations).getSuccessCount();
+    }
+
+    @Override
+    public Terminal newTerminal() {
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        int[] full = {CashCassettes.MAX_NOTES, CashCassettes.MAX_NOTES, CashCassettes.MAX_NOTES};
+        atm.setCassettes(new CashCassettes(new int[] {500, 200, 100}, full)); // Fylls på i runSession, se refillIfLow
+        return (id, scanner) -> runSession(atm, id, scanner);
+    }
+
+    private static boolean runSession(ATM atm, String id, Scanner scanner) {
+        if (!atm.insertCard(id)) {
+            return false;
+        }
+        boolean ok = atm.handlePinEntry(scanner) && atm.handleWithdraw(scanner);
+        atm.handleEndSession();
+        refillIfLow(atm.getCassettes()); // Annars tar sedlarna slut och resten av mätningen blir bara CANNOT_DISPENSE
+        return ok;
+    }
+
+    // Som ATMLoadGenerator: fyller på alla kassetter när någon inte längre räcker till ett helt uttag
+    private static void refillIfLow(CashCassettes cassettes) {
+        int[] refill = new int[cassettes.getDenominations().length];
+        boolean low = false;
+        for (int i = 0; i < refill.length; i++) {
+            refill[i] = CashCassettes.MAX_NOTES - cassettes.getCount(i);
+            low |= cassettes.getCount(i) < CashCassettes.MAX_NOTES_PER_DISPENSE;
+        }
+        if (low) {
+            cassettes.refill(refill);
+        }
+    }
+}
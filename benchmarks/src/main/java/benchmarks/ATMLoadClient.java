@@ -0,0 +1,129 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+// Lastklient för ATMServer. Öppnar många anslutningar från en enda tråd med NIO och låter varje
+// anslutning köra sessioner om och om igen: kort, PIN, saldo, uttag av 100 kr och utloggning.
+// Servern skriver ut p99 per åtgärd när den stängs; klienten rapporterar genomströmning.
+//
+// java -cp target/benchmarks.jar benchmarks.ATMLoadClient [port] [anslutningar] [konton] [sekunder]
+//
+// För 100 000 anslutningar behövs höjd gräns för öppna filer (ulimit -n) på båda sidor. Klienten
+// sprider anslutningarna över flera lokala adresser (127.0.0.x) så att de tillfälliga portarna räcker.
+public class ATMLoadClient {
+
+    private static final String[] SCRIPT = {null, BankDriver.PIN, "1", "3", "100", "4"}; // null = kortets ID
+    private static final int CONNECTIONS_PER_ADDRESS = 20_000;
+
+    // En terminal: var i skriptet den är och vad som lästs av nuvarande rad
+    private static final class Terminal {
+        final String cardId;
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        ByteBuffer out;
+        int step;
+        byte previous; // Senast lästa tecken, så att ": " hittas även över två läsningar
+        boolean lineEndsWithPrompt;
+
+        Terminal(String cardId) {
+            this.cardId = cardId;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        Selector selector = Selector.open();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.bind(new InetSocketAddress("127.0.0." + (1 + i / CONNECTIONS_PER_ADDRESS), 0));
+            channel.connect(new InetSocketAddress("127.0.0.1", port));
+            Terminal terminal = new Terminal(Integer.toString(10_000_000 + i % Math.max(1, accounts)));
+            channel.register(selector, SelectionKey.OP_CONNECT, terminal);
+        }
+
+        long steps = 0;
+        long sessions = 0;
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Terminal terminal = (Terminal) key.attachment();
+                SocketChannel channel = (SocketChannel) key.channel();
+                try {
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                    } else if (key.isReadable()) {
+                        if (readUntilPrompt(channel, terminal)) {
+                            String command = SCRIPT[terminal.step] == null ? terminal.cardId : SCRIPT[terminal.step];
+                            terminal.step = (terminal.step + 1) % SCRIPT.length;
+                            if (terminal.step == 0) {
+                                sessions++;
+                            }
+                            steps++;
+                            terminal.out = ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.UTF_8));
+                            channel.write(terminal.out);
+                            if (terminal.out.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_WRITE);
+                            }
+                        }
+                    } else if (key.isWritable()) {
+                        channel.write(terminal.out);
+                        if (!terminal.out.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                    channel.close();
+                }
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d anslutningar, %.1f s: %d steg (%.0f/s), %d hela sessioner (%.0f/s)%n",
+                connections, elapsed, steps, steps / elapsed, sessions, sessions / elapsed);
+        selector.close();
+    }
+
+    // Läser det som finns och returnerar true när servern skickat en uppmaning (rad som slutar med ": ")
+    private static boolean readUntilPrompt(SocketChannel channel, Terminal terminal) throws IOException {
+        ByteBuffer in = terminal.in;
+        if (channel.read(in) < 0) {
+            throw new IOException("Servern stängde anslutningen.");
+        }
+        in.flip();
+        boolean prompted = false;
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                prompted = terminal.lineEndsWithPrompt;
+                terminal.lineEndsWithPrompt = false;
+                terminal.previous = 0;
+            } else {
+                // Kommer ihåg om de två senaste tecknen på raden var ": "
+                terminal.lineEndsWithPrompt = b == ' ' && terminal.previous == ':';
+                terminal.previous = b;
+            }
+        }
+        in.clear();
+        return prompted;
+    }
+}
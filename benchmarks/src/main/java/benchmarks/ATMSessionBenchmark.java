@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ATMSessionBenchmark {
+
+    private static final String SESSION_INPUT = BankDriver.PIN + "\n100\n"; // PIN och sedan uttag av 100 kr
+
+    @Param({"1000", "1000000"})
+    public int accounts;
+
+    private BankDriver bank;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bank = BankDriver.load();
+        bank.populate(accounts);
+    }
+
+    // En bankomat per tråd, alla kopplade till samma bank
+    @State(Scope.Thread)
+    public static class Terminal {
+        private BankDriver.Terminal atm;
+        private final SplittableRandom random = new SplittableRandom();
+
+        @Setup(Level.Trial)
+        public void connect(ATMSessionBenchmark state) {
+            atm = state.bank.newTerminal();
+        }
+    }
+
+    // Hel session: insertCard -> handlePinEntry -> handleWithdraw (100 kr) -> handleEndSession
+    @Benchmark
+    public boolean fullWithdrawSession(Terminal terminal) {
+        String id = bank.accountId(terminal.random.nextInt(accounts));
+        return terminal.atm.fullWithdrawSession(id, new Scanner(SESSION_INPUT));
+    }
+}
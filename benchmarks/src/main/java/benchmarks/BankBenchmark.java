@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BankBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int accounts; // Antal konton i banken
+
+    private BankDriver bank; // Delas av alla trådar, precis som när många bankomater använder samma bank
+    private final AtomicInteger nextThreadId = new AtomicInteger(); // Ger varje tråd egna ID:n vid addUser/deleteUser
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bank = BankDriver.load();
+        bank.populate(accounts);
+    }
+
+    // Varje tråd väljer konton slumpmässigt utan att dela slumpgenerator med andra trådar
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+        private int threadId = -1;
+        private int counter;
+
+        String nextId(BankBenchmark state) {
+            return state.bank.accountId(random.nextInt(state.accounts));
+        }
+
+        String freshId(BankBenchmark state) {
+            if (threadId < 0) {
+                threadId = state.nextThreadId.getAndIncrement();
+            }
+            return "new-" + threadId + "-" + (counter++);
+        }
+    }
+
+    @Benchmark
+    public Object getUserById(Cursor cursor) {
+        return bank.getUserById(cursor.nextId(this));
+    }
+
+    @Benchmark
+    public boolean verifyPin(Cursor cursor) {
+        return bank.verifyPin(cursor.nextId(this), BankDriver.PIN);
+    }
+
+    @Benchmark
+    public void deposit(Cursor cursor) {
+        bank.deposit(cursor.nextId(this), 1.0);
+    }
+
+    @Benchmark
+    public boolean withdraw(Cursor cursor) {
+        return bank.withdraw(cursor.nextId(this), 1.0);
+    }
+
+    // addUser och deleteUser mäts ihop så att bankens storlek hålls konstant
+    @Benchmark
+    public boolean addThenDeleteUser(Cursor cursor) {
+        return bank.addThenDeleteUser(cursor.freshId(this));
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.Scanner;
+
+// JMH kräver att benchmarkklasser ligger i ett namngivet paket, medan Bankomat ligger i standardpaketet.
+// Klasser i ett namngivet paket kan inte referera till standardpaketet, så benchmarks anropar banken
+// via det här gränssnittet. Implementationen (BankDriverImpl) ligger i standardpaketet och laddas vid start.
+// Anropsplatserna är monomorfa och inlinas av JIT, så omvägen syns inte i mätningarna.
+public interface BankDriver {
+
+    String PIN = "1234"; // Samma PIN för alla syntetiska konton
+
+    // Skapar en ny bank med det angivna antalet konton
+    void populate(int accounts);
+
+    // ID för konto nummer index (0 <= index < accounts)
+    String accountId(int index);
+
+    Object getUserById(String id);
+
+    boolean verifyPin(String id, String pin);
+
+    void deposit(String id, double amount);
+
+    boolean withdraw(String id, double amount);
+
+    boolean addThenDeleteUser(String id);
+
+    void transfer(String fromId, String toId, double amount);
+
+    // Tar ut beloppet från vart och ett av kontona med ett anrop till Bank.withdraw per konto.
+    // Returnerar antal lyckade uttag.
+    int withdrawEach(int[] accountIndexes, double amount);
+
+    // Samma uttag som en enda batch via Bank.applyBatch
+    int withdrawBatch(int[] accountIndexes, double amount);
+
+    // Skapar en ny bankomat kopplad till banken
+    Terminal newTerminal();
+
+    interface Terminal {
+        // Hel session: sätt in kort, ange PIN, ta ut och avsluta, med inmatning från scannern
+        boolean fullWithdrawSession(String id, Scanner scanner);
+    }
+
+    // Laddar implementationen i standardpaketet
+    static BankDriver load() {
+        try {
+            return (BankDriver) Class.forName("BankDriverImpl").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Kunde inte ladda BankDriverImpl.", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Jämför en batch via Bank.applyBatch med en loop över Bank.withdraw för samma uttag
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BatchBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int batchSize; // Antal uttag per batch
+
+    @Param({"1000000"})
+    public int accounts;
+
+    private BankDriver bank;
+    private int[] accountIndexes; // Samma slumpade konton för båda varianterna
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bank = BankDriver.load();
+        bank.populate(accounts);
+        SplittableRandom random = new SplittableRandom(42);
+        accountIndexes = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            accountIndexes[i] = random.nextInt(accounts);
+        }
+    }
+
+    @Benchmark
+    public int withdrawEach() {
+        return bank.withdrawEach(accountIndexes, 1.0);
+    }
+
+    @Benchmark
+    public int withdrawBatch() {
+        return bank.withdrawBatch(accountIndexes, 1.0);
+    }
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class BenchmarkRunner {
+
+    // Kör alla benchmarks med 1, 4 och N trådar (N = antal kärnor) om inte -t anges på kommandoraden.
+    // Resultaten sparas som JSON per trådantal så att före/efter-mätningar kan jämföras.
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.getThreads().hasValue()) {
+            new Runner(cli).run();
+            return;
+        }
+
+        Set<Integer> threadCounts = new LinkedHashSet<>();
+        threadCounts.add(1);
+        threadCounts.add(4);
+        threadCounts.add(Runtime.getRuntime().availableProcessors());
+
+        for (int threads : threadCounts) {
+            OptionsBuilder options = new OptionsBuilder();
+            options.parent(cli)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-t" + threads + ".json");
+            new Runner(options.build()).run();
+        }
+    }
+}
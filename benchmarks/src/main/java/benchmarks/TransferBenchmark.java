@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Överföringar där alla trådar slåss om ett fåtal heta konton. Med hotAccounts = 2 går varannan
+// överföring åt motsatt håll mellan samma två konton, det värsta fallet för låsordningen.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class TransferBenchmark {
+
+    @Param({"2", "16", "1024", "100000"})
+    public int hotAccounts; // Antal konton som överföringarna sprids över
+
+    private BankDriver bank;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bank = BankDriver.load();
+        bank.populate(hotAccounts);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public void transfer(Cursor cursor) {
+        int from = cursor.random.nextInt(hotAccounts);
+        int to = (from + 1 + cursor.random.nextInt(hotAccounts - 1)) % hotAccounts; // Alltid ett annat konto
+        bank.transfer(bank.accountId(from), bank.accountId(to), 1.0);
+    }
+}
@@ -1,35 +1,68 @@
 import java.util.InputMismatchException;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ATM {
+    // Gränser för belopp i hela kronor (minsta belopp och steg)
+    static final int DEPOSIT_MIN = 20;
+    static final int DEPOSIT_STEP = 10;
+    static final int WITHDRAW_MIN = 100;
+    static final int WITHDRAW_STEP = 100;
+    static final int MAX_PIN_ATTEMPTS = 3; // Kortet låses efter så många felaktiga PIN-koder i följd
+    private static final AtomicInteger TERMINAL_IDS = new AtomicInteger();
+    private static final String NOT_LOGGED_IN = "Ingen användare inloggad.";
+    private static final String CANNOT_DISPENSE = "Bankomaten kan inte betala ut det beloppet. Försök med ett annat belopp.";
+
     protected Bank bank; // Referens till banken som används
     protected User currentUser; // Håller reda på den inloggade användaren
+    protected final String terminalId = "atm-" + TERMINAL_IDS.incrementAndGet(); // Identifierar bankomaten i PIN-spärren
+    protected SessionOutput output = SessionOutput.console(); // Vart texterna skickas, konsolen om inget annat sätts
+    private ATMMetrics metrics = ATMMetrics.of(null); // Stegens utfall, i bankens register när en bank är satt
+    protected CashCassettes cassettes = CashCassettes.standard(); // Sedlarna som bankomaten kan betala ut
 
     // Sätter vilken bank som denna ATM är kopplad till
     public void setBank(Bank bank) {
         this.bank = bank;
+        this.metrics = ATMMetrics.of(bank);
+    }
+
+    // Sätter vilka sedelkassetter bankomaten har
+    public void setCassettes(CashCassettes cassettes) {
+        this.cassettes = cassettes;
+    }
+
+    public CashCassettes getCassettes() {
+        return cassettes;
+    }
+
+    // Sätter vart bankomatens texter skickas, t.ex. AsyncOutput under last eller SessionOutput.none()
+    public void setOutput(SessionOutput output) {
+        this.output = output;
     }
 
     // Metod för att sätta in kort (logga in användare)
     public boolean insertCard(String userId) {
         currentUser = null; // Sätt alltid currentUser till null innan nytt kortförsök
         if (userId == null || userId.trim().isEmpty()) { // Kontrollera om ID är tomt
-            System.out.println("Ogiltigt ID inmatat. Försök igen.");
+            metrics.insertCard.finish(0, "Ogiltigt ID.");
+            output.message("Ogiltigt ID inmatat. Försök igen.");
             return false;
         }
 
-        System.out.println("Försöker sätta in kort för ID: " + userId);
+        output.message("Försöker sätta in kort för ID: " + userId);
         if (bank.isCardLocked(userId)) { // Kontrollera om kortet är låst
-            System.out.println("Kortet är låst. Kontakta banken för att låsa upp kortet.");
+            metrics.insertCard.finish(0, "Kortet är låst.");
+            output.message("Kortet är låst. Kontakta banken för att låsa upp kortet.");
             return false;
         }
 
         currentUser = bank.getUserById(userId); // Hämta användaren från banken
+        metrics.insertCard.finish(0, currentUser == null ? "Användaren hittades inte." : null);
         if (currentUser != null) {
-            System.out.println("Kortet har satts in framgångsrikt.");
+            output.message("Kortet har satts in framgångsrikt.");
             return true;
         } else {
-            System.out.println("Användare med ID " + userId + " hittades inte."); // Ingen användare hittades
+            output.message("Användare med ID " + userId + " hittades inte."); // Ingen användare hittades
             return false;
         }
     }
@@ -37,110 +70,176 @@ public class ATM {
     // Visa vilken bank ATM är kopplad till
     public void displayBankName() {
         String bankName = Bank.getBankName();
-        System.out.println("Denna bankomat är kopplad till: " + bankName);
+        output.message("Denna bankomat är kopplad till: " + bankName);
     }
 
     // Metod för att hantera inmatning av PIN-kod
     public boolean handlePinEntry(Scanner scanner) {
-        System.out.print("Ange PIN: ");
-        int attemptsLeft = 3; // Max antal försök är 3
+        output.prompt("Ange PIN: ");
+        PinAttemptTracker tracker = bank.getAttemptTracker();
 
-        while (attemptsLeft > 0) {
+        while (true) {
             if (!scanner.hasNextLine()) { // Kontrollera om det finns input
-                System.out.println("Ingen inmatning upptäckt. Avbryter.");
+                metrics.pinEntry.finish(0, "Ingen inmatning.");
+                output.message("Ingen inmatning upptäckt. Avbryter.");
                 return false;
             }
 
             String pin = scanner.nextLine().trim(); // Läs in PIN
 
             if (pin.equals("0")) { // Användaren vill avbryta
-                System.out.println("Avslutar PIN-inmatning.");
+                metrics.pinEntry.finish(0, "Avbruten.");
+                output.message("Avslutar PIN-inmatning.");
                 currentUser = null;
                 return false;
             }
 
-            if (bank.verifyPin(currentUser.getId(), pin)) { // Kontrollera PIN
-                System.out.println("PIN korrekt, inloggning lyckades.");
-                currentUser.resetFailedAttempts(); // Återställ misslyckade försök
-                return true; // PIN korrekt
-            } else {
-                // Hantera felaktig PIN
-                attemptsLeft = handleFailedPinAttempt(attemptsLeft);
+            if (tracker != null
+                    && tracker.tryAttempt(currentUser.getId(), terminalId) != PinAttemptTracker.Verdict.ALLOWED) {
+                metrics.pinEntry.finish(0, "För många PIN-försök.");
+                output.message("För många PIN-försök. Försök igen senare.");
+                currentUser = null;
+                return false;
+            }
+
+            // Försöken räknas på kontot, inte per bankomat, och tas innan PIN-koden kontrolleras, så
+            // bankomater som väntar på samma kort får tillsammans högst tre försök
+            int attempt = currentUser.reservePinAttempt();
+            if (attempt == 0) { // De återstående försöken kontrolleras just nu på andra bankomater
+                output.message("Kortet används på en annan bankomat. Försök igen.");
+                output.prompt("Ange PIN: ");
+                continue;
+            }
+            boolean correct = attempt > 0 && checkPin(pin); // Kontrollera PIN
+            int failures = attempt > 0 ? currentUser.finishPinAttempt(correct) : 0;
+            if (attempt < 0 || (failures < MAX_PIN_ATTEMPTS && currentUser.isLocked())) { // Låst, kanske av en annan bankomat under kontrollen
+                metrics.pinEntry.finish(0, "Kortet är låst.");
+                output.message("Kortet är låst. Kontakta din bank för att låsa upp kortet.");
+                currentUser = null;
+                return false;
+            }
+            if (correct) {
+                metrics.pinEntry.count();
+                output.message("PIN korrekt, inloggning lyckades.");
+                return true; // PIN korrekt; finishPinAttempt har återställt misslyckade försök
+            }
+            // Hantera felaktig PIN
+            if (tracker != null) {
+                tracker.recordFailure(terminalId);
+            }
+            if (handleFailedPinAttempt(failures) <= 0) {
+                return false; // Returnera false istället för att stänga av programmet
             }
         }
+    }
 
-        // Returnera false istället för att stänga av programmet
-        return false;
+    // Kontrollerar PIN-koden för det reserverade försöket. Kastar kontrollen lämnas försöket tillbaka,
+    // så att ett fel i banken inte räknas som en felaktig PIN.
+    private boolean checkPin(String pin) {
+        boolean checked = false;
+        try {
+            boolean correct = bank.verifyPin(currentUser.getId(), pin);
+            checked = true;
+            return correct;
+        } finally {
+            if (!checked) {
+                currentUser.releasePinAttempt();
+            }
+        }
     }
 
-    // Metod för att hantera misslyckade PIN-försök
-    private int handleFailedPinAttempt(int attemptsLeft) {
-        attemptsLeft--; // Minska antalet försök
-        currentUser.incrementFailedAttempts(); // Öka misslyckade försök i User
+    // Metod för att hantera misslyckade PIN-försök; försöket är redan räknat i User
+    private int handleFailedPinAttempt(int failures) {
+        int attemptsLeft = MAX_PIN_ATTEMPTS - failures;
 
         if (attemptsLeft > 0) {
             // Meddela användaren hur många försök som återstår
-            System.out.printf("Fel PIN. Du har %d försök kvar.%n", attemptsLeft);
-            System.out.print("Ange PIN: ");
+            output.message("Fel PIN. Du har " + attemptsLeft + " försök kvar.");
+            output.prompt("Ange PIN: ");
         } else {
             // När försök är slut
             currentUser.lockCard(); // Lås kortet
+            metrics.pinEntry.finish(0, "Kortet låstes.");
             currentUser = null; // Avsluta sessionen genom att sätta currentUser till null
-            System.out.println("Antal misslyckade försök: 3");
-            System.out.println("Fel PIN, inloggningen misslyckades. Kortet är nu låst efter tre misslyckade försök.");
-            System.out.println("Kontakta din bank för att låsa upp kortet.");
+            output.message("Antal misslyckade försök: 3");
+            output.message("Fel PIN, inloggningen misslyckades. Kortet är nu låst efter tre misslyckade försök.");
+            output.message("Kontakta din bank för att låsa upp kortet.");
         }
         return attemptsLeft;
     }
 
     // Visa användarens saldo
     public void handleCheckBalance() {
+        metrics.checkBalance.finish(0, currentUser == null ? NOT_LOGGED_IN : null);
         if (currentUser != null) {
-            System.out.printf("Ditt saldo är: %s kr%n", formatAmount(currentUser.getBalance()));
+            output.message(Money.appendTo(new StringBuilder(32).append("Ditt saldo är: "),
+                    currentUser.getBalanceCents()).append(" kr").toString());
         } else {
-            System.out.println("Ingen användare inloggad.");
+            output.message("Ingen användare inloggad.");
         }
     }
 
     // Hantera insättning av pengar
     protected boolean handleDeposit(Scanner scanner) {
-        double amount = getValidAmount(scanner, "Ange belopp att sätta in: ", 20, 10);
+        double amount = getValidAmount(scanner, "Ange belopp att sätta in: ", DEPOSIT_MIN, DEPOSIT_STEP);
         if (currentUser != null) {
             if (amount <= 0) {
-                System.out.println("Insättningsbeloppet måste vara större än 0.");
+                metrics.deposit.finish(0, "Ogiltigt belopp.");
+                output.message("Insättningsbeloppet måste vara större än 0.");
                 return false;
             }
             bank.deposit(currentUser.getId(), amount); // Gör insättning
-            System.out.printf("Insättning av %s kr lyckades. Ny balans: %s kr.%n",
-                    formatAmount(amount),
-                    formatAmount(bank.getUserById(currentUser.getId()).getBalance()));
+            metrics.deposit.count();
+            output.message(resultMessage("Insättning av ", amount));
             return true;
         } else {
-            System.out.println("Ingen användare inloggad.");
+            metrics.deposit.finish(0, NOT_LOGGED_IN);
+            output.message("Ingen användare inloggad.");
             return false;
         }
     }
 
     // Hantera uttag av pengar
+    // Uttaget görs i två faser: beloppet reserveras på kontot, sedlarna tas ur kassetterna, och först
+    // när de matats ut dras reservationen. Kan sedlarna inte matas ut släpps reservationen i stället,
+    // så kontot debiteras aldrig för pengar som inte betalats ut och ingen återinsättning behövs.
     protected boolean handleWithdraw(Scanner scanner) {
-        double amount = getValidAmount(scanner, "Ange belopp att ta ut: ", 100, 100);
+        double amount = getValidAmount(scanner, "Ange belopp att ta ut: ", WITHDRAW_MIN, WITHDRAW_STEP, true);
         if (currentUser != null) {
+            long holdId;
             try {
-                if (bank.withdraw(currentUser.getId(), amount)) { // Gör uttag
-                    System.out.printf("Uttag av %s kr lyckades. Ny balans: %s kr.%n",
-                            formatAmount(amount),
-                            formatAmount(bank.getUserById(currentUser.getId()).getBalance()));
-                    return true;
-                } else {
-                    System.out.println("Uttag misslyckades. Kontrollera ditt saldo.");
-                    return false;
-                }
+                holdId = bank.hold(currentUser.getId(), amount); // Reserverar beloppet mot saldot
             } catch (IllegalArgumentException e) {
-                System.out.println(e.getMessage()); // Visa felmeddelande
+                metrics.withdraw.finish(0, e.getMessage());
+                output.message(e.getMessage()); // Visa felmeddelande
+                return false;
+            }
+            int[] notes = amount > 0 ? cassettes.dispense(Money.ofKronor(amount)) : null;
+            if (notes == null) { // Sedlarna tog slut efter kontrollen, eller inmatningen tog slut
+                bank.releaseHold(holdId);
+                metrics.withdraw.finish(0, CANNOT_DISPENSE);
+                output.message(CANNOT_DISPENSE);
+                return false;
+            }
+            boolean captured = false;
+            try {
+                bank.captureHold(holdId); // Drar beloppet
+                captured = true;
+                metrics.withdraw.count();
+                output.message(resultMessage("Uttag av ", amount));
+                return true;
+            } catch (IllegalArgumentException e) { // Reservationen hann gå ut
+                metrics.withdraw.finish(0, e.getMessage());
+                output.message("Uttag misslyckades. Försök igen.");
                 return false;
+            } finally {
+                if (!captured) {
+                    cassettes.restore(notes);
+                }
             }
         } else {
-            System.out.println("Ingen användare inloggad.");
+            metrics.withdraw.finish(0, NOT_LOGGED_IN);
+            output.message("Ingen användare inloggad.");
             return false;
         }
     }
@@ -148,55 +247,79 @@ public class ATM {
     // Avsluta användarsessionen
     public void handleEndSession() {
         currentUser = null; // Nollställ inloggad användare
-        System.out.println("Sessionen har avslutats.");
+        metrics.endSession.count();
+        output.message("Sessionen har avslutats.");
     }
 
     // Metod för att ta bort ett konto
     public boolean deleteAccount(String userId) {
         if (bank == null) {
-            System.out.println("Ingen bank ansluten.");
+            metrics.deleteAccount.finish(0, "Ingen bank ansluten.");
+            output.message("Ingen bank ansluten.");
             return false;
         }
-        return bank.deleteUser(userId);
+        boolean deleted = bank.deleteUser(userId);
+        metrics.deleteAccount.finish(0, deleted ? null : "Kontot kunde inte tas bort.");
+        return deleted;
     }
 
     // Validera att belopp är korrekt inmatat
     protected double getValidAmount(Scanner scanner, String prompt, int minAmount, int step) {
+        return getValidAmount(scanner, prompt, minAmount, step, false);
+    }
+
+    // Som ovan; med dispense godkänns bara belopp som sedlarna i kassetterna räcker till
+    protected double getValidAmount(Scanner scanner, String prompt, int minAmount, int step, boolean dispense) {
         double amount = -1;
         while (true) {
             try {
-                System.out.print(prompt);
+                output.prompt(prompt);
                 if (!scanner.hasNextDouble()) { // Kontrollera om nästa värde är en double
                     if (!scanner.hasNext()) { // Kontrollera om det finns mer inmatning alls
-                        System.out.println("Ingen inmatning upptäckt. Avbryter.");
+                        output.message("Ingen inmatning upptäckt. Avbryter.");
                         break; // Avsluta loopen om ingen inmatning finns
                     }
-                    System.out.println("Ogiltig inmatning. Ange ett numeriskt belopp.");
+                    output.message("Ogiltig inmatning. Ange ett numeriskt belopp.");
                     scanner.nextLine(); // Rensa ogiltig inmatning
                     continue;
                 }
                 amount = scanner.nextDouble(); // Läs in beloppet
-                if (amount < minAmount) {
-                    System.out.printf("Ogiltigt belopp, Minsta möjliga belopp: %s kr. Försök igen.%n", formatAmount(minAmount));
-                } else if (amount % step != 0) {
-                    System.out.println("Beloppet måste vara en multipel av " + step + ". Försök igen.");
+                String error = amountError(Money.ofKronor(amount), minAmount, step); // Valideringen sker exakt i öre
+                if (error == null && dispense && !cassettes.canDispense(Money.ofKronor(amount))) {
+                    error = CANNOT_DISPENSE;
+                }
+                if (error != null) {
+                    output.message(error);
                 } else {
                     break; // Avsluta loopen när beloppet är giltigt
                 }
             } catch (InputMismatchException e) {
-                System.out.println("Ogiltig inmatning. Ange ett numeriskt belopp.");
+                output.message("Ogiltig inmatning. Ange ett numeriskt belopp.");
                 scanner.nextLine(); // Rensa ogiltig inmatning
+            } catch (IllegalArgumentException e) {
+                output.message("Ogiltigt belopp. Försök igen."); // Beloppet är för stort för att representeras
             }
         }
         return amount;
     }
 
-    // Formatera belopp för snygg utskrift
-    private String formatAmount(double amount) {
-        if (amount == (int) amount) {
-            return String.format("%d", (int) amount);
-        } else {
-            return String.format("%.2f", amount);
+    // Kontrollerar ett belopp i öre mot minsta belopp och steg (i hela kronor).
+    // Returnerar felmeddelandet, eller null om beloppet är giltigt. Används även av ATMSession.
+    static String amountError(long amountCents, int minAmount, int step) {
+        long minCents = Money.ofWholeKronor(minAmount);
+        if (amountCents < minCents) {
+            return "Ogiltigt belopp, Minsta möjliga belopp: " + Money.format(minCents) + " kr. Försök igen.";
+        }
+        if (!Money.isMultipleOfKronor(amountCents, step)) {
+            return "Beloppet måste vara en multipel av " + step + ". Försök igen.";
         }
+        return null;
+    }
+
+    // "Insättning av 100 kr lyckades. Ny balans: 1100 kr." i en förallokerad StringBuilder, utan String.format
+    private String resultMessage(String action, double amount) {
+        StringBuilder text = new StringBuilder(64).append(action);
+        Money.appendTo(text, Money.ofKronor(amount)).append(" kr lyckades. Ny balans: ");
+        return Money.appendTo(text, bank.getUserById(currentUser.getId()).getBalanceCents()).append(" kr.").toString();
     }
 }
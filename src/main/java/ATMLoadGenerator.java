@@ -0,0 +1,343 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lastgenerator för bankomater mot en gemensam bank. Ett frö ger ett skript med sessioner per terminal:
+// kort, PIN (ibland fel, någon gång så fel att kortet låses), saldo, insättningar, uttag och utloggning.
+// Varje terminal är en egen ATM i en egen tråd, och alla går mot samma Bank.
+//
+// Körningen sparar en trace: varje steg med terminal, indata och utfall. Varje terminal har sina egna
+// konton, så ett stegs utfall beror bara på terminalens tidigare steg och inte på hur trådarna råkar
+// blandas. En trace kan därför spelas upp igen mot en ny bank (replay) och ska då ge exakt samma utfall
+// och samma saldon; varje avvikelse räknas. Rapporten ger genomströmning, svarstider per steg och en
+// kontroll av att summan av saldona ändrats med exakt de insättningar och uttag som lyckades.
+//
+// java ATMLoadGenerator [frö] [konton] [terminaler] [sessioner per terminal] [tracefil]
+// java ATMLoadGenerator replay tracefil
+public class ATMLoadGenerator {
+    static final String PIN = "1234";
+    private static final String WRONG_PIN = "9999";
+    private static final String ID_PREFIX = "last-";
+
+    // Ett steg i en session
+    public enum Kind {
+        INSERT_CARD, PIN, BALANCE, DEPOSIT, WITHDRAW, END_SESSION
+    }
+
+    // Terminal, stegets typ och indata (kort-ID, PIN-försök separerade med ',' eller belopp i kronor) och
+    // utfallet. I ett genererat skript är utfallet ännu inte känt (false).
+    public record Step(int terminal, Kind kind, String input, boolean success) {
+    }
+
+    public record Config(long seed, int accounts, int terminals, int sessionsPerTerminal) {
+        public Config {
+            if (terminals <= 0 || accounts < terminals || sessionsPerTerminal < 0) {
+                throw new IllegalArgumentException("Ogiltig lastkonfiguration.");
+            }
+        }
+    }
+
+    // Konfigurationen och alla steg, i ordning per terminal
+    public record Trace(Config config, List<Step> steps) {
+
+        public void write(Path file) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write(config.seed() + " " + config.accounts() + " " + config.terminals() + " "
+                        + config.sessionsPerTerminal());
+                out.newLine();
+                for (Step step : steps) {
+                    out.write(step.terminal() + " " + step.kind() + " " + step.input() + " " + (step.success() ? 1 : 0));
+                    out.newLine();
+                }
+            }
+        }
+
+        public static Trace read(Path file) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String header = in.readLine();
+                if (header == null) {
+                    throw new IOException("Tracefilen är tom.");
+                }
+                String[] fields = header.split(" ");
+                Config config = new Config(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+                List<Step> steps = new ArrayList<>();
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    String[] parts = line.split(" ");
+                    if (parts.length != 4) {
+                        throw new IOException("Ogiltig rad i tracefilen: " + line);
+                    }
+                    steps.add(new Step(Integer.parseInt(parts[0]), Kind.valueOf(parts[1]), parts[2], parts[3].equals("1")));
+                }
+                return new Trace(config, steps);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Ogiltig tracefil.", e);
+            }
+        }
+    }
+
+    // Resultatet av en körning
+    public record Report(Trace trace, long sessions, double seconds, Map<Kind, LatencyHistogram> latencies,
+                         long expectedTotalCents, long actualTotalCents, long balanceChecksum, int mismatches) {
+
+        public boolean isBalanced() {
+            return expectedTotalCents == actualTotalCents;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(1024);
+            report.append(String.format("%d steg, %d sessioner på %.2f s: %.0f steg/s, %.0f sessioner/s%n",
+                    trace.steps().size(), sessions, seconds, trace.steps().size() / seconds, sessions / seconds));
+            report.append("Svarstider per steg (µs):\n");
+            for (Map.Entry<Kind, LatencyHistogram> entry : latencies.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                report.append(String.format("%-11s antal=%-9d p50=%-7d p99=%-7d p99.9=%-7d max=%d%n", entry.getKey(),
+                        histogram.count(), histogram.percentile(50) / 1000, histogram.percentile(99) / 1000,
+                        histogram.percentile(99.9) / 1000, histogram.max() / 1000));
+            }
+            report.append(isBalanced() ? "Saldona stämmer: " : "SALDONA STÄMMER INTE: ")
+                    .append("väntat ").append(Money.format(expectedTotalCents))
+                    .append(" kr, faktiskt ").append(Money.format(actualTotalCents)).append(" kr\n");
+            if (mismatches >= 0) {
+                report.append("Avvikelser mot inspelningen: ").append(mismatches).append('\n');
+            }
+            return report.toString();
+        }
+    }
+
+    private final Config config;
+
+    public ATMLoadGenerator(Config config) {
+        this.config = config;
+    }
+
+    // Skriptet för konfigurationen: samma frö ger alltid samma steg
+    public Trace generate() {
+        List<Step> steps = new ArrayList<>();
+        SplittableRandom root = new SplittableRandom(config.seed());
+        for (int terminal = 0; terminal < config.terminals(); terminal++) {
+            SplittableRandom random = root.split(); // Egen följd per terminal, oberoende av antalet steg i de andra
+            int ownAccounts = (config.accounts() - terminal + config.terminals() - 1) / config.terminals();
+            for (int session = 0; session < config.sessionsPerTerminal(); session++) {
+                int account = terminal + random.nextInt(ownAccounts) * config.terminals();
+                steps.add(new Step(terminal, Kind.INSERT_CARD, ID_PREFIX + account, false));
+                steps.add(new Step(terminal, Kind.PIN, pinAttempts(random), false));
+                int transactions = 1 + random.nextInt(3);
+                for (int i = 0; i < transactions; i++) {
+                    int choice = random.nextInt(10);
+                    if (choice < 3) {
+                        steps.add(new Step(terminal, Kind.BALANCE, "-", false));
+                    } else if (choice < 6) {
+                        steps.add(new Step(terminal, Kind.DEPOSIT,
+                                Integer.toString(ATM.DEPOSIT_MIN + ATM.DEPOSIT_STEP * random.nextInt(500)), false));
+                    } else {
+                        steps.add(new Step(terminal, Kind.WITHDRAW,
+                                Integer.toString(ATM.WITHDRAW_MIN + ATM.WITHDRAW_STEP * random.nextInt(30)), false));
+                    }
+                }
+                steps.add(new Step(terminal, Kind.END_SESSION, "-", false));
+            }
+        }
+        return new Trace(config, steps);
+    }
+
+    // Oftast rätt PIN direkt, ibland ett eller två fel först, mycket sällan tre fel (kortet låses)
+    private static String pinAttempts(SplittableRandom random) {
+        int roll = random.nextInt(1000);
+        if (roll < 2) {
+            return WRONG_PIN + "," + WRONG_PIN + "," + WRONG_PIN;
+        } else if (roll < 12) {
+            return WRONG_PIN + "," + WRONG_PIN + "," + PIN;
+        } else if (roll < 60) {
+            return WRONG_PIN + "," + PIN;
+        }
+        return PIN;
+    }
+
+    // Banken som skriptet körs mot: konfigurationens konton med saldon ur fröet
+    public Bank createBank() {
+        Bank bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.setAttemptTracker(PinAttemptTracker.unlimited()); // Samma kort loggar in många gånger per minut
+        PinHash pin = PinHash.create(PIN); // Hashas en gång och delas av alla konton
+        SplittableRandom random = new SplittableRandom(~config.seed());
+        List<User> users = new ArrayList<>(config.accounts());
+        for (int i = 0; i < config.accounts(); i++) {
+            users.add(User.withPinHash(ID_PREFIX + i, pin, Money.ofWholeKronor(1_000 + random.nextInt(100_000))));
+        }
+        bank.addUsers(users);
+        return bank;
+    }
+
+    // Kör skriptet mot en ny bank och spelar in utfallen
+    public Report run(Trace script) {
+        return execute(script, false);
+    }
+
+    // Spelar upp en inspelad körning mot en ny bank och räknar steg vars utfall skiljer sig
+    public static Report replay(Trace recorded) {
+        return new ATMLoadGenerator(recorded.config()).execute(recorded, true);
+    }
+
+    private Report execute(Trace trace, boolean compare) {
+        try (Bank bank = createBank()) {
+            return execute(bank, trace, compare);
+        }
+    }
+
+    private Report execute(Bank bank, Trace trace, boolean compare) {
+        long initialTotal = totalCents(bank);
+
+        List<List<Integer>> perTerminal = new ArrayList<>();
+        for (int terminal = 0; terminal < config.terminals(); terminal++) {
+            perTerminal.add(new ArrayList<>());
+        }
+        for (int i = 0; i < trace.steps().size(); i++) {
+            perTerminal.get(trace.steps().get(i).terminal()).add(i);
+        }
+
+        Map<Kind, LatencyHistogram> latencies = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            latencies.put(kind, new LatencyHistogram());
+        }
+        boolean[] outcomes = new boolean[trace.steps().size()];
+        AtomicLong netCents = new AtomicLong(); // Lyckade insättningar minus lyckade uttag
+        Thread[] threads = new Thread[config.terminals()];
+        for (int terminal = 0; terminal < threads.length; terminal++) {
+            List<Integer> indexes = perTerminal.get(terminal);
+            threads[terminal] = new Thread(
+                    () -> runTerminal(bank, trace.steps(), indexes, outcomes, latencies, netCents), "last-" + terminal);
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Lastkörningen avbröts.", e);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Step> recorded = new ArrayList<>(outcomes.length);
+        int mismatches = compare ? 0 : -1;
+        long sessions = 0;
+        for (int i = 0; i < outcomes.length; i++) {
+            Step step = trace.steps().get(i);
+            recorded.add(new Step(step.terminal(), step.kind(), step.input(), outcomes[i]));
+            if (compare && step.success() != outcomes[i]) {
+                mismatches++;
+            }
+            if (step.kind() == Kind.END_SESSION) {
+                sessions++;
+            }
+        }
+        return new Report(new Trace(config, recorded), sessions, seconds, latencies,
+                initialTotal + netCents.get(), totalCents(bank), checksum(bank), mismatches);
+    }
+
+    // En terminal kör sina steg i ordning. Trådens outcomes-platser skrivs bara av den och läses efter join.
+    private static void runTerminal(Bank bank, List<Step> steps, List<Integer> indexes, boolean[] outcomes,
+                                    Map<Kind, LatencyHistogram> latencies, AtomicLong netCents) {
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        // Fulla kassetter som fylls på, så att skriptets uttag bara begränsas av kontona
+        int[] full = {CashCassettes.MAX_NOTES, CashCassettes.MAX_NOTES, CashCassettes.MAX_NOTES};
+        atm.setCassettes(new CashCassettes(new int[] {500, 200, 100}, full));
+        long net = 0;
+        for (int index : indexes) {
+            Step step = steps.get(index);
+            long start = System.nanoTime();
+            boolean success = switch (step.kind()) {
+                case INSERT_CARD -> atm.insertCard(step.input());
+                case PIN -> atm.currentUser != null
+                        && atm.handlePinEntry(new Scanner(step.input().replace(',', '\n') + "\n"));
+                case BALANCE -> {
+                    atm.handleCheckBalance();
+                    yield atm.currentUser != null;
+                }
+                case DEPOSIT -> atm.handleDeposit(new Scanner(step.input() + "\n"));
+                case WITHDRAW -> atm.handleWithdraw(new Scanner(step.input() + "\n"));
+                case END_SESSION -> {
+                    atm.handleEndSession();
+                    yield true;
+                }
+            };
+            latencies.get(step.kind()).record(System.nanoTime() - start);
+            outcomes[index] = success;
+            if (success && step.kind() == Kind.DEPOSIT) {
+                net += Money.ofWholeKronor(Long.parseLong(step.input()));
+            } else if (success && step.kind() == Kind.WITHDRAW) {
+                net -= Money.ofWholeKronor(Long.parseLong(step.input()));
+                refillIfLow(atm.getCassettes());
+            }
+        }
+        netCents.addAndGet(net);
+    }
+
+    private static void refillIfLow(CashCassettes cassettes) {
+        int[] refill = new int[cassettes.getDenominations().length];
+        boolean low = false;
+        for (int i = 0; i < refill.length; i++) {
+            refill[i] = CashCassettes.MAX_NOTES - cassettes.getCount(i);
+            low |= cassettes.getCount(i) < CashCassettes.MAX_NOTES_PER_DISPENSE;
+        }
+        if (low) {
+            cassettes.refill(refill);
+        }
+    }
+
+    private long totalCents(Bank bank) {
+        long total = 0;
+        for (int i = 0; i < config.accounts(); i++) {
+            total += bank.getUserById(ID_PREFIX + i).getBalanceCents();
+        }
+        return total;
+    }
+
+    // Fingeravtryck av alla saldon, så att två körningar kan jämföras konto för konto
+    private long checksum(Bank bank) {
+        long checksum = 0;
+        for (int i = 0; i < config.accounts(); i++) {
+            checksum = checksum * 31 + bank.getUserById(ID_PREFIX + i).getBalanceCents();
+        }
+        return checksum;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Report report;
+        Path traceFile;
+        if (args.length > 1 && args[0].equals("replay")) {
+            report = replay(Trace.read(Path.of(args[1])));
+            traceFile = null; // Inspelningen skrivs inte över
+        } else {
+            long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+            int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int terminals = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            int sessions = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+            traceFile = args.length > 4 ? Path.of(args[4]) : null;
+            ATMLoadGenerator generator = new ATMLoadGenerator(new Config(seed, accounts, terminals, sessions));
+            report = generator.run(generator.generate());
+        }
+        System.out.print(report);
+        if (traceFile != null) {
+            report.trace().write(traceFile);
+            System.out.println("Tracen sparades i " + traceFile + ".");
+        }
+    }
+}
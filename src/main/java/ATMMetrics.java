@@ -0,0 +1,37 @@
+// Bankomaternas mätpunkter, i bankens register så att alla terminaler mot samma bank räknas ihop.
+// ATM väntar på användaren (Scanner) inne i stegen, så där räknas bara utfallen; ATMSession får en rad
+// i taget och tidsmäter varje steg per tillstånd, vilket mäter terminalens egen svarstid.
+final class ATMMetrics {
+    final MetricsRegistry.Operation insertCard;
+    final MetricsRegistry.Operation pinEntry;
+    final MetricsRegistry.Operation checkBalance;
+    final MetricsRegistry.Operation deposit;
+    final MetricsRegistry.Operation withdraw;
+    final MetricsRegistry.Operation endSession;
+    final MetricsRegistry.Operation deleteAccount;
+    private final MetricsRegistry.Operation[] sessionSteps = new MetricsRegistry.Operation[ATMSession.State.values().length];
+
+    ATMMetrics(MetricsRegistry registry) {
+        insertCard = registry.countedOperation("atm.insertCard");
+        pinEntry = registry.countedOperation("atm.pinEntry");
+        checkBalance = registry.countedOperation("atm.checkBalance");
+        deposit = registry.countedOperation("atm.deposit");
+        withdraw = registry.countedOperation("atm.withdraw");
+        endSession = registry.countedOperation("atm.endSession");
+        deleteAccount = registry.countedOperation("atm.deleteAccount");
+        for (ATMSession.State state : ATMSession.State.values()) {
+            sessionSteps[state.ordinal()] = registry.operation("atm.session." + state.name());
+        }
+    }
+
+    // Mätpunkterna i bankens register, eller i ett eget om banken saknar register (t.ex. i tester)
+    static ATMMetrics of(Bank bank) {
+        MetricsRegistry registry = bank == null ? null : bank.getMetrics();
+        return new ATMMetrics(registry != null ? registry : new MetricsRegistry());
+    }
+
+    // Steget som hanterar inmatning i det angivna tillståndet
+    MetricsRegistry.Operation sessionStep(ATMSession.State state) {
+        return sessionSteps[state.ordinal()];
+    }
+}
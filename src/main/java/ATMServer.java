@@ -0,0 +1,218 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bankomatserver för många terminaler samtidigt mot en gemensam bank. Varje TCP-anslutning är en
+// terminal som talar ett enkelt radprotokoll: servern skickar samma texter som konsolversionen, en
+// per rad, och varje svar slutar med en uppmaning (en rad som slutar med ": "). Klienten skickar en
+// rad per inmatning. Varje anslutning körs i en egen virtuell tråd när Java 21+ finns, annars i en
+// vanlig tråd med liten stack. Svarstiden per menyåtgärd mäts och kan rapporteras med p99.
+public class ATMServer implements AutoCloseable {
+
+    // Åtgärder som svarstider mäts för
+    public enum Action {
+        CARD, PIN, MENU, BALANCE, DEPOSIT, WITHDRAW, LOGOUT
+    }
+
+    private final Bank bank;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final Map<Action, LatencyHistogram> latencies = new EnumMap<>(Action.class);
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final Thread acceptor;
+
+    // Lyssnar på den lokala adressen (loopback). Port 0 väljer en ledig port.
+    public ATMServer(Bank bank, int port) throws IOException {
+        this.bank = bank;
+        for (Action action : Action.values()) { // I bankens register, så att de även syns via JMX
+            latencies.put(action, bank.getMetrics().latency("atm.server." + action.name()));
+        }
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        this.acceptor = new Thread(this::acceptLoop, "atm-server-acceptor");
+    }
+
+    // Skapar en virtuell tråd per session om JVM:en har stöd för det (Java 21+), annars vanliga trådar
+    static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(null, runnable, "atm-session-" + counter.incrementAndGet(), 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public LatencyHistogram getLatency(Action action) {
+        return latencies.get(action);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true); // Korta svar ska inte vänta på Nagle
+                sessions.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return; // Servern stängs
+                }
+            }
+        }
+    }
+
+    // Kör en terminal tills klienten avslutar eller kopplar ner
+    private void serve(Socket socket) {
+        activeConnections.incrementAndGet();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            ATMSession session = new ATMSession(bank, lineOutput(out), "tcp-" + socket.getRemoteSocketAddress());
+            session.start();
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                Action action = classify(session.getState(), line);
+                long start = System.nanoTime();
+                boolean open = session.onInput(line);
+                out.flush(); // Ett nätverksanrop per svar, oavsett hur många rader svaret har
+                latencies.get(action).record(System.nanoTime() - start);
+                if (!open) {
+                    break;
+                }
+            }
+            session.onEndOfInput();
+        } catch (IOException | UncheckedIOException e) {
+            // Klienten kopplade ner mitt i en session, inget mer att göra
+        } finally {
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    // Varje uppmaning och meddelande blir en rad i protokollet
+    private static SessionOutput lineOutput(Writer out) {
+        return new SessionOutput() {
+            @Override
+            public void prompt(String text) {
+                writeLine(text);
+            }
+
+            @Override
+            public void message(String text) {
+                writeLine(text);
+            }
+
+            private void writeLine(String text) {
+                try {
+                    out.write(text);
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    // Vilken åtgärd en inmatning motsvarar, utifrån sessionens tillstånd innan den hanteras
+    static Action classify(ATMSession.State state, String line) {
+        return switch (state) {
+            case AWAITING_CARD, CLOSED -> Action.CARD;
+            case AWAITING_PIN -> Action.PIN;
+            case AWAITING_DEPOSIT_AMOUNT -> Action.DEPOSIT;
+            case AWAITING_WITHDRAW_AMOUNT -> Action.WITHDRAW;
+            case MENU -> switch (line.trim()) {
+                case "1" -> Action.BALANCE;
+                case "4" -> Action.LOGOUT;
+                default -> Action.MENU;
+            };
+        };
+    }
+
+    // Rapport med antal, p50, p99 och max i mikrosekunder per åtgärd
+    public String latencyReport() {
+        StringBuilder report = new StringBuilder(512).append("Svarstider per åtgärd (µs):\n");
+        for (Action action : Action.values()) {
+            LatencyHistogram histogram = latencies.get(action);
+            long count = histogram.count();
+            if (count == 0) {
+                continue;
+            }
+            report.append(String.format("%-9s antal=%-10d p50=%-8d p99=%-8d max=%d%n", action, count,
+                    histogram.percentile(50) / 1000, histogram.percentile(99) / 1000, histogram.max() / 1000));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        sessions.shutdownNow();
+        try {
+            sessions.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Startar servern: java ATMServer [port] [antal testkonton]
+    // Testkonton får ID 10000000, 10000001, ... och PIN 1234, för lasttester.
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        Bank bank = new Bank();
+        // Lastklienten loggar in på samma kort om och om igen, så takten per kort får inte begränsas här
+        bank.setAttemptTracker(PinAttemptTracker.unlimited());
+        PinHash testPin = PinHash.create("1234"); // Hashas en gång och delas av alla testkonton
+        List<User> testAccounts = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            testAccounts.add(User.withPinHash(Integer.toString(10_000_000 + i), testPin, Money.ofWholeKronor(1_000_000)));
+        }
+        bank.addUsers(testAccounts);
+
+        bank.getMetrics().registerMBean("bank");
+        ATMServer server = new ATMServer(bank, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.print(server.latencyReport());
+            bank.close();
+        }));
+        server.start();
+        System.out.println("Bankomatservern lyssnar på port " + server.getPort() + " med " + (accounts + 1) + " konton.");
+    }
+}
@@ -0,0 +1,282 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bankomatsession som en tillståndsmaskin. I stället för att blockera på en Scanner tar sessionen
+// emot en inmatningsrad i taget (onInput) och skickar svaren till en SessionOutput. Ingen tråd
+// behöver vänta på användaren, så en process kan hantera väldigt många terminaler på få trådar.
+// En session får bara matas från en tråd åt gången; olika sessioner kan köras parallellt.
+public class ATMSession {
+
+    // Sessionens tillstånd
+    public enum State {
+        AWAITING_CARD,            // Väntar på användar-ID (kort)
+        AWAITING_PIN,             // Kort isatt, väntar på PIN
+        MENU,                     // Inloggad, väntar på menyval
+        AWAITING_DEPOSIT_AMOUNT,  // Väntar på belopp att sätta in
+        AWAITING_WITHDRAW_AMOUNT, // Väntar på belopp att ta ut
+        CLOSED                    // Användaren har avslutat programmet
+    }
+
+    private static final AtomicInteger TERMINAL_IDS = new AtomicInteger();
+
+    private final Bank bank;
+    private final SessionOutput output;
+    private final String terminalId; // Identifierar terminalen i PIN-spärren
+    private final ATMMetrics metrics; // Svarstid per steg, i bankens register
+    private State state = State.AWAITING_CARD;
+    private User currentUser;
+
+    public ATMSession(Bank bank, SessionOutput output) {
+        this(bank, output, "session-" + TERMINAL_IDS.incrementAndGet());
+    }
+
+    public ATMSession(Bank bank, SessionOutput output, String terminalId) {
+        this.bank = bank;
+        this.output = output;
+        this.terminalId = terminalId;
+        this.metrics = ATMMetrics.of(bank);
+    }
+
+    // Visar välkomstmeddelandet och ber om första kortet
+    public void start() {
+        output.message("Välkommen till Bankomaten! Denna bankomat är kopplad till: " + Bank.getBankName());
+        promptForCard();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // Den inloggade användaren, eller null
+    public User getCurrentUser() {
+        return currentUser;
+    }
+
+    // Hanterar en rad inmatning beroende på tillstånd. Returnerar false när sessionen är avslutad.
+    public boolean onInput(String line) {
+        String input = line == null ? "" : line.trim();
+        MetricsRegistry.Operation step = metrics.sessionStep(state);
+        long start = step.start();
+        switch (state) {
+            case AWAITING_CARD -> onCard(input);
+            case AWAITING_PIN -> onPin(input);
+            case MENU -> onMenuChoice(input);
+            case AWAITING_DEPOSIT_AMOUNT -> onAmount(input, true);
+            case AWAITING_WITHDRAW_AMOUNT -> onAmount(input, false);
+            case CLOSED -> {
+                return false;
+            }
+        }
+        step.finish(start, null);
+        return state != State.CLOSED;
+    }
+
+    // Anslutningen bröts eller inmatningen tog slut
+    public void onEndOfInput() {
+        currentUser = null;
+        state = State.CLOSED;
+    }
+
+    private void promptForCard() {
+        state = State.AWAITING_CARD;
+        output.prompt("Ange användar-ID för att sätta in kortet. För att avsluta programmet skriv '0': ");
+    }
+
+    private void onCard(String userId) {
+        if (userId.equals("0")) {
+            output.message("Programmet avslutas. Tack för att du använde tjänsten!");
+            state = State.CLOSED;
+            return;
+        }
+        if (userId.isEmpty()) {
+            output.message("Ogiltigt ID. Vänligen försök igen.\n");
+            promptForCard();
+            return;
+        }
+
+        output.message("Försöker sätta in kort för ID: " + userId);
+        if (bank.isCardLocked(userId)) {
+            output.message("Kortet är låst. Kontakta banken för att låsa upp kortet.");
+        } else {
+            currentUser = bank.getUserById(userId);
+            if (currentUser != null) {
+                output.message("Kortet har satts in framgångsrikt.");
+                state = State.AWAITING_PIN;
+                output.prompt("Ange PIN: ");
+                return;
+            }
+            output.message("Användare med ID " + userId + " hittades inte.");
+        }
+        output.message("Kortet kunde inte sättas in. Försök igen.\n");
+        promptForCard();
+    }
+
+    private void onPin(String pin) {
+        if (pin.equals("0")) {
+            output.message("Avslutar PIN-inmatning.");
+            loginFailed();
+            return;
+        }
+        PinAttemptTracker tracker = bank.getAttemptTracker();
+        if (tracker != null && tracker.tryAttempt(currentUser.getId(), terminalId) != PinAttemptTracker.Verdict.ALLOWED) {
+            output.message("För många PIN-försök. Försök igen senare.");
+            loginFailed();
+            return;
+        }
+        // Försöket tas innan PIN-koden kontrolleras, så terminaler som väntar på samma kort tillsammans
+        // får högst tre försök (se User.reservePinAttempt)
+        int attempt = currentUser.reservePinAttempt();
+        if (attempt == 0) { // De återstående försöken kontrolleras just nu på andra terminaler; vänta inte
+            output.message("Kortet används på en annan terminal. Försök igen.");
+            output.prompt("Ange PIN: ");
+            return;
+        }
+        boolean correct = attempt > 0 && checkPin(pin);
+        int failures = attempt > 0 ? currentUser.finishPinAttempt(correct) : 0;
+        if (attempt < 0 || (failures < ATM.MAX_PIN_ATTEMPTS && currentUser.isLocked())) { // Låst, kanske av en annan terminal under kontrollen
+            output.message("Kortet är låst. Kontakta din bank för att låsa upp kortet.");
+            loginFailed();
+            return;
+        }
+        if (correct) {
+            output.message("PIN korrekt, inloggning lyckades.");
+            showMenu();
+            return;
+        }
+
+        if (tracker != null) {
+            tracker.recordFailure(terminalId);
+        }
+        // Försöken räknas på kontot, så fel från andra terminaler minskar också antalet kvar
+        int attemptsLeft = ATM.MAX_PIN_ATTEMPTS - failures;
+        if (attemptsLeft > 0) {
+            output.message("Fel PIN. Du har " + attemptsLeft + " försök kvar.");
+            output.prompt("Ange PIN: ");
+        } else {
+            currentUser.lockCard();
+            output.message("Antal misslyckade försök: 3");
+            output.message("Fel PIN, inloggningen misslyckades. Kortet är nu låst efter tre misslyckade försök.");
+            output.message("Kontakta din bank för att låsa upp kortet.");
+            loginFailed();
+        }
+    }
+
+    // Kontrollerar PIN-koden för det reserverade försöket; kastar kontrollen lämnas försöket tillbaka
+    private boolean checkPin(String pin) {
+        boolean checked = false;
+        try {
+            boolean correct = bank.verifyPin(currentUser.getId(), pin);
+            checked = true;
+            return correct;
+        } finally {
+            if (!checked) {
+                currentUser.releasePinAttempt();
+            }
+        }
+    }
+
+    private void loginFailed() {
+        currentUser = null;
+        output.message("Inloggningen misslyckades. Försök igen.\n");
+        promptForCard();
+    }
+
+    private void showMenu() {
+        state = State.MENU;
+        output.message("\nVälj ett alternativ:");
+        output.message("0. Avsluta programmet");
+        output.message("1. Kontrollera saldo");
+        output.message("2. Insättning");
+        output.message("3. Uttag");
+        output.message("4. Logga ut och avsluta session");
+        output.prompt("Ange ditt val: ");
+    }
+
+    private void onMenuChoice(String input) {
+        int choice;
+        try {
+            choice = Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            output.message("Ogiltig inmatning. Ange ett nummer mellan 0 och 4.");
+            showMenu();
+            return;
+        }
+
+        switch (choice) {
+            case 0 -> {
+                currentUser = null;
+                output.message("Programmet avslutas. Tack för att du använde tjänsten!");
+                state = State.CLOSED;
+            }
+            case 1 -> {
+                output.message(Money.appendTo(new StringBuilder(32).append("Ditt saldo är: "),
+                        currentUser.getBalanceCents()).append(" kr").toString());
+                showMenu();
+            }
+            case 2 -> {
+                state = State.AWAITING_DEPOSIT_AMOUNT;
+                output.prompt("Ange belopp att sätta in: ");
+            }
+            case 3 -> {
+                state = State.AWAITING_WITHDRAW_AMOUNT;
+                output.prompt("Ange belopp att ta ut: ");
+            }
+            case 4 -> {
+                currentUser = null;
+                output.message("Sessionen har avslutats.");
+                output.message("Session avslutad. Du återgår nu till huvudmenyn.");
+                promptForCard();
+            }
+            default -> {
+                output.message("Ogiltigt val. Försök igen.");
+                showMenu();
+            }
+        }
+    }
+
+    // Beloppet kan följas av en idempotensnyckel i hex, t.ex. "500 #9f3a71c2e04b": en terminal som inte
+    // fick något svar skickar samma rad igen och får då samma utfall, utan att beloppet dras två gånger
+    private void onAmount(String input, boolean deposit) {
+        String prompt = deposit ? "Ange belopp att sätta in: " : "Ange belopp att ta ut: ";
+        long amountCents;
+        long requestKey = IdempotencyCache.NO_KEY;
+        try {
+            int keyStart = input.indexOf('#');
+            if (keyStart >= 0) {
+                requestKey = Long.parseUnsignedLong(input.substring(keyStart + 1), 16);
+                if (requestKey == IdempotencyCache.NO_KEY) {
+                    throw new IllegalArgumentException("Nyckeln får inte vara 0.");
+                }
+                input = input.substring(0, keyStart).trim();
+            }
+            amountCents = Money.ofKronor(Double.parseDouble(input.replace(',', '.')));
+        } catch (IllegalArgumentException e) { // Även NumberFormatException
+            output.message("Ogiltig inmatning. Ange ett numeriskt belopp.");
+            output.prompt(prompt);
+            return;
+        }
+
+        String error = deposit
+                ? ATM.amountError(amountCents, ATM.DEPOSIT_MIN, ATM.DEPOSIT_STEP)
+                : ATM.amountError(amountCents, ATM.WITHDRAW_MIN, ATM.WITHDRAW_STEP);
+        if (error != null) {
+            output.message(error);
+            output.prompt(prompt); // Samma tillstånd, ny chans att ange belopp
+            return;
+        }
+
+        try {
+            if (deposit) {
+                bank.depositCents(currentUser.getId(), amountCents, requestKey);
+            } else {
+                bank.withdrawCents(currentUser.getId(), amountCents, requestKey);
+            }
+            StringBuilder result = new StringBuilder(64).append(deposit ? "Insättning av " : "Uttag av ");
+            Money.appendTo(result, amountCents).append(" kr lyckades. Ny balans: ");
+            Money.appendTo(result, currentUser.getBalanceCents()).append(" kr.");
+            output.message(result.toString());
+        } catch (IllegalArgumentException e) {
+            output.message(e.getMessage());
+        }
+        showMenu();
+    }
+}
@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+// Massinläsning och export av konton som CSV, för att flytta in miljontals konton på en gång.
+// Format: en rubrikrad "id,pin,saldo" och sedan en rad per konto, t.ex. "12345,1234,1000.50".
+// PIN är antingen PIN-koden i klartext eller en lagrad hash (PinHash.encode); exporten skriver alltid
+// hashen. Saldot anges i kronor med högst två decimaler och punkt som decimaltecken. Fälten citeras
+// inte, så ID och PIN får inte innehålla kommatecken eller radbrytningar.
+//
+// Filen läses i bitar om 4 MB genom en FileChannel. Varje bit (hela rader) tolkas och läggs in av en
+// egen tråd med Bank.addUsers, så att låsen tas och loggen skrivs en gång per bit och inte per konto.
+public final class AccountCsv {
+    public static final String HEADER = "id,pin,saldo";
+    private static final int CHUNK_BYTES = 4 << 20;
+    private static final int WRITE_BUFFER_CHARS = 1 << 20;
+    private static final long MAX_KRONOR = (Long.MAX_VALUE - 99) / Money.ORE_PER_KRONA; // Plus öresdelen ryms i en long
+
+    private AccountCsv() {
+        // Endast statiska hjälpmetoder
+    }
+
+    // Resultatet för en bit av filen
+    private static final class ChunkResult {
+        long rows;
+        long valid;
+        long imported;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        void reject(long line, String message) {
+            rejected++;
+            if (errors.size() < ImportReport.MAX_ERRORS) {
+                errors.add("Rad " + line + ": " + message);
+            }
+        }
+    }
+
+    // Läser in alla konton i filen till banken. Ogiltiga rader hoppas över och räknas i rapporten,
+    // liksom ID:n som redan finns. Klartext-PIN hashas vid inläsningen, vilket är långsamt med
+    // produktionens antal iterationer; filer från export har redan hashade PIN-koder.
+    public static ImportReport importInto(Bank bank, Path file) throws IOException {
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "account-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(threads * 2); // Begränsar hur mycket av filen som ligger i minnet
+        List<Future<ChunkResult>> futures = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            long line = 1;
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) < 0;
+                buffer.flip();
+                int end = endOfFile ? buffer.limit() : lastNewline(buffer) + 1;
+                if (end == 0 && !endOfFile) {
+                    if (buffer.limit() == buffer.capacity()) {
+                        throw new IOException("Rad " + line + " är för lång.");
+                    }
+                    buffer.position(buffer.limit()).limit(buffer.capacity()); // Läs mer till samma rad
+                    continue;
+                }
+                byte[] chunk = Arrays.copyOf(buffer.array(), end);
+                buffer.position(end);
+                buffer.compact();
+                if (chunk.length == 0) {
+                    continue;
+                }
+
+                long firstLine = line;
+                line += countLines(chunk);
+                inFlight.acquireUninterruptibly();
+                futures.add(workers.submit(() -> {
+                    try {
+                        return importChunk(bank, chunk, firstLine);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            return report(futures, start);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static ImportReport report(List<Future<ChunkResult>> futures, long start) throws IOException {
+        long rows = 0;
+        long valid = 0;
+        long imported = 0;
+        long rejected = 0;
+        List<String> errors = new ArrayList<>();
+        for (Future<ChunkResult> future : futures) {
+            ChunkResult result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Inläsningen avbröts.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Inläsningen misslyckades.", e.getCause());
+            }
+            rows += result.rows;
+            valid += result.valid;
+            imported += result.imported;
+            rejected += result.rejected;
+            errors.addAll(result.errors.subList(0, Math.min(result.errors.size(), ImportReport.MAX_ERRORS - errors.size())));
+        }
+        return new ImportReport(rows, imported, valid - imported, rejected, errors,
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private static int lastNewline(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long countLines(byte[] chunk) {
+        long lines = 0;
+        for (byte b : chunk) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // Tolkar alla rader i en bit och lägger in de giltiga kontona
+    private static ChunkResult importChunk(Bank bank, byte[] chunk, long firstLine) {
+        ChunkResult result = new ChunkResult();
+        List<User> users = new ArrayList<>(chunk.length / 32);
+        long line = firstLine;
+        for (int start = 0; start < chunk.length; line++) {
+            int next = indexOf(chunk, (byte) '\n', start, chunk.length);
+            int end = next < 0 ? chunk.length : next;
+            if (end > start && chunk[end - 1] == '\r') {
+                end--;
+            }
+            if (end > start && !(line == 1 && isHeader(chunk, start, end))) {
+                result.rows++;
+                try {
+                    users.add(parseUser(chunk, start, end));
+                } catch (IllegalArgumentException e) {
+                    result.reject(line, e.getMessage());
+                }
+            }
+            start = next < 0 ? chunk.length : next + 1;
+        }
+        result.valid = users.size();
+        result.imported = bank.addUsers(users);
+        return result;
+    }
+
+    private static boolean isHeader(byte[] chunk, int start, int end) {
+        return new String(chunk, start, end - start, StandardCharsets.UTF_8).equals(HEADER);
+    }
+
+    // Tolkar en rad med samma regler som User: ID och PIN får inte vara tomma och saldot inte negativt
+    private static User parseUser(byte[] chunk, int start, int end) {
+        int firstComma = indexOf(chunk, (byte) ',', start, end);
+        int secondComma = firstComma < 0 ? -1 : indexOf(chunk, (byte) ',', firstComma + 1, end);
+        if (secondComma < 0 || indexOf(chunk, (byte) ',', secondComma + 1, end) >= 0) {
+            throw new IllegalArgumentException("Raden ska ha tre fält: id,pin,saldo.");
+        }
+        String id = new String(chunk, start, firstComma - start, StandardCharsets.UTF_8);
+        String pin = new String(chunk, firstComma + 1, secondComma - firstComma - 1, StandardCharsets.UTF_8);
+        long balanceCents = parseCents(chunk, secondComma + 1, end);
+        return User.withPinHash(id, pin.isEmpty() ? null : PinHash.fromStored(pin), balanceCents);
+    }
+
+    // Tolkar "123", "123.5" eller "123.45" (kronor) till öre utan att gå via double
+    static long parseCents(byte[] text, int start, int end) {
+        boolean negative = start < end && text[start] == '-';
+        int i = negative ? start + 1 : start;
+        long kronor = 0;
+        int digits = 0;
+        for (; i < end && text[i] != '.'; i++, digits++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9 || kronor > (MAX_KRONOR - digit) / 10) {
+                throw new IllegalArgumentException("Ogiltigt belopp.");
+            }
+            kronor = kronor * 10 + digit;
+        }
+        long ore = 0;
+        if (i < end) {
+            int decimals = end - i - 1;
+            if (decimals < 1 || decimals > 2) {
+                throw new IllegalArgumentException("Ogiltigt belopp.");
+            }
+            for (int j = i + 1; j < end; j++) {
+                int digit = text[j] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("Ogiltigt belopp.");
+                }
+                ore = ore * 10 + digit;
+            }
+            if (decimals == 1) {
+                ore *= 10;
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Ogiltigt belopp.");
+        }
+        long cents = kronor * Money.ORE_PER_KRONA + ore;
+        return negative ? -cents : cents;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Skriver kontona till filen och returnerar hur många de var. Skrivs först till en temporär fil som
+    // sedan byter plats med den gamla, så att en avbruten export inte lämnar en halv fil efter sig.
+    public static long export(Path file, Iterable<User> users) throws IOException {
+        return export(file, users, User::getBalanceCents);
+    }
+
+    // Som ovan, med saldot för varje konto från balance (t.ex. en BalanceSnapshot)
+    public static long export(Path file, Iterable<User> users, ToLongFunction<User> balance) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder text = new StringBuilder(WRITE_BUFFER_CHARS + 256).append(HEADER).append('\n');
+            for (User user : users) {
+                String id = user.getId();
+                if (id.indexOf(',') >= 0 || id.indexOf('\n') >= 0 || id.indexOf('\r') >= 0) {
+                    throw new IllegalArgumentException("Konto-ID:t " + id + " kan inte skrivas till CSV.");
+                }
+                text.append(id).append(',').append(user.getPinHash().encode()).append(',');
+                Money.appendTo(text, balance.applyAsLong(user)).append('\n');
+                count++;
+                if (text.length() >= WRITE_BUFFER_CHARS) {
+                    write(channel, text);
+                }
+            }
+            write(channel, text);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void write(FileChannel channel, StringBuilder text) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        text.setLength(0);
+    }
+}
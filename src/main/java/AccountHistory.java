@@ -0,0 +1,79 @@
+import java.util.List;
+
+// Ett kontos transaktionshistorik i en enda long[] som kontot håller direkt: fyra räknare och sedan
+// en ringbuffert med de senaste CAPACITY posterna, tre long per post (tid och typ, belopp, saldo efter).
+// Ett minikontoutdrag läses alltså ur en array utan att röra disken och utan att allokera något utöver
+// resultatet, och en transaktion når bara en array till utöver kontot (ingen egen objektkedja).
+// Innan en post skrivs över i ringen har den lämnats till HistoryStore, SPILL_BATCH poster åt gången,
+// så ringen innehåller alltid de senaste CAPACITY posterna och filen allt som är äldre.
+// Skapas vid kontots första transaktion och används bara under kontots lås i banken.
+final class AccountHistory {
+    static final int CAPACITY = 16; // Tvåpotens
+    static final int SPILL_BATCH = CAPACITY / 2;
+    static final int LONGS_PER_ENTRY = 3;
+    private static final int TYPE_BITS = 2;
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    // Räknarna först i arrayen
+    private static final int SIZE = 0;    // Antal poster totalt
+    private static final int SPILLED = 1; // Posterna med löpnummer under detta har lämnats till filen
+    static final int LAST_BATCH = 2;      // Kontots senaste grupp i HistoryStore
+    static final int DISK_ENTRIES = 3;    // Antal poster i kontots kedja i HistoryStore
+    private static final int RING = 4;
+
+    private AccountHistory() {
+        // Endast statiska hjälpmetoder
+    }
+
+    static long[] create() {
+        long[] history = new long[RING + CAPACITY * LONGS_PER_ENTRY];
+        history[LAST_BATCH] = HistoryStore.NO_BATCH;
+        return history;
+    }
+
+    // Lägger till en post; stripe är kontots låsgrupp, vars lås anroparen håller
+    static void add(long[] history, HistoryStore store, int stripe, Transaction.Type type, long amountCents,
+                    long balanceAfterCents, long timeMillis) {
+        long size = history[SIZE];
+        if (size - history[SPILLED] == CAPACITY) { // Platsen som ska skrivas över finns inte i filen än
+            store.append(stripe, history, history[SPILLED], SPILL_BATCH);
+            history[SPILLED] += SPILL_BATCH;
+        }
+        int offset = offset(size);
+        history[offset] = timeMillis << TYPE_BITS | type.ordinal();
+        history[offset + 1] = amountCents;
+        history[offset + 2] = balanceAfterCents;
+        history[SIZE] = size + 1;
+    }
+
+    static long size(long[] history) {
+        return history[SIZE];
+    }
+
+    // Arrayindex för posten med löpnumret sequence
+    static int offset(long sequence) {
+        return RING + ((int) sequence & (CAPACITY - 1)) * LONGS_PER_ENTRY;
+    }
+
+    // Lägger de senaste posterna ur ringen i result, nyast först, tills result har limit poster.
+    // Returnerar var i HistoryStore läsningen ska fortsätta om fler poster behövs, annars null.
+    static HistoryStore.Position readRecent(long[] history, int limit, List<Transaction> result) {
+        long size = history[SIZE];
+        long oldestInRing = Math.max(0, size - CAPACITY);
+        long sequence = size - 1;
+        for (; sequence >= oldestInRing && result.size() < limit; sequence--) {
+            int offset = offset(sequence);
+            result.add(decode(history[offset], history[offset + 1], history[offset + 2]));
+        }
+        long skip = history[SPILLED] - 1 - sequence; // Nyare poster i filen som redan lästs ur ringen
+        if (result.size() == limit || sequence < 0 || skip >= history[DISK_ENTRIES]) {
+            return null;
+        }
+        return new HistoryStore.Position(history[LAST_BATCH], skip);
+    }
+
+    static Transaction decode(long timeAndType, long amountCents, long balanceAfterCents) {
+        return new Transaction(TYPES[(int) timeAndType & ((1 << TYPE_BITS) - 1)], amountCents, balanceAfterCents,
+                timeAndType >>> TYPE_BITS);
+    }
+}
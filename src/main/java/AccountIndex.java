@@ -0,0 +1,311 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Sekundära index över bankens konton, så att frågor inte behöver gå igenom hela kontotabellen:
+// - en mängd med ID:n för låsta kort, uppdaterad direkt när ett kort låses;
+// - ett sorterat saldoindex över (saldo, konto) för intervallfrågor i O(log n + antal träffar).
+//   Indexet är ett binärt sökträd (en treap: slumpade prioriteter håller det balanserat) där varje
+//   nod också vet hur många poster dess delträd har. Antal konton i ett intervall är då skillnaden
+//   mellan två rangfrågor, exakt och i O(log n) hur många konton intervallet än täcker.
+//
+// Ett sorterat index kostar flera cachemissar per uppdatering, mycket mer än själva transaktionen.
+// Därför uppdateras saldoindexet inte i transaktionen: ett ändrat konto köas bara (en gång, hur många
+// gånger saldot än ändras innan nästa fråga), och varje fråga arbetar först ikapp kön under indexets
+// eget lås. Frågan ser alltså alla ändringar som gjorts innan den startade, och transaktionerna tar
+// aldrig indexets lås.
+public class AccountIndex {
+
+    private static final AtomicIntegerFieldUpdater<Entry> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "queued");
+    private static final long NOT_INDEXED = -1;
+
+    // Ett kontos post i saldoindexet, och samtidigt dess nod i trädet. Lyssnar på kontot och köar sig
+    // själv när saldot ändras. Sorteras på indexerat saldo och sedan löpnummer (billigare att jämföra
+    // än ID-strängar).
+    private final class Entry implements AccountListener, Comparable<Entry> {
+        final User user;
+        final long sequence;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        long indexedBalance = NOT_INDEXED; // Saldot posten är sorterad på; ändras bara under drainLock
+        Entry left;                        // Trädet, liksom storleken, ändras bara under drainLock
+        Entry right;
+        int size;                          // Poster i delträdet med den här noden som rot
+        volatile int queued;               // 1 när posten ligger i kön
+        volatile boolean removed;
+
+        Entry(User user, long sequence) {
+            this.user = user;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void balanceChanged(User user, long oldBalanceCents, long newBalanceCents) {
+            enqueue(this);
+        }
+
+        @Override
+        public void cardStateChanged(User user, boolean locked) {
+            if (locked) {
+                lockedIds.add(user.getId());
+                onCardLocked.run();
+            } else {
+                lockedIds.remove(user.getId());
+            }
+            onCardStateChanged.accept(user);
+        }
+
+        @Override
+        public void failedAttemptsChanged(User user, int failedAttempts) {
+            onCardStateChanged.accept(user);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byBalance = Long.compare(indexedBalance, other.indexedBalance);
+            return byBalance != 0 ? byBalance : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Runnable onCardLocked;
+    private final Consumer<User> onCardStateChanged;
+    private final Set<String> lockedIds = ConcurrentHashMap.newKeySet();
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ReentrantLock drainLock = new ReentrantLock(); // Skyddar allt nedan
+    private Entry root; // Saldoindexet
+
+    public AccountIndex() {
+        this(() -> { });
+    }
+
+    // onCardLocked anropas varje gång ett följt kort låses, t.ex. för att räkna låsta kort per minut
+    public AccountIndex(Runnable onCardLocked) {
+        this(onCardLocked, user -> { });
+    }
+
+    // onCardStateChanged anropas dessutom när ett följt korts låsning eller misslyckade försök ändras,
+    // t.ex. för att logga kortstatusen
+    public AccountIndex(Runnable onCardLocked, Consumer<User> onCardStateChanged) {
+        this.onCardLocked = onCardLocked;
+        this.onCardStateChanged = onCardStateChanged;
+    }
+
+    // Börjar följa ett konto. Lyssnaren sätts innan kortstatusen läses, så att ett kort som låses
+    // samtidigt syns antingen här eller i en notifiering.
+    public void add(User user) {
+        Entry entry = new Entry(user, nextSequence.getAndIncrement());
+        user.setListener(entry);
+        enqueue(entry);
+        if (user.isLocked()) {
+            lockedIds.add(user.getId());
+        }
+    }
+
+    // Slutar följa ett konto; posten tas bort ur saldoindexet vid nästa fråga
+    public void remove(User user) {
+        if (user.getListener() instanceof Entry entry) {
+            user.setListener(null);
+            entry.removed = true;
+            enqueue(entry);
+            lockedIds.remove(user.getId());
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        // Läsningen först gör upprepade ändringar på ett redan köat konto till en enda volatile-läsning
+        if (entry.queued == 0 && QUEUED.compareAndSet(entry, 0, 1)) {
+            pending.offer(entry);
+        }
+    }
+
+    // Arbetar ikapp kön. Anropas med drainLock taget.
+    private void drain() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            entry.queued = 0; // Nollställs före läsningen, så att en ändring efter den köar posten igen
+            long balance = entry.removed ? NOT_INDEXED : entry.user.getBalanceCents();
+            if (balance == entry.indexedBalance) {
+                continue;
+            }
+            if (entry.indexedBalance != NOT_INDEXED) {
+                root = delete(root, entry);
+            }
+            entry.indexedBalance = balance;
+            if (balance != NOT_INDEXED) {
+                root = insert(root, entry);
+            }
+        }
+    }
+
+    // ID:n för alla låsta kort (en vy som inte kan ändras utifrån)
+    public Set<String> lockedIds() {
+        return Collections.unmodifiableSet(lockedIds);
+    }
+
+    public int lockedCount() {
+        return lockedIds.size();
+    }
+
+    // Upp till limit konto-ID:n med saldo mellan min och max (inklusive), i stigande saldoordning
+    public List<String> idsWithBalanceBetween(long minCents, long maxCents, int limit) {
+        List<String> ids = new ArrayList<>(Math.min(limit, 1024));
+        if (minCents > maxCents || maxCents < 0 || limit <= 0) {
+            return ids;
+        }
+        drainLock.lock();
+        try {
+            drain();
+            // Vägen ner till första posten >= min; varje nod på stacken väntar på sitt högra delträd
+            Deque<Entry> path = new ArrayDeque<>();
+            pushFrom(root, minCents, path);
+            while (!path.isEmpty() && ids.size() < limit) {
+                Entry entry = path.pop();
+                if (entry.indexedBalance > maxCents) {
+                    break;
+                }
+                ids.add(entry.user.getId());
+                pushFrom(entry.right, minCents, path);
+            }
+        } finally {
+            drainLock.unlock();
+        }
+        return ids;
+    }
+
+    // Antal konton med saldo mellan min och max (inklusive), som skillnaden mellan två rangfrågor
+    public long countWithBalanceBetween(long minCents, long maxCents) {
+        if (minCents > maxCents || maxCents < 0) {
+            return 0;
+        }
+        drainLock.lock();
+        try {
+            drain();
+            long below = minCents > 0 ? countAtMost(minCents - 1) : 0;
+            return countAtMost(maxCents) - below;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    // Antal poster med saldo högst balanceCents: varje gång vägen går till höger räknas noden och
+    // hela dess vänstra delträd
+    private long countAtMost(long balanceCents) {
+        long count = 0;
+        Entry node = root;
+        while (node != null) {
+            if (node.indexedBalance <= balanceCents) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    // Lägger noderna med saldo minst minCents på vägen ner mot minsta sådana nod i delträdet på stacken
+    private static void pushFrom(Entry node, long minCents, Deque<Entry> path) {
+        while (node != null) {
+            if (node.indexedBalance >= minCents) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+    }
+
+    // Sätter in posten i delträdet och returnerar delträdets nya rot. Posten hamnar först som löv och
+    // roteras sedan upp så länge den har högre prioritet än sin förälder.
+    private static Entry insert(Entry node, Entry entry) {
+        if (node == null) {
+            entry.left = null;
+            entry.right = null;
+            entry.size = 1;
+            return entry;
+        }
+        if (entry.compareTo(node) < 0) {
+            node.left = insert(node.left, entry);
+            if (node.left.priority > node.priority) {
+                return rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, entry);
+            if (node.right.priority > node.priority) {
+                return rotateLeft(node);
+            }
+        }
+        node.size++;
+        return node;
+    }
+
+    // Tar bort posten (sorterad på sitt nuvarande indexerade saldo) ur delträdet och returnerar
+    // delträdets nya rot
+    private static Entry delete(Entry node, Entry entry) {
+        if (node == entry) {
+            Entry merged = merge(entry.left, entry.right);
+            entry.left = null;
+            entry.right = null;
+            return merged;
+        }
+        if (entry.compareTo(node) < 0) {
+            node.left = delete(node.left, entry);
+        } else {
+            node.right = delete(node.right, entry);
+        }
+        node.size--;
+        return node;
+    }
+
+    // Slår ihop två delträd där alla poster i left sorteras före alla i right
+    private static Entry merge(Entry left, Entry right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.size = size(left.left) + size(left.right) + 1;
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.size = size(right.left) + size(right.right) + 1;
+        return right;
+    }
+
+    private static Entry rotateRight(Entry node) {
+        Entry top = node.left;
+        node.left = top.right;
+        top.right = node;
+        node.size = size(node.left) + size(node.right) + 1;
+        top.size = size(top.left) + node.size + 1;
+        return top;
+    }
+
+    private static Entry rotateLeft(Entry node) {
+        Entry top = node.right;
+        node.right = top.left;
+        top.left = node;
+        node.size = size(node.left) + size(node.right) + 1;
+        top.size = node.size + size(top.right) + 1;
+        return top;
+    }
+
+    private static int size(Entry node) {
+        return node == null ? 0 : node.size;
+    }
+}
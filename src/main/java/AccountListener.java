@@ -0,0 +1,13 @@
+// Får besked när ett kontos saldo eller kortstatus ändras, t.ex. för att hålla index uppdaterade.
+// Anropas i tråden som gör ändringen, så implementationer måste vara snabba och trådsäkra.
+public interface AccountListener {
+
+    // Saldot har ändrats (när ändringen görs av Bank sker den under kontots lås)
+    void balanceChanged(User user, long oldBalanceCents, long newBalanceCents);
+
+    // Kortet har låsts eller låsts upp
+    void cardStateChanged(User user, boolean locked);
+
+    // Antalet misslyckade PIN-försök har ändrats utan att kortet låsts (t.ex. nollställts vid inloggning)
+    void failedAttemptsChanged(User user, int failedAttempts);
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Kompakt ögonblicksbild av kontotabellen i en minnesmappad fil.
+// Format: [magic][version][loggposition][antal konton][konton...][CRC32 över kontona].
+// Varje konto: [ID-längd][ID][PIN-hash: iterationer, salt och hash][saldo i öre][misslyckade försök][låst].
+// Version 1 hade PIN-koden i klartext ([PIN-längd][PIN]); sådana filer kan fortfarande läsas.
+public final class AccountSnapshot {
+    private static final int MAGIC = 0x42534E50; // "BSNP"
+    private static final int VERSION = 2;
+    private static final int PLAINTEXT_PIN_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    private static final int CHUNK_BYTES = 64 << 20; // Filen mappas i bitar om 64 MB
+
+    private AccountSnapshot() {
+        // Endast statiska hjälpmetoder
+    }
+
+    // Skriver alla konton till filen. Skrivs först till en temporär fil som sedan byter plats med den
+    // gamla, så att en avbruten skrivning aldrig förstör den senaste hela ögonblicksbilden.
+    public static long write(Path file, long journalPosition, Iterable<User> users) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long count = 0;
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long chunkStart = HEADER_BYTES;
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_BYTES);
+            for (User user : users) {
+                byte[] id = user.getId().getBytes(StandardCharsets.UTF_8);
+                PinHash pinHash = user.getPinHash();
+                int entryBytes = 2 + id.length + 4 + 4 * 8 + 8 + 4 + 1;
+                if (chunk.remaining() < entryBytes) {
+                    chunk.force();
+                    chunkStart += chunk.position();
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_BYTES);
+                }
+                int entryStart = chunk.position();
+                chunk.putShort((short) id.length).put(id);
+                chunk.putInt(pinHash.getIterations());
+                chunk.putLong(pinHash.getSalt0()).putLong(pinHash.getSalt1());
+                chunk.putLong(pinHash.getHash0()).putLong(pinHash.getHash1());
+                chunk.putLong(user.getBalanceCents());
+                chunk.putInt(user.getFailedAttempts());
+                chunk.put((byte) (user.isLocked() ? 1 : 0));
+                crc.update(chunk.duplicate().position(entryStart).limit(chunk.position()));
+                count++;
+            }
+            chunk.force();
+            long end = chunkStart + chunk.position();
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(journalPosition).putLong(count);
+            header.force();
+            MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_WRITE, end, 4);
+            trailer.putInt((int) crc.getValue());
+            trailer.force();
+            channel.truncate(end + 4); // Tar bort den oanvända delen av sista biten
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    // Läser ögonblicksbilden och skickar varje konto till handler. Returnerar loggpositionen som
+    // bilden gäller från, eller -1 om filen saknas eller är trasig (då ska hela loggen spelas upp).
+    public static long read(Path file, Consumer<User> handler) throws IOException {
+        if (file == null || !Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4) {
+                return -1;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                return -1;
+            }
+            int version = header.getInt();
+            if (version != VERSION && version != PLAINTEXT_PIN_VERSION) {
+                return -1;
+            }
+            long journalPosition = header.getLong();
+            long count = header.getLong();
+            long expectedCrc = channel.map(FileChannel.MapMode.READ_ONLY, size - 4, 4).getInt() & 0xFFFFFFFFL;
+
+            // Kontrollsumman verifieras innan något konto lämnas ut, så att en trasig bild inte blandas med loggen
+            CRC32 crc = new CRC32();
+            for (long position = HEADER_BYTES; position < size - 4; position += CHUNK_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_BYTES, size - 4 - position)));
+            }
+            if (crc.getValue() != expectedCrc) {
+                return -1;
+            }
+
+            long chunkStart = HEADER_BYTES;
+            MappedByteBuffer chunk = mapChunk(channel, chunkStart, size - 4);
+            for (long i = 0; i < count; i++) {
+                int entryStart = chunk.position();
+                User user;
+                try {
+                    user = readEntry(chunk, version);
+                } catch (BufferUnderflowException e) {
+                    // Kontot sträcker sig över gränsen till nästa bit, mappa om från kontots början
+                    chunkStart += entryStart;
+                    chunk = mapChunk(channel, chunkStart, size - 4);
+                    user = readEntry(chunk, version);
+                }
+                handler.accept(user);
+            }
+            return journalPosition;
+        }
+    }
+
+    private static MappedByteBuffer mapChunk(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, end - start));
+    }
+
+    private static User readEntry(MappedByteBuffer chunk, int version) {
+        byte[] id = new byte[chunk.getShort() & 0xFFFF];
+        chunk.get(id);
+        PinHash pinHash;
+        if (version == PLAINTEXT_PIN_VERSION) {
+            byte[] pin = new byte[chunk.getShort() & 0xFFFF];
+            chunk.get(pin);
+            pinHash = PinHash.create(new String(pin, StandardCharsets.UTF_8)); // Hashas vid inläsning
+        } else {
+            pinHash = PinHash.of(chunk.getInt(), chunk.getLong(), chunk.getLong(), chunk.getLong(), chunk.getLong());
+        }
+        long balance = chunk.getLong();
+        int failedAttempts = chunk.getInt();
+        boolean locked = chunk.get() != 0;
+        User user = User.withPinHash(new String(id, StandardCharsets.UTF_8), pinHash, balance);
+        user.restoreCardState(failedAttempts, locked);
+        return user;
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Asynkron utdata: anropande trådar lägger bara texten i en ringbuffert och går vidare, och en enda
+// skrivartråd lämnar texterna vidare till målet (t.ex. konsolen) i samma ordning. Då väntar
+// transaktionerna aldrig på konsolens lås, och bara skrivartråden tar det.
+//
+// Bufferten är låsfri: en skrivare reserverar en plats med en atomär ökning och publicerar texten
+// med en release-skrivning. Är bufferten full väntar skrivaren på att skrivartråden hinner ikapp,
+// så inga meddelanden tappas.
+public class AsyncOutput implements SessionOutput, AutoCloseable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SessionOutput target;
+    private final AtomicReferenceArray<String> texts;
+    private final boolean[] prompts; // Skrivs före texten och läses efter den, så release/acquire räcker
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Nästa plats att reservera
+    private volatile long head;                       // Nästa plats skrivartråden ska lämna vidare
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private final Thread writer;
+
+    // Kapaciteten avrundas nedåt till en tvåpotens
+    public AsyncOutput(SessionOutput target, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Kapaciteten måste vara större än 0.");
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        this.target = target;
+        this.texts = new AtomicReferenceArray<>(size);
+        this.prompts = new boolean[size];
+        this.mask = size - 1;
+        this.writer = new Thread(this::writeLoop, "async-output");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void prompt(String text) {
+        publish(text, true);
+    }
+
+    @Override
+    public void message(String text) {
+        publish(text, false);
+    }
+
+    private void publish(String text, boolean prompt) {
+        if (closed) {
+            throw new IllegalStateException("Utdata är stängd.");
+        }
+        long sequence = tail.getAndIncrement();
+        while (sequence - head > mask) { // Full: platsen används fortfarande ett varv tidigare
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        int slot = (int) sequence & mask;
+        prompts[slot] = prompt;
+        texts.setRelease(slot, text == null ? "null" : text); // Samma som System.out.println(null)
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop() {
+        long next = head;
+        while (true) {
+            int slot = (int) next & mask;
+            String text = texts.getAcquire(slot);
+            if (text == null) {
+                if (closed && next == tail.get()) {
+                    return;
+                }
+                idle = true;
+                if (texts.getAcquire(slot) == null) { // Kontrollera igen efter flaggan, så ingen väckning missas
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+            boolean prompt = prompts[slot];
+            texts.set(slot, null);
+            try {
+                if (prompt) {
+                    target.prompt(text);
+                } else {
+                    target.message(text);
+                }
+            } catch (RuntimeException e) {
+                // Ett trasigt mål får inte stoppa skrivartråden; texten går förlorad
+            }
+            head = ++next; // Platsen är ledig för nästa varv, och flush ser att texten är skriven
+        }
+    }
+
+    // Väntar tills allt som skickats före anropet har lämnats vidare till målet
+    public void flush() {
+        long published = tail.get();
+        while (head < published) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    // Lämnar vidare det som återstår och stoppar skrivartråden
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
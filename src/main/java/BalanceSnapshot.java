@@ -0,0 +1,192 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Saldona i alla konton vid en och samma version (se BalanceVersions), för rapporter och summeringar
+// som ska gå jämnt ut medan transaktionerna pågår: en överföring är antingen helt med eller inte alls.
+// Läsningen väntar aldrig på transaktionerna och stoppar dem inte.
+//
+// Kontona gås igenom som bankens egna User-objekt, och saldot vid bildens version hämtas med
+// getBalanceCents(user). Konton som skapats efter versionen hoppas över. Konton som tas bort medan
+// bilden läses kan saknas i den.
+//
+// Så länge bilden är öppen sparar banken de saldon den behöver, så den ska stängas när rapporten är
+// klar (try-with-resources).
+public final class BalanceSnapshot implements Iterable<User>, AutoCloseable {
+    private static final long PARTITION_ACCOUNTS = 16_384; // Konton per deluppgift i reconcile
+
+    private final BalanceVersions versions;
+    private final int slot;
+    private final long version;
+    private final Map<String, User> users;
+    private boolean closed;
+
+    BalanceSnapshot(BalanceVersions versions, int slot, long version, Map<String, User> users) {
+        this.versions = versions;
+        this.slot = slot;
+        this.version = version;
+        this.users = users;
+    }
+
+    // Versionen som bilden visar; alla ändringar med högst den versionen är med
+    public long getVersion() {
+        return version;
+    }
+
+    // Kontots saldo i öre vid bildens version, eller -1 om kontot inte fanns då
+    public long getBalanceCents(User user) {
+        checkOpen();
+        return BalanceVersions.balanceAt(user, version);
+    }
+
+    // Saldot för kontot med ID:t, eller -1 om kontot inte fanns vid bildens version (eller har tagits bort)
+    public long getBalanceCents(String userId) {
+        User user = userId == null ? null : users.get(userId);
+        return user == null ? -1 : getBalanceCents(user);
+    }
+
+    // Summan av alla saldon i bilden
+    public long getTotalCents() {
+        long total = 0;
+        for (User user : this) {
+            total = Money.add(total, getBalanceCents(user));
+        }
+        return total;
+    }
+
+    // Kontots nettoinsättningar vid bildens version: startsaldo plus insättningar minus uttag
+    public long getNetDepositsCents(User user) {
+        checkOpen();
+        return BalanceVersions.netDepositsAt(user, version);
+    }
+
+    // Stämmer av alla konton i bilden (se ReconciliationReport) parallellt i ForkJoinPool.commonPool
+    public ReconciliationReport reconcile() {
+        return reconcile(ForkJoinPool.commonPool());
+    }
+
+    // Kontona delas i bitar med kontotabellens egen uppdelning (ConcurrentHashMap delar på
+    // tabellintervall) tills en bit har ungefär PARTITION_ACCOUNTS konton. Varje bit summeras för sig
+    // och delsummorna läggs ihop, så trådarna delar inget medan de räknar.
+    public ReconciliationReport reconcile(ForkJoinPool pool) {
+        checkOpen();
+        long start = System.nanoTime();
+        Totals totals = pool.invoke(new Partition(version, users.values().spliterator()));
+        return new ReconciliationReport(version, totals.accounts, totals.locked, totals.empty,
+                totals.balanceCents, totals.netDepositsCents, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    // Kontona som fanns vid bildens version
+    @Override
+    public Iterator<User> iterator() {
+        checkOpen();
+        Iterator<User> all = users.values().iterator();
+        return new Iterator<>() {
+            private User next = advance();
+
+            private User advance() {
+                while (all.hasNext()) {
+                    User user = all.next();
+                    if (BalanceVersions.balanceAt(user, version) >= 0) {
+                        return user;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                User current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    // Släpper bilden så att banken kan glömma äldre saldon. Kan anropas flera gånger.
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            versions.close(slot);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Ögonblicksbilden är stängd.");
+        }
+    }
+
+    // Delsummor för en bit av kontona
+    private static final class Totals {
+        long accounts;
+        long locked;
+        long empty;
+        long balanceCents;
+        long netDepositsCents;
+
+        void add(User user, long version) {
+            long balance = BalanceVersions.balanceAt(user, version);
+            if (balance < 0) {
+                return; // Skapat efter bildens version
+            }
+            accounts++;
+            locked += user.isLocked() ? 1 : 0;
+            empty += balance == 0 ? 1 : 0;
+            balanceCents += balance;
+            netDepositsCents += BalanceVersions.netDepositsAt(user, version);
+        }
+
+        Totals merge(Totals other) {
+            accounts += other.accounts;
+            locked += other.locked;
+            empty += other.empty;
+            balanceCents += other.balanceCents;
+            netDepositsCents += other.netDepositsCents;
+            return this;
+        }
+    }
+
+    private static final class Partition extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L; // ForkJoinTask är Serializable, men uppgiften serialiseras aldrig
+        private final long version;
+        private final Spliterator<User> accounts;
+
+        Partition(long version, Spliterator<User> accounts) {
+            this.version = version;
+            this.accounts = accounts;
+        }
+
+        @Override
+        protected Totals compute() {
+            List<Partition> forked = new ArrayList<>();
+            Spliterator<User> split;
+            while (accounts.estimateSize() > PARTITION_ACCOUNTS && (split = accounts.trySplit()) != null) {
+                Partition part = new Partition(version, split);
+                part.fork();
+                forked.add(part);
+            }
+            Totals totals = new Totals();
+            accounts.forEachRemaining(user -> totals.add(user, version));
+            for (int i = forked.size() - 1; i >= 0; i--) { // Senast forkade först, som i en vanlig rekursion
+                totals.merge(forked.get(i).join());
+            }
+            return totals;
+        }
+    }
+}
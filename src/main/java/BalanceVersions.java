@@ -0,0 +1,203 @@
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Versioner av saldona, så att rapporter kan läsa alla konton vid en och samma tidpunkt utan att vänta
+// på transaktionerna och utan att stoppa dem (MVCC, se BalanceSnapshot).
+//
+// Varje ändring i banken får ett versionsnummer ur en gemensam räknare medan kontots lås är taget, och
+// varje ändrat konto får en nod (version, saldo) först i sin kedja av tidigare saldon. Noden har också
+// kontots nettoinsättningar (startsaldo plus insättningar minus uttag, men inte överföringar inom
+// banken), så att en avstämning kan jämföra dem med saldona vid samma version. Den som skriver
+// meddelar först på sin låsgrupps plats att en version är på väg och tömmer platsen när alla noder är
+// på plats. En läsare tar den högsta versionen som ingen pågående ändring kan få (stableVersion) och
+// läser för varje konto den nyaste noden med högst den versionen. Läsaren väntar aldrig: versioner som
+// inte är klara är helt enkelt inte med i bilden.
+//
+// Noderna tas bort av den som skriver: allt bakom den nyaste noden som inte är nyare än horisonten, den
+// äldsta version som en öppen läsare kan behöva. Horisonten flyttas fram var HORIZON_INTERVAL:e
+// version och när en läsare stängs, så en kedja är i regel en eller två noder lång.
+final class BalanceVersions {
+    static final int READERS = 64; // Samtidigt öppna ögonblicksbilder
+    private static final int HORIZON_INTERVAL = 1024; // Tvåpotens
+    private static final int PAD = 8; // En plats per cacherad, så skrivare i olika låsgrupper inte krockar
+    private static final long IDLE = 0;
+    private static final long REGISTERING = -1; // Läsaren har tagit platsen men ännu inte sin version
+
+    // Saldo och nettoinsättningar från och med en version, och värdena närmast före (så att det vanliga
+    // fallet, en ändring sedan horisonten, klarar sig med en nod per ändring)
+    static final class Version {
+        final long version;
+        final long balanceCents;
+        final long netDepositsCents;
+        final long priorVersion;
+        final long priorBalanceCents; // -1 om kontot inte fanns före version
+        final long priorNetDepositsCents;
+        Version older; // Noder före priorVersion, null när ingen läsare kan behöva dem
+
+        Version(long version, long balanceCents, long netDepositsCents,
+                long priorVersion, long priorBalanceCents, long priorNetDepositsCents, Version older) {
+            this.version = version;
+            this.balanceCents = balanceCents;
+            this.netDepositsCents = netDepositsCents;
+            this.priorVersion = priorVersion;
+            this.priorBalanceCents = priorBalanceCents;
+            this.priorNetDepositsCents = priorNetDepositsCents;
+            this.older = older;
+        }
+    }
+
+    private final AtomicLong clock = new AtomicLong(); // Senast utdelade version
+    private final AtomicLongArray writers; // Per låsgrupp: lägsta versionen som pågående ändring kan få, eller IDLE
+    private final AtomicLongArray readers; // Per läsare: version + 1, REGISTERING eller IDLE
+    private final AtomicLong horizon = new AtomicLong(); // Ingen läsare behöver äldre saldon än så
+
+    BalanceVersions(int stripes) {
+        writers = new AtomicLongArray(stripes * PAD);
+        readers = new AtomicLongArray(READERS * PAD);
+    }
+
+    // Ger en ny version till en ändring. Anropas med låsgruppen stripe låst, och end måste anropas innan
+    // låset släpps.
+    long begin(int stripe) {
+        // Räcker som lazySet: en läsare läser räknaren före platserna, och ser den räknaren efter ökningen
+        // nedan ser den också allt som skrevs före ökningen
+        writers.lazySet(stripe * PAD, clock.get() + 1);
+        return clock.incrementAndGet();
+    }
+
+    void end(int stripe, long version) {
+        writers.lazySet(stripe * PAD, IDLE);
+        if ((version & (HORIZON_INTERVAL - 1)) == 0) {
+            advanceHorizon();
+        }
+    }
+
+    // Kontots saldo från och med versionen (ett nytt konto, eller ett konto som lästs in vid start).
+    // Saldot räknas som kontots första insättning.
+    static void created(User user, long version) {
+        long balance = user.getBalanceCents();
+        user.setNetDepositsCents(balance);
+        user.setBalanceVersion(new Version(version, balance, balance, 0, -1, 0, null));
+    }
+
+    // Kontots nya saldo från och med versionen. Anropas under kontots lås efter att saldot ändrats, med
+    // saldot före ändringen och hur mycket av ändringen som var en insättning (negativt för ett uttag,
+    // noll för en överföring inom banken). I det vanliga fallet, när kontots senaste ändring är äldre än
+    // horisonten, räcker den nya noden och de gamla noderna (och deras cacherader) behöver inte läsas.
+    void changed(User user, long balanceBefore, long depositedCents, long version) {
+        long latest = user.getBalanceVersionNumber();
+        long netBefore = user.getNetDepositsCents();
+        long net = netBefore + depositedCents; // Kan bara bli fel vid över 2^63 öre, och då lika fel i summorna
+        user.setNetDepositsCents(net);
+        Version node;
+        if (latest == version) { // Samma batchbit igen: bara slutvärdena syns
+            Version head = user.getBalanceVersion();
+            node = new Version(version, user.getBalanceCents(), net,
+                    head.priorVersion, head.priorBalanceCents, head.priorNetDepositsCents, head.older);
+        } else if (latest <= horizon.get()) {
+            node = new Version(version, user.getBalanceCents(), net, latest, balanceBefore, netBefore, null);
+        } else {
+            Version head = user.getBalanceVersion();
+            long oldest = horizon.get();
+            for (Version older = head; older != null; older = older.older) {
+                if (older.priorVersion <= oldest) {
+                    older.older = null; // Läsare stannar senast här, eftersom deras version är minst horisonten
+                    break;
+                }
+            }
+            node = new Version(version, user.getBalanceCents(), net, latest, balanceBefore, netBefore, head);
+        }
+        user.setBalanceVersion(node);
+    }
+
+    // Saldot vid versionen, eller -1 om kontot inte fanns då
+    static long balanceAt(User user, long version) {
+        Version node = user.getBalanceVersion();
+        if (node == null) {
+            return user.getBalanceCents(); // Aldrig ändrat via banken
+        }
+        for (; node != null; node = node.older) {
+            if (node.version <= version) {
+                return node.balanceCents;
+            }
+            if (node.priorVersion <= version) {
+                return node.priorBalanceCents;
+            }
+        }
+        return -1;
+    }
+
+    // Nettoinsättningarna vid versionen, eller 0 om kontot inte fanns då
+    static long netDepositsAt(User user, long version) {
+        Version node = user.getBalanceVersion();
+        if (node == null) {
+            return user.getBalanceCents();
+        }
+        for (; node != null; node = node.older) {
+            if (node.version <= version) {
+                return node.netDepositsCents;
+            }
+            if (node.priorVersion <= version) {
+                return node.priorNetDepositsCents;
+            }
+        }
+        return 0;
+    }
+
+    // Högsta versionen där alla ändringar är klara: räknaren, eller strax under den lägsta versionen som
+    // en pågående ändring kan få. En ändring som fått en version högst så har alltså redan tömt sin plats.
+    long stableVersion() {
+        long stable = clock.get();
+        for (int i = 0; i < writers.length(); i += PAD) {
+            long pending = writers.get(i);
+            if (pending != IDLE) {
+                stable = Math.min(stable, pending - 1);
+            }
+        }
+        return stable;
+    }
+
+    // Öppnar en ögonblicksbild av kontona vid den senaste stabila versionen
+    BalanceSnapshot open(Map<String, User> users) {
+        int slot = claimReaderSlot();
+        long version = stableVersion();
+        readers.set(slot, version + 1);
+        return new BalanceSnapshot(this, slot, version, users);
+    }
+
+    void close(int slot) {
+        readers.set(slot, IDLE);
+        advanceHorizon();
+    }
+
+    private int claimReaderSlot() {
+        int start = ThreadLocalRandom.current().nextInt(READERS);
+        while (true) {
+            for (int i = 0; i < READERS; i++) {
+                int slot = ((start + i) % READERS) * PAD;
+                if (readers.get(slot) == IDLE && readers.compareAndSet(slot, IDLE, REGISTERING)) {
+                    return slot;
+                }
+            }
+            Thread.onSpinWait(); // Alla platser upptagna av andra rapporter, aldrig av transaktioner
+        }
+    }
+
+    // Flyttar fram horisonten till den äldsta version som en öppen eller ny läsare kan behöva. Den
+    // stabila versionen läses först: en läsare som registrerar sig efteråt får minst den.
+    private void advanceHorizon() {
+        long oldest = stableVersion();
+        for (int i = 0; i < readers.length(); i += PAD) {
+            long reader = readers.get(i);
+            if (reader == REGISTERING) {
+                return; // Läsarens version är inte känd än; nästa gång
+            }
+            if (reader != IDLE) {
+                oldest = Math.min(oldest, reader - 1);
+            }
+        }
+        horizon.accumulateAndGet(oldest, Math::max);
+    }
+}
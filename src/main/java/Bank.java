@@ -1,28 +1,360 @@
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Bank implements BankInterface {
-    private final Map<String, User> users = new HashMap<>(); // Lagrar användare med ID som nyckel
+public class Bank implements BankInterface, AutoCloseable {
+    private static final String DUPLICATE_USER = "Användaren finns redan.";
+    private static final String CARD_LOCKED = "Kortet är låst.";
+    private static final String NO_HOLD = "Reservationen finns inte eller har gått ut.";
+    private static final String NO_TRANSFER = "Överföringen finns inte eller är redan avslutad.";
+    private static final String TRANSFER_IN_USE = "Överföringens ID används redan.";
+    private static final String TRANSFER_PENDING = "Kontot har en pågående överföring.";
+    private static final int BATCH_CHUNK = 4096; // Operationer per låsrunda i applyBatch, så att andra trådar inte väntar på hela batchen
+
+    private final Map<String, User> users = new ConcurrentHashMap<>(); // Lagrar användare med ID som nyckel
+    private final LockStripes locks = new LockStripes(); // Lås per kontogrupp så att saldoändringar sker en i taget per konto
+    private final BalanceVersions versions = new BalanceVersions(locks.size()); // Saldoversioner för balanceSnapshot
+    private final HoldTable[] holds = createHoldTables(locks.size()); // Reservationer för uttag per låsgrupp
+    private final TransactionJournal journal; // Transaktionslogg på disk, null om banken bara finns i minnet
+    private final PinVerifier pinVerifier = PinVerifier.shared(); // Hashar PIN-koder utanför transaktionstrådarna
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry(); // Räknare och svarstider, även via JMX
+    private final BankMetrics metrics = new BankMetrics(metricsRegistry);
+    private final HistoryStore historyStore = new HistoryStore(locks.size()); // Historik som inte ryms i kontonas ringbuffertar
+    private final AccountIndex index = new AccountIndex(metrics.cardsLocked::record, this::logCardState); // Låsta kort och saldoordning för frågor
+    private volatile SessionOutput output = SessionOutput.console(); // Meddelanden från addUser/deleteUser
+    private volatile PinAttemptTracker attemptTracker = new PinAttemptTracker(); // Takt för PIN-försök, gemensam för alla terminaler
+    private volatile WithdrawalLimits withdrawalLimits = WithdrawalLimits.none(); // Uttagsgränser per konto och tidsfönster
+    private volatile long holdTimeoutMillis = Duration.ofMinutes(1).toMillis(); // Reservationer släpps efter så lång tid
+    private volatile IdempotencyCache requests = IdempotencyCache.standard(); // Utfall per idempotensnyckel för omsända begäranden
+    private final Map<Long, PendingTransfer> pendingTransfers = new ConcurrentHashMap<>(); // Oavslutade överföringar mellan banker
 
     public Bank() {
+        this.journal = null;
         // Skapar en standardanvändare vid initiering
-        users.put("12345", new User("12345", "1234", 1000.0));
+        User defaultUser = User.ofCents("12345", "1234", Money.ofWholeKronor(1000));
+        BalanceVersions.created(defaultUser, 0);
+        users.put(defaultUser.getId(), defaultUser);
+        index.add(defaultUser);
+    }
+
+    // Skapar en bank vars ändringar skrivs till transaktionsloggen. Befintlig logg spelas upp för att
+    // återskapa kontona; standardanvändaren skapas bara när loggen är helt tom.
+    public Bank(TransactionJournal journal) {
+        this(journal, null);
+    }
+
+    // Som ovan, men läser först in den senaste ögonblicksbilden och spelar bara upp loggen efter den
+    public Bank(TransactionJournal journal, Path snapshotFile) {
+        this.journal = journal;
+        try {
+            long snapshotPosition = AccountSnapshot.read(snapshotFile, user -> users.put(user.getId(), user));
+            if (snapshotPosition < 0) {
+                users.clear(); // Ingen (eller trasig) bild, hela loggen spelas upp
+                snapshotPosition = 0;
+            }
+            long replayStart = snapshotPosition;
+            if (journal.replay(snapshotPosition, record -> applyRecord(record, replayStart)) == 0 && users.isEmpty()) {
+                User defaultUser = User.ofCents("12345", "1234", Money.ofWholeKronor(1000));
+                users.put(defaultUser.getId(), defaultUser);
+                journal.awaitDurable(journal.append(JournalRecord.created(defaultUser)));
+            }
+            for (User user : users.values()) { // Indexen och versionerna följer kontona först när alla är inlästa
+                index.add(user);
+                BalanceVersions.created(user, 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Transaktionsloggen kunde inte läsas.", e);
+        }
+    }
+
+    // Återskapar bankens tillstånd från en post i loggen (posterna innehåller saldot efter ändringen).
+    // Överföringar mellan banker som inte avslutats i loggen blir kvar i pendingTransfers, så att
+    // BankRouter kan avsluta dem; uppspelningens start är en position före deras första post.
+    private void applyRecord(JournalRecord record, long replayStart) {
+        switch (record.type()) {
+            case JournalRecord.CREATE -> {
+                User created = User.withPinHash(record.userId(), PinHash.fromStored(record.pinHash()), record.balanceCents());
+                User fromSnapshot = users.put(record.userId(), created);
+                if (fromSnapshot != null) {
+                    // Kontot fanns redan i ögonblicksbilden; kortstatusen därifrån gäller tills en
+                    // CARD_STATE-post längre fram ändrar den
+                    created.restoreCardState(fromSnapshot.getFailedAttempts(), fromSnapshot.isLocked());
+                }
+            }
+            case JournalRecord.DELETE -> users.remove(record.userId());
+            case JournalRecord.DEPOSIT, JournalRecord.WITHDRAW -> {
+                User user = users.get(record.userId());
+                if (user != null) {
+                    user.setBalanceCents(record.balanceCents());
+                }
+            }
+            case JournalRecord.TRANSFER -> {
+                User from = users.get(record.userId());
+                User to = users.get(record.targetId());
+                if (from != null) {
+                    from.setBalanceCents(record.balanceCents());
+                }
+                if (to != null) {
+                    to.setBalanceCents(record.targetBalanceCents());
+                }
+            }
+            case JournalRecord.TRANSFER_PREPARE, JournalRecord.TRANSFER_RECEIVE -> {
+                User user = users.get(record.userId());
+                if (user != null) {
+                    user.setBalanceCents(record.balanceCents());
+                }
+                pendingTransfers.put(record.transferId(), new PendingTransfer(record.transferId(),
+                        record.type() == JournalRecord.TRANSFER_PREPARE, record.userId(), record.targetId(),
+                        record.amountCents(), replayStart));
+            }
+            case JournalRecord.CARD_STATE -> {
+                User user = users.get(record.userId());
+                if (user != null) {
+                    user.restoreCardState((int) record.amountCents(), record.balanceCents() != 0);
+                }
+            }
+            case JournalRecord.TRANSFER_COMMIT -> pendingTransfers.remove(record.transferId());
+            case JournalRecord.TRANSFER_ABORT -> {
+                User user = users.get(record.userId());
+                if (user != null) {
+                    user.setBalanceCents(record.balanceCents());
+                }
+                pendingTransfers.remove(record.transferId());
+            }
+            default -> throw new IllegalStateException("Okänd posttyp i transaktionsloggen: " + record.type());
+        }
+    }
+
+    // Skriver en ögonblicksbild av alla konton utan att stoppa transaktioner. Loggpositionen tas innan
+    // kontona läses, så allt före den finns med i bilden och allt efter spelas upp vid start.
+    // Uppspelningen sätter absoluta saldon och klarar därför poster som redan råkar finnas med i bilden.
+    // Positionen flyttas inte förbi en oavslutad överföring mellan banker, så att den kan avslutas vid
+    // start. Överföringen läggs till innan dess första post skrivs och tas bort först när beslutet är
+    // skrivet till disk, så den syns här om dess post ligger före durablePosition.
+    public long writeSnapshot(Path file) throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Banken har ingen transaktionslogg.");
+        }
+        long start = metrics.snapshot.start();
+        long journalPosition = journal.durablePosition();
+        for (PendingTransfer transfer : pendingTransfers.values()) {
+            journalPosition = Math.min(journalPosition, transfer.journalPosition());
+        }
+        long accounts = AccountSnapshot.write(file, journalPosition, users.values());
+        metrics.snapshot.finish(start, null);
+        return accounts;
+    }
+
+    // Öppnar en bild av alla saldon vid en och samma tidpunkt (se BalanceSnapshot). Väntar inte på
+    // pågående transaktioner och stoppar dem inte; bilden ska stängas när den lästs.
+    public BalanceSnapshot balanceSnapshot() {
+        return versions.open(users);
+    }
+
+    // Stämmer av alla konton vid en och samma tidpunkt medan transaktionerna fortsätter, se
+    // ReconciliationReport. Summeringen körs parallellt över delar av kontona.
+    public ReconciliationReport reconcile() {
+        long start = metrics.reconcile.start();
+        ReconciliationReport report;
+        try (BalanceSnapshot snapshot = balanceSnapshot()) {
+            report = snapshot.reconcile();
+        }
+        metrics.reconcile.finish(start, report.isBalanced() ? null : "Avstämningen går inte ihop.");
+        return report;
+    }
+
+    // Lägger till en post i loggen (anropas under kontots lås så att ordningen per konto bevaras)
+    private long log(JournalRecord record) {
+        return journal == null ? 0 : journal.append(record);
+    }
+
+    // Loggar kortets status när den ändras, t.ex. när en bankomat låser kortet eller nollställer
+    // försöken vid inloggning, så att den överlever en omstart även utan ny ögonblicksbild
+    private void logCardState(User user) {
+        awaitDurable(log(JournalRecord.cardState(user)));
+    }
+
+    // En position i loggen före nästa post som läggs till
+    private long journalPosition() {
+        return journal == null ? 0 : journal.appendedPosition();
+    }
+
+    // Väntar tills posten är skriven till disk (anropas efter att kontots lås släppts)
+    private void awaitDurable(long ticket) {
+        if (journal != null) {
+            journal.awaitDurable(ticket);
+        }
+    }
+
+    // Bankens mätvärden: anrop, fel per orsak och svarstider för varje operation
+    public MetricsRegistry getMetrics() {
+        return metricsRegistry;
     }
 
     // Hämtar en användare baserat på ID
     public User getUserById(String id) {
+        metrics.getUser.count();
         if (id == null || id.isEmpty()) {
             return null; // Returnerar null om ID är tomt eller null
         }
         return users.get(id); // Returnerar användaren om den finns
     }
 
-    // Kollar om kortet är låst för en viss användare
+    // Hämtar en användare utan att kasta fel för null (ConcurrentHashMap tillåter inte null-nycklar)
+    private User findUser(String userId) {
+        return userId == null ? null : users.get(userId);
+    }
+
+    // Kollar om kortet är låst för en viss användare. Tar inga lås: en läsning i ConcurrentHashMap
+    // och en volatile-läsning av låsflaggan.
     public boolean isCardLocked(String userId) {
-        User user = users.get(userId);
+        metrics.isCardLocked.count();
+        User user = findUser(userId);
         return user != null && user.isLocked(); // Returnerar true om användaren finns och kortet är låst
     }
 
+    // ID:n för alla låsta kort, läses ur indexet utan att gå igenom kontona
+    public Set<String> getLockedCardIds() {
+        metrics.indexQuery.count();
+        return index.lockedIds();
+    }
+
+    public int countLockedCards() {
+        metrics.indexQuery.count();
+        return index.lockedCount();
+    }
+
+    // Upp till limit konto-ID:n med saldo mellan minCents och maxCents (inklusive), lägst saldo först.
+    // Tar O(log n + antal träffar) plus de konton som ändrats sedan förra frågan, och inga kontolås.
+    public List<String> findAccountsWithBalanceBetween(long minCents, long maxCents, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Gränsen kan inte vara negativ.");
+        }
+        long start = metrics.indexQuery.start();
+        List<String> ids = index.idsWithBalanceBetween(minCents, maxCents, limit);
+        metrics.indexQuery.finish(start, null);
+        return ids;
+    }
+
+    // Antal konton med saldo mellan minCents och maxCents (inklusive), exakt och i O(log n) plus de
+    // konton som ändrats sedan förra frågan, utan att ta några kontolås
+    public long countAccountsWithBalanceBetween(long minCents, long maxCents) {
+        long start = metrics.indexQuery.start();
+        long count = index.countWithBalanceBetween(minCents, maxCents);
+        metrics.indexQuery.finish(start, null);
+        return count;
+    }
+
+    // De senaste transaktionerna för kontot (högst limit), nyast först. De senaste läses ur kontots
+    // ringbuffert utan att röra disken; bara äldre poster än så läses ur historikfilen, och det sker
+    // utan kontots lås eftersom sidorna där bara växer.
+    public List<Transaction> getRecentTransactions(String userId, int limit) {
+        if (limit < 0) {
+            throw failed(metrics.history, "Gränsen kan inte vara negativ.");
+        }
+        if (userId == null) {
+            throw failed(metrics.history, "Ogiltigt användar-ID.");
+        }
+        long start = metrics.history.start();
+        List<Transaction> transactions;
+        HistoryStore.Position older;
+        ReentrantLock lock = locks.lockFor(userId);
+        lock.lock();
+        try {
+            User user = users.get(userId);
+            if (user == null) {
+                metrics.history.finish(start, "Ogiltigt användar-ID.");
+                throw new IllegalArgumentException("Ogiltigt användar-ID.");
+            }
+            long[] history = user.getHistory();
+            if (history == null) {
+                metrics.history.finish(start, null);
+                return List.of();
+            }
+            transactions = new ArrayList<>((int) Math.min(limit, AccountHistory.size(history)));
+            older = AccountHistory.readRecent(history, limit, transactions);
+        } finally {
+            lock.unlock();
+        }
+        if (older != null) {
+            try {
+                historyStore.read(older, limit, transactions);
+            } catch (IOException e) {
+                metrics.history.finish(start, "Historiken kunde inte läsas.");
+                throw new UncheckedIOException("Historiken kunde inte läsas.", e);
+            }
+        }
+        metrics.history.finish(start, null);
+        return transactions;
+    }
+
+    // Väntar in historikens skrivtråd och stänger historikfilen. Transaktionsloggen stängs av den som
+    // öppnade den. Historik äldre än kontonas ringbuffertar kan inte läsas efter close.
+    @Override
+    public void close() {
+        try {
+            historyStore.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Historikfilen kunde inte stängas.", e);
+        }
+    }
+
+    // Sätter vart bankens meddelanden skickas, t.ex. AsyncOutput eller SessionOutput.none()
+    public void setOutput(SessionOutput output) {
+        this.output = output;
+    }
+
+    // Spärren för PIN-försök som alla terminaler mot banken delar
+    public PinAttemptTracker getAttemptTracker() {
+        return attemptTracker;
+    }
+
+    // Byter gränser för PIN-försök (t.ex. för lasttester där samma kort loggar in många gånger per minut)
+    public void setAttemptTracker(PinAttemptTracker attemptTracker) {
+        this.attemptTracker = attemptTracker;
+    }
+
+    // Uttagsgränserna som gäller just nu
+    public WithdrawalLimits getWithdrawalLimits() {
+        return withdrawalLimits;
+    }
+
+    // Byter uttagsgränser medan banken är igång. Uttag som redan pågår kontrolleras mot de gamla
+    // gränserna, alla efter bytet mot de nya; kontonas summor följer med för fönster som finns kvar.
+    public void setWithdrawalLimits(WithdrawalLimits withdrawalLimits) {
+        if (withdrawalLimits == null) {
+            throw new IllegalArgumentException("Uttagsgränser krävs.");
+        }
+        this.withdrawalLimits = withdrawalLimits;
+    }
+
+    // Byter minnet för idempotensnycklar (t.ex. med annan storlek eller tid). Nycklar i det gamla
+    // minnet glöms.
+    public void setRequestCache(IdempotencyCache requests) {
+        if (requests == null) {
+            throw new IllegalArgumentException("Minne för idempotensnycklar krävs.");
+        }
+        this.requests = requests;
+    }
+
+    // Byter hur länge en reservation (holdCents) gäller innan den släpps av sig själv. Gäller nya
+    // reservationer.
+    public void setHoldTimeout(Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Ogiltig tid för reservationer.");
+        }
+        this.holdTimeoutMillis = timeout.toMillis();
+    }
+
     // Returnerar bankens namn
     public static String getBankName() {
         return "MockBank";
@@ -30,66 +362,949 @@ public class Bank implements BankInterface {
 
     // Verifierar om PIN-koden är korrekt för en användare
     public boolean verifyPin(String userId, String pin) {
-        User user = users.get(userId);
-        return user != null && user.getPin().equals(pin); // Jämför PIN om användaren finns
+        long start = metrics.verifyPin.start();
+        User user = findUser(userId);
+        if (user != null && user.isLocked()) {
+            metrics.verifyPin.finish(start, CARD_LOCKED); // Ett låst kort loggar aldrig in, även med rätt PIN
+            return false;
+        }
+        boolean correct = user != null && pinVerifier.verify(userId, user.getPinHash(), pin); // Jämför mot hashen om användaren finns
+        metrics.verifyPin.finish(start, correct ? null : user == null ? "Okänt användar-ID." : "Fel PIN.");
+        return correct;
+    }
+
+    // Som verifyPin men utan att blockera anroparen medan hashen räknas fram
+    public CompletableFuture<Boolean> verifyPinAsync(String userId, String pin) {
+        long start = metrics.verifyPin.start();
+        User user = findUser(userId);
+        if (user == null) {
+            metrics.verifyPin.finish(start, "Okänt användar-ID.");
+            return CompletableFuture.completedFuture(false);
+        }
+        if (user.isLocked()) {
+            metrics.verifyPin.finish(start, CARD_LOCKED);
+            return CompletableFuture.completedFuture(false);
+        }
+        return pinVerifier.verifyAsync(userId, user.getPinHash(), pin)
+                .whenComplete((correct, error) -> metrics.verifyPin.finish(start,
+                        error != null ? "Kontrollen misslyckades." : correct ? null : "Fel PIN."));
     }
 
     // Lägger till en ny användare
     public void addUser(User user) {
         // Kollar om användaren eller dess ID är ogiltigt
         if (user == null || user.getId() == null || user.getId().isEmpty()) {
-            System.out.println("Ogiltig användare. Kan inte läggas till.");
+            metrics.addUser.finish(0, "Ogiltig användare.");
+            output.message("Ogiltig användare. Kan inte läggas till.");
             return;
         }
 
         // Lägger till användaren om ID inte redan finns
-        if (!users.containsKey(user.getId())) {
-            users.put(user.getId(), user);
-            System.out.println("Användare med ID " + user.getId() + " har lagts till.");
+        if (tryAddUser(user)) {
+            output.message("Användare med ID " + user.getId() + " har lagts till.");
         } else {
-            System.out.println("Användare med ID " + user.getId() + " finns redan."); // Meddelar om användaren redan finns
+            output.message("Användare med ID " + user.getId() + " finns redan."); // Meddelar om användaren redan finns
+        }
+    }
+
+    // Lägger till en användare utan utskrift, returnerar false om ID:t redan finns.
+    // Atomärt även när flera trådar lägger till samma ID samtidigt.
+    public boolean tryAddUser(User user) {
+        long start = metrics.addUser.start();
+        boolean added;
+        long ticket = 0;
+        int stripe = locks.indexFor(user.getId());
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock(); // Kontot skapas i loggen innan någon transaktion på det kan loggas
+        long version = versions.begin(stripe);
+        try {
+            added = !users.containsKey(user.getId()); // Alla som lägger till eller tar bort ID:t håller låset
+            if (added) {
+                BalanceVersions.created(user, version); // Innan kontot syns i users
+                users.put(user.getId(), user);
+                index.add(user);
+                ticket = log(JournalRecord.created(user));
+            }
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket);
+        metrics.addUser.finish(start, added ? null : DUPLICATE_USER);
+        return added;
+    }
+
+    // Lägger till många användare utan utskrift och returnerar hur många som lades till (ID:n som redan
+    // finns hoppas över). Som applyBatch tas låsen för en bit i taget och varje bit loggas med en enda
+    // skrivning; metoden väntar på disken en gång i slutet.
+    public int addUsers(List<User> newUsers) {
+        int added = 0;
+        boolean[] stripes = new boolean[locks.size()];
+        List<JournalRecord> records = journal == null ? null : new ArrayList<>(BATCH_CHUNK);
+        long ticket = 0;
+        for (int start = 0; start < newUsers.size(); start += BATCH_CHUNK) {
+            int end = Math.min(newUsers.size(), start + BATCH_CHUNK);
+            Arrays.fill(stripes, false);
+            for (int i = start; i < end; i++) {
+                markStripe(stripes, newUsers.get(i).getId());
+            }
+            locks.lockAll(stripes);
+            int stripe = locks.indexFor(newUsers.get(start).getId()); // Biten får en gemensam version
+            long version = versions.begin(stripe);
+            try {
+                for (int i = start; i < end; i++) {
+                    User user = newUsers.get(i);
+                    if (!users.containsKey(user.getId())) {
+                        BalanceVersions.created(user, version);
+                        users.put(user.getId(), user);
+                        index.add(user);
+                        addRecord(records, JournalRecord.created(user));
+                        metrics.addUser.count();
+                        added++;
+                    } else {
+                        metrics.addUser.finish(0, DUPLICATE_USER);
+                    }
+                }
+                if (records != null && !records.isEmpty()) {
+                    ticket = journal.appendAll(records);
+                    records.clear();
+                }
+            } finally {
+                versions.end(stripe, version);
+                locks.unlockAll(stripes);
+            }
         }
+        awaitDurable(ticket);
+        return added;
+    }
+
+    // Läser in konton från en CSV-fil (se AccountCsv) parallellt och returnerar en sammanfattning
+    public ImportReport importAccounts(Path file) throws IOException {
+        long start = metrics.importAccounts.start();
+        ImportReport report = AccountCsv.importInto(this, file);
+        metrics.importAccounts.finish(start, report.rejected() > 0 ? "Ogiltiga rader." : null);
+        return report;
+    }
+
+    // Skriver alla konton till en CSV-fil som kan läsas med importAccounts, med saldona vid en och samma
+    // tidpunkt. Returnerar antal konton.
+    public long exportAccounts(Path file) throws IOException {
+        long start = metrics.exportAccounts.start();
+        long accounts;
+        try (BalanceSnapshot snapshot = balanceSnapshot()) { // Summan i filen går jämnt ut även under trafik
+            accounts = AccountCsv.export(file, snapshot, snapshot::getBalanceCents);
+        }
+        metrics.exportAccounts.finish(start, null);
+        return accounts;
     }
 
     // Tar bort en användare baserat på ID
     public boolean deleteUser(String userId) {
         if (userId == null || userId.trim().isEmpty()) {
-            System.out.println("Ogiltigt användar-ID.");
+            metrics.deleteUser.finish(0, "Ogiltigt användar-ID.");
+            output.message("Ogiltigt användar-ID.");
             return false;
         }
-        User removedUser = users.remove(userId);
+        long start = metrics.deleteUser.start();
+        User removedUser;
+        long ticket = 0;
+        ReentrantLock lock = locks.lockFor(userId);
+        lock.lock(); // Väntar in pågående transaktioner på kontot innan det tas bort
+        try {
+            // Beloppet i en förberedd överföring ska kunna sättas tillbaka (abortTransferOut), så kontot
+            // finns kvar tills överföringen är avslutad
+            if (hasTransferOut(userId)) {
+                metrics.deleteUser.finish(start, TRANSFER_PENDING);
+                output.message(TRANSFER_PENDING + " Användare med ID " + userId + " kan inte tas bort än.");
+                return false;
+            }
+            removedUser = users.remove(userId);
+            if (removedUser != null) {
+                index.remove(removedUser);
+                pinVerifier.invalidate(userId);
+                ticket = log(JournalRecord.deleted(userId));
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(ticket);
+        metrics.deleteUser.finish(start, removedUser != null ? null : "Ingen användare hittades.");
         if (removedUser != null) {
-            System.out.println("Användare med ID " + userId + " har tagits bort.");
+            output.message("Användare med ID " + userId + " har tagits bort.");
             return true;
         } else {
-            System.out.println("Ingen användare hittades med ID " + userId + ".");
+            output.message("Ingen användare hittades med ID " + userId + ".");
             return false;
         }
     }
 
     // Hanterar insättning av pengar för en användare
     public void deposit(String userId, double amount) {
-        User user = users.get(userId);
-        if (user != null && amount > 0) {
-            user.setBalance(user.getBalance() + amount); // Uppdaterar saldot direkt i användarobjektet
-        } else {
+        if (!(amount > 0)) {
+            throw failed(metrics.deposit, "Ogiltigt användar-ID eller belopp."); // Hanterar felaktiga indata
+        }
+        depositCents(userId, Money.ofKronor(amount));
+    }
+
+    // Insättning med beloppet i öre, all aritmetik sker på long utan allokering
+    public void depositCents(String userId, long amountCents) {
+        depositCents(userId, amountCents, IdempotencyCache.NO_KEY);
+    }
+
+    // Insättning med en idempotensnyckel från terminalen (se IdempotencyCache). Skickas samma begäran
+    // igen med samma nyckel får den samma utfall som första gången, utan att sättas in igen.
+    public void depositCents(String userId, long amountCents, long requestKey) {
+        long start = metrics.deposit.start();
+        try {
+            applyDeposit(userId, amountCents, Transaction.Type.DEPOSIT, requestKey);
+        } catch (IllegalArgumentException e) {
+            metrics.deposit.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.deposit.finish(start, null);
+    }
+
+    private void applyDeposit(String userId, long amountCents, Transaction.Type historyType, long requestKey) {
+        if (userId == null || amountCents <= 0) {
             throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp."); // Hanterar felaktiga indata
         }
+        IdempotencyCache requests = this.requests;
+        int fingerprint = IdempotencyCache.fingerprint(JournalRecord.DEPOSIT, userId, null, amountCents);
+        long ticket;
+        int stripe = locks.indexFor(userId);
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock(); // Läs-ändra-skriv av saldot måste ske under kontots lås
+        long version = versions.begin(stripe);
+        try {
+            if (replayed(requests, requestKey, fingerprint)) {
+                ticket = appendedTicket();
+            } else {
+                try {
+                    User user = users.get(userId);
+                    if (user == null) {
+                        throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+                    }
+                    long balance = user.getBalanceCents();
+                    user.setBalanceCents(Money.add(balance, amountCents)); // Uppdaterar saldot direkt i användarobjektet
+                    versions.changed(user, balance, amountCents, version);
+                    recordHistory(user, historyType, amountCents, CoarseClock.millis());
+                    ticket = log(JournalRecord.balanceChange(JournalRecord.DEPOSIT, user, amountCents));
+                } catch (IllegalArgumentException e) {
+                    requests.record(requestKey, fingerprint, e.getMessage());
+                    throw e;
+                }
+                requests.record(requestKey, fingerprint, null);
+            }
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket); // Insättningen bekräftas först när den är skriven till disk
     }
 
     // Hanterar uttag av pengar för en användare
     public boolean withdraw(String userId, double amount) {
-        User user = users.get(userId);
-        if (user == null) {
+        if (userId == null) {
+            throw failed(metrics.withdraw, "Ogiltigt användar-ID."); // Hanterar ogiltigt användar-ID
+        }
+        if (!(amount > 0)) {
+            if (findUser(userId) == null) {
+                throw failed(metrics.withdraw, "Ogiltigt användar-ID.");
+            }
+            throw failed(metrics.withdraw, "Beloppet måste vara större än 0."); // Hanterar negativa belopp
+        }
+        return withdrawCents(userId, Money.ofKronor(amount));
+    }
+
+    // Uttag med beloppet i öre
+    public boolean withdrawCents(String userId, long amountCents) {
+        return withdrawCents(userId, amountCents, IdempotencyCache.NO_KEY);
+    }
+
+    // Uttag med en idempotensnyckel: en omsänd begäran får samma utfall som första gången (även samma
+    // fel, t.ex. otillräckligt saldo) och dras inte igen
+    public boolean withdrawCents(String userId, long amountCents, long requestKey) {
+        long start = metrics.withdraw.start();
+        try {
+            applyWithdrawal(userId, amountCents, Transaction.Type.WITHDRAW, requestKey);
+        } catch (IllegalArgumentException e) {
+            metrics.withdraw.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.withdraw.finish(start, null);
+        return true;
+    }
+
+    private void applyWithdrawal(String userId, long amountCents, Transaction.Type historyType, long requestKey) {
+        if (userId == null) {
             throw new IllegalArgumentException("Ogiltigt användar-ID."); // Hanterar ogiltigt användar-ID
         }
-        if (amount > 0 && user.getBalance() >= amount) {
-            user.setBalance(user.getBalance() - amount); // Minskar saldot vid ett lyckat uttag
-            return true;
-        } else if (amount <= 0) {
+        IdempotencyCache requests = this.requests;
+        int fingerprint = IdempotencyCache.fingerprint(JournalRecord.WITHDRAW, userId, null, amountCents);
+        long ticket;
+        int stripe = locks.indexFor(userId);
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock(); // Saldokontroll och dragning sker atomärt så att två uttag inte kan övertrassera kontot
+        long version = versions.begin(stripe);
+        try {
+            if (replayed(requests, requestKey, fingerprint)) {
+                ticket = appendedTicket();
+            } else {
+                try {
+                    ticket = withdrawLocked(users.get(userId), amountCents, historyType, version);
+                } catch (IllegalArgumentException e) {
+                    requests.record(requestKey, fingerprint, e.getMessage());
+                    throw e;
+                }
+                requests.record(requestKey, fingerprint, null);
+            }
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket); // Uttaget bekräftas först när det är skrivet till disk
+    }
+
+    // Drar beloppet från kontot under kontots lås och returnerar loggens biljett
+    private long withdrawLocked(User user, long amountCents, Transaction.Type historyType, long version) {
+        if (user == null) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        long balance = user.getBalanceCents();
+        if (amountCents > 0 && availableCents(user) >= amountCents) {
+            if (historyType == Transaction.Type.WITHDRAW) { // Gränserna gäller kontantuttag, inte överföringar
+                String limitError = withdrawalLimits.admit(user, amountCents);
+                if (limitError != null) {
+                    throw new IllegalArgumentException(limitError);
+                }
+            }
+            user.setBalanceCents(balance - amountCents); // Minskar saldot vid ett lyckat uttag
+            versions.changed(user, balance, -amountCents, version);
+            recordHistory(user, historyType, amountCents, CoarseClock.millis());
+            return log(JournalRecord.balanceChange(JournalRecord.WITHDRAW, user, amountCents));
+        } else if (amountCents <= 0) {
             throw new IllegalArgumentException("Beloppet måste vara större än 0."); // Hanterar negativa belopp
         } else {
             throw new IllegalArgumentException("Otillräckligt saldo."); // Meddelar om saldo inte räcker
         }
     }
+
+    // Reserverar ett belopp i kronor för ett uttag, se holdCents
+    public long hold(String userId, double amount) {
+        if (userId == null) {
+            throw failed(metrics.hold, "Ogiltigt användar-ID.");
+        }
+        if (!(amount > 0)) {
+            if (findUser(userId) == null) {
+                throw failed(metrics.hold, "Ogiltigt användar-ID.");
+            }
+            throw failed(metrics.hold, "Beloppet måste vara större än 0.");
+        }
+        return holdCents(userId, Money.ofKronor(amount));
+    }
+
+    // Första fasen i ett uttag: beloppet reserveras mot kontots tillgängliga saldo (saldot minus andra
+    // reservationer) med samma regler och fel som withdrawCents, men dras inte. Reservationen dras med
+    // captureHold när uttaget är klart (t.ex. när sedlarna matats ut) eller släpps med releaseHold, och
+    // släpps av sig själv efter holdTimeout om ingen av dem hinner. Returnerar reservationens ID.
+    // Reservationer finns bara i minnet; först captureHold skrivs till loggen.
+    public long holdCents(String userId, long amountCents) {
+        long start = metrics.hold.start();
+        long holdId;
+        try {
+            holdId = applyHold(userId, amountCents);
+        } catch (IllegalArgumentException e) {
+            metrics.hold.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.hold.finish(start, null);
+        return holdId;
+    }
+
+    private long applyHold(String userId, long amountCents) {
+        if (userId == null) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        int stripe = locks.indexFor(userId);
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        try {
+            User user = users.get(userId);
+            String error = checkWithdrawal(user, amountCents);
+            // Räknas in redan nu, så att uttaget inte kan nekas efter att sedlarna matats ut; släpps
+            // reservationen räknas det av igen
+            WithdrawalLimits limits = withdrawalLimits;
+            long admittedAt = limits.now();
+            if (error == null) {
+                error = limits.admit(user, amountCents, admittedAt);
+            }
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            return holds[stripe].add(user, amountCents, CoarseClock.millis(), holdTimeoutMillis, admittedAt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Andra fasen: drar det reserverade beloppet från kontot som ett vanligt uttag
+    public void captureHold(long holdId) {
+        long start = metrics.captureHold.start();
+        try {
+            applyCapture(holdId);
+        } catch (IllegalArgumentException e) {
+            metrics.captureHold.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.captureHold.finish(start, null);
+    }
+
+    private void applyCapture(long holdId) {
+        int stripe = HoldTable.stripeOf(holdId, locks.size());
+        if (stripe < 0) {
+            throw new IllegalArgumentException(NO_HOLD);
+        }
+        long ticket;
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        long version = versions.begin(stripe);
+        try {
+            HoldTable table = holds[stripe];
+            expireHolds(table);
+            HoldTable.Hold hold = table.find(holdId);
+            if (hold == null) {
+                throw new IllegalArgumentException(NO_HOLD);
+            }
+            User user = hold.user;
+            long amountCents = hold.amountCents;
+            table.remove(hold);
+            if (users.get(user.getId()) != user) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID."); // Kontot togs bort under reservationen
+            }
+            long balance = user.getBalanceCents(); // Räcker, eftersom inget annat får ta reserverade pengar
+            user.setBalanceCents(balance - amountCents);
+            versions.changed(user, balance, -amountCents, version);
+            recordHistory(user, Transaction.Type.WITHDRAW, amountCents, CoarseClock.millis());
+            ticket = log(JournalRecord.balanceChange(JournalRecord.WITHDRAW, user, amountCents));
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket); // Uttaget bekräftas först när det är skrivet till disk
+    }
+
+    // Släpper en reservation utan att dra beloppet, t.ex. om sedlarna inte kunde matas ut. Beloppet
+    // räknas av i uttagsgränserna igen, liksom när en reservation går ut. Returnerar false om
+    // reservationen redan har dragits, släppts eller gått ut.
+    public boolean releaseHold(long holdId) {
+        int stripe = HoldTable.stripeOf(holdId, locks.size());
+        if (stripe < 0) {
+            return false;
+        }
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        try {
+            HoldTable table = holds[stripe];
+            expireHolds(table);
+            HoldTable.Hold hold = table.find(holdId);
+            if (hold == null) {
+                return false;
+            }
+            table.release(hold, withdrawalLimits);
+        } finally {
+            lock.unlock();
+        }
+        metrics.releaseHold.count();
+        return true;
+    }
+
+    // Det som kan tas ut från kontot just nu: saldot minus kontots reservationer
+    public long getAvailableCents(String userId) {
+        if (userId == null) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        ReentrantLock lock = locks.lockFor(userId);
+        lock.lock();
+        try {
+            User user = users.get(userId);
+            if (user == null) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID.");
+            }
+            return availableCents(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Saldot minus reservationerna, under kontots lås. Har kontot reservationer flyttas låsgruppens
+    // tidshjul fram först, så att de som gått ut inte längre räknas.
+    private long availableCents(User user) {
+        if (user.getHeldCents() != 0) {
+            expireHolds(holds[locks.indexFor(user.getId())]);
+        }
+        return user.getBalanceCents() - user.getHeldCents();
+    }
+
+    private void expireHolds(HoldTable table) {
+        for (int expired = table.expire(CoarseClock.millis(), withdrawalLimits); expired > 0; expired--) {
+            metrics.holdExpired.count();
+        }
+    }
+
+    private static HoldTable[] createHoldTables(int stripes) {
+        HoldTable[] tables = new HoldTable[stripes];
+        for (int i = 0; i < stripes; i++) {
+            tables[i] = new HoldTable(i, stripes);
+        }
+        return tables;
+    }
+
+    // Om en begäran med samma nyckel redan har utförts: true om den lyckades, och dess fel kastas igen om
+    // den misslyckades. Anropas under kontots lås, så en omsändning som kommer medan originalet pågår
+    // väntar på det i stället för att utföras en gång till.
+    private boolean replayed(IdempotencyCache requests, long requestKey, int fingerprint) {
+        if (requestKey == IdempotencyCache.NO_KEY) {
+            return false;
+        }
+        int outcome = requests.find(requestKey, fingerprint);
+        if (outcome == IdempotencyCache.MISSING) {
+            return false;
+        }
+        metrics.replayedRequest.count();
+        if (outcome != IdempotencyCache.SUCCEEDED) {
+            throw new IllegalArgumentException(requests.error(outcome));
+        }
+        return true;
+    }
+
+    // Biljett som täcker allt i loggen hittills, så att en omsänd begäran som lyckades inte bekräftas
+    // innan originalet är skrivet till disk
+    private long appendedTicket() {
+        return journal == null ? 0 : journal.appendedPosition();
+    }
+
+    // Överför ett belopp i kronor mellan två konton
+    public void transfer(String fromId, String toId, double amount) {
+        if (!(amount > 0)) {
+            throw failed(metrics.transfer, "Beloppet måste vara större än 0.");
+        }
+        transferCents(fromId, toId, Money.ofKronor(amount));
+    }
+
+    // Överföring med beloppet i öre. Båda kontonas lås tas i stigande ordning, så två överföringar åt
+    // motsatt håll mellan samma konton kan aldrig vänta på varandra. Antingen ändras båda saldona
+    // eller inget av dem, och båda skrivs till loggen som en enda post.
+    public void transferCents(String fromId, String toId, long amountCents) {
+        transferCents(fromId, toId, amountCents, IdempotencyCache.NO_KEY);
+    }
+
+    // Överföring med en idempotensnyckel: en omsänd begäran får samma utfall som första gången
+    public void transferCents(String fromId, String toId, long amountCents, long requestKey) {
+        long start = metrics.transfer.start();
+        try {
+            applyTransfer(fromId, toId, amountCents, requestKey);
+        } catch (IllegalArgumentException e) {
+            metrics.transfer.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.transfer.finish(start, null);
+    }
+
+    private void applyTransfer(String fromId, String toId, long amountCents, long requestKey) {
+        if (fromId == null || toId == null) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        IdempotencyCache requests = this.requests;
+        int fingerprint = IdempotencyCache.fingerprint(JournalRecord.TRANSFER, fromId, toId, amountCents);
+        int fromStripe = locks.indexFor(fromId);
+        int toStripe = locks.indexFor(toId);
+        long ticket = 0;
+        String error;
+        locks.lockPair(fromStripe, toStripe);
+        long version = versions.begin(fromStripe); // Båda saldona får samma version
+        try {
+            if (replayed(requests, requestKey, fingerprint)) {
+                ticket = appendedTicket();
+                error = null;
+            } else {
+                User from = users.get(fromId);
+                User to = users.get(toId);
+                error = transferLocked(from, to, amountCents, version);
+                if (error == null) {
+                    ticket = log(JournalRecord.transfer(from, to, amountCents));
+                }
+                requests.record(requestKey, fingerprint, error);
+            }
+        } finally {
+            versions.end(fromStripe, version);
+            locks.unlockPair(fromStripe, toStripe);
+        }
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        awaitDurable(ticket); // Överföringen bekräftas först när den är skriven till disk
+    }
+
+    // Överföringar till och från konton i andra banker, i två faser (se BankRouter). Varje överföring har
+    // ett ID från routern och varje steg skrivs med ID:t till den egna bankens logg, så att en överföring
+    // som avbröts mitt i (t.ex. av en krasch) kan avslutas vid start. Fas 1 hos avsändaren: beloppet dras
+    // från kontot med samma regler och fel som withdrawCents och hålls för överföringen. Fas 2 är
+    // receiveTransferIn hos mottagaren och sedan commitTransferOut här, eller abortTransferOut här om
+    // mottagaren inte kunde ta emot beloppet.
+    public void prepareTransferOut(long transferId, String fromId, String toId, long amountCents) {
+        long start = metrics.transfer.start();
+        try {
+            applyPrepare(transferId, fromId, toId, amountCents);
+        } catch (IllegalArgumentException e) {
+            metrics.transfer.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.transfer.finish(start, null);
+    }
+
+    private void applyPrepare(long transferId, String fromId, String toId, long amountCents) {
+        if (fromId == null || toId == null) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        long ticket;
+        int stripe = locks.indexFor(fromId);
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        long version = versions.begin(stripe);
+        try {
+            User from = users.get(fromId);
+            String error = checkWithdrawal(from, amountCents);
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            if (pendingTransfers.putIfAbsent(transferId,
+                    new PendingTransfer(transferId, true, fromId, toId, amountCents, journalPosition())) != null) {
+                throw new IllegalArgumentException(TRANSFER_IN_USE);
+            }
+            long balance = from.getBalanceCents();
+            from.setBalanceCents(balance - amountCents);
+            versions.changed(from, balance, -amountCents, version);
+            recordHistory(from, Transaction.Type.TRANSFER_OUT, amountCents, CoarseClock.millis());
+            ticket = log(JournalRecord.transferStep(JournalRecord.TRANSFER_PREPARE, transferId, fromId,
+                    from.getBalanceCents(), toId, amountCents));
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket); // Mottagaren får beloppet först när dragningen är skriven till disk
+    }
+
+    // Avsändarens beslut när mottagaren har fått beloppet: överföringen är klar. Beslutet (commit eller
+    // abort) tas en gång per överföring, av routern.
+    public void commitTransferOut(long transferId) {
+        PendingTransfer transfer = pendingTransfers.get(transferId);
+        if (transfer == null || !transfer.outgoing()) {
+            throw new IllegalArgumentException(NO_TRANSFER);
+        }
+        awaitDurable(log(JournalRecord.transferStep(JournalRecord.TRANSFER_COMMIT, transferId, transfer.userId(), 0,
+                transfer.otherId(), transfer.amountCents())));
+        pendingTransfers.remove(transferId);
+    }
+
+    // Avsändarens beslut när mottagaren inte kunde ta emot beloppet: det sätts tillbaka på kontot
+    public void abortTransferOut(long transferId) {
+        PendingTransfer transfer = pendingTransfers.get(transferId);
+        if (transfer == null || !transfer.outgoing()) {
+            throw new IllegalArgumentException(NO_TRANSFER);
+        }
+        long ticket;
+        int stripe = locks.indexFor(transfer.userId());
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        long version = versions.begin(stripe);
+        try {
+            User from = users.get(transfer.userId());
+            if (from == null) { // deleteUser tar inte bort ett konto med en förberedd överföring
+                throw new IllegalStateException("Avsändarens konto saknas för överföring " + transferId + ".");
+            }
+            long balance = from.getBalanceCents();
+            from.setBalanceCents(Money.add(balance, transfer.amountCents()));
+            versions.changed(from, balance, transfer.amountCents(), version);
+            recordHistory(from, Transaction.Type.TRANSFER_IN, transfer.amountCents(), CoarseClock.millis());
+            ticket = log(JournalRecord.transferStep(JournalRecord.TRANSFER_ABORT, transferId, from.getId(),
+                    from.getBalanceCents(), transfer.otherId(), transfer.amountCents()));
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket);
+        pendingTransfers.remove(transferId);
+    }
+
+    // Fas 1 hos mottagaren: kontrollerar att kontot finns och att beloppet ryms i saldot.
+    // Returnerar felmeddelandet, eller null om kontot kan ta emot beloppet.
+    public String checkTransferIn(String toId, long amountCents) {
+        User to = findUser(toId);
+        if (to == null) {
+            return "Ogiltigt användar-ID.";
+        }
+        if (amountCents <= 0) {
+            return "Beloppet måste vara större än 0.";
+        }
+        if (to.getBalanceCents() > Long.MAX_VALUE - amountCents) {
+            return "Beloppet är för stort.";
+        }
+        return null;
+    }
+
+    // Fas 2 hos mottagaren: beloppet sätts in på kontot. Banken minns överföringen tills avsändarens
+    // beslut är skrivet (forgetTransferIn), så att den inte sätts in igen när den avslutas vid start.
+    public void receiveTransferIn(long transferId, String toId, String fromId, long amountCents) {
+        long start = metrics.transfer.start();
+        try {
+            applyReceive(transferId, toId, fromId, amountCents);
+        } catch (IllegalArgumentException e) {
+            metrics.transfer.finish(start, e.getMessage());
+            throw e;
+        }
+        metrics.transfer.finish(start, null);
+    }
+
+    private void applyReceive(long transferId, String toId, String fromId, long amountCents) {
+        if (toId == null || fromId == null || amountCents <= 0) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+        }
+        long ticket;
+        int stripe = locks.indexFor(toId);
+        ReentrantLock lock = locks.lockAt(stripe);
+        lock.lock();
+        long version = versions.begin(stripe);
+        try {
+            User to = users.get(toId);
+            if (to == null) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+            }
+            long balance = to.getBalanceCents();
+            long updated = Money.add(balance, amountCents);
+            if (pendingTransfers.putIfAbsent(transferId,
+                    new PendingTransfer(transferId, false, toId, fromId, amountCents, journalPosition())) != null) {
+                throw new IllegalArgumentException(TRANSFER_IN_USE);
+            }
+            to.setBalanceCents(updated);
+            versions.changed(to, balance, amountCents, version);
+            recordHistory(to, Transaction.Type.TRANSFER_IN, amountCents, CoarseClock.millis());
+            ticket = log(JournalRecord.transferStep(JournalRecord.TRANSFER_RECEIVE, transferId, toId,
+                    to.getBalanceCents(), fromId, amountCents));
+        } finally {
+            versions.end(stripe, version);
+            lock.unlock();
+        }
+        awaitDurable(ticket); // Avsändaren skriver sitt beslut först när insättningen är skriven till disk
+    }
+
+    // Avsändarens beslut om överföringen är skrivet, så mottagaren behöver inte minnas den längre
+    public void forgetTransferIn(long transferId) {
+        PendingTransfer transfer = pendingTransfers.get(transferId);
+        if (transfer != null && !transfer.outgoing()) {
+            pendingTransfers.remove(transferId);
+        }
+    }
+
+    // Överföringar från den här banken som väntar på avsändarens beslut
+    List<PendingTransfer> pendingTransfersOut() {
+        return pendingTransfers.values().stream().filter(PendingTransfer::outgoing).toList();
+    }
+
+    // Om kontot har en förberedd utgående överföring; anropas under kontots lås
+    private boolean hasTransferOut(String userId) {
+        for (PendingTransfer transfer : pendingTransfers.values()) {
+            if (transfer.outgoing() && transfer.userId().equals(userId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ID:n för överföringar som den här banken tagit emot men vars avsändare inte skrivit sitt beslut
+    List<Long> pendingTransfersIn() {
+        return pendingTransfers.values().stream().filter(t -> !t.outgoing()).map(PendingTransfer::transferId).toList();
+    }
+
+    // Om banken tagit emot överföringen och väntar på avsändarens beslut
+    boolean hasReceivedTransfer(long transferId) {
+        PendingTransfer transfer = pendingTransfers.get(transferId);
+        return transfer != null && !transfer.outgoing();
+    }
+
+    // Om banken har dragit överföringen och inte skrivit sitt beslut
+    boolean hasPreparedTransfer(long transferId) {
+        PendingTransfer transfer = pendingTransfers.get(transferId);
+        return transfer != null && transfer.outgoing();
+    }
+
+    // Utför en batch med ett resultat per operation. Operationerna delas i bitar; för varje bit låses
+    // alla inblandade kontogrupper en gång (i stigande ordning, så att samtidiga batchar inte kan låsa
+    // varandra), alla operationer utförs, och deras poster läggs till i loggen som en enda skrivning.
+    // Batchen väntar på disken en gång, i slutet.
+    public BatchResult applyBatch(List<BankOperation> operations) {
+        long batchStart = metrics.batch.start();
+        BatchResult result = new BatchResult(operations.size());
+        boolean[] stripes = new boolean[locks.size()];
+        List<JournalRecord> records = journal == null ? null : new ArrayList<>(BATCH_CHUNK);
+        long ticket = 0;
+        for (int start = 0; start < operations.size(); start += BATCH_CHUNK) {
+            int end = Math.min(operations.size(), start + BATCH_CHUNK);
+            Arrays.fill(stripes, false);
+            for (int i = start; i < end; i++) {
+                BankOperation operation = operations.get(i);
+                if (operation != null) {
+                    markStripe(stripes, operation.userId());
+                    markStripe(stripes, operation.targetId());
+                }
+            }
+            locks.lockAll(stripes);
+            int stripe = firstStripe(stripes);
+            long version = stripe < 0 ? 0 : versions.begin(stripe); // Hela biten blir synlig på en gång
+            try {
+                for (int i = start; i < end; i++) {
+                    String error;
+                    try {
+                        error = applyLocked(operations.get(i), records, version);
+                    } catch (IllegalArgumentException e) { // T.ex. saldo som inte ryms i en long
+                        error = e.getMessage();
+                    }
+                    if (error != null) {
+                        result.fail(i, error);
+                    }
+                    metrics.batchOperation.finish(0, error);
+                }
+                if (records != null && !records.isEmpty()) {
+                    ticket = journal.appendAll(records); // Under låsen så att ordningen per konto bevaras
+                    records.clear();
+                }
+            } finally {
+                if (stripe >= 0) {
+                    versions.end(stripe, version);
+                }
+                locks.unlockAll(stripes);
+            }
+        }
+        awaitDurable(ticket);
+        metrics.batch.finish(batchStart, null);
+        return result;
+    }
+
+    // Registrerar ett anrop som avvisas innan arbetet börjar och returnerar felet att kasta
+    private static IllegalArgumentException failed(MetricsRegistry.Operation operation, String error) {
+        operation.finish(0, error);
+        return new IllegalArgumentException(error);
+    }
+
+    private void markStripe(boolean[] stripes, String userId) {
+        if (userId != null) {
+            stripes[locks.indexFor(userId)] = true;
+        }
+    }
+
+    // Första markerade låsgruppen, eller -1 om ingen är markerad
+    private static int firstStripe(boolean[] stripes) {
+        for (int i = 0; i < stripes.length; i++) {
+            if (stripes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Utför en operation när kontonas lås redan är tagna. Returnerar felmeddelandet, eller null om den lyckades.
+    // Samma regler och meddelanden som de enskilda metoderna.
+    private String applyLocked(BankOperation operation, List<JournalRecord> records, long version) {
+        if (operation == null || operation.type() == null) {
+            return "Ogiltig operation.";
+        }
+        User user = findUser(operation.userId());
+        long amountCents = operation.amountCents();
+        switch (operation.type()) {
+            case DEPOSIT -> {
+                if (user == null || amountCents <= 0) {
+                    return "Ogiltigt användar-ID eller belopp.";
+                }
+                long balance = user.getBalanceCents();
+                user.setBalanceCents(Money.add(balance, amountCents));
+                versions.changed(user, balance, amountCents, version);
+                recordHistory(user, Transaction.Type.DEPOSIT, amountCents, CoarseClock.millis());
+                addRecord(records, JournalRecord.balanceChange(JournalRecord.DEPOSIT, user, amountCents));
+            }
+            case WITHDRAW -> {
+                String error = checkWithdrawal(user, amountCents);
+                if (error == null) {
+                    error = withdrawalLimits.admit(user, amountCents);
+                }
+                if (error != null) {
+                    return error;
+                }
+                long balance = user.getBalanceCents();
+                user.setBalanceCents(balance - amountCents);
+                versions.changed(user, balance, -amountCents, version);
+                recordHistory(user, Transaction.Type.WITHDRAW, amountCents, CoarseClock.millis());
+                addRecord(records, JournalRecord.balanceChange(JournalRecord.WITHDRAW, user, amountCents));
+            }
+            case TRANSFER -> {
+                User target = findUser(operation.targetId());
+                String error = transferLocked(user, target, amountCents, version);
+                if (error != null) {
+                    return error;
+                }
+                addRecord(records, JournalRecord.transfer(user, target, amountCents));
+            }
+        }
+        return null;
+    }
+
+    // Flyttar pengar mellan två konton när båda kontonas lås är tagna, med ändringens version.
+    // Returnerar felmeddelandet, eller null om överföringen gjordes. Vid fel har inget saldo ändrats.
+    private String transferLocked(User from, User to, long amountCents, long version) {
+        if (to == null) {
+            return "Ogiltigt användar-ID.";
+        }
+        if (to == from) {
+            return "Kan inte överföra till samma konto.";
+        }
+        String error = checkWithdrawal(from, amountCents);
+        if (error != null) {
+            return error;
+        }
+        long fromBalance = from.getBalanceCents();
+        long toBalance = to.getBalanceCents();
+        long targetBalance = Money.add(toBalance, amountCents); // Kastar innan något ändrats
+        from.setBalanceCents(fromBalance - amountCents);
+        to.setBalanceCents(targetBalance);
+        versions.changed(from, fromBalance, 0, version);
+        versions.changed(to, toBalance, 0, version);
+        long now = CoarseClock.millis();
+        recordHistory(from, Transaction.Type.TRANSFER_OUT, amountCents, now);
+        recordHistory(to, Transaction.Type.TRANSFER_IN, amountCents, now);
+        return null;
+    }
+
+    // Sparar en transaktion i kontots historik. Anropas under kontots lås, efter att saldot ändrats.
+    private void recordHistory(User user, Transaction.Type type, long amountCents, long timeMillis) {
+        AccountHistory.add(user.getOrCreateHistory(), historyStore, locks.indexFor(user.getId()), type, amountCents,
+                user.getBalanceCents(), timeMillis);
+    }
+
+    // Felmeddelandet om ett uttag inte får göras, annars null. Reserverade belopp kan inte tas ut.
+    private String checkWithdrawal(User user, long amountCents) {
+        if (user == null) {
+            return "Ogiltigt användar-ID.";
+        }
+        if (amountCents <= 0) {
+            return "Beloppet måste vara större än 0.";
+        }
+        if (availableCents(user) < amountCents) {
+            return "Otillräckligt saldo.";
+        }
+        return null;
+    }
+
+    private static void addRecord(List<JournalRecord> records, JournalRecord record) {
+        if (records != null) {
+            records.add(record);
+        }
+    }
 }
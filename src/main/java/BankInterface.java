@@ -1,3 +1,7 @@
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 public interface BankInterface {
      // Metod för att hämta en användare baserat på ID
      User getUserById(String id);
@@ -10,4 +14,50 @@ public interface BankInterface {
 
      // Metod för att lägga till en användare i banken
      void addUser(User user);
+
+     // Metod för att sätta in pengar (i kronor) på ett konto
+     void deposit(String userId, double amount);
+
+     // Metod för att ta ut pengar (i kronor) från ett konto
+     boolean withdraw(String userId, double amount);
+
+     // Insättning med beloppet i öre
+     void depositCents(String userId, long amountCents);
+
+     // Uttag med beloppet i öre
+     boolean withdrawCents(String userId, long amountCents);
+
+     // Metod för att överföra pengar (i kronor) mellan två konton, atomärt
+     void transfer(String fromId, String toId, double amount);
+
+     // Överföring med beloppet i öre
+     void transferCents(String fromId, String toId, long amountCents);
+
+     // Utför alla operationer i ordning och returnerar ett resultat per operation. En misslyckad
+     // operation stoppar inte resten. Standardversionen anropar de enskilda metoderna en i taget;
+     // Bank gör hela batchen med ett lås per kontogrupp och en skrivning till loggen.
+     default BatchResult applyBatch(List<BankOperation> operations) {
+          BatchResult result = new BatchResult(operations.size());
+          for (int i = 0; i < operations.size(); i++) {
+               BankOperation operation = operations.get(i);
+               try {
+                    if (operation == null || operation.type() == null) {
+                         throw new IllegalArgumentException("Ogiltig operation.");
+                    }
+                    switch (operation.type()) {
+                         case DEPOSIT -> depositCents(operation.userId(), operation.amountCents());
+                         case WITHDRAW -> withdrawCents(operation.userId(), operation.amountCents());
+                         case TRANSFER -> transferCents(operation.userId(), operation.targetId(), operation.amountCents());
+                    }
+               } catch (IllegalArgumentException e) {
+                    result.fail(i, e.getMessage());
+               }
+          }
+          return result;
+     }
+
+     // Samma som ovan för en ström av operationer (t.ex. rader ur en avräkningsfil)
+     default BatchResult applyBatch(Stream<BankOperation> operations) {
+          return applyBatch(operations.collect(Collectors.toList()));
+     }
 }
@@ -0,0 +1,53 @@
+import java.time.Duration;
+
+// Bankens mätpunkter, uppslagna en gång i registret så att Bank inte gör några namnuppslag per anrop.
+// Billiga läsningar räknas bara; operationer som tar lås, skriver loggen eller hashar tidsmäts också.
+final class BankMetrics {
+    final MetricsRegistry.Operation getUser;
+    final MetricsRegistry.Operation isCardLocked;
+    final MetricsRegistry.Operation verifyPin;
+    final MetricsRegistry.Operation addUser;
+    final MetricsRegistry.Operation deleteUser;
+    final MetricsRegistry.Operation deposit;
+    final MetricsRegistry.Operation withdraw;
+    final MetricsRegistry.Operation transfer;
+    final MetricsRegistry.Operation batch;
+    final MetricsRegistry.Operation batchOperation;
+    final MetricsRegistry.Operation indexQuery;
+    final MetricsRegistry.Operation history;
+    final MetricsRegistry.Operation snapshot;
+    final MetricsRegistry.Operation importAccounts;
+    final MetricsRegistry.Operation exportAccounts;
+    final MetricsRegistry.Operation reconcile;
+    final MetricsRegistry.Operation replayedRequest;
+    final MetricsRegistry.Operation hold;
+    final MetricsRegistry.Operation captureHold;
+    final MetricsRegistry.Operation releaseHold;
+    final MetricsRegistry.Operation holdExpired;
+    final MetricsRegistry.Rate cardsLocked;
+
+    BankMetrics(MetricsRegistry registry) {
+        getUser = registry.countedOperation("bank.getUserById");
+        isCardLocked = registry.countedOperation("bank.isCardLocked");
+        verifyPin = registry.operation("bank.verifyPin");
+        addUser = registry.operation("bank.addUser");
+        deleteUser = registry.operation("bank.deleteUser");
+        deposit = registry.operation("bank.deposit");
+        withdraw = registry.operation("bank.withdraw");
+        transfer = registry.operation("bank.transfer");
+        batch = registry.operation("bank.applyBatch");
+        batchOperation = registry.countedOperation("bank.applyBatch.operation");
+        indexQuery = registry.operation("bank.indexQuery");
+        history = registry.operation("bank.getRecentTransactions");
+        snapshot = registry.operation("bank.writeSnapshot");
+        importAccounts = registry.operation("bank.importAccounts");
+        exportAccounts = registry.operation("bank.exportAccounts");
+        reconcile = registry.operation("bank.reconcile");
+        replayedRequest = registry.countedOperation("bank.replayedRequest");
+        hold = registry.operation("bank.hold");
+        captureHold = registry.operation("bank.captureHold");
+        releaseHold = registry.countedOperation("bank.releaseHold");
+        holdExpired = registry.countedOperation("bank.holdExpired");
+        cardsLocked = registry.rate("bank.cardsLocked", Duration.ofMinutes(1));
+    }
+}
@@ -0,0 +1,21 @@
+// En operation i en batch: insättning, uttag eller överföring. Beloppet anges i öre.
+public record BankOperation(Type type, String userId, String targetId, long amountCents) {
+
+    public enum Type {
+        DEPOSIT,  // Insättning på userId
+        WITHDRAW, // Uttag från userId
+        TRANSFER  // Överföring från userId till targetId
+    }
+
+    public static BankOperation deposit(String userId, long amountCents) {
+        return new BankOperation(Type.DEPOSIT, userId, null, amountCents);
+    }
+
+    public static BankOperation withdraw(String userId, long amountCents) {
+        return new BankOperation(Type.WITHDRAW, userId, null, amountCents);
+    }
+
+    public static BankOperation transfer(String fromId, String toId, long amountCents) {
+        return new BankOperation(Type.TRANSFER, fromId, toId, amountCents);
+    }
+}
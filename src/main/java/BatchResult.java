@@ -0,0 +1,40 @@
+// Resultat för en batch, en post per operation i samma ordning som operationerna.
+// Lyckade operationer har inget felmeddelande; misslyckade har samma text som de enskilda anropen kastar.
+public class BatchResult {
+    private final String[] errors;
+    private int failures;
+
+    public BatchResult(int size) {
+        this.errors = new String[size];
+    }
+
+    // Markerar operation nummer index som misslyckad
+    void fail(int index, String error) {
+        if (errors[index] == null) {
+            failures++;
+        }
+        errors[index] = error;
+    }
+
+    // Antal operationer i batchen
+    public int size() {
+        return errors.length;
+    }
+
+    public boolean isSuccess(int index) {
+        return errors[index] == null;
+    }
+
+    // Felmeddelandet för operation nummer index, eller null om den lyckades
+    public String getError(int index) {
+        return errors[index];
+    }
+
+    public int getSuccessCount() {
+        return errors.length - failures;
+    }
+
+    public int getFailureCount() {
+        return failures;
+    }
+}
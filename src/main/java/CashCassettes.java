@@ -0,0 +1,287 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+// Sedelkassetterna i en bankomat, t.ex. 500, 200 och 100 kr. Antalet sedlar i alla kassetter ligger i en
+// enda long, 16 bitar per kassett, så att ett uttag tar sina sedlar ur alla kassetter med en
+// compareAndSet: två samtidiga uttag kan aldrig få samma sedlar och ingen behöver vänta på ett lås.
+//
+// Vilka sedlar ett belopp betalas med väljs ur en tabell per belopp med alla sätt att ta ut beloppet
+// med högst MAX_NOTES_PER_DISPENSE sedlar, sorterade efter antal sedlar (och bland lika många, flest
+// stora sedlar först). Det första sättet som ryms i kassetterna ger alltså färst sedlar. Tabellen
+// räknas fram första gången beloppet efterfrågas och delas av alla bankomater med samma valörer, så
+// en fråga är i regel bara en kontroll av första raden.
+//
+// Prognosen för när kassetterna tar slut följer uttagen löpande: för varje kassett en exponentiellt
+// avtagande summa av utbetalda sedlar (tidskonstant FORECAST_WINDOW), som delad med tidskonstanten är
+// takten just nu. Tiden tills kassetten är tom blir antalet sedlar kvar delat med takten.
+public class CashCassettes {
+    static final int MAX_CASSETTES = 4;
+    static final int MAX_NOTES = 0xFFFF; // Per kassett
+    static final int MAX_NOTES_PER_DISPENSE = 50; // Så många sedlar ryms i utmatningen
+    static final Duration FORECAST_WINDOW = Duration.ofHours(1);
+    private static final int LANE_BITS = 16;
+
+    // Uttagstabeller per uppsättning valörer, gemensamma för alla bankomater
+    private static final Map<List<Integer>, AtomicReferenceArray<long[]>> TABLES = new ConcurrentHashMap<>();
+
+    private final int[] denominations; // Valör per kassett i hela kronor, störst först
+    private final AtomicLong notes = new AtomicLong(); // Antal sedlar per kassett, 16 bitar var
+    private final AtomicReferenceArray<long[]> table; // Sätt att betala ut belopp / minsta valör, se combinations
+    private final int unit; // Största gemensamma delare för valörerna
+    private final LongSupplier clock; // Millisekunder, CoarseClock::millis utom i tester
+    private final double[] dispensed; // Avtagande summa utbetalda sedlar per kassett; skyddas av this
+    private long forecastMillis; // När summorna senast räknades fram; skyddas av this
+
+    // Kassetter med valörerna (hela kronor) och antalet sedlar i varje kassett
+    public CashCassettes(int[] denominations, int[] counts) {
+        this(denominations, counts, CoarseClock::millis);
+    }
+
+    public CashCassettes(int[] denominations, int[] counts, LongSupplier clock) {
+        if (denominations.length == 0 || denominations.length > MAX_CASSETTES
+                || denominations.length != counts.length) {
+            throw new IllegalArgumentException("Ogiltiga kassetter.");
+        }
+        Integer[] order = new Integer[denominations.length];
+        for (int i = 0; i < order.length; i++) {
+            if (denominations[i] <= 0 || counts[i] < 0 || counts[i] > MAX_NOTES) {
+                throw new IllegalArgumentException("Ogiltiga kassetter.");
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> denominations[i]).reversed());
+        this.denominations = new int[order.length];
+        long packed = 0;
+        int gcd = 0;
+        for (int i = 0; i < order.length; i++) {
+            this.denominations[i] = denominations[order[i]];
+            packed |= (long) counts[order[i]] << (i * LANE_BITS);
+            gcd = gcd(gcd, this.denominations[i]);
+        }
+        for (int i = 1; i < order.length; i++) {
+            if (this.denominations[i] == this.denominations[i - 1]) {
+                throw new IllegalArgumentException("Ogiltiga kassetter.");
+            }
+        }
+        this.notes.set(packed);
+        this.unit = gcd;
+        int amounts = MAX_NOTES_PER_DISPENSE * this.denominations[0] / gcd + 1; // Största beloppet / unit + 1
+        this.table = TABLES.computeIfAbsent(Arrays.stream(this.denominations).boxed().toList(),
+                key -> new AtomicReferenceArray<>(amounts));
+        this.clock = clock;
+        this.dispensed = new double[order.length];
+        this.forecastMillis = clock.getAsLong();
+    }
+
+    // Standardfyllning: 2000 sedlar var av 500, 200 och 100 kr
+    public static CashCassettes standard() {
+        return new CashCassettes(new int[] {500, 200, 100}, new int[] {2000, 2000, 2000});
+    }
+
+    // Valörerna i hela kronor, störst först. Index i arrayen är kassettens nummer i övriga metoder.
+    public int[] getDenominations() {
+        return denominations.clone();
+    }
+
+    // Antal sedlar kvar i kassetten
+    public int getCount(int cassette) {
+        return lane(notes.get(), cassette);
+    }
+
+    // Summan av alla sedlar i öre
+    public long getTotalCents() {
+        long packed = notes.get();
+        long total = 0;
+        for (int i = 0; i < denominations.length; i++) {
+            total += (long) lane(packed, i) * denominations[i];
+        }
+        return Money.ofWholeKronor(total);
+    }
+
+    // Sant om beloppet kan betalas ut med sedlarna som finns just nu
+    public boolean canDispense(long amountCents) {
+        long[] ways = combinations(amountCents);
+        return ways != null && firstFitting(ways, notes.get()) != 0;
+    }
+
+    // Tar sedlarna för beloppet ur kassetterna, med så få sedlar som möjligt. Returnerar antal sedlar
+    // per kassett (i samma ordning som getDenominations), eller null om beloppet inte kan betalas ut.
+    public int[] dispense(long amountCents) {
+        long[] ways = combinations(amountCents);
+        if (ways == null) {
+            return null;
+        }
+        while (true) {
+            long current = notes.get();
+            long way = firstFitting(ways, current);
+            if (way == 0) {
+                return null;
+            }
+            if (notes.compareAndSet(current, current - way)) { // Inget lån mellan kassetterna, alla ryms
+                int[] taken = unpack(way);
+                recordDispense(taken, 1);
+                return taken;
+            }
+        }
+    }
+
+    // Lägger tillbaka sedlar som tagits med dispense, t.ex. när banken inte godkände uttaget
+    public void restore(int[] taken) {
+        add(taken);
+        recordDispense(taken, -1);
+    }
+
+    // Fyller på kassetterna med det angivna antalet sedlar per kassett
+    public void refill(int[] added) {
+        add(added);
+    }
+
+    private void add(int[] counts) {
+        if (counts.length != denominations.length) {
+            throw new IllegalArgumentException("Ogiltigt antal kassetter.");
+        }
+        while (true) {
+            long current = notes.get();
+            long updated = 0;
+            for (int i = 0; i < denominations.length; i++) {
+                int count = lane(current, i) + counts[i];
+                if (counts[i] < 0 || count > MAX_NOTES) {
+                    throw new IllegalArgumentException("Kassetten rymmer inte så många sedlar.");
+                }
+                updated |= (long) count << (i * LANE_BITS);
+            }
+            if (notes.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    // Beräknad tid tills kassetten är tom med nuvarande uttagstakt, eller null om inget tagits ut på länge
+    public synchronized Duration timeUntilEmpty(int cassette) {
+        decayTo(clock.getAsLong());
+        double perMilli = dispensed[cassette] / FORECAST_WINDOW.toMillis();
+        if (perMilli < 1e-12) {
+            return null;
+        }
+        return Duration.ofMillis((long) Math.min(Long.MAX_VALUE / 2, getCount(cassette) / perMilli));
+    }
+
+    // Sant om någon kassett väntas ta slut inom horizon
+    public boolean isLowCash(Duration horizon) {
+        for (int i = 0; i < denominations.length; i++) {
+            Duration left = timeUntilEmpty(i);
+            if (left != null && left.compareTo(horizon) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Uppdaterar prognosen efter ett uttag (sign 1) eller återlagda sedlar (sign -1)
+    private synchronized void recordDispense(int[] taken, int sign) {
+        decayTo(clock.getAsLong());
+        for (int i = 0; i < taken.length; i++) {
+            dispensed[i] = Math.max(0, dispensed[i] + sign * taken[i]);
+        }
+    }
+
+    // Låter summorna avta fram till now. Anropas med this låst.
+    private void decayTo(long now) {
+        if (now <= forecastMillis) {
+            return;
+        }
+        double factor = Math.exp(-(double) (now - forecastMillis) / FORECAST_WINDOW.toMillis());
+        for (int i = 0; i < dispensed.length; i++) {
+            dispensed[i] *= factor;
+        }
+        forecastMillis = now;
+    }
+
+    // Första sättet i tabellen som ryms i kassetterna, eller 0
+    private long firstFitting(long[] ways, long available) {
+        for (long way : ways) {
+            if (fits(way, available)) {
+                return way;
+            }
+        }
+        return 0;
+    }
+
+    private boolean fits(long way, long available) {
+        for (int i = 0; i < denominations.length; i++) {
+            if (lane(way, i) > lane(available, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Alla sätt att betala ut beloppet, färst sedlar först, eller null om beloppet aldrig kan betalas ut.
+    // Räknas fram vid första frågan om beloppet; samtidiga frågor kan räkna samma rad, med samma resultat.
+    private long[] combinations(long amountCents) {
+        if (amountCents <= 0 || !Money.isMultipleOfKronor(amountCents, unit)) {
+            return null;
+        }
+        long units = amountCents / Money.ofWholeKronor(unit);
+        if (units >= table.length()) {
+            return null;
+        }
+        long[] ways = table.get((int) units);
+        if (ways == null) {
+            List<Long> found = new ArrayList<>();
+            enumerate((int) units * unit, 0, 0, MAX_NOTES_PER_DISPENSE, found);
+            found.sort(Comparator.comparingInt(this::noteCount)); // Stabil: bland lika många, störst valör först
+            ways = found.stream().mapToLong(Long::longValue).toArray();
+            table.set((int) units, ways);
+        }
+        return ways.length == 0 ? null : ways;
+    }
+
+    // Lägger till alla sätt att betala remaining kronor med kassetterna från cassette och framåt
+    private void enumerate(int remaining, int cassette, long way, int notesLeft, List<Long> found) {
+        int denomination = denominations[cassette];
+        int most = Math.min(Math.min(remaining / denomination, notesLeft), MAX_NOTES);
+        if (cassette == denominations.length - 1) {
+            if (remaining % denomination == 0 && remaining / denomination <= most) {
+                found.add(way | (long) (remaining / denomination) << (cassette * LANE_BITS));
+            }
+            return;
+        }
+        for (int count = most; count >= 0; count--) {
+            enumerate(remaining - count * denomination, cassette + 1,
+                    way | (long) count << (cassette * LANE_BITS), notesLeft - count, found);
+        }
+    }
+
+    private int noteCount(long way) {
+        int total = 0;
+        for (int i = 0; i < denominations.length; i++) {
+            total += lane(way, i);
+        }
+        return total;
+    }
+
+    private int[] unpack(long way) {
+        int[] counts = new int[denominations.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = lane(way, i);
+        }
+        return counts;
+    }
+
+    private static int lane(long packed, int cassette) {
+        return (int) (packed >>> (cassette * LANE_BITS)) & MAX_NOTES;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -0,0 +1,577 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Minnessnål bank för mycket många konton. I stället för ett User-objekt per konto lagras allt i
+// primitiva arrayer (kolumner) indexerade med ett platsnummer, och ett öppet adresserat index
+// översätter numeriska konto-ID:n till platsnummer. User-objekt skapas bara när någon ber om ett,
+// som tunna vyer som läser och skriver direkt i kolumnerna. Ungefär 70 byte per konto (varav 36 för
+// PIN-hashen) jämfört med över 250 byte för User + PinHash + HashMap-post, och nästan inga objekt
+// för skräpsamlaren att gå igenom.
+public class CompactBank implements BankInterface {
+    private static final int CHUNK_BITS = 16; // Kolumnerna delas i bitar om 65 536 konton
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = Integer.MAX_VALUE >>> CHUNK_BITS;
+    private static final long EMPTY_KEY = -1; // Tom plats i indexet (numeriska ID:n är aldrig negativa)
+    private static final int NO_SLOT = -1; // Borttaget konto i indexet
+
+    // Bitar i flaggkolumnen
+    private static final int ACTIVE = 1;
+    private static final int LOCKED = 2;
+    private static final int ATTEMPTS_SHIFT = 2; // Misslyckade försök lagras i de tre bitarna ovanför
+    private static final int MAX_ATTEMPTS = 7;
+    private static final int CHECKS_SHIFT = 5; // Pågående PIN-kontroller (se User.reservePinAttempt) i de översta tre
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    // Kolumner, en bit i taget. De yttre arrayerna har plats för alla bitar från början så att
+    // läsare aldrig behöver se en ny yttre array.
+    private final long[][] balances = new long[MAX_CHUNKS][];
+    private final int[][] pinIterations = new int[MAX_CHUNKS][];
+    private final long[][] pinWords = new long[MAX_CHUNKS][]; // Fyra per konto: saltets och hashens två halvor
+    private final byte[][] flags = new byte[MAX_CHUNKS][];
+    private final long[][] slotKeys = new long[MAX_CHUNKS][]; // Platsnummer -> numeriskt ID (för vyer)
+
+    // ID:n som inte är rena tal (ovanligt) hanteras vid sidan av
+    private final Map<String, Integer> namedSlots = new ConcurrentHashMap<>();
+    private final Map<Integer, String> slotNames = new ConcurrentHashMap<>();
+    private final PinVerifier pinVerifier = PinVerifier.shared();
+    private volatile SessionOutput output = SessionOutput.console(); // Meddelanden från addUser/deleteUser
+
+    private final ReentrantLock indexLock = new ReentrantLock(); // Skrivare av indexet (nya konton) går en i taget
+    private final LockStripes locks = new LockStripes(); // Lås per kontogrupp för saldo- och flaggändringar
+    private volatile Index index; // Läses utan lås
+    private int nextSlot; // Skyddas av indexLock
+
+    // Öppet adresserat index: numeriskt ID -> platsnummer, linjär sondering
+    private static final class Index {
+        final long[] keys;
+        final int[] slots;
+        final int mask;
+        int size; // Skyddas av indexLock
+
+        Index(int capacity) {
+            keys = new long[capacity];
+            slots = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, EMPTY_KEY);
+        }
+    }
+
+    public CompactBank() {
+        this(1024);
+    }
+
+    // Förväntat antal konton, så att indexet inte behöver växa under inläsning
+    public CompactBank(int expectedAccounts) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) Math.min(1 << 30, expectedAccounts * 4L / 3)) * 2 - 1);
+        this.index = new Index(capacity);
+    }
+
+    // Numeriskt ID utan inledande nollor (så att "012" och "12" inte blandas ihop), annars -1
+    static long numericKey(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18 || (length > 1 && id.charAt(0) == '0')) {
+            return EMPTY_KEY;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return EMPTY_KEY;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Söker platsnumret för ett ID, eller NO_SLOT om kontot inte finns. Tar inga lås.
+    private int slotOf(String id) {
+        if (id == null || id.isEmpty()) {
+            return NO_SLOT;
+        }
+        long key = numericKey(id);
+        if (key == EMPTY_KEY) {
+            Integer slot = namedSlots.get(id);
+            return slot == null ? NO_SLOT : slot;
+        }
+        Index current = index;
+        int position = hash(key) & current.mask;
+        while (true) {
+            long candidate = (long) LONGS.getAcquire(current.keys, position); // Ses först när platsnumret är skrivet
+            if (candidate == key) {
+                return (int) INTS.getVolatile(current.slots, position);
+            }
+            if (candidate == EMPTY_KEY) {
+                return NO_SLOT;
+            }
+            position = (position + 1) & current.mask;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // Fibonacci-hashning sprider närliggande kontonummer
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean isActive(int slot) {
+        return slot != NO_SLOT && (flagsOf(slot) & ACTIVE) != 0;
+    }
+
+    private int flagsOf(int slot) {
+        return (byte) BYTES.getVolatile(flags[slot >>> CHUNK_BITS], slot & CHUNK_MASK) & 0xFF;
+    }
+
+    private void setFlags(int slot, int value) {
+        BYTES.setVolatile(flags[slot >>> CHUNK_BITS], slot & CHUNK_MASK, (byte) value);
+    }
+
+    private long balanceOf(int slot) {
+        return (long) LONGS.getVolatile(balances[slot >>> CHUNK_BITS], slot & CHUNK_MASK);
+    }
+
+    private void setBalance(int slot, long balanceCents) {
+        LONGS.setVolatile(balances[slot >>> CHUNK_BITS], slot & CHUNK_MASK, balanceCents);
+    }
+
+    private ReentrantLock lockFor(int slot) {
+        return locks.lockAt(slot & (locks.size() - 1));
+    }
+
+    // Hämtar en vy av kontot, eller null om det inte finns. Vyn skapas på begäran och är billig.
+    @Override
+    public User getUserById(String id) {
+        int slot = slotOf(id);
+        return isActive(slot) ? new AccountView(id, slot) : null;
+    }
+
+    @Override
+    public boolean isCardLocked(String userId) {
+        int slot = slotOf(userId);
+        return isActive(slot) && (flagsOf(slot) & LOCKED) != 0;
+    }
+
+    @Override
+    public boolean verifyPin(String userId, String pin) {
+        int slot = slotOf(userId);
+        if (!isActive(slot) || pin == null || (flagsOf(slot) & LOCKED) != 0) {
+            return false; // Ett låst kort loggar aldrig in, även med rätt PIN
+        }
+        return pinVerifier.verify(userId, pinHashOf(slot), pin);
+    }
+
+    // Återskapar kontots PIN-hash ur kolumnerna
+    private PinHash pinHashOf(int slot) {
+        int chunk = slot >>> CHUNK_BITS;
+        int offset = slot & CHUNK_MASK;
+        long[] words = pinWords[chunk];
+        int word = offset * 4;
+        return PinHash.of(pinIterations[chunk][offset], words[word], words[word + 1], words[word + 2], words[word + 3]);
+    }
+
+    // Sätter vart bankens meddelanden skickas, som Bank.setOutput
+    public void setOutput(SessionOutput output) {
+        this.output = output;
+    }
+
+    // Kopierar användarens värden in i kolumnerna. Själva User-objektet sparas inte.
+    @Override
+    public void addUser(User user) {
+        if (user == null || user.getId() == null || user.getId().isEmpty()) {
+            output.message("Ogiltig användare. Kan inte läggas till.");
+            return;
+        }
+        if (tryAddUser(user)) {
+            output.message("Användare med ID " + user.getId() + " har lagts till.");
+        } else {
+            output.message("Användare med ID " + user.getId() + " finns redan.");
+        }
+    }
+
+    // Lägger till ett konto utan utskrift, returnerar false om ID:t redan finns
+    public boolean tryAddUser(User user) {
+        String id = user.getId();
+        indexLock.lock();
+        try {
+            int existing = slotOf(id);
+            if (isActive(existing)) {
+                return false;
+            }
+            int slot = existing != NO_SLOT ? existing : allocateSlot(); // Ett borttaget konto återanvänder sin plats
+            int chunk = slot >>> CHUNK_BITS;
+            int offset = slot & CHUNK_MASK;
+            PinHash pinHash = user.getPinHash();
+            pinIterations[chunk][offset] = pinHash.getIterations();
+            long[] words = pinWords[chunk];
+            words[offset * 4] = pinHash.getSalt0();
+            words[offset * 4 + 1] = pinHash.getSalt1();
+            words[offset * 4 + 2] = pinHash.getHash0();
+            words[offset * 4 + 3] = pinHash.getHash1();
+            setBalance(slot, user.getBalanceCents());
+            int attempts = Math.min(MAX_ATTEMPTS, user.getFailedAttempts());
+            setFlags(slot, ACTIVE | (user.isLocked() ? LOCKED : 0) | (attempts << ATTEMPTS_SHIFT));
+            if (existing == NO_SLOT) {
+                publish(id, slot);
+            }
+            return true;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    // Reserverar nästa platsnummer och allokerar en ny bit i kolumnerna vid behov (under indexLock)
+    private int allocateSlot() {
+        int slot = nextSlot++;
+        int chunk = slot >>> CHUNK_BITS;
+        if (balances[chunk] == null) {
+            balances[chunk] = new long[CHUNK_SIZE];
+            pinIterations[chunk] = new int[CHUNK_SIZE];
+            pinWords[chunk] = new long[CHUNK_SIZE * 4];
+            flags[chunk] = new byte[CHUNK_SIZE];
+            slotKeys[chunk] = new long[CHUNK_SIZE];
+        }
+        return slot;
+    }
+
+    // Gör ett nytt konto synligt för läsare (under indexLock). Platsnumret skrivs före nyckeln.
+    private void publish(String id, int slot) {
+        long key = numericKey(id);
+        slotKeys[slot >>> CHUNK_BITS][slot & CHUNK_MASK] = key;
+        if (key == EMPTY_KEY) {
+            slotNames.put(slot, id);
+            namedSlots.put(id, slot);
+            return;
+        }
+        Index current = index;
+        if ((current.size + 1) * 4L > current.keys.length * 3L) {
+            current = grow(current); // Håller fyllnadsgraden under 75 %
+        }
+        int position = hash(key) & current.mask;
+        while (current.keys[position] != EMPTY_KEY) {
+            position = (position + 1) & current.mask;
+        }
+        INTS.setVolatile(current.slots, position, slot);
+        LONGS.setRelease(current.keys, position, key);
+        current.size++;
+    }
+
+    // Bygger ett dubbelt så stort index och publicerar det. Läsare som håller det gamla ser fortfarande
+    // alla konton som fanns när de började.
+    private Index grow(Index old) {
+        Index grown = new Index(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; i++) {
+            long key = old.keys[i];
+            if (key != EMPTY_KEY) {
+                int position = hash(key) & grown.mask;
+                while (grown.keys[position] != EMPTY_KEY) {
+                    position = (position + 1) & grown.mask;
+                }
+                grown.keys[position] = key;
+                grown.slots[position] = (int) INTS.getVolatile(old.slots, i);
+            }
+        }
+        grown.size = old.size;
+        index = grown;
+        return grown;
+    }
+
+    // Tar bort ett konto. Platsen och indexposten finns kvar och återanvänds om ID:t läggs till igen.
+    public boolean deleteUser(String userId) {
+        if (userId == null || userId.trim().isEmpty()) {
+            output.message("Ogiltigt användar-ID.");
+            return false;
+        }
+        boolean removed = false;
+        int slot = slotOf(userId);
+        if (slot != NO_SLOT) {
+            ReentrantLock lock = lockFor(slot);
+            lock.lock();
+            try {
+                int current = flagsOf(slot);
+                if ((current & ACTIVE) != 0) {
+                    setFlags(slot, 0);
+                    setBalance(slot, 0);
+                    removed = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (removed) {
+            output.message("Användare med ID " + userId + " har tagits bort.");
+        } else {
+            output.message("Ingen användare hittades med ID " + userId + ".");
+        }
+        return removed;
+    }
+
+    // Insättning i kronor, samma regler som Bank
+    public void deposit(String userId, double amount) {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+        }
+        depositCents(userId, Money.ofKronor(amount));
+    }
+
+    public void depositCents(String userId, long amountCents) {
+        int slot = slotOf(userId);
+        if (slot == NO_SLOT || amountCents <= 0) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+        }
+        ReentrantLock lock = lockFor(slot);
+        lock.lock();
+        try {
+            if (!isActive(slot)) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID eller belopp.");
+            }
+            setBalance(slot, Money.add(balanceOf(slot), amountCents));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Uttag i kronor, samma regler och felmeddelanden som Bank
+    public boolean withdraw(String userId, double amount) {
+        if (!isActive(slotOf(userId))) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Beloppet måste vara större än 0.");
+        }
+        return withdrawCents(userId, Money.ofKronor(amount));
+    }
+
+    public boolean withdrawCents(String userId, long amountCents) {
+        int slot = slotOf(userId);
+        if (slot == NO_SLOT) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        ReentrantLock lock = lockFor(slot);
+        lock.lock();
+        try {
+            if (!isActive(slot)) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID.");
+            }
+            long balance = balanceOf(slot);
+            if (amountCents <= 0) {
+                throw new IllegalArgumentException("Beloppet måste vara större än 0.");
+            }
+            if (balance < amountCents) {
+                throw new IllegalArgumentException("Otillräckligt saldo.");
+            }
+            setBalance(slot, balance - amountCents);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Överföring i kronor, samma regler och felmeddelanden som Bank
+    @Override
+    public void transfer(String fromId, String toId, double amount) {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Beloppet måste vara större än 0.");
+        }
+        transferCents(fromId, toId, Money.ofKronor(amount));
+    }
+
+    // Båda kontonas lås tas i stigande ordning så att motriktade överföringar inte kan låsa varandra
+    @Override
+    public void transferCents(String fromId, String toId, long amountCents) {
+        int from = slotOf(fromId);
+        int to = slotOf(toId);
+        if (from == NO_SLOT || to == NO_SLOT) {
+            throw new IllegalArgumentException("Ogiltigt användar-ID.");
+        }
+        if (from == to) {
+            throw new IllegalArgumentException("Kan inte överföra till samma konto.");
+        }
+        int fromStripe = from & (locks.size() - 1);
+        int toStripe = to & (locks.size() - 1);
+        locks.lockPair(fromStripe, toStripe);
+        try {
+            if (!isActive(from) || !isActive(to)) {
+                throw new IllegalArgumentException("Ogiltigt användar-ID.");
+            }
+            if (amountCents <= 0) {
+                throw new IllegalArgumentException("Beloppet måste vara större än 0.");
+            }
+            long balance = balanceOf(from);
+            if (balance < amountCents) {
+                throw new IllegalArgumentException("Otillräckligt saldo.");
+            }
+            long targetBalance = Money.add(balanceOf(to), amountCents);
+            setBalance(from, balance - amountCents);
+            setBalance(to, targetBalance);
+        } finally {
+            locks.unlockPair(fromStripe, toStripe);
+        }
+    }
+
+    // Ändrar kortflaggorna atomärt med compareAndSet, utan lås. Returnerar antal misslyckade försök efteråt.
+    private int updateCardState(int slot, boolean lock, int attemptsDelta, boolean resetAttempts) {
+        byte[] chunk = flags[slot >>> CHUNK_BITS];
+        int offset = slot & CHUNK_MASK;
+        while (true) {
+            byte currentByte = (byte) BYTES.getVolatile(chunk, offset);
+            int current = currentByte & 0xFF;
+            if ((current & ACTIVE) == 0) {
+                return 0;
+            }
+            int attempts = resetAttempts ? 0 : Math.min(MAX_ATTEMPTS, attemptsOf(current) + attemptsDelta);
+            boolean locked = lock || (current & LOCKED) != 0 || attempts >= 3;
+            byte next = (byte) (ACTIVE | (locked ? LOCKED : 0) | (attempts << ATTEMPTS_SHIFT)
+                    | (current >>> CHECKS_SHIFT << CHECKS_SHIFT));
+            if (BYTES.compareAndSet(chunk, offset, currentByte, next)) {
+                return attempts;
+            }
+        }
+    }
+
+    private static int attemptsOf(int flags) {
+        return (flags >>> ATTEMPTS_SHIFT) & MAX_ATTEMPTS;
+    }
+
+    // Som User.reservePinAttempt: tar ett försök om kortet är olåst och väntar aldrig. Returnerar
+    // försökets nummer, 0 om de återstående försöken redan kontrolleras, eller -1 om kortet är låst.
+    private int reservePinAttempt(int slot) {
+        byte[] chunk = flags[slot >>> CHUNK_BITS];
+        int offset = slot & CHUNK_MASK;
+        while (true) {
+            byte currentByte = (byte) BYTES.getVolatile(chunk, offset);
+            int current = currentByte & 0xFF;
+            int attempts = attemptsOf(current);
+            if ((current & ACTIVE) == 0 || (current & LOCKED) != 0 || attempts >= 3) {
+                return -1;
+            }
+            int attempt = attempts + (current >>> CHECKS_SHIFT) + 1;
+            if (attempt > 3) {
+                return 0;
+            }
+            if (BYTES.compareAndSet(chunk, offset, currentByte, (byte) (current + (1 << CHECKS_SHIFT)))) {
+                return attempt;
+            }
+        }
+    }
+
+    // Som User.finishPinAttempt och User.releasePinAttempt: avslutar en pågående kontroll och räknar
+    // den som rätt, fel eller (counted == false) inte alls. Returnerar antal misslyckade försök efteråt.
+    private int finishPinAttempt(int slot, boolean counted, boolean correct) {
+        byte[] chunk = flags[slot >>> CHUNK_BITS];
+        int offset = slot & CHUNK_MASK;
+        while (true) {
+            byte currentByte = (byte) BYTES.getVolatile(chunk, offset);
+            int current = currentByte & 0xFF;
+            if ((current & ACTIVE) == 0) {
+                return 0;
+            }
+            int attempts = attemptsOf(current);
+            boolean locked = (current & LOCKED) != 0;
+            if (counted && correct) {
+                attempts = locked ? attempts : 0;
+            } else if (counted) {
+                attempts = Math.min(MAX_ATTEMPTS, attempts + 1);
+                locked |= attempts >= 3;
+            }
+            int checks = Math.max(0, (current >>> CHECKS_SHIFT) - 1);
+            byte next = (byte) (ACTIVE | (locked ? LOCKED : 0) | (attempts << ATTEMPTS_SHIFT) | (checks << CHECKS_SHIFT));
+            if (BYTES.compareAndSet(chunk, offset, currentByte, next)) {
+                return attempts;
+            }
+        }
+    }
+
+    // User-vy över ett konto i kolumnerna. Alla läsningar och skrivningar går direkt mot banken,
+    // så ändringar via vyn (t.ex. från ATM) syns för alla andra.
+    private final class AccountView extends User {
+        private final int slot;
+
+        private AccountView(String id, int slot) {
+            super(id);
+            this.slot = slot;
+        }
+
+        @Override
+        public PinHash getPinHash() {
+            return pinHashOf(slot);
+        }
+
+        @Override
+        public double getBalance() {
+            return Money.toKronor(balanceOf(slot));
+        }
+
+        @Override
+        public long getBalanceCents() {
+            return balanceOf(slot);
+        }
+
+        @Override
+        public void setBalance(double balance) {
+            if (balance < 0) {
+                throw new IllegalArgumentException("Saldo kan inte vara negativt.");
+            }
+            setBalanceCents(Money.ofKronor(balance));
+        }
+
+        @Override
+        public void setBalanceCents(long balanceCents) {
+            if (balanceCents < 0) {
+                throw new IllegalArgumentException("Saldo kan inte vara negativt.");
+            }
+            CompactBank.this.setBalance(slot, balanceCents);
+        }
+
+        @Override
+        public int getFailedAttempts() {
+            return attemptsOf(flagsOf(slot));
+        }
+
+        @Override
+        public boolean isLocked() {
+            return (flagsOf(slot) & LOCKED) != 0;
+        }
+
+        @Override
+        public void lockCard() {
+            updateCardState(slot, true, 0, false);
+        }
+
+        @Override
+        public int recordFailedAttempt() {
+            return updateCardState(slot, false, 1, false);
+        }
+
+        @Override
+        public int reservePinAttempt() {
+            return CompactBank.this.reservePinAttempt(slot);
+        }
+
+        @Override
+        public int finishPinAttempt(boolean correct) {
+            return CompactBank.this.finishPinAttempt(slot, true, correct);
+        }
+
+        @Override
+        public void releasePinAttempt() {
+            CompactBank.this.finishPinAttempt(slot, false, false);
+        }
+
+        @Override
+        public void resetFailedAttempts() {
+            updateCardState(slot, false, 0, true);
+        }
+
+        @Override
+        void restoreCardState(int failedAttempts, boolean locked) {
+            updateCardState(slot, locked, 0, true);
+            updateCardState(slot, false, Math.max(failedAttempts, 0), false);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fil för de historikposter som inte längre ryms i kontonas ringbuffertar (AccountHistory). Posterna
+// skrivs i grupper: en grupp är positionen för kontots föregående grupp (long), antal poster (int),
+// fyra byte utfyllnad och sedan posterna, tre long var. Ett kontos historik läses alltså bakåt genom
+// att följa kedjan från kontots senaste grupp.
+//
+// Grupperna samlas i sidor i minnet (PAGE_SIZE byte), en sida som fylls per låsgrupp i banken. Sidan
+// skyddas av låsgruppens lås, som banken ändå håller för kontot, så en utskrivning är en kopiering till
+// sidan utan något lås som delas av alla konton. En grupp delas aldrig mellan två sidor. Varje ny sida
+// får nästa lediga plats i filen, och en full sida lämnas till en skrivtråd, så ingen skrivning till
+// disken sker under kontots lås. Tills sidan är skriven läses dess grupper ur minnet.
+//
+// Utan angiven fil används en temporär fil som skapas vid första skrivningen och tas bort av close
+// (eller när processen avslutas). Historiken gäller processens livstid; saldona återskapas från
+// transaktionsloggen.
+public class HistoryStore implements AutoCloseable {
+    static final long NO_BATCH = -1;
+    static final int PAGE_SIZE = 16 * 1024; // En sida per låsgrupp i minnet, så hellre små sidor
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = AccountHistory.LONGS_PER_ENTRY * Long.BYTES;
+    private static final int MAX_BATCH_BYTES = HEADER_BYTES + AccountHistory.SPILL_BATCH * ENTRY_BYTES;
+
+    // Var en läsning på disken börjar: kontots senaste grupp och hur många av de nyaste posterna som
+    // redan lästs ur ringbufferten och ska hoppas över
+    record Position(long batch, long skip) {
+    }
+
+    // En sida och dess plats i filen. Fylls under låsgruppens lås och ändras inte efter att den lämnats
+    // till skrivtråden; grupperna i den läses utan lås, eftersom en grupp aldrig ändras när den skrivits.
+    private static final class Page {
+        final long start;
+        final ByteBuffer bytes;
+
+        Page(long start, int size) {
+            this.start = start;
+            this.bytes = ByteBuffer.allocate(size);
+        }
+    }
+
+    private static final Page END = new Page(NO_BATCH, 0); // Säger åt skrivtråden att sluta
+
+    private final Path file; // null: temporär fil
+    private final Page[] filling; // Sidan som fylls per låsgrupp; skyddas av låsgruppens lås
+    private final AtomicLong nextPageStart = new AtomicLong();
+    private final Map<Long, Page> unwritten = new ConcurrentHashMap<>(); // Sidor som inte skrivits än, per start
+    private final BlockingQueue<Page> full = new LinkedBlockingQueue<>(); // Sidor som väntar på skrivtråden
+    private final AtomicLong lostEntries = new AtomicLong();
+    private volatile FileChannel channel; // Öppnas av skrivtråden vid första sidan
+    private volatile boolean failed; // En sida kunde inte skrivas
+    private volatile Thread writer; // Startas vid första fulla sidan
+    private boolean closed; // Skyddas av this
+    private Path temporaryFile; // Skrivs av skrivtråden, läses av close efter join
+
+    // Temporär fil som skapas vid behov, med en sida per låsgrupp
+    public HistoryStore(int stripes) {
+        this(null, stripes);
+    }
+
+    // Den angivna filen; tidigare innehåll skrivs över
+    public HistoryStore(Path file, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Antal låsgrupper måste vara större än 0.");
+        }
+        this.file = file;
+        this.filling = new Page[stripes];
+    }
+
+    // Antal poster som inte kunde skrivas till disken och därför saknas i historiken
+    public long getLostEntries() {
+        return lostEntries.get();
+    }
+
+    // Lägger count poster ur kontots ring (se AccountHistory), från löpnumret fromSequence, sist i kontots
+    // kedja. Anropas under låsgruppens lås (stripe). Om filen inte går att skriva tappas de äldre posterna
+    // hellre än att transaktionen misslyckas.
+    void append(int stripe, long[] history, long fromSequence, int count) {
+        if (failed) {
+            lostEntries.addAndGet(count);
+            return;
+        }
+        Page page = filling[stripe];
+        if (page == null || page.bytes.remaining() < HEADER_BYTES + count * ENTRY_BYTES) {
+            if (page != null) {
+                handOff(page);
+            }
+            page = new Page(nextPageStart.getAndAdd(PAGE_SIZE), PAGE_SIZE);
+            unwritten.put(page.start, page); // Innan någon grupp i sidan kan hittas
+            filling[stripe] = page;
+        }
+        ByteBuffer bytes = page.bytes;
+        long position = page.start + bytes.position();
+        bytes.putLong(history[AccountHistory.LAST_BATCH]).putInt(count).putInt(0);
+        for (int i = 0; i < count; i++) {
+            int offset = AccountHistory.offset(fromSequence + i);
+            bytes.putLong(history[offset]).putLong(history[offset + 1]).putLong(history[offset + 2]);
+        }
+        history[AccountHistory.LAST_BATCH] = position;
+        history[AccountHistory.DISK_ENTRIES] += count;
+    }
+
+    // Lämnar en full sida till skrivtråden
+    private void handOff(Page page) {
+        if (writer == null) {
+            startWriter();
+        }
+        full.offer(page);
+    }
+
+    private synchronized void startWriter() {
+        if (writer == null && !closed) {
+            Thread thread = new Thread(this::writeLoop, "history-writer");
+            thread.setDaemon(true);
+            thread.start();
+            writer = thread;
+        }
+    }
+
+    // Skrivtråden: skriver varje full sida på sin plats i filen, tills close
+    private void writeLoop() {
+        while (true) {
+            Page page;
+            try {
+                page = full.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (page == END) {
+                return;
+            }
+            if (!failed) {
+                write(page);
+            }
+            unwritten.remove(page.start); // Efter skrivningen, så att en läsning hittar gruppen i sidan eller filen
+        }
+    }
+
+    private void write(Page page) {
+        try {
+            if (channel == null) {
+                Path path = file;
+                if (path == null) {
+                    path = Files.createTempFile("bankomat-historik", ".pages");
+                    path.toFile().deleteOnExit();
+                    temporaryFile = path;
+                }
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(page.bytes.array()); // Hela sidan, så att en läsning nära slutet aldrig når förbi filen
+            long position = page.start;
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+        } catch (IOException e) {
+            failed = true; // Kedjorna pekar in i sidan, så inget äldre än den kan läsas längre
+        }
+    }
+
+    // Läser poster bakåt från position tills result har limit poster eller kedjan tar slut, nyast först
+    void read(Position position, int limit, List<Transaction> result) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(MAX_BATCH_BYTES);
+        long batch = position.batch();
+        long skip = position.skip();
+        while (batch != NO_BATCH && result.size() < limit) {
+            readBatch(batch, bytes.clear());
+            long previous = bytes.getLong(0);
+            int count = bytes.getInt(Long.BYTES);
+            if (skip >= count) {
+                skip -= count;
+            } else {
+                for (int i = (int) (count - 1 - skip); i >= 0 && result.size() < limit; i--) {
+                    int offset = HEADER_BYTES + i * ENTRY_BYTES;
+                    result.add(AccountHistory.decode(bytes.getLong(offset), bytes.getLong(offset + Long.BYTES),
+                            bytes.getLong(offset + 2 * Long.BYTES)));
+                }
+                skip = 0;
+            }
+            batch = previous;
+        }
+    }
+
+    // Läser gruppen på position, ur sidan i minnet om den inte skrivits till filen än
+    private void readBatch(long batch, ByteBuffer bytes) throws IOException {
+        int length = (int) Math.min(MAX_BATCH_BYTES, PAGE_SIZE - batch % PAGE_SIZE); // Grupper delas inte mellan sidor
+        if (failed) {
+            throw new IOException("Historikfilen kunde inte skrivas.");
+        }
+        Page page = unwritten.get(batch - batch % PAGE_SIZE);
+        if (page != null) {
+            bytes.put(page.bytes.array(), (int) (batch - page.start), length);
+            return;
+        }
+        FileChannel source = channel;
+        if (source == null) {
+            throw new IOException("Historikfilen är stängd.");
+        }
+        bytes.limit(length);
+        long position = batch;
+        while (bytes.hasRemaining()) {
+            int read = source.read(bytes, position);
+            if (read < 0) {
+                throw new IOException("Historikfilen är kortare än väntat.");
+            }
+            position += read;
+        }
+    }
+
+    // Skriver de fulla sidor som väntar, stoppar skrivtråden och stänger filen. En temporär fil tas bort.
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = writer;
+        }
+        if (thread != null) {
+            full.offer(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        FileChannel open = channel;
+        channel = null;
+        if (open != null) {
+            open.close();
+        }
+        if (temporaryFile != null) {
+            Files.deleteIfExists(temporaryFile);
+            temporaryFile = null;
+        }
+    }
+}
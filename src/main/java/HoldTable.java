@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Reservationer för uttag i en låsgrupp i banken: ett belopp som hålls mot kontots saldo tills det
+// dras (Bank.captureHold), släpps (Bank.releaseHold) eller går ut. En reservation räknas in i
+// kontots uttagsgränser när den görs; släpps den eller går ut räknas den av igen (release). Används
+// bara under låsgruppens lås, som banken ändå tar för kontot, så inget här behöver vara trådsäkert.
+//
+// Reservationerna ligger på platser i en array som återanvänds, så en ny reservation allokerar inget
+// när tabellen väl vuxit till sin storlek. Reservationens ID är platsen, låsgruppen och ett löpnummer:
+// banken hittar låsgruppen och platsen direkt ur ID:t, och ett gammalt ID kan inte träffa en ny
+// reservation på samma plats.
+//
+// Utgången sköts av ett tidshjul med WHEEL_SIZE hinkar om TICK_MILLIS var. Varje reservation ligger i
+// en länkad lista i hinken för sin utgångstid, så att lägga till och ta bort kostar lika lite oavsett
+// antal. Hjulet flyttas fram av trafiken i låsgruppen (expire), utan timertrådar eller schemalagda
+// uppgifter per reservation, och varje passerad hink gås igenom en gång. En reservation längre bort än
+// ett varv ligger kvar i sin hink tills varvet då dess tid är inne.
+final class HoldTable {
+    static final int TICK_MILLIS = 500;
+    static final int WHEEL_SIZE = 128; // Tvåpotens; ett varv är drygt en minut
+    private static final int INITIAL_SLOTS = 16;
+
+    // En reservation; objekten återanvänds för nya reservationer på samma plats
+    static final class Hold {
+        final int slot;
+        long id; // 0 när platsen är ledig
+        User user;
+        long amountCents;
+        long expiresAt;
+        long admittedAt; // När beloppet räknades in i uttagsgränserna (WithdrawalLimits.now)
+        int bucket; // Hinken i hjulet
+        Hold previous; // Grannar i hjulets hink, eller next i listan med lediga platser
+        Hold next;
+
+        Hold(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    private final int stripe;
+    private final int stripes;
+    private Hold[] slots = new Hold[0]; // Skapas vid första reservationen
+    private Hold[] wheel; // Första reservationen i varje hink
+    private int used; // Platser som skapats hittills
+    private Hold free; // Lediga platser
+    private int size;
+    private int sequence; // Löpnummer i ID:t, 31 bitar
+    private long tick; // Senast genomgångna hinkens tid / TICK_MILLIS
+
+    HoldTable(int stripe, int stripes) {
+        this.stripe = stripe;
+        this.stripes = stripes;
+    }
+
+    // Låsgruppen som reservationen med ID:t hör till, eller -1 om ID:t inte kan vara en reservation
+    static int stripeOf(long id, int stripes) {
+        return id <= 0 ? -1 : (int) (id & Integer.MAX_VALUE) % stripes;
+    }
+
+    // Lägger till en reservation som går ut efter ttlMillis och räknar in beloppet i kontots
+    // reservationer. admittedAt är när beloppet räknades in i uttagsgränserna. Returnerar
+    // reservationens ID.
+    long add(User user, long amountCents, long now, long ttlMillis, long admittedAt) {
+        if (wheel == null) {
+            wheel = new Hold[WHEEL_SIZE];
+            tick = now / TICK_MILLIS;
+        }
+        Hold hold = free != null ? free : newSlot();
+        free = hold.next;
+        sequence = sequence == Integer.MAX_VALUE ? 1 : sequence + 1;
+        hold.id = (long) sequence << 31 | ((long) hold.slot * stripes + stripe);
+        hold.user = user;
+        hold.amountCents = amountCents;
+        hold.expiresAt = now + ttlMillis;
+        hold.admittedAt = admittedAt;
+        // Hinken för första genomgången när tiden är inne, minst nästa hink (den nuvarande är redan gången igenom)
+        long due = Math.max((hold.expiresAt + TICK_MILLIS - 1) / TICK_MILLIS, tick + 1);
+        hold.bucket = (int) (due & (WHEEL_SIZE - 1));
+        hold.previous = null;
+        hold.next = wheel[hold.bucket];
+        if (hold.next != null) {
+            hold.next.previous = hold;
+        }
+        wheel[hold.bucket] = hold;
+        user.setHeldCents(user.getHeldCents() + amountCents);
+        size++;
+        return hold.id;
+    }
+
+    // Reservationen med ID:t, eller null om den har dragits, släppts eller gått ut
+    Hold find(long id) {
+        if (stripeOf(id, stripes) != stripe) {
+            return null;
+        }
+        int slot = (int) (id & Integer.MAX_VALUE) / stripes;
+        Hold hold = slot < used ? slots[slot] : null;
+        return hold != null && hold.id == id ? hold : null;
+    }
+
+    // Släpper en reservation som inte dras: räknar av den i uttagsgränserna och tar bort den
+    void release(Hold hold, WithdrawalLimits limits) {
+        limits.refund(hold.user, hold.amountCents, hold.admittedAt);
+        remove(hold);
+    }
+
+    // Tar bort reservationen och dess belopp från kontots reservationer
+    void remove(Hold hold) {
+        if (hold.previous != null) {
+            hold.previous.next = hold.next;
+        } else {
+            wheel[hold.bucket] = hold.next;
+        }
+        if (hold.next != null) {
+            hold.next.previous = hold.previous;
+        }
+        hold.user.setHeldCents(hold.user.getHeldCents() - hold.amountCents);
+        hold.id = 0;
+        hold.user = null;
+        hold.previous = null;
+        hold.next = free;
+        free = hold;
+        size--;
+    }
+
+    // Flyttar fram hjulet till now och släpper reservationer som gått ut. Returnerar hur många.
+    int expire(long now, WithdrawalLimits limits) {
+        long target = now / TICK_MILLIS;
+        if (size == 0 || target <= tick) {
+            tick = Math.max(tick, target);
+            return 0;
+        }
+        int expired = 0;
+        long steps = Math.min(target - tick, WHEEL_SIZE); // Efter ett helt varv är alla hinkar genomgångna
+        for (long step = 1; step <= steps; step++) {
+            Hold hold = wheel[(int) ((tick + step) & (WHEEL_SIZE - 1))];
+            while (hold != null) {
+                Hold next = hold.next;
+                if (hold.expiresAt <= now) {
+                    release(hold, limits);
+                    expired++;
+                }
+                hold = next;
+            }
+        }
+        tick = target;
+        return expired;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Hold newSlot() {
+        if ((long) (used + 1) * stripes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("För många reservationer.");
+        }
+        if (used == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(INITIAL_SLOTS, used * 2));
+        }
+        Hold hold = new Hold(used);
+        slots[used++] = hold;
+        return hold;
+    }
+}
@@ -0,0 +1,187 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+// Minne av nyligen utförda transaktioner per idempotensnyckel, så att en terminal som skickar om en
+// begäran (t.ex. efter ett nätverksfel) får samma svar som första gången i stället för att beloppet
+// dras två gånger. Nyckeln väljs av terminalen, 64 bitar som inte får återanvändas (t.ex. slumpade).
+//
+// Posterna lagras utan objekt: i öppet adresserade long-tabeller med nyckeln i en array och i en
+// annan ett fingeravtryck av begäran (typ, konton och belopp) tillsammans med utfallet (0 = lyckades,
+// annars numret på felmeddelandet). En fråga är en hashning och i regel en eller två läsningar.
+//
+// Tabellerna delas i SHARDS delar efter nyckelns hash, var och en med eget lås. Varje del har
+// SEGMENTS segment som tar emot nya nycklar under var sin period på ttl / (SEGMENTS - 1). När det
+// nyaste segmentets period har gått, eller det är halvfullt, töms det äldsta och blir det nya. En
+// nyckel finns alltså kvar i minst ttl (om inte storleksgränsen slår till först), och utgång kostar en
+// Arrays.fill per segment i stället för arbete per post.
+public final class IdempotencyCache {
+    static final long NO_KEY = 0; // Begäran utan nyckel; den nyckeln sparas aldrig
+    static final int MISSING = -1; // find: nyckeln finns inte
+    static final int SUCCEEDED = 0; // find: transaktionen lyckades
+    static final String KEY_REUSED = "Nyckeln har redan använts för en annan transaktion.";
+
+    private static final int SHARDS = 64; // Tvåpotens
+    private static final int SEGMENTS = 4;
+    private static final int MIN_SLOTS = 16;
+
+    private final int slots; // Platser per segment, en tvåpotens; halvfullt räknas som fullt
+    private final long ttlMillis;
+    private final long segmentMillis;
+    private final LongSupplier clock; // Millisekunder, CoarseClock::millis utom i tester
+    private final AtomicReferenceArray<Shard> shards = new AtomicReferenceArray<>(SHARDS); // Skapas vid första nyckeln
+
+    // Felmeddelanden per nummer (utfallen är ett litet antal fasta texter); skyddas av this
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] messages = {null};
+
+    // En del av tabellerna; skyddas av sitt eget lås
+    private static final class Shard {
+        final long[][] keys;
+        final long[][] values;
+        final int[] sizes = new int[SEGMENTS];
+        final long[] started = new long[SEGMENTS]; // När segmentet började ta emot nycklar
+        int current = -1; // Segmentet som tar emot nya nycklar, -1 innan det första
+
+        Shard(int slots) {
+            keys = new long[SEGMENTS][slots];
+            values = new long[SEGMENTS][slots];
+        }
+    }
+
+    // Minst ttl för varje nyckel och högst ungefär capacity nycklar totalt
+    public IdempotencyCache(int capacity, Duration ttl) {
+        this(capacity, ttl, CoarseClock::millis);
+    }
+
+    public IdempotencyCache(int capacity, Duration ttl, LongSupplier clock) {
+        if (capacity <= 0 || ttl == null || ttl.toMillis() < SEGMENTS - 1) {
+            throw new IllegalArgumentException("Ogiltig storlek eller tid för idempotensnycklar.");
+        }
+        int perSegment = Math.max(MIN_SLOTS / 2, capacity / (SHARDS * SEGMENTS));
+        this.slots = Integer.highestOneBit(perSegment * 2 - 1) << 1;
+        this.ttlMillis = ttl.toMillis();
+        this.segmentMillis = ttlMillis / (SEGMENTS - 1);
+        this.clock = clock;
+    }
+
+    // Standard: en miljon nycklar, som sparas i minst tio minuter
+    public static IdempotencyCache standard() {
+        return new IdempotencyCache(1 << 20, Duration.ofMinutes(10));
+    }
+
+    // Fingeravtryck av en begäran, så att en nyckel som återanvänds för en annan transaktion upptäcks
+    static int fingerprint(int type, String userId, String targetId, long amountCents) {
+        int hash = type;
+        hash = 31 * hash + userId.hashCode();
+        hash = 31 * hash + (targetId == null ? 0 : targetId.hashCode());
+        return 31 * hash + Long.hashCode(amountCents);
+    }
+
+    // Utfallet för nyckeln: MISSING, SUCCEEDED eller numret på felmeddelandet (se error). Kastar om
+    // nyckeln redan använts för en annan begäran.
+    int find(long key, int fingerprint) {
+        Shard shard = shards.get(shardOf(key));
+        if (shard == null) {
+            return MISSING;
+        }
+        synchronized (shard) {
+            long now = clock.getAsLong();
+            for (int age = 0; age < SEGMENTS && shard.current >= 0; age++) {
+                int segment = Math.floorMod(shard.current - age, SEGMENTS);
+                if (shard.sizes[segment] == 0 || now - shard.started[segment] >= ttlMillis + segmentMillis) {
+                    continue; // Tomt, eller så gammalt att alla nycklar i det har gått ut
+                }
+                int slot = probe(shard.keys[segment], key);
+                if (shard.keys[segment][slot] == key) {
+                    long value = shard.values[segment][slot];
+                    if ((int) (value >>> 32) != fingerprint) {
+                        throw new IllegalArgumentException(KEY_REUSED);
+                    }
+                    return (int) value;
+                }
+            }
+            return MISSING;
+        }
+    }
+
+    // Sparar utfallet för nyckeln: null om transaktionen lyckades, annars felmeddelandet
+    void record(long key, int fingerprint, String error) {
+        if (key == NO_KEY) {
+            return;
+        }
+        int code = error == null ? SUCCEEDED : codeFor(error);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            long now = clock.getAsLong();
+            int segment = shard.current;
+            if (segment < 0 || now - shard.started[segment] >= segmentMillis || shard.sizes[segment] >= slots / 2) {
+                segment = (segment + 1) % SEGMENTS; // Det äldsta segmentet blir det nya
+                Arrays.fill(shard.keys[segment], NO_KEY);
+                shard.sizes[segment] = 0;
+                shard.started[segment] = now;
+                shard.current = segment;
+            }
+            long[] keys = shard.keys[segment];
+            int slot = probe(keys, key);
+            if (keys[slot] == NO_KEY) {
+                keys[slot] = key;
+                shard.sizes[segment]++;
+            }
+            shard.values[segment][slot] = (long) fingerprint << 32 | (code & 0xFFFFFFFFL);
+        }
+    }
+
+    // Felmeddelandet för ett utfall från find
+    String error(int code) {
+        return messages[code];
+    }
+
+    private synchronized int codeFor(String error) {
+        Integer code = codes.get(error);
+        if (code == null) {
+            code = messages.length;
+            String[] grown = Arrays.copyOf(messages, code + 1);
+            grown[code] = error;
+            messages = grown; // Publiceras innan numret kan hittas i en tabell
+            codes.put(error, code);
+        }
+        return code;
+    }
+
+    private Shard shardFor(long key) {
+        int index = shardOf(key);
+        Shard shard = shards.get(index);
+        if (shard == null) {
+            shards.compareAndSet(index, null, new Shard(slots));
+            shard = shards.get(index);
+        }
+        return shard;
+    }
+
+    private static int shardOf(long key) {
+        return (int) (mix(key) >>> 58) & (SHARDS - 1); // De höga bitarna; de låga väljer plats
+    }
+
+    // Platsen för nyckeln, eller den tomma plats där den skulle ligga (linjär sondering)
+    private static int probe(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (keys[slot] != key && keys[slot] != NO_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Sprider bitarna så att följdnummer som nycklar inte hamnar bredvid varandra (murmur3 fmix64)
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -0,0 +1,20 @@
+import java.time.Duration;
+import java.util.List;
+
+// Sammanfattning av en massinläsning av konton (AccountCsv.importInto). I stället för en utskrift per
+// rad räknas raderna, och felmeddelanden sparas för de första MAX_ERRORS ogiltiga raderna.
+public record ImportReport(long rows, long imported, long duplicates, long rejected, List<String> errors,
+                           Duration elapsed) {
+
+    public static final int MAX_ERRORS = 100;
+
+    public ImportReport {
+        errors = List.copyOf(errors);
+    }
+
+    // En rad text, t.ex. för loggen efter en inläsning
+    public String summary() {
+        return String.format("%d rader lästa på %.1f s: %d konton tillagda, %d fanns redan, %d ogiltiga.",
+                rows, elapsed.toMillis() / 1000.0, imported, duplicates, rejected);
+    }
+}
@@ -0,0 +1,60 @@
+// En post i transaktionsloggen. Saldot efter ändringen sparas så att uppspelning blir idempotent.
+// Överföringar är en enda post med båda kontonas nya saldon, så de kan aldrig spelas upp till hälften.
+// Överföringar mellan banker (se BankRouter) skrivs i steg i var sin banks logg, med överföringens ID
+// i fältet för mottagarens saldo (som den ena banken ändå inte känner till), se transferId.
+public record JournalRecord(byte type, String userId, String pinHash, long amountCents, long balanceCents,
+                            String targetId, long targetBalanceCents) {
+    public static final byte CREATE = 1;   // Konto skapat (med PIN-hash och startsaldo)
+    public static final byte DELETE = 2;   // Konto borttaget
+    public static final byte DEPOSIT = 3;  // Insättning
+    public static final byte WITHDRAW = 4; // Uttag
+    public static final byte TRANSFER = 5; // Överföring från userId till targetId
+    public static final byte TRANSFER_PREPARE = 6; // Hos avsändaren: beloppet dragits från userId för targetId
+    public static final byte TRANSFER_RECEIVE = 7; // Hos mottagaren: beloppet satts in på userId från targetId
+    public static final byte TRANSFER_COMMIT = 8;  // Hos avsändaren: mottagaren har fått beloppet
+    public static final byte TRANSFER_ABORT = 9;   // Hos avsändaren: beloppet satts tillbaka på userId
+    public static final byte CARD_STATE = 10; // Kortets misslyckade PIN-försök (amountCents) och låsning (balanceCents 1)
+
+    // Post som bara gäller ett konto
+    public JournalRecord(byte type, String userId, String pinHash, long amountCents, long balanceCents) {
+        this(type, userId, pinHash, amountCents, balanceCents, null, 0);
+    }
+
+    // Post för ett nytt konto (med PIN-hashen i lagrat format, se PinHash.encode)
+    public static JournalRecord created(User user) {
+        return new JournalRecord(CREATE, user.getId(), user.getPinHash().encode(), 0, user.getBalanceCents());
+    }
+
+    // Post för ett borttaget konto
+    public static JournalRecord deleted(String userId) {
+        return new JournalRecord(DELETE, userId, "", 0, 0);
+    }
+
+    // Post för kortets status efter en ändring, t.ex. när en bankomat låser kortet
+    public static JournalRecord cardState(User user) {
+        return new JournalRecord(CARD_STATE, user.getId(), "", user.getFailedAttempts(), user.isLocked() ? 1 : 0);
+    }
+
+    // Post för en saldoändring
+    public static JournalRecord balanceChange(byte type, User user, long amountCents) {
+        return new JournalRecord(type, user.getId(), "", amountCents, user.getBalanceCents());
+    }
+
+    // Post för ett steg i en överföring mellan banker: userId är kontot i den här banken och otherId
+    // kontot i den andra. Saldot är kontots saldo efter steget (oanvänt i TRANSFER_COMMIT).
+    public static JournalRecord transferStep(byte type, long transferId, String userId, long balanceCents,
+                                             String otherId, long amountCents) {
+        return new JournalRecord(type, userId, "", amountCents, balanceCents, otherId, transferId);
+    }
+
+    // ID:t för en överföring mellan banker, i posterna TRANSFER_PREPARE till TRANSFER_ABORT
+    public long transferId() {
+        return targetBalanceCents;
+    }
+
+    // Post för en överföring, efter att båda saldona ändrats
+    public static JournalRecord transfer(User from, User to, long amountCents) {
+        return new JournalRecord(TRANSFER, from.getId(), "", amountCents, from.getBalanceCents(),
+                to.getId(), to.getBalanceCents());
+    }
+}
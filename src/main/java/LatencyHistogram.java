@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram för svarstider (i nanosekunder) i samma anda som HdrHistogram: varje tvåpotens delas i
+// 16 hinkar, vilket ger ungefär 6 % upplösning över hela talområdet med en fast array.
+// Registrering är ett par bitoperationer och en ökning av hinkens LongAdder, utan allokering. LongAdder
+// sprider samtidiga ökningar över flera celler, så trådar som mäter samma operation inte slåss om en
+// och samma cachelinje.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    // Registrerar ett värde (negativa värden räknas som 0)
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexFor(value)].increment();
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int indexFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Minsta värde som hamnar i hinken
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (1L << exponent) | ((long) sub << (exponent - SUB_BUCKET_BITS));
+    }
+
+    // Antal registrerade värden
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i].sum();
+        }
+        return total;
+    }
+
+    // Största registrerade värdet
+    public long max() {
+        return max.get();
+    }
+
+    // Värdet som den angivna andelen (0-100) av alla värden är mindre än eller lika med.
+    // Svaret är övre gränsen för hinken, så det överskattar med högst en hinkbredd.
+    public long percentile(double percent) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                long upper = i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+public class LockStripes {
+    private final ReentrantLock[] locks; // Ett fast antal lås som delas av alla konton
+    private final int mask; // Används för att snabbt räkna fram rätt lås (antal lås är en tvåpotens)
+
+    // Skapar minst det angivna antalet lås, avrundat uppåt till närmaste tvåpotens
+    public LockStripes(int minStripes) {
+        if (minStripes <= 0) {
+            throw new IllegalArgumentException("Antal lås måste vara större än 0.");
+        }
+        int size = Integer.highestOneBit(minStripes);
+        if (size < minStripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    // Standardstorlek: några lås per processorkärna så att olika konton sällan delar lås
+    public LockStripes() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    // Räknar fram vilket lås ett konto-ID hör till
+    public int indexFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // Sprider de höga bitarna så att närliggande ID inte hamnar på samma lås
+        return h & mask;
+    }
+
+    // Returnerar låset för ett konto-ID
+    public ReentrantLock lockFor(String key) {
+        return locks[indexFor(key)];
+    }
+
+    // Returnerar låset på en viss position
+    public ReentrantLock lockAt(int index) {
+        return locks[index];
+    }
+
+    // Låser två lås i stigande ordning, samma lås bara en gång (t.ex. för en överföring)
+    public void lockPair(int first, int second) {
+        locks[Math.min(first, second)].lock();
+        if (first != second) {
+            locks[Math.max(first, second)].lock();
+        }
+    }
+
+    // Släpper de lås som lockPair tog
+    public void unlockPair(int first, int second) {
+        if (first != second) {
+            locks[Math.max(first, second)].unlock();
+        }
+        locks[Math.min(first, second)].unlock();
+    }
+
+    // Låser alla markerade lås i stigande ordning. Alla som låser flera lås gör det i samma ordning,
+    // så två sådana anrop kan aldrig vänta på varandra i en cirkel (inget dödläge).
+    public void lockAll(boolean[] selected) {
+        for (int i = 0; i < locks.length; i++) {
+            if (selected[i]) {
+                locks[i].lock();
+            }
+        }
+    }
+
+    // Släpper de lås som lockAll tog
+    public void unlockAll(boolean[] selected) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            if (selected[i]) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    // Antal lås
+    public int size() {
+        return locks.length;
+    }
+}
@@ -1,32 +1,74 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.InputMismatchException;
 import java.util.Scanner;
+import javax.management.ObjectName;
 
 public class Main {
+    // Konsolen; en interaktiv session har inget att vinna på att skriva asynkront
+    private static final SessionOutput OUTPUT = SessionOutput.console();
+
     public static void main(String[] args) {
-        Bank bank = new Bank();
+        if (args.length > 0) {
+            // Med en sökväg som argument sparas alla transaktioner i en logg och överlever omstart.
+            // En ögonblicksbild bredvid loggen gör att bara loggens slut behöver spelas upp vid start.
+            Path journalFile = Path.of(args[0]);
+            Path snapshotFile = journalFile.resolveSibling(journalFile.getFileName() + ".snapshot");
+            try (TransactionJournal journal = new TransactionJournal(journalFile);
+                 Bank bank = new Bank(journal, snapshotFile)) {
+                SnapshotScheduler scheduler = new SnapshotScheduler(bank, snapshotFile, Duration.ofMinutes(1));
+                try {
+                    run(bank);
+                } finally {
+                    scheduler.close(); // Före banken, så att ingen bild skrivs medan loggen stängs
+                }
+            } catch (IOException e) {
+                OUTPUT.message("Transaktionsloggen kunde inte öppnas: " + e.getMessage());
+            }
+        } else {
+            try (Bank bank = new Bank()) {
+                run(bank);
+            }
+        }
+    }
+
+    // Kör bankomaten mot den angivna banken, med standardgränserna för uttag, tills användaren avslutar.
+    // Under tiden kan bankens mätvärden följas via JMX (t.ex. JConsole) som Bankomat:type=Metrics,name=bank.
+    private static void run(Bank bank) {
+        bank.setWithdrawalLimits(WithdrawalLimits.standard());
+        ObjectName metrics = bank.getMetrics().registerMBean("bank");
+        try {
+            runTerminal(bank);
+        } finally {
+            bank.getMetrics().unregisterMBean(metrics);
+        }
+    }
+
+    private static void runTerminal(Bank bank) {
         ATM atm = new ATM();
         atm.setBank(bank);
 
         Scanner scanner = new Scanner(System.in);
 
         // Visa välkomstmeddelande och bankens namn
-        System.out.println("Välkommen till Bankomaten! Denna bankomat är kopplad till: " + Bank.getBankName());
+        OUTPUT.message("Välkommen till Bankomaten! Denna bankomat är kopplad till: " + Bank.getBankName());
 
         // Huvudloopen för programmet
         while (true) {
             // Be användaren att ange sitt ID eller avsluta programmet
-            System.out.print("Ange användar-ID för att sätta in kortet. För att avsluta programmet skriv '0': ");
+            OUTPUT.prompt("Ange användar-ID för att sätta in kortet. För att avsluta programmet skriv '0': ");
             String userId = scanner.nextLine().trim();
 
             // Avsluta programmet om användaren väljer '0'
             if (userId.equals("0")) {
-                System.out.println("Programmet avslutas. Tack för att du använde tjänsten!");
+                OUTPUT.message("Programmet avslutas. Tack för att du använde tjänsten!");
                 break;
             }
 
             // Kolla om inmatningen är tom
             if (userId.isEmpty()) {
-                System.out.println("Ogiltigt ID. Vänligen försök igen.\n");
+                OUTPUT.message("Ogiltigt ID. Vänligen försök igen.\n");
                 continue;
             }
 
@@ -36,10 +78,10 @@ public class Main {
                 if (atm.handlePinEntry(scanner)) {
                     processUserChoices(scanner, atm); // Kör menyn
                 } else {
-                    System.out.println("Inloggningen misslyckades. Försök igen.\n");
+                    OUTPUT.message("Inloggningen misslyckades. Försök igen.\n");
                 }
             } else {
-                System.out.println("Kortet kunde inte sättas in. Försök igen.\n");
+                OUTPUT.message("Kortet kunde inte sättas in. Försök igen.\n");
             }
         }
     }
@@ -53,23 +95,23 @@ public class Main {
 
         while (sessionRunning) {
             // Visa menyn för användaren
-            System.out.println("\nVälj ett alternativ:");
-            System.out.println("0. Avsluta programmet");
-            System.out.println("1. Kontrollera saldo");
-            System.out.println("2. Insättning");
-            System.out.println("3. Uttag");
-            System.out.println("4. Logga ut och avsluta session");
+            OUTPUT.message("\nVälj ett alternativ:");
+            OUTPUT.message("0. Avsluta programmet");
+            OUTPUT.message("1. Kontrollera saldo");
+            OUTPUT.message("2. Insättning");
+            OUTPUT.message("3. Uttag");
+            OUTPUT.message("4. Logga ut och avsluta session");
 
             int choice = -1;
 
             try {
                 // Läs användarens menyval
-                System.out.print("Ange ditt val: ");
+                OUTPUT.prompt("Ange ditt val: ");
                 choice = scanner.nextInt();
                 scanner.nextLine(); // Rensa bufferten
             } catch (InputMismatchException e) {
                 // Hantera fel om användaren skriver in något ogiltigt
-                System.out.println("Ogiltig inmatning. Ange ett nummer mellan 0 och 4.");
+                OUTPUT.message("Ogiltig inmatning. Ange ett nummer mellan 0 och 4.");
                 scanner.nextLine(); // Rensa bufferten
                 continue;
             }
@@ -78,7 +120,7 @@ public class Main {
             switch (choice) {
                 case 0 -> {
                     // Avsluta programmet
-                    System.out.println("Programmet avslutas. Tack för att du använde tjänsten!");
+                    OUTPUT.message("Programmet avslutas. Tack för att du använde tjänsten!");
                     if (!isTestMode) {
                         System.exit(0); // Stänger programmet om det inte är testläge
                     } else {
@@ -91,10 +133,10 @@ public class Main {
                 case 4 -> {
                     // Logga ut användaren
                     atm.handleEndSession();
-                    System.out.println("Session avslutad. Du återgår nu till huvudmenyn.");
+                    OUTPUT.message("Session avslutad. Du återgår nu till huvudmenyn.");
                     sessionRunning = false;
                 }
-                default -> System.out.println("Ogiltigt val. Försök igen."); // Hantera ogiltiga val
+                default -> OUTPUT.message("Ogiltigt val. Försök igen."); // Hantera ogiltiga val
             }
         }
     }
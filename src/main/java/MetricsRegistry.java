@@ -0,0 +1,190 @@
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Mätvärden för banken och bankomaterna, utan externa beroenden: räknare (LongAdder), svarstider
+// (LatencyHistogram) och takt över ett glidande fönster (SlidingWindowCounter).
+// Mätpunkterna slås upp med namn en gång och sparas i fält. En registrering är sedan en ökning av en
+// LongAdder, utan lås och utan allokering. Svarstiden mäts bara för vart N:te anrop (slumpvis, N = 16
+// om inget annat anges med -Dbankomat.metrics.sampling): System.nanoTime kostar själv 25-50 ns och
+// hindrar processorn från att överlappa kontots cachemissar med anropen runt omkring, vilket mätt på
+// insättningar kostade mer än hälften av genomströmningen när varje anrop tidsmättes. Percentilerna
+// från ett slumpvis urval blir desamma; antalet anrop räknas alltid exakt.
+// Hela registret kan läsas som en ögonblicksbild (snapshot) eller via JMX.
+public class MetricsRegistry implements MetricsRegistryMXBean {
+
+    // Anrop, fel (totalt och per felmeddelande) och, om operationen tidsmäts, svarstider
+    public static final class Operation {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final Map<String, LongAdder> failureReasons = new ConcurrentHashMap<>();
+        private final LatencyHistogram latency; // null om operationen bara räknas
+        private final int samplingMask;
+
+        private Operation(boolean timed, int samplingMask) {
+            this.latency = timed ? new LatencyHistogram() : null;
+            this.samplingMask = samplingMask;
+        }
+
+        // Starttid att skicka till finish, eller 0 om anropet inte ska tidsmätas
+        public long start() {
+            if (latency == null || (ThreadLocalRandom.current().nextInt() & samplingMask) != 0) {
+                return 0;
+            }
+            return System.nanoTime();
+        }
+
+        // Registrerar ett anrop. error är felmeddelandet, eller null om anropet lyckades.
+        // Med start 0 räknas anropet utan svarstid (t.ex. fel som upptäcks innan arbetet börjar).
+        public void finish(long start, String error) {
+            calls.increment();
+            if (error != null) {
+                failures.increment();
+                failureReasons.computeIfAbsent(error, reason -> new LongAdder()).increment();
+            }
+            if (latency != null && start != 0) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        // Registrerar ett lyckat anrop utan svarstid
+        public void count() {
+            calls.increment();
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        public long failures() {
+            return failures.sum();
+        }
+
+        public long failures(String error) {
+            LongAdder count = failureReasons.get(error);
+            return count == null ? 0 : count.sum();
+        }
+
+        // Svarstiderna för de anrop som tidsmätts, eller null om operationen inte tidsmäts
+        public LatencyHistogram latency() {
+            return latency;
+        }
+    }
+
+    // Antal händelser totalt och inom ett glidande fönster, t.ex. låsta kort per minut
+    public static final class Rate {
+        private final LongAdder total = new LongAdder();
+        private final SlidingWindowCounter window;
+
+        private Rate(Duration window) {
+            this.window = new SlidingWindowCounter(window, 12);
+        }
+
+        public void record() {
+            total.increment();
+            window.add(1);
+        }
+
+        public long total() {
+            return total.sum();
+        }
+
+        public long inWindow() {
+            return window.sum();
+        }
+    }
+
+    private final int samplingMask;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, Rate> rates = new ConcurrentHashMap<>();
+
+    public MetricsRegistry() {
+        this(Integer.getInteger("bankomat.metrics.sampling", 16));
+    }
+
+    // Tidsmäter ungefär vart sampling:e anrop; avrundas nedåt till en tvåpotens, 1 mäter alla
+    MetricsRegistry(int sampling) {
+        if (sampling <= 0) {
+            throw new IllegalArgumentException("Urvalet måste vara större än 0.");
+        }
+        this.samplingMask = Integer.highestOneBit(sampling) - 1;
+    }
+
+    // En tidsmätt operation; samma namn ger samma mätpunkt
+    public Operation operation(String name) {
+        return operations.computeIfAbsent(name, key -> new Operation(true, samplingMask));
+    }
+
+    // En operation som bara räknas, för anrop som är så billiga att två nanoTime vore en stor del av dem
+    public Operation countedOperation(String name) {
+        return operations.computeIfAbsent(name, key -> new Operation(false, samplingMask));
+    }
+
+    // Ett fristående histogram, t.ex. svarstider som mäts av någon annan (ATMServer)
+    public LatencyHistogram latency(String name) {
+        return latencies.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    // En takt över det angivna fönstret; fönstret sätts av första anropet med namnet
+    public Rate rate(String name, Duration window) {
+        return rates.computeIfAbsent(name, key -> new Rate(window));
+    }
+
+    // Alla värden just nu, sorterade på namn. Svarstider anges i nanosekunder.
+    public SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        operations.forEach((name, operation) -> {
+            values.put(name + ".calls", operation.calls());
+            values.put(name + ".failures", operation.failures());
+            operation.failureReasons.forEach((reason, count) -> values.put(name + ".failures[" + reason + "]", count.sum()));
+            if (operation.latency != null) {
+                putLatency(values, name + ".latency", operation.latency);
+            }
+        });
+        latencies.forEach((name, histogram) -> putLatency(values, name, histogram));
+        rates.forEach((name, rate) -> {
+            values.put(name + ".total", rate.total());
+            values.put(name + ".inWindow", rate.inWindow());
+        });
+        return values;
+    }
+
+    private static void putLatency(Map<String, Long> values, String name, LatencyHistogram histogram) {
+        values.put(name + ".count", histogram.count());
+        values.put(name + ".p50Nanos", histogram.percentile(50));
+        values.put(name + ".p99Nanos", histogram.percentile(99));
+        values.put(name + ".maxNanos", histogram.max());
+    }
+
+    @Override
+    public Map<String, Long> getValues() {
+        return snapshot();
+    }
+
+    // Gör registret synligt i JMX (t.ex. JConsole) som Bankomat:type=Metrics,name=<name>
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("Bankomat:type=Metrics,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Mätvärdena kunde inte registreras i JMX.", e);
+        }
+    }
+
+    public void unregisterMBean(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Mätvärdena kunde inte avregistreras i JMX.", e);
+        }
+    }
+}
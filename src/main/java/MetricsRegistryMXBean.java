@@ -0,0 +1,6 @@
+import java.util.Map;
+
+// JMX-gränssnittet för MetricsRegistry: alla mätvärden som en tabell namn -> värde
+public interface MetricsRegistryMXBean {
+    Map<String, Long> getValues();
+}
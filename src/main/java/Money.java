@@ -0,0 +1,79 @@
+public final class Money {
+    public static final long ORE_PER_KRONA = 100; // Alla belopp lagras som heltal i öre
+    private static final double MAX_KRONOR = Long.MAX_VALUE / (double) ORE_PER_KRONA; // Största belopp som ryms i öre
+
+    private Money() {
+        // Endast statiska hjälpmetoder
+    }
+
+    // Omvandlar ett belopp i kronor (t.ex. från användarinmatning) till öre, avrundat till närmaste öre
+    public static long ofKronor(double kronor) {
+        if (Double.isNaN(kronor) || Math.abs(kronor) >= MAX_KRONOR) {
+            throw new IllegalArgumentException("Ogiltigt belopp.");
+        }
+        return Math.round(kronor * ORE_PER_KRONA);
+    }
+
+    // Omvandlar hela kronor till öre med överflödeskontroll
+    public static long ofWholeKronor(long kronor) {
+        try {
+            return Math.multiplyExact(kronor, ORE_PER_KRONA);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Beloppet är för stort.");
+        }
+    }
+
+    // Omvandlar öre till kronor, används bara i gränssnitt som fortfarande arbetar med double
+    public static double toKronor(long ore) {
+        return ore / (double) ORE_PER_KRONA;
+    }
+
+    // Adderar två belopp i öre och kastar fel vid överflöde i stället för att tyst slå runt
+    public static long add(long a, long b) {
+        long result = a + b;
+        if (((a ^ result) & (b ^ result)) < 0) { // Samma kontroll som Math.addExact men utan undantag att fånga
+            throw new IllegalArgumentException("Beloppet är för stort.");
+        }
+        return result;
+    }
+
+    // Subtraherar två belopp i öre med överflödeskontroll
+    public static long subtract(long a, long b) {
+        long result = a - b;
+        if (((a ^ b) & (a ^ result)) < 0) {
+            throw new IllegalArgumentException("Beloppet är för stort.");
+        }
+        return result;
+    }
+
+    // Kontrollerar att ett belopp i öre är en jämn multipel av ett antal hela kronor
+    public static boolean isMultipleOfKronor(long ore, long stepKronor) {
+        return stepKronor <= 0 || ore % (stepKronor * ORE_PER_KRONA) == 0;
+    }
+
+    // Formaterar ett belopp: hela kronor utan decimaler, annars med två decimaler
+    public static String format(long ore) {
+        return appendTo(new StringBuilder(24), ore).toString();
+    }
+
+    // Skriver beloppet direkt till en befintlig StringBuilder utan String.format
+    public static StringBuilder appendTo(StringBuilder sb, long ore) {
+        if (ore < 0) {
+            sb.append('-');
+            if (ore == Long.MIN_VALUE) { // Kan inte negeras, skrivs ut som det är
+                return sb.append(-(ore / ORE_PER_KRONA)).append('.').append(-(ore % ORE_PER_KRONA));
+            }
+            ore = -ore;
+        }
+        sb.append(ore / ORE_PER_KRONA);
+        long fraction = ore % ORE_PER_KRONA;
+        if (fraction != 0) {
+            sb.append('.');
+            if (fraction < 10) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+}
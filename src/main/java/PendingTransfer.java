@@ -0,0 +1,7 @@
+// En överföring mellan banker (se BankRouter) som inte är avslutad i den här banken: hos avsändaren
+// från TRANSFER_PREPARE till beslutet (TRANSFER_COMMIT eller TRANSFER_ABORT), hos mottagaren från
+// TRANSFER_RECEIVE tills avsändarens beslut är skrivet. journalPosition är en position i loggen före
+// överföringens första post, så att en ögonblicksbild inte hoppar över posten medan överföringen pågår.
+record PendingTransfer(long transferId, boolean outgoing, String userId, String otherId, long amountCents,
+                       long journalPosition) {
+}
@@ -0,0 +1,99 @@
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+// Gemensam spärr mot att gissa PIN-koder, för alla terminaler mot samma bank. Kortlåsningen efter tre
+// fel sköts av kontots egen (atomära) räknare; den här klassen begränsar dessutom takten:
+// - per kort: högst ett visst antal PIN-försök inom ett tidsfönster, oavsett terminal, så att
+//   flera terminaler inte kan hamra på samma kort;
+// - per terminal: högst ett visst antal felaktiga PIN-koder inom ett fönster, oavsett kort, så att en
+//   terminal inte kan prova en vanlig PIN mot många kort.
+// Allt räknas med SlidingWindowCounter, utan lås.
+public class PinAttemptTracker {
+
+    // Svar på om ett PIN-försök får göras
+    public enum Verdict {
+        ALLOWED,            // Försöket får göras
+        CARD_THROTTLED,     // För många försök på kortet just nu
+        TERMINAL_THROTTLED  // För många fel från terminalen just nu
+    }
+
+    private static final int BUCKETS = 12; // Upplösning: en tolftedel av fönstret
+    private static final int SWEEP_INTERVAL = 4096; // Tomma räknare rensas bort med det här intervallet
+
+    private final int maxCardAttempts;
+    private final Duration cardWindow;
+    private final int maxTerminalFailures;
+    private final Duration terminalWindow;
+    private final LongSupplier clock;
+    private final Map<String, SlidingWindowCounter> cards = new ConcurrentHashMap<>();
+    private final Map<String, SlidingWindowCounter> terminals = new ConcurrentHashMap<>();
+    private final AtomicInteger operations = new AtomicInteger();
+
+    // Standard: högst 5 försök per kort och minut, högst 10 fel per terminal och tio minuter
+    public PinAttemptTracker() {
+        this(5, Duration.ofMinutes(1), 10, Duration.ofMinutes(10), System::nanoTime);
+    }
+
+    public PinAttemptTracker(int maxCardAttempts, Duration cardWindow, int maxTerminalFailures,
+                             Duration terminalWindow, LongSupplier clock) {
+        if (maxCardAttempts <= 0 || maxTerminalFailures <= 0) {
+            throw new IllegalArgumentException("Gränserna måste vara större än 0.");
+        }
+        this.maxCardAttempts = maxCardAttempts;
+        this.cardWindow = cardWindow;
+        this.maxTerminalFailures = maxTerminalFailures;
+        this.terminalWindow = terminalWindow;
+        this.clock = clock;
+    }
+
+    // Utan taktgränser, för lasttester där samma kort loggar in många gånger per minut
+    public static PinAttemptTracker unlimited() {
+        return new PinAttemptTracker(Integer.MAX_VALUE, Duration.ofMinutes(1), Integer.MAX_VALUE,
+                Duration.ofMinutes(1), System::nanoTime);
+    }
+
+    // Anropas innan en PIN kontrolleras. Ett tillåtet försök räknas mot kortets gräns.
+    public Verdict tryAttempt(String userId, String terminalId) {
+        sweepOccasionally();
+        SlidingWindowCounter terminal = terminals.get(terminalId);
+        if (terminal != null && terminal.sum() >= maxTerminalFailures) {
+            return Verdict.TERMINAL_THROTTLED;
+        }
+        SlidingWindowCounter card = cards.computeIfAbsent(userId, id -> new SlidingWindowCounter(cardWindow, BUCKETS, clock));
+        if (card.sum() >= maxCardAttempts) {
+            return Verdict.CARD_THROTTLED;
+        }
+        // Två terminaler kan passera kontrollen samtidigt; räkningen efteråt avgör vem som fick plats
+        return card.add(1) <= maxCardAttempts ? Verdict.ALLOWED : Verdict.CARD_THROTTLED;
+    }
+
+    // Anropas efter en felaktig PIN
+    public void recordFailure(String terminalId) {
+        terminals.computeIfAbsent(terminalId, id -> new SlidingWindowCounter(terminalWindow, BUCKETS, clock)).add(1);
+    }
+
+    // Antal PIN-försök på kortet inom fönstret
+    public long cardAttempts(String userId) {
+        SlidingWindowCounter card = cards.get(userId);
+        return card == null ? 0 : card.sum();
+    }
+
+    // Antal felaktiga PIN-koder från terminalen inom fönstret
+    public long terminalFailures(String terminalId) {
+        SlidingWindowCounter terminal = terminals.get(terminalId);
+        return terminal == null ? 0 : terminal.sum();
+    }
+
+    // Tar bort räknare utan något inom fönstret så att minnet inte växer med antalet kort som någonsin
+    // använts. En ökning som sker precis när räknaren tas bort kan gå förlorad; det ger som mest ett
+    // extra försök och är värt att slippa lås.
+    private void sweepOccasionally() {
+        if (operations.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            cards.values().removeIf(SlidingWindowCounter::isIdle);
+            terminals.values().removeIf(SlidingWindowCounter::isIdle);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Saltad PBKDF2-hash (HMAC-SHA256) av en PIN-kod. Både salt och hash är 128 bitar och lagras som
+// två long vardera, så att en hash kan ligga i primitiva kolumner (CompactBank) lika väl som i ett objekt.
+// Att räkna fram hashen är avsiktligt långsamt; se PinVerifier för hur det hålls borta från transaktionerna.
+public final class PinHash {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$"; // Lagrat format: pbkdf2-sha256$<iterationer>$<salt>$<hash>
+    private static final int DEFAULT_ITERATIONS = 100_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final long salt0;
+    private final long salt1;
+    private final long hash0;
+    private final long hash1;
+
+    private PinHash(int iterations, long salt0, long salt1, long hash0, long hash1) {
+        this.iterations = iterations;
+        this.salt0 = salt0;
+        this.salt1 = salt1;
+        this.hash0 = hash0;
+        this.hash1 = hash1;
+    }
+
+    // Antal iterationer för nya hashar. Kan sänkas med -Dbankomat.pin.iterations (t.ex. i tester).
+    static int defaultIterations() {
+        return Integer.getInteger("bankomat.pin.iterations", DEFAULT_ITERATIONS);
+    }
+
+    // Hashar en PIN med nytt slumpat salt
+    public static PinHash create(String pin) {
+        if (pin == null || pin.isEmpty()) {
+            throw new IllegalArgumentException("Ogiltig PIN.");
+        }
+        int iterations = defaultIterations();
+        long salt0 = RANDOM.nextLong();
+        long salt1 = RANDOM.nextLong();
+        ByteBuffer hash = ByteBuffer.wrap(derive(pin, iterations, salt0, salt1));
+        return new PinHash(iterations, salt0, salt1, hash.getLong(), hash.getLong());
+    }
+
+    // Återskapar en hash från sina delar (t.ex. ur CompactBanks kolumner)
+    public static PinHash of(int iterations, long salt0, long salt1, long hash0, long hash1) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Ogiltig PIN-hash.");
+        }
+        return new PinHash(iterations, salt0, salt1, hash0, hash1);
+    }
+
+    // Läser det lagrade formatet (encode). Äldre loggar och ögonblicksbilder innehåller PIN-koden i
+    // klartext; den hashas då här, så att gamla filer fortsätter fungera och aldrig sparas i klartext igen.
+    public static PinHash fromStored(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return create(stored);
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        try {
+            ByteBuffer salt = ByteBuffer.wrap(Base64.getDecoder().decode(parts[1]));
+            ByteBuffer hash = ByteBuffer.wrap(Base64.getDecoder().decode(parts[2]));
+            return of(Integer.parseInt(parts[0]), salt.getLong(), salt.getLong(), hash.getLong(), hash.getLong());
+        } catch (RuntimeException e) { // Fel antal delar, ogiltig Base64 eller för korta värden
+            throw new IllegalArgumentException("Ogiltig PIN-hash.", e);
+        }
+    }
+
+    // Lagrat format som kan läsas med fromStored
+    public String encode() {
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations
+                + '$' + base64.encodeToString(ByteBuffer.allocate(16).putLong(salt0).putLong(salt1).array())
+                + '$' + base64.encodeToString(ByteBuffer.allocate(16).putLong(hash0).putLong(hash1).array());
+    }
+
+    // Räknar fram hashen för pin med samma salt och jämför. Jämförelsen tar lika lång tid oavsett
+    // hur många bitar som stämmer.
+    public boolean matches(String pin) {
+        if (pin == null || pin.isEmpty()) {
+            return false;
+        }
+        ByteBuffer candidate = ByteBuffer.wrap(derive(pin, iterations, salt0, salt1));
+        return ((candidate.getLong() ^ hash0) | (candidate.getLong() ^ hash1)) == 0;
+    }
+
+    private static byte[] derive(String pin, int iterations, long salt0, long salt1) {
+        byte[] salt = ByteBuffer.allocate(16).putLong(salt0).putLong(salt1).array();
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, 128);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 saknas i den här Java-installationen.", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getSalt0() {
+        return salt0;
+    }
+
+    public long getSalt1() {
+        return salt1;
+    }
+
+    public long getHash0() {
+        return hash0;
+    }
+
+    public long getHash1() {
+        return hash1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PinHash that)) {
+            return false;
+        }
+        return iterations == that.iterations && salt0 == that.salt0 && salt1 == that.salt1
+                && hash0 == that.hash0 && hash1 == that.hash1;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash0 ^ salt0);
+    }
+
+    // Hashen i sig är inte hemlig men behöver inte hamna i loggutskrifter
+    @Override
+    public String toString() {
+        return "PinHash[" + iterations + " iterationer]";
+    }
+}
@@ -0,0 +1,146 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Kontrollerar PIN-koder mot sina hashar. PBKDF2 är avsiktligt långsamt, så:
+// - hashningen körs i en egen trådpool med en tråd per kärna. Vid en topp av inloggningar köar
+//   kontrollerna där i stället för att ta all processortid från trådarna som gör transaktioner.
+// - lyckade kontroller sparas en kort stund i en cache med fast storlek, så att samma PIN för samma
+//   kort (t.ex. när en session bekräftar PIN igen) inte hashas om. Cachen innehåller inte PIN-koden,
+//   bara en nycklad kontrollsumma, och en post gäller bara så länge kontot har samma PIN-hash.
+public class PinVerifier implements AutoCloseable {
+    private static final PinVerifier SHARED = new PinVerifier(Runtime.getRuntime().availableProcessors(),
+            4096, Duration.ofSeconds(60));
+
+    // En lyckad kontroll: vilket kort, mot vilken hash, med vilken PIN (som kontrollsumma) och hur länge
+    private record Entry(String userId, PinHash pinHash, long pinDigest, long expiresAt) {
+    }
+
+    private final ExecutorService executor;
+    private final AtomicReferenceArray<Entry> cache; // Direktmappad: varje kort har en plats, nya poster ersätter gamla
+    private final int mask;
+    private final long ttlNanos;
+    private final byte[] secret = new byte[16]; // Nyckel för kontrollsummorna, ny för varje process
+
+    // Pool med det angivna antalet trådar och en cache med minst cacheSize platser
+    public PinVerifier(int threads, int cacheSize, Duration ttl) {
+        if (threads <= 0 || cacheSize <= 0 || ttl.isNegative()) {
+            throw new IllegalArgumentException("Ogiltiga inställningar för PIN-kontroll.");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pin-verifier-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int size = Integer.highestOneBit(cacheSize);
+        if (size < cacheSize) {
+            size <<= 1;
+        }
+        this.cache = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.ttlNanos = ttl.toNanos();
+        new SecureRandom().nextBytes(secret);
+    }
+
+    // Gemensam instans för alla banker i processen
+    public static PinVerifier shared() {
+        return SHARED;
+    }
+
+    // Kontrollerar pin mot hashen och väntar på svaret
+    public boolean verify(String userId, PinHash pinHash, String pin) {
+        if (userId == null || pinHash == null || pin == null) {
+            return false;
+        }
+        long digest = digest(userId, pin);
+        if (isCached(userId, pinHash, digest)) {
+            return true;
+        }
+        try {
+            return executor.submit(() -> check(userId, pinHash, pin, digest)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("PIN-kontrollen misslyckades.", e.getCause());
+        }
+    }
+
+    // Som verify men utan att blockera anroparen (t.ex. för en server med många terminaler)
+    public CompletableFuture<Boolean> verifyAsync(String userId, PinHash pinHash, String pin) {
+        if (userId == null || pinHash == null || pin == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        long digest = digest(userId, pin);
+        if (isCached(userId, pinHash, digest)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return CompletableFuture.supplyAsync(() -> check(userId, pinHash, pin, digest), executor);
+    }
+
+    // Glömmer en eventuell lyckad kontroll för kortet (t.ex. när kontot tas bort)
+    public void invalidate(String userId) {
+        int slot = slotFor(userId);
+        Entry entry = cache.get(slot);
+        if (entry != null && entry.userId().equals(userId)) {
+            cache.compareAndSet(slot, entry, null);
+        }
+    }
+
+    // Körs i poolen: räknar fram hashen och sparar en lyckad kontroll
+    private boolean check(String userId, PinHash pinHash, String pin, long digest) {
+        boolean matches = pinHash.matches(pin);
+        if (matches) {
+            cache.set(slotFor(userId), new Entry(userId, pinHash, digest, System.nanoTime() + ttlNanos));
+        }
+        return matches;
+    }
+
+    private boolean isCached(String userId, PinHash pinHash, long digest) {
+        Entry entry = cache.get(slotFor(userId));
+        return entry != null
+                && entry.pinDigest() == digest
+                && entry.userId().equals(userId)
+                && entry.pinHash().equals(pinHash) // Ny PIN eller nytt konto med samma ID gör posten ogiltig
+                && System.nanoTime() - entry.expiresAt() < 0;
+    }
+
+    private int slotFor(String userId) {
+        int h = userId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // Nycklad SHA-256 av kort och PIN, förkortad till 64 bitar. Utan nyckeln går det inte att räkna
+    // baklänges från cachen till PIN-koden.
+    private long digest(String userId, String pin) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(secret);
+            sha.update(userId.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0); // Skiljer ID och PIN åt så att "12"+"34" och "1"+"234" ger olika summor
+            sha.update(pin.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = sha.digest();
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (hash[i] & 0xFF);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 saknas i den här Java-installationen.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
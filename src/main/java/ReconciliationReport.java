@@ -0,0 +1,32 @@
+import java.time.Duration;
+
+// Avstämning av alla konton vid en och samma version (BalanceSnapshot.reconcile): summan av saldona
+// ska vara lika med kontonas nettoinsättningar, dvs. startsaldon plus insättningar minus uttag.
+// Överföringar inom banken flyttar bara pengar och ändrar ingen av summorna. Kortstatusen räknas som
+// den var när kontot lästes, den versionshanteras inte.
+public record ReconciliationReport(long version, long accounts, long lockedAccounts, long emptyAccounts,
+                                   long totalBalanceCents, long netDepositsCents, Duration elapsed) {
+
+    // Konton med olåst kort
+    public long activeAccounts() {
+        return accounts - lockedAccounts;
+    }
+
+    // Saldona minus nettoinsättningarna; noll när allt stämmer
+    public long differenceCents() {
+        return totalBalanceCents - netDepositsCents;
+    }
+
+    public boolean isBalanced() {
+        return differenceCents() == 0;
+    }
+
+    // En rad text, t.ex. för dagsavslutet
+    public String summary() {
+        return String.format("Version %d, %d konton (%d aktiva, %d låsta, %d tomma) avstämda på %.1f s: "
+                        + "saldon %s kr, nettoinsättningar %s kr, %s.",
+                version, accounts, activeAccounts(), lockedAccounts, emptyAccounts, elapsed.toMillis() / 1000.0,
+                Money.format(totalBalanceCents), Money.format(netDepositsCents),
+                isBalanced() ? "stämmer" : "differens " + Money.format(differenceCents()) + " kr");
+    }
+}
@@ -0,0 +1,38 @@
+// Utdata från bankomaten och banken. Varken sessioner, ATM eller Bank skriver själva till konsolen,
+// utan skickar händelser hit så att samma logik kan köras mot konsol, nätverk, tester eller
+// AsyncOutput (som flyttar konsolskrivningen till en egen tråd).
+public interface SessionOutput {
+    // En uppmaning som väntar på inmatning (t.ex. "Ange PIN: ")
+    void prompt(String text);
+
+    // Ett meddelande till användaren
+    void message(String text);
+
+    // Skriver till System.out som den gamla konsolversionen gjorde
+    static SessionOutput console() {
+        return new SessionOutput() {
+            @Override
+            public void prompt(String text) {
+                System.out.print(text);
+            }
+
+            @Override
+            public void message(String text) {
+                System.out.println(text);
+            }
+        };
+    }
+
+    // Tar emot allt utan att göra något, t.ex. för prestandamätningar
+    static SessionOutput none() {
+        return new SessionOutput() {
+            @Override
+            public void prompt(String text) {
+            }
+
+            @Override
+            public void message(String text) {
+            }
+        };
+    }
+}
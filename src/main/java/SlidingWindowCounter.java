@@ -0,0 +1,76 @@
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+// Räknare över ett glidande tidsfönster, t.ex. "antal misslyckade PIN-försök de senaste tio minuterna".
+// Fönstret delas i ett fast antal tidshinkar. Varje hink är en enda long med hinkens tidsnummer i de
+// övre 24 bitarna och summan i de nedre 40, så att en ökning är en compareAndSet utan lås och utan
+// allokering. En hink som hör till en gammal tidsperiod nollställs av den första som skriver i den.
+// Summan räknas över de hinkar som ligger inom fönstret, så fönstret glider med en hinks upplösning.
+public class SlidingWindowCounter {
+    private static final int VALUE_BITS = 40;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long EPOCH_MASK = (1L << (64 - VALUE_BITS)) - 1;
+
+    private final AtomicLongArray buckets;
+    private final long bucketNanos;
+    private final LongSupplier clock; // Nanosekunder, System::nanoTime utom i tester
+
+    public SlidingWindowCounter(Duration window, int bucketCount) {
+        this(window, bucketCount, System::nanoTime);
+    }
+
+    public SlidingWindowCounter(Duration window, int bucketCount, LongSupplier clock) {
+        if (bucketCount <= 0 || window.isZero() || window.isNegative() || window.toNanos() < bucketCount) {
+            throw new IllegalArgumentException("Ogiltigt tidsfönster.");
+        }
+        this.buckets = new AtomicLongArray(bucketCount);
+        this.bucketNanos = window.toNanos() / bucketCount;
+        this.clock = clock;
+    }
+
+    // Lägger till delta (>= 0) i den aktuella hinken och returnerar summan över fönstret efteråt
+    public long add(long delta) {
+        if (delta < 0 || delta > VALUE_MASK) {
+            throw new IllegalArgumentException("Ogiltigt värde för räknaren.");
+        }
+        long epoch = currentEpoch();
+        int index = (int) (epoch % buckets.length());
+        long tag = (epoch & EPOCH_MASK) << VALUE_BITS;
+        while (true) {
+            long current = buckets.get(index);
+            long base = (current & ~VALUE_MASK) == tag ? current & VALUE_MASK : 0; // Gammal period börjar om från 0
+            long value = Math.min(VALUE_MASK, base + delta);
+            if (buckets.compareAndSet(index, current, tag | value)) {
+                return sum(epoch);
+            }
+        }
+    }
+
+    // Summan över fönstret just nu
+    public long sum() {
+        return sum(currentEpoch());
+    }
+
+    // Sant om inget har räknats inom fönstret (räknaren kan då tas bort)
+    public boolean isIdle() {
+        return sum() == 0;
+    }
+
+    private long sum(long epoch) {
+        long total = 0;
+        int count = buckets.length();
+        for (int i = 0; i < count; i++) {
+            long bucket = buckets.get(i);
+            long age = ((epoch & EPOCH_MASK) - (bucket >>> VALUE_BITS)) & EPOCH_MASK; // Antal hinkar sedan hinken skrevs
+            if (age < count) {
+                total += bucket & VALUE_MASK;
+            }
+        }
+        return total;
+    }
+
+    private long currentEpoch() {
+        return Math.floorDiv(clock.getAsLong(), bucketNanos) & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Skriver ögonblicksbilder av banken med jämna mellanrum i en egen bakgrundstråd
+public class SnapshotScheduler implements AutoCloseable {
+    private final ScheduledExecutorService executor;
+    private final Bank bank;
+    private final Path file;
+    private volatile IOException lastFailure; // Senaste felet, nästa lyckade bild nollställer det
+
+    public SnapshotScheduler(Bank bank, Path file, Duration interval) {
+        this.bank = bank;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(this::snapshot, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void snapshot() {
+        try {
+            bank.writeSnapshot(file);
+            lastFailure = null;
+        } catch (IOException e) {
+            lastFailure = e; // Nästa försök görs vid nästa intervall, loggen finns kvar som reserv
+        }
+    }
+
+    // Senaste felet vid skrivning, eller null om senaste bilden lyckades
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    // Stoppar schemat och skriver en sista bild så att nästa start går så fort som möjligt
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        bank.writeSnapshot(file);
+    }
+}
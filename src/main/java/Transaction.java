@@ -0,0 +1,17 @@
+import java.time.Instant;
+
+// En rad i ett kontos transaktionshistorik (t.ex. för ett minikontoutdrag). Beloppet är alltid
+// positivt och typen anger riktningen; saldot är kontots saldo direkt efter transaktionen.
+public record Transaction(Type type, long amountCents, long balanceAfterCents, long timeMillis) {
+
+    public enum Type {
+        DEPOSIT,      // Insättning
+        WITHDRAW,     // Uttag
+        TRANSFER_IN,  // Överföring till kontot
+        TRANSFER_OUT  // Överföring från kontot
+    }
+
+    public Instant time() {
+        return Instant.ofEpochMilli(timeMillis);
+    }
+}
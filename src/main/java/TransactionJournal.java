@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Binär transaktionslogg som bara skrivs i slutet av filen.
+// Varje post: [längd (int)][CRC32 (int)][typ][belopp][saldo][ID][PIN-hash], för överföringar även
+// [mottagarens ID][mottagarens saldo].
+// En skrivtråd samlar ihop alla poster som väntar och gör en enda fsync per grupp (group commit).
+public class TransactionJournal implements AutoCloseable {
+    private static final int HEADER_BYTES = 8; // Längd + kontrollsumma
+    private static final int MAX_PAYLOAD_BYTES = 1 << 16; // Skydd mot trasiga längdfält vid uppspelning
+
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition(); // Signaleras när nya poster väntar på skrivning
+    private final Condition madeDurable = lock.newCondition(); // Signaleras efter varje fsync
+    private final Thread writer;
+
+    private List<byte[]> pending = new ArrayList<>(); // Poster som ännu inte skrivits
+    private List<byte[]> spare = new ArrayList<>(); // Återanvänds som nästa pending-lista
+    private long appendPosition; // Filposition efter sista tillagda posten
+    private volatile long durablePosition; // Allt före denna position är skrivet och fsync:at
+    private IOException failure; // Sätts om skrivning misslyckas, loggen går då inte längre att använda
+    private boolean closed;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    // Öppnar (eller skapar) loggfilen. Anropa replay innan nya poster läggs till.
+    public TransactionJournal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.appendPosition = channel.size();
+        this.durablePosition = appendPosition;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Läser alla hela poster från den angivna positionen och skickar dem till handler.
+    // En halvskriven post i slutet (t.ex. efter strömavbrott) klipps bort. Returnerar slutpositionen.
+    public long replay(long fromPosition, Consumer<JournalRecord> handler) throws IOException {
+        ByteBuffer readBuffer = ByteBuffer.allocate(1 << 20);
+        CRC32 crc = new CRC32();
+        long position = fromPosition;
+        long fileSize = channel.size();
+        readBuffer.limit(0);
+
+        while (true) {
+            if (readBuffer.remaining() < HEADER_BYTES && !fill(readBuffer, position, fileSize)) {
+                break;
+            }
+            if (readBuffer.remaining() < HEADER_BYTES) {
+                break; // Ofullständigt huvud i slutet av filen
+            }
+            int start = readBuffer.position();
+            int length = readBuffer.getInt(start);
+            int checksum = readBuffer.getInt(start + 4);
+            if (length <= 0 || length > MAX_PAYLOAD_BYTES) {
+                break; // Trasigt längdfält
+            }
+            if (readBuffer.remaining() < HEADER_BYTES + length) {
+                if (!fill(readBuffer, position, fileSize) || readBuffer.remaining() < HEADER_BYTES + length) {
+                    break; // Posten är inte färdigskriven
+                }
+                start = readBuffer.position();
+            }
+            crc.reset();
+            ByteBuffer payload = readBuffer.duplicate();
+            payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + length);
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break; // Kontrollsumman stämmer inte
+            }
+            handler.accept(decode(payload));
+            readBuffer.position(start + HEADER_BYTES + length);
+            position += HEADER_BYTES + length;
+        }
+
+        lock.lock();
+        try {
+            if (position < channel.size()) {
+                channel.truncate(position); // Tar bort en eventuell trasig svans
+            }
+            appendPosition = position;
+            durablePosition = position;
+        } finally {
+            lock.unlock();
+        }
+        return position;
+    }
+
+    // Fyller på läsbufferten med nästa del av filen. Returnerar false om filen är slut.
+    private boolean fill(ByteBuffer readBuffer, long position, long fileSize) throws IOException {
+        long filePosition = position + readBuffer.remaining();
+        if (filePosition >= fileSize) {
+            return false;
+        }
+        readBuffer.compact();
+        int read = channel.read(readBuffer, filePosition);
+        readBuffer.flip();
+        return read > 0;
+    }
+
+    // Lägger till en post och returnerar en biljett (filposition) att vänta på med awaitDurable
+    public long append(JournalRecord record) {
+        byte[] bytes = encode(record); // Kodas i anroparens tråd, utanför loggens lås
+        lock.lock();
+        try {
+            ensureUsable();
+            pending.add(bytes);
+            appendPosition += bytes.length;
+            hasPending.signal();
+            return appendPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lägger till flera poster som en enda skrivning (t.ex. en hel batch). Posterna hamnar i följd i
+    // filen och biljetten täcker dem alla.
+    public long appendAll(List<JournalRecord> records) {
+        byte[][] encoded = new byte[records.size()][];
+        int total = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(records.get(i));
+            total += encoded[i].length;
+        }
+        byte[] bytes = new byte[total];
+        int offset = 0;
+        for (byte[] record : encoded) {
+            System.arraycopy(record, 0, bytes, offset, record.length);
+            offset += record.length;
+        }
+        lock.lock();
+        try {
+            ensureUsable();
+            pending.add(bytes);
+            appendPosition += bytes.length;
+            hasPending.signal();
+            return appendPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Väntar tills allt fram till biljetten är skrivet till disk
+    public void awaitDurable(long ticket) {
+        if (durablePosition >= ticket) {
+            return; // Vanligast under last: en annan tråds fsync har redan täckt posten
+        }
+        lock.lock();
+        try {
+            while (durablePosition < ticket) {
+                if (failure != null) {
+                    throw new IllegalStateException("Transaktionsloggen kunde inte skrivas.", failure);
+                }
+                madeDurable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Biljett som täcker alla poster som lagts till hittills
+    public long appendedPosition() {
+        lock.lock();
+        try {
+            return appendPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Position fram till vilken loggen är skriven till disk
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    private void ensureUsable() {
+        if (failure != null) {
+            throw new IllegalStateException("Transaktionsloggen kunde inte skrivas.", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Transaktionsloggen är stängd.");
+        }
+    }
+
+    // Skrivtråden: tar alla väntande poster, skriver dem i en följd och gör en fsync för hela gruppen
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long batchStart;
+            long batchEnd;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    hasPending.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return; // Stängd och allt är skrivet
+                }
+                batch = pending;
+                pending = spare;
+                batchEnd = appendPosition;
+                batchStart = durablePosition;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                long position = batchStart;
+                for (byte[] bytes : batch) {
+                    if (buffer.remaining() < bytes.length) {
+                        position += flushBuffer(position);
+                        if (buffer.capacity() < bytes.length) {
+                            buffer = ByteBuffer.allocateDirect(bytes.length);
+                        }
+                    }
+                    buffer.put(bytes);
+                }
+                flushBuffer(position);
+                channel.force(false);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    madeDurable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                batch.clear();
+                spare = batch;
+                durablePosition = batchEnd;
+                madeDurable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Skriver buffertens innehåll på den angivna positionen och returnerar antal skrivna byte
+    private int flushBuffer(long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    // Kodar en post till binärformatet inklusive huvud med längd och kontrollsumma
+    static byte[] encode(JournalRecord record) {
+        byte[] id = record.userId().getBytes(StandardCharsets.UTF_8);
+        byte[] pin = record.pinHash() == null ? new byte[0] : record.pinHash().getBytes(StandardCharsets.UTF_8);
+        byte[] target = record.targetId() == null ? null : record.targetId().getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + 8 + 8 + 2 + id.length + 2 + pin.length + (target == null ? 0 : 2 + target.length + 8);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+        out.putInt(payloadLength).putInt(0);
+        out.put(record.type()).putLong(record.amountCents()).putLong(record.balanceCents());
+        out.putShort((short) id.length).put(id);
+        out.putShort((short) pin.length).put(pin);
+        if (target != null) {
+            out.putShort((short) target.length).put(target).putLong(record.targetBalanceCents());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), HEADER_BYTES, payloadLength);
+        out.putInt(4, (int) crc.getValue());
+        return out.array();
+    }
+
+    // Avkodar en posts innehåll (utan huvud)
+    static JournalRecord decode(ByteBuffer payload) {
+        byte type = payload.get();
+        long amount = payload.getLong();
+        long balance = payload.getLong();
+        byte[] id = new byte[payload.getShort() & 0xFFFF];
+        payload.get(id);
+        byte[] pin = new byte[payload.getShort() & 0xFFFF];
+        payload.get(pin);
+        String targetId = null;
+        long targetBalance = 0;
+        if (payload.hasRemaining()) { // Mottagarkonto finns bara i överföringsposter
+            byte[] target = new byte[payload.getShort() & 0xFFFF];
+            payload.get(target);
+            targetId = new String(target, StandardCharsets.UTF_8);
+            targetBalance = payload.getLong();
+        }
+        return new JournalRecord(type, new String(id, StandardCharsets.UTF_8),
+                new String(pin, StandardCharsets.UTF_8), amount, balance, targetId, targetBalance);
+    }
+
+    // Skriver klart alla väntande poster och stänger filen
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            hasPending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
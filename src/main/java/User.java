@@ -1,49 +1,112 @@
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public class User {
-    // Fält för användarens ID, PIN, saldo, antal misslyckade försök och låsstatus
+    private static final int MAX_FAILED_ATTEMPTS = 3; // Kortet låses vid så många misslyckade försök i följd
+    private static final int PIN_CHECK = 1 << 16; // En pågående PIN-kontroll i pinAttempts
+    private static final int FAILURES = PIN_CHECK - 1; // Misslyckade försök i pinAttempts
+    private static final AtomicIntegerFieldUpdater<User> PIN_ATTEMPTS =
+            AtomicIntegerFieldUpdater.newUpdater(User.class, "pinAttempts");
+
+    // Fält för användarens ID, PIN-hash, saldo, antal misslyckade försök och låsstatus
     private String id;
-    private String pin;
-    private double balance;
-    private int failedAttempts;
-    private boolean isLocked;
+    private PinHash pinHash; // PIN-koden sparas bara som saltad hash, aldrig i klartext
+    private volatile long balanceCents; // Saldot i öre; volatile så att andra trådar (bankomater) alltid ser senaste saldot
+    private volatile int pinAttempts; // Misslyckade försök och pågående kontroller; ändras atomärt, så att samtidiga försök från flera terminaler alla räknas
+    private volatile boolean isLocked;
+    private volatile AccountListener listener; // Sätts av banken när kontot läggs till, t.ex. för index
+    private long[] history; // Se AccountHistory; skapas vid första transaktionen och används bara under kontots lås i banken
+    private long[] withdrawalWindows; // Se WithdrawalLimits; skapas vid första uttaget och används bara under kontots lås
+    private volatile BalanceVersions.Version balanceVersion; // Se BalanceVersions; sätts av banken, läses utan lås
+    private long balanceVersionNumber; // Versionen i balanceVersion, läses under kontots lås utan att röra noden
+    private long netDepositsCents; // Startsaldo plus insättningar minus uttag, se BalanceVersions; under kontots lås
+    private long heldCents; // Reserverat för uttag som inte dragits än, se HoldTable; under kontots lås
 
     // Konstruktor för att skapa en ny användare
     public User(String id, String pin, double balance) {
-        if (id == null || id.isEmpty() || pin == null || pin.isEmpty() || balance < 0) {
+        this(id, hash(id, pin), balance < 0 || Double.isNaN(balance) ? -1 : Money.ofKronor(balance));
+    }
+
+    // Gemensam konstruktor som arbetar direkt i öre
+    private User(String id, PinHash pinHash, long balanceCents) {
+        if (id == null || id.isEmpty() || pinHash == null || balanceCents < 0) {
             throw new IllegalArgumentException("Ogiltiga värden vid skapande av användare.");
         }
         this.id = id;
-        this.pin = pin;
-        this.balance = balance;
-        this.failedAttempts = 0; // Initierar antal misslyckade försök till 0
+        this.pinHash = pinHash;
+        this.balanceCents = balanceCents;
+        this.pinAttempts = 0; // Initierar antal misslyckade försök till 0
         this.isLocked = false;   // Sätter kortstatus till olåst
     }
 
+    // Konstruktor för vyer (t.ex. CompactBank) där subklassen själv lagrar och validerar värdena
+    protected User(String id) {
+        this.id = id;
+    }
+
+    // Skapar en användare med saldot angivet i öre (undviker omvandling via double)
+    public static User ofCents(String id, String pin, long balanceCents) {
+        return new User(id, hash(id, pin), balanceCents);
+    }
+
+    // Skapar en användare med en redan hashad PIN (t.ex. från loggen, en ögonblicksbild eller en
+    // import), utan att räkna fram hashen igen
+    public static User withPinHash(String id, PinHash pinHash, long balanceCents) {
+        return new User(id, pinHash, balanceCents);
+    }
+
+    // Hashar PIN-koden, eller null om värdena är ogiltiga (konstruktorn kastar då felet).
+    // Ogiltiga ID:n kontrolleras först så att ingen tid läggs på att hasha för dem.
+    private static PinHash hash(String id, String pin) {
+        if (id == null || id.isEmpty() || pin == null || pin.isEmpty()) {
+            return null;
+        }
+        return PinHash.create(pin);
+    }
+
     // Getter för användarens ID
     public String getId() {
         return id;
     }
 
-    // Getter för användarens PIN
-    public String getPin() {
-        return pin;
+    // Getter för användarens PIN-hash
+    public PinHash getPinHash() {
+        return pinHash;
     }
 
-    // Getter för användarens saldo
+    // Getter för användarens saldo i kronor
     public double getBalance() {
-        return balance;
+        return Money.toKronor(balanceCents);
+    }
+
+    // Getter för användarens saldo i öre
+    public long getBalanceCents() {
+        return balanceCents;
     }
 
-    // Setter för användarens saldo
+    // Setter för användarens saldo i kronor
     public void setBalance(double balance) {
         if (balance < 0) {
             throw new IllegalArgumentException("Saldo kan inte vara negativt.");
         }
-        this.balance = balance;
+        setBalanceCents(Money.ofKronor(balance));
+    }
+
+    // Setter för användarens saldo i öre
+    public void setBalanceCents(long balanceCents) {
+        if (balanceCents < 0) {
+            throw new IllegalArgumentException("Saldo kan inte vara negativt.");
+        }
+        long old = this.balanceCents;
+        this.balanceCents = balanceCents;
+        AccountListener current = listener;
+        if (current != null && old != balanceCents) {
+            current.balanceChanged(this, old, balanceCents);
+        }
     }
 
     // Getter för antal misslyckade försök
     public int getFailedAttempts() {
-        return failedAttempts;
+        return pinAttempts & FAILURES;
     }
 
     // Kontrollerar om kortet är låst
@@ -53,19 +116,168 @@ public class User {
 
     // Låser kortet
     public void lockCard() {
+        boolean wasLocked = this.isLocked;
         this.isLocked = true;
+        AccountListener current = listener;
+        if (current != null && !wasLocked) {
+            current.cardStateChanged(this, true);
+        }
     }
 
     // Ökar antal misslyckade försök och låser kortet om det är tre eller fler försök
     public void incrementFailedAttempts() {
-        this.failedAttempts++;
-        if (this.failedAttempts >= 3 && !this.isLocked) {
+        recordFailedAttempt();
+    }
+
+    // Som incrementFailedAttempts men returnerar antalet misslyckade försök efter ökningen. Ökningen
+    // är atomär, så varje terminal får ett eget värde och tillsammans kan de aldrig få fler än tre försök.
+    public int recordFailedAttempt() {
+        int attempts = PIN_ATTEMPTS.updateAndGet(this, current -> (current & FAILURES) == FAILURES ? current : current + 1)
+                & FAILURES;
+        if (attempts >= MAX_FAILED_ATTEMPTS && !this.isLocked) {
             lockCard(); // Låser kortet vid tre misslyckade försök
+        } else {
+            failedAttemptsChanged(attempts);
+        }
+        return attempts;
+    }
+
+    // Tar ett av kortets PIN-försök innan PIN-koden kontrolleras. Misslyckade försök och pågående
+    // kontroller räknas tillsammans, så terminaler som väntar på PIN-kod samtidigt kan aldrig få fler
+    // än tre försök. Försöket avslutas med finishPinAttempt, eller releasePinAttempt om kontrollen inte
+    // blev av. Anropet väntar aldrig: returnerar försökets nummer, 0 om de återstående försöken redan
+    // kontrolleras på andra terminaler (försök igen strax), eller -1 om kortet är låst.
+    public int reservePinAttempt() {
+        while (true) {
+            int current = pinAttempts;
+            int failures = current & FAILURES;
+            if (isLocked || failures >= MAX_FAILED_ATTEMPTS) {
+                return -1;
+            }
+            int attempt = failures + (current >>> 16) + 1;
+            if (attempt > MAX_FAILED_ATTEMPTS) {
+                return 0;
+            }
+            if (PIN_ATTEMPTS.compareAndSet(this, current, current + PIN_CHECK)) {
+                return attempt;
+            }
+        }
+    }
+
+    // Avslutar ett försök från reservePinAttempt. Rätt PIN nollställer de misslyckade försöken (om inte
+    // kortet hunnit låsas), fel PIN räknas som misslyckat och låser kortet vid tre. Returnerar antalet
+    // misslyckade försök efteråt.
+    public int finishPinAttempt(boolean correct) {
+        while (true) {
+            int current = pinAttempts;
+            int failures = current & FAILURES;
+            if (correct) {
+                failures = isLocked ? failures : 0;
+            } else if (failures < FAILURES) {
+                failures++;
+            }
+            int next = (Math.max(0, (current >>> 16) - 1) << 16) | failures;
+            if (PIN_ATTEMPTS.compareAndSet(this, current, next)) {
+                if (failures >= MAX_FAILED_ATTEMPTS && !correct && !isLocked) {
+                    lockCard();
+                } else if (failures != (current & FAILURES)) {
+                    failedAttemptsChanged(failures);
+                }
+                return failures;
+            }
         }
     }
 
+    // Lämnar tillbaka ett försök från reservePinAttempt utan att räkna det, t.ex. när kontrollen kastade
+    public void releasePinAttempt() {
+        PIN_ATTEMPTS.updateAndGet(this, current -> current >= PIN_CHECK ? current - PIN_CHECK : current);
+    }
+
     // Återställer misslyckade försök till 0
     public void resetFailedAttempts() {
-        this.failedAttempts = 0;
+        if ((PIN_ATTEMPTS.getAndUpdate(this, current -> current & ~FAILURES) & FAILURES) != 0) {
+            failedAttemptsChanged(0);
+        }
+    }
+
+    private void failedAttemptsChanged(int failedAttempts) {
+        AccountListener current = listener;
+        if (current != null) {
+            current.failedAttemptsChanged(this, failedAttempts);
+        }
+    }
+
+    // Återställer kortstatus vid inläsning från en ögonblicksbild. Pågående kontroller följer inte med,
+    // och tre misslyckade försök låser alltid kortet (bilden kan ha tagits precis innan låsningen).
+    void restoreCardState(int failedAttempts, boolean locked) {
+        this.pinAttempts = Math.min(Math.max(failedAttempts, 0), FAILURES);
+        locked |= failedAttempts >= MAX_FAILED_ATTEMPTS;
+        boolean wasLocked = this.isLocked;
+        this.isLocked = locked;
+        AccountListener current = listener;
+        if (current != null && wasLocked != locked) {
+            current.cardStateChanged(this, locked);
+        }
+    }
+
+    // Sätter vem som får besked om ändringar i saldo och kortstatus (null tar bort)
+    void setListener(AccountListener listener) {
+        this.listener = listener;
+    }
+
+    AccountListener getListener() {
+        return listener;
+    }
+
+    // Kontots transaktionshistorik, eller null om kontot inte haft några transaktioner
+    long[] getHistory() {
+        return history;
+    }
+
+    long[] getOrCreateHistory() {
+        if (history == null) {
+            history = AccountHistory.create();
+        }
+        return history;
+    }
+
+    // Kontots uttagssummor per tidsfönster, eller null om inga uttag räknats
+    long[] getWithdrawalWindows() {
+        return withdrawalWindows;
+    }
+
+    void setWithdrawalWindows(long[] withdrawalWindows) {
+        this.withdrawalWindows = withdrawalWindows;
+    }
+
+    // Summan av kontots reservationer, som inte får tas ut eller föras över
+    long getHeldCents() {
+        return heldCents;
+    }
+
+    void setHeldCents(long heldCents) {
+        this.heldCents = heldCents;
+    }
+
+    // Kontots senaste saldoversion, eller null om kontot aldrig funnits i en bank
+    BalanceVersions.Version getBalanceVersion() {
+        return balanceVersion;
+    }
+
+    long getBalanceVersionNumber() {
+        return balanceVersionNumber;
+    }
+
+    void setBalanceVersion(BalanceVersions.Version balanceVersion) {
+        this.balanceVersionNumber = balanceVersion.version;
+        this.balanceVersion = balanceVersion;
+    }
+
+    long getNetDepositsCents() {
+        return netDepositsCents;
+    }
+
+    void setNetDepositsCents(long netDepositsCents) {
+        this.netDepositsCents = netDepositsCents;
     }
 }
@@ -0,0 +1,246 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// Gränser för uttag per konto: högst ett belopp eller ett antal uttag inom ett glidande tidsfönster,
+// t.ex. 10 000 kr per dygn, 30 000 kr per vecka eller 5 uttag på 10 minuter.
+//
+// Varje konto har sina summor i en long[] (som AccountHistory), ett spår per fönsterlängd bland
+// reglerna. Fönstret delas i BUCKETS tidshinkar med belopp och antal uttag per hink, och spåret håller
+// dessutom summorna över alla hinkar. Ett uttag flyttar fram spåren (hinkar som fallit ur fönstret
+// nollställs och dras av från summorna) och jämför summorna med reglerna, så en kontroll kostar lika
+// mycket oavsett hur många uttag kontot gjort. Används bara under kontots lås i banken.
+//
+// Ett objekt ändras aldrig. Nya regler läses in genom att banken får ett nytt objekt
+// (Bank.setWithdrawalLimits) medan transaktionerna fortsätter. Ett konto byter till de nya spåren vid
+// sitt nästa uttag: spår med samma hinkstorlek behåller sina summor, ett nytt fönster börjar på noll.
+public final class WithdrawalLimits {
+    static final int BUCKETS = 24; // Upplösning: en tjugofjärdedel av fönstret, t.ex. en timme av ett dygn
+    static final String AMOUNT_EXCEEDED = "Uttagsgränsen är nådd.";
+    static final String COUNT_EXCEEDED = "För många uttag på kort tid.";
+
+    // Kontots array börjar med ett huvud per spår (hinkstorlek, senaste hinkens nummer och summorna),
+    // så att alla regler kontrolleras ur en eller två cacherader. Därefter kommer spårens hinkar med
+    // belopp och antal bredvid varandra, så att ett uttag bara rör en hink till per spår.
+    private static final int BUCKET_MILLIS = 0;
+    private static final int EPOCH = 1;
+    private static final int AMOUNT_SUM = 2;
+    private static final int COUNT_SUM = 3;
+    private static final int HEADER_LONGS = 4;
+    private static final int BUCKET_LONGS = 2 * BUCKETS; // Belopp, antal, belopp, antal, ...
+
+    private static final WithdrawalLimits NONE = new WithdrawalLimits(List.of());
+
+    // Vad en regel begränsar
+    public enum Kind {
+        AMOUNT, // Summan av uttagen i öre
+        COUNT   // Antalet uttag
+    }
+
+    public record Rule(Kind kind, Duration window, long limit) {
+        public Rule {
+            if (kind == null || window == null || window.toMillis() < BUCKETS || limit < 0) {
+                throw new IllegalArgumentException("Ogiltig uttagsregel.");
+            }
+        }
+
+        // Högst limitCents öre i uttag inom fönstret
+        public static Rule maxAmount(Duration window, long limitCents) {
+            return new Rule(Kind.AMOUNT, window, limitCents);
+        }
+
+        // Högst withdrawals uttag inom fönstret
+        public static Rule maxCount(Duration window, long withdrawals) {
+            return new Rule(Kind.COUNT, window, withdrawals);
+        }
+    }
+
+    private final List<Rule> rules;
+    private final LongSupplier clock; // Millisekunder, CoarseClock::millis utom i tester
+    private final long[] bucketMillis; // Hinkstorlek per spår
+    private final int[] ruleTrack;     // Huvudet för spåret som varje regel läser
+    private final boolean[] ruleIsAmount;
+    private final long[] ruleLimit;
+
+    public WithdrawalLimits(List<Rule> rules) {
+        this(rules, CoarseClock::millis);
+    }
+
+    public WithdrawalLimits(List<Rule> rules, LongSupplier clock) {
+        this.rules = List.copyOf(rules);
+        this.clock = clock;
+        List<Long> tracks = new ArrayList<>();
+        ruleTrack = new int[this.rules.size()];
+        ruleIsAmount = new boolean[this.rules.size()];
+        ruleLimit = new long[this.rules.size()];
+        for (int i = 0; i < ruleTrack.length; i++) {
+            Rule rule = this.rules.get(i);
+            long size = rule.window().toMillis() / BUCKETS;
+            if (!tracks.contains(size)) {
+                tracks.add(size); // Regler med samma fönster delar spår
+            }
+            ruleTrack[i] = tracks.indexOf(size) * HEADER_LONGS;
+            ruleIsAmount[i] = rule.kind() == Kind.AMOUNT;
+            ruleLimit[i] = rule.limit();
+        }
+        bucketMillis = tracks.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Inga gränser utöver saldot
+    public static WithdrawalLimits none() {
+        return NONE;
+    }
+
+    // Standard för bankomaten: högst 10 000 kr per dygn, 30 000 kr per vecka och 5 uttag på 10 minuter
+    public static WithdrawalLimits standard() {
+        return new WithdrawalLimits(List.of(
+                Rule.maxAmount(Duration.ofDays(1), Money.ofWholeKronor(10_000)),
+                Rule.maxAmount(Duration.ofDays(7), Money.ofWholeKronor(30_000)),
+                Rule.maxCount(Duration.ofMinutes(10), 5)));
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    // Kontrollerar ett uttag mot alla regler och räknar in det om det är tillåtet. Anropas under kontots
+    // lås när saldot redan räcker, så ett uttag som räknats in också genomförs (eller räknas av med
+    // refund). Returnerar felmeddelandet om någon regel bryts (och då räknas inget), annars null.
+    String admit(User user, long amountCents) {
+        return admit(user, amountCents, clock.getAsLong());
+    }
+
+    // Som admit, med tiden från now(); den tiden behövs för att räkna av uttaget med refund
+    String admit(User user, long amountCents, long now) {
+        if (ruleTrack.length == 0) {
+            return null;
+        }
+        long[] windows = windowsFor(user);
+        int tracks = bucketMillis.length;
+        for (int track = 0; track < tracks; track++) {
+            advance(windows, track * HEADER_LONGS, bucketsOf(track, tracks), Math.floorDiv(now, bucketMillis[track]));
+        }
+        for (int i = 0; i < ruleTrack.length; i++) {
+            int header = ruleTrack[i];
+            if (ruleIsAmount[i]) {
+                if (amountCents > ruleLimit[i] - windows[header + AMOUNT_SUM]) {
+                    return AMOUNT_EXCEEDED;
+                }
+            } else if (windows[header + COUNT_SUM] >= ruleLimit[i]) {
+                return COUNT_EXCEEDED;
+            }
+        }
+        for (int track = 0; track < tracks; track++) {
+            int header = track * HEADER_LONGS;
+            int bucket = bucketsOf(track, tracks) + 2 * (int) Math.floorMod(windows[header + EPOCH], (long) BUCKETS);
+            windows[bucket] += amountCents;
+            windows[bucket + 1]++;
+            windows[header + AMOUNT_SUM] += amountCents;
+            windows[header + COUNT_SUM]++;
+        }
+        return null;
+    }
+
+    // Räknar av ett uttag som räknades in med admit vid admittedAt men aldrig genomfördes, t.ex. en
+    // reservation som släpptes eller gick ut. Anropas under kontots lås. I spår där uttagets hink redan
+    // fallit ur fönstret finns inget att räkna av. Har reglerna bytts sedan dess kan hinken sakna uttaget
+    // (ett nytt fönster börjar på noll); då dras bara det som finns, så ingen summa blir negativ.
+    void refund(User user, long amountCents, long admittedAt) {
+        if (ruleTrack.length == 0 || user.getWithdrawalWindows() == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long[] windows = windowsFor(user);
+        int tracks = bucketMillis.length;
+        for (int track = 0; track < tracks; track++) {
+            int header = track * HEADER_LONGS;
+            int buckets = bucketsOf(track, tracks);
+            advance(windows, header, buckets, Math.floorDiv(now, bucketMillis[track]));
+            long epoch = Math.floorDiv(admittedAt, bucketMillis[track]);
+            long latest = windows[header + EPOCH];
+            if (epoch > latest || epoch <= latest - BUCKETS) {
+                continue;
+            }
+            int bucket = buckets + 2 * (int) Math.floorMod(epoch, (long) BUCKETS);
+            long amount = Math.min(amountCents, windows[bucket]);
+            long count = Math.min(1, windows[bucket + 1]);
+            windows[bucket] -= amount;
+            windows[bucket + 1] -= count;
+            windows[header + AMOUNT_SUM] -= amount;
+            windows[header + COUNT_SUM] -= count;
+        }
+    }
+
+    // Tiden som reglernas fönster räknas i, millisekunder
+    long now() {
+        return clock.getAsLong();
+    }
+
+    // Var spårets hinkar börjar i kontots array
+    private static int bucketsOf(int track, int tracks) {
+        return tracks * HEADER_LONGS + track * BUCKET_LONGS;
+    }
+
+    // Kontots spår för de här reglerna. Ett konto som senast räknades med andra regler får nya spår,
+    // med summorna kvar för de fönster som finns i båda.
+    private long[] windowsFor(User user) {
+        long[] windows = user.getWithdrawalWindows();
+        if (windows != null && matches(windows)) {
+            return windows;
+        }
+        int tracks = bucketMillis.length;
+        long[] migrated = new long[tracks * (HEADER_LONGS + BUCKET_LONGS)];
+        int oldTracks = windows == null ? 0 : windows.length / (HEADER_LONGS + BUCKET_LONGS);
+        for (int track = 0; track < tracks; track++) {
+            int header = track * HEADER_LONGS;
+            migrated[header + BUCKET_MILLIS] = bucketMillis[track];
+            for (int old = 0; old < oldTracks; old++) {
+                if (windows[old * HEADER_LONGS + BUCKET_MILLIS] == bucketMillis[track]) {
+                    System.arraycopy(windows, old * HEADER_LONGS, migrated, header, HEADER_LONGS);
+                    System.arraycopy(windows, bucketsOf(old, oldTracks), migrated, bucketsOf(track, tracks), BUCKET_LONGS);
+                    break;
+                }
+            }
+        }
+        user.setWithdrawalWindows(migrated);
+        return migrated;
+    }
+
+    private boolean matches(long[] windows) {
+        if (windows.length != bucketMillis.length * (HEADER_LONGS + BUCKET_LONGS)) {
+            return false;
+        }
+        for (int track = 0; track < bucketMillis.length; track++) {
+            if (windows[track * HEADER_LONGS + BUCKET_MILLIS] != bucketMillis[track]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Flyttar fram spåret till hinken epoch. Hinkarna som passerats nollställs, högst BUCKETS stycken,
+    // så ett konto som inte gjort uttag på länge kostar inte mer. Går klockan bakåt räknas uttaget i
+    // den senaste hinken.
+    private static void advance(long[] windows, int header, int buckets, long epoch) {
+        long last = windows[header + EPOCH];
+        if (epoch <= last) {
+            return;
+        }
+        if (epoch - last >= BUCKETS) {
+            Arrays.fill(windows, buckets, buckets + BUCKET_LONGS, 0);
+            windows[header + AMOUNT_SUM] = 0;
+            windows[header + COUNT_SUM] = 0;
+        } else {
+            for (long passed = last + 1; passed <= epoch; passed++) {
+                int bucket = buckets + 2 * (int) Math.floorMod(passed, (long) BUCKETS);
+                windows[header + AMOUNT_SUM] -= windows[bucket];
+                windows[header + COUNT_SUM] -= windows[bucket + 1];
+                windows[bucket] = 0;
+                windows[bucket + 1] = 0;
+            }
+        }
+        windows[header + EPOCH] = epoch;
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class ATMLoadGeneratorTest {
+
+    @Test
+    @DisplayName("Samma frö ger samma skript, ett annat frö ett annat")
+    void testScriptIsSeeded() {
+        ATMLoadGenerator.Config config = new ATMLoadGenerator.Config(42, 100, 4, 50);
+        ATMLoadGenerator.Trace first = new ATMLoadGenerator(config).generate();
+        assertEquals(first, new ATMLoadGenerator(config).generate());
+        assertNotEquals(first, new ATMLoadGenerator(new ATMLoadGenerator.Config(43, 100, 4, 50)).generate());
+        assertEquals(4 * 50, first.steps().stream().filter(s -> s.kind() == ATMLoadGenerator.Kind.END_SESSION).count());
+        assertThrows(IllegalArgumentException.class, () -> new ATMLoadGenerator.Config(1, 3, 4, 10));
+    }
+
+    @Test
+    @DisplayName("Lastkörningen håller saldona i balans och kan spelas upp igen med samma utfall")
+    void testRunAndReplay(@TempDir Path dir) throws IOException {
+        ATMLoadGenerator generator = new ATMLoadGenerator(new ATMLoadGenerator.Config(7, 200, 4, 200));
+        ATMLoadGenerator.Report report = generator.run(generator.generate());
+
+        assertTrue(report.isBalanced(), report.toString());
+        assertEquals(800, report.sessions());
+        assertEquals(-1, report.mismatches());
+        // Blandningen innehåller felaktiga PIN-koder och både lyckade och misslyckade uttag
+        assertTrue(report.trace().steps().stream().anyMatch(s -> s.kind() == ATMLoadGenerator.Kind.PIN
+                && s.input().startsWith("9999") && s.success()));
+        assertTrue(report.trace().steps().stream().anyMatch(s -> s.kind() == ATMLoadGenerator.Kind.WITHDRAW && !s.success()));
+        assertTrue(report.trace().steps().stream().anyMatch(s -> s.kind() == ATMLoadGenerator.Kind.WITHDRAW && s.success()));
+        assertTrue(report.latencies().get(ATMLoadGenerator.Kind.DEPOSIT).count() > 0);
+
+        Path file = dir.resolve("last.trace");
+        report.trace().write(file);
+        ATMLoadGenerator.Trace recorded = ATMLoadGenerator.Trace.read(file);
+        assertEquals(report.trace(), recorded);
+
+        ATMLoadGenerator.Report replayed = ATMLoadGenerator.replay(recorded);
+        assertEquals(0, replayed.mismatches());
+        assertTrue(replayed.isBalanced());
+        assertEquals(report.balanceChecksum(), replayed.balanceChecksum());
+        assertEquals(report.actualTotalCents(), replayed.actualTotalCents());
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ATMServerTest {
+
+    private Bank bank;
+    private ATMServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bank = new Bank();
+        server = new ATMServer(bank, 0); // Ledig port
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    // Enkel terminal: skickar en rad och läser svaret fram till nästa uppmaning
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+        }
+
+        String readUntilPrompt() throws IOException {
+            StringBuilder response = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                response.append(line).append('\n');
+                if (line.endsWith(": ")) {
+                    break;
+                }
+            }
+            return response.toString();
+        }
+
+        String send(String line) throws IOException {
+            out.println(line);
+            return readUntilPrompt();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    @DisplayName("En terminal kan logga in, ta ut pengar och logga ut via radprotokollet")
+    void testSessionOverSocket() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            assertTrue(client.readUntilPrompt().contains("Välkommen till Bankomaten!"));
+            assertTrue(client.send("12345").contains("Ange PIN: "));
+            assertTrue(client.send("1234").contains("Ange ditt val: "));
+            assertTrue(client.send("1").contains("Ditt saldo är: 1000 kr"));
+            client.send("3");
+            assertTrue(client.send("300").contains("Uttag av 300 kr lyckades. Ny balans: 700 kr."));
+            assertTrue(client.send("4").contains("Session avslutad."));
+        }
+
+        assertEquals(700.0, bank.getUserById("12345").getBalance());
+        assertEquals(1, server.getLatency(ATMServer.Action.BALANCE).count(), "Saldoförfrågan bör ha mätts.");
+        assertEquals(1, server.getLatency(ATMServer.Action.WITHDRAW).count());
+        assertTrue(server.latencyReport().contains("WITHDRAW"));
+    }
+
+    @Test
+    @DisplayName("Många samtidiga anslutningar delar samma bank")
+    void testManyConcurrentConnections() throws Exception {
+        int connections = 50;
+        bank.setAttemptTracker(PinAttemptTracker.unlimited()); // Alla anslutningar loggar in på samma kort
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            results.add(clients.submit(() -> {
+                try (Client client = new Client(server.getPort())) {
+                    client.readUntilPrompt();
+                    client.send("12345");
+                    while (client.send("1234").contains("Kortet används")) {
+                        Thread.onSpinWait(); // Tre andra anslutningar kontrollerar PIN just nu
+                    }
+                    client.send("2");
+                    client.send("20");
+                    client.send("4");
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        clients.shutdown();
+
+        assertEquals(1000.0 + connections * 20, bank.getUserById("12345").getBalance());
+        assertEquals(connections, server.getLatency(ATMServer.Action.DEPOSIT).count());
+    }
+
+    @Test
+    @DisplayName("Histogrammet ger percentiler med begränsat fel")
+    void testLatencyHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L); // 1 µs ... 1 ms
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        long p99 = histogram.percentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000 * 1.07, "p99 bör ligga nära 990 µs men var " + p99);
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.07, "p50 bör ligga nära 500 µs men var " + p50);
+    }
+}
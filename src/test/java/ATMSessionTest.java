@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ATMSessionTest {
+
+    private Bank bank;
+    private List<String> messages; // Alla meddelanden och uppmaningar som sessionen skickat
+    private ATMSession session;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        messages = new ArrayList<>();
+        session = new ATMSession(bank, recordingOutput(messages));
+        session.start();
+    }
+
+    private static SessionOutput recordingOutput(List<String> messages) {
+        return new SessionOutput() {
+            @Override
+            public void prompt(String text) {
+                messages.add(text);
+            }
+
+            @Override
+            public void message(String text) {
+                messages.add(text);
+            }
+        };
+    }
+
+    private boolean anyMessageContains(String text) {
+        return messages.stream().anyMatch(message -> message.contains(text));
+    }
+
+    @Test
+    @DisplayName("Komplett flöde: kort, PIN, saldo, uttag och utloggning")
+    void testFullFlow() {
+        assertEquals(ATMSession.State.AWAITING_CARD, session.getState());
+        session.onInput("12345");
+        assertEquals(ATMSession.State.AWAITING_PIN, session.getState());
+        session.onInput("1234");
+        assertEquals(ATMSession.State.MENU, session.getState());
+
+        session.onInput("1");
+        assertTrue(anyMessageContains("Ditt saldo är: 1000 kr"));
+
+        session.onInput("3");
+        assertEquals(ATMSession.State.AWAITING_WITHDRAW_AMOUNT, session.getState());
+        session.onInput("400");
+        assertTrue(anyMessageContains("Uttag av 400 kr lyckades. Ny balans: 600 kr."));
+        assertEquals(ATMSession.State.MENU, session.getState());
+
+        session.onInput("4");
+        assertEquals(ATMSession.State.AWAITING_CARD, session.getState());
+        assertNull(session.getCurrentUser());
+        assertFalse(session.onInput("0"), "Sessionen bör avslutas med '0'.");
+        assertEquals(ATMSession.State.CLOSED, session.getState());
+    }
+
+    @Test
+    @DisplayName("Tre felaktiga PIN-försök låser kortet")
+    void testThreeWrongPinsLockCard() {
+        session.onInput("12345");
+        session.onInput("1111");
+        assertTrue(anyMessageContains("Fel PIN. Du har 2 försök kvar."));
+        session.onInput("1111");
+        session.onInput("1111");
+
+        assertTrue(bank.isCardLocked("12345"), "Kortet bör låsas efter tre misslyckade försök.");
+        assertEquals(ATMSession.State.AWAITING_CARD, session.getState());
+
+        session.onInput("12345");
+        assertTrue(anyMessageContains("Kortet är låst."));
+        assertEquals(ATMSession.State.AWAITING_CARD, session.getState());
+    }
+
+    @Test
+    @DisplayName("Ogiltiga belopp ger ny chans utan att lämna tillståndet")
+    void testInvalidAmounts() {
+        session.onInput("12345");
+        session.onInput("1234");
+        session.onInput("2");
+        session.onInput("abc");
+        assertTrue(anyMessageContains("Ogiltig inmatning. Ange ett numeriskt belopp."));
+        session.onInput("15");
+        assertTrue(anyMessageContains("Minsta möjliga belopp: 20 kr"));
+        session.onInput("25");
+        assertTrue(anyMessageContains("Beloppet måste vara en multipel av 10."));
+        assertEquals(ATMSession.State.AWAITING_DEPOSIT_AMOUNT, session.getState());
+
+        session.onInput("50");
+        assertEquals(1050.0, bank.getUserById("12345").getBalance());
+        assertEquals(ATMSession.State.MENU, session.getState());
+    }
+
+    @Test
+    @DisplayName("Många sessioner kan varvas på samma tråd")
+    void testInterleavedSessions() {
+        bank.setAttemptTracker(PinAttemptTracker.unlimited()); // Samma kort loggar in 1000 gånger i rad
+        List<ATMSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ATMSession terminal = new ATMSession(bank, recordingOutput(new ArrayList<>()));
+            terminal.start();
+            sessions.add(terminal);
+        }
+        for (String input : new String[]{"12345", "1234", "2", "20", "4"}) {
+            for (ATMSession terminal : sessions) {
+                terminal.onInput(input); // Ett steg i taget för varje terminal
+            }
+        }
+
+        assertEquals(1000.0 + 1000 * 20, bank.getUserById("12345").getBalance());
+        assertTrue(sessions.stream().allMatch(s -> s.getState() == ATMSession.State.AWAITING_CARD));
+    }
+}
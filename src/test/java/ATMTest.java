@@ -122,7 +122,7 @@ public class ATMTest {
         @DisplayName("Testar uttag med otillräckligt saldo")
         void testHandleWithdrawInsufficientBalance() {
             when(mockBank.getUserById("12345")).thenReturn(user);
-            when(mockBank.withdraw("12345", 2000)).thenThrow(new IllegalArgumentException("Otillräckligt saldo"));
+            when(mockBank.hold("12345", 2000)).thenThrow(new IllegalArgumentException("Otillräckligt saldo"));
 
             atm.insertCard("12345");
             Scanner scanner = new Scanner("2000\n");
@@ -135,14 +135,15 @@ public class ATMTest {
         @DisplayName("Testar uttag med giltigt saldo")
         void testHandleWithdrawValidAmount() {
             when(mockBank.getUserById("12345")).thenReturn(user);
-            when(mockBank.withdraw("12345", 500)).thenReturn(true);
+            when(mockBank.hold("12345", 500)).thenReturn(7L);
 
             atm.insertCard("12345");
             Scanner scanner = new Scanner("500\n");
             boolean result = atm.handleWithdraw(scanner);
 
             assertTrue(result, "Uttag med giltigt saldo bör lyckas.");
-            verify(mockBank).withdraw(eq("12345"), eq(500.0));
+            verify(mockBank).hold(eq("12345"), eq(500.0));
+            verify(mockBank).captureHold(7L);
         }
 
         @Test
@@ -168,12 +169,13 @@ public class ATMTest {
             atm.insertCard("12345"); // Sätt in kortet
 
             // Mocka bankens beteende vid uttag
-            when(mockBank.withdraw(eq("12345"), eq(400.0))).thenReturn(true);
+            when(mockBank.hold(eq("12345"), eq(400.0))).thenReturn(3L);
             Scanner scanner = new Scanner("400\n");
             atm.handleWithdraw(scanner);
 
-            // Kontrollera att bankens uttagsmetod anropas
-            verify(mockBank).withdraw(eq("12345"), eq(400.0));
+            // Kontrollera att beloppet reserveras och dras först när sedlarna matats ut
+            verify(mockBank).hold(eq("12345"), eq(400.0));
+            verify(mockBank).captureHold(3L);
         }
 
         @Test
@@ -317,7 +319,7 @@ public class ATMTest {
         @DisplayName("Testar handleWithdraw med otillräckligt saldo")
         void testHandleWithdraw_InsufficientBalance() {
             when(mockBank.getUserById("12345")).thenReturn(user);
-            when(mockBank.withdraw("12345", 2000)).thenThrow(new IllegalArgumentException("Otillräckligt saldo"));
+            when(mockBank.hold("12345", 2000)).thenThrow(new IllegalArgumentException("Otillräckligt saldo"));
             atm.insertCard("12345");
             Scanner scanner = new Scanner("2000\n");
             boolean result = atm.handleWithdraw(scanner);
@@ -328,7 +330,7 @@ public class ATMTest {
         @DisplayName("Testar handleWithdraw med giltigt belopp")
         void testHandleWithdraw_ValidAmount() {
             when(mockBank.getUserById("12345")).thenReturn(user);
-            when(mockBank.withdraw("12345", 500)).thenReturn(true);
+            when(mockBank.hold("12345", 500)).thenReturn(7L);
             atm.insertCard("12345");
             Scanner scanner = new Scanner("500\n");
             boolean result = atm.handleWithdraw(scanner);
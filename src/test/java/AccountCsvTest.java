@@ -0,0 +1,133 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class AccountCsvTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Export och import ger samma konton, saldon och PIN-koder")
+    void testExportImportRoundTrip() throws IOException {
+        Bank source = new Bank();
+        source.tryAddUser(User.ofCents("67890", "5678", 30_050));
+        source.tryAddUser(User.ofCents("11111", "1111", 7));
+        Path file = tempDir.resolve("konton.csv");
+
+        assertEquals(3, source.exportAccounts(file));
+        assertEquals(AccountCsv.HEADER, Files.readAllLines(file).get(0));
+        assertFalse(Files.readString(file).contains(",5678,"), "PIN-koden ska inte skrivas i klartext");
+
+        Bank target = new Bank();
+        target.deleteUser("12345");
+        ImportReport report = target.importAccounts(file);
+
+        assertEquals(3, report.rows());
+        assertEquals(3, report.imported());
+        assertEquals(0, report.rejected());
+        assertEquals(300.50, target.getUserById("67890").getBalance());
+        assertEquals(7, target.getUserById("11111").getBalanceCents());
+        assertTrue(target.verifyPin("67890", "5678"));
+        assertFalse(target.verifyPin("67890", "1234"));
+    }
+
+    @Test
+    @DisplayName("Ogiltiga rader och befintliga ID:n räknas i rapporten med radnummer")
+    void testReportCountsInvalidRows() throws IOException {
+        Path file = tempDir.resolve("konton.csv");
+        Files.writeString(file, String.join("\r\n",
+                AccountCsv.HEADER,
+                "1001,1111,100",
+                "1002,,100",        // Tom PIN
+                "1003,3333,-5",     // Negativt saldo
+                "",                 // Tomma rader hoppas över
+                "1004,4444,12.345", // För många decimaler
+                "1005,5555",        // För få fält
+                "12345,1234,1",     // Finns redan
+                "1006,6666,0.5"), StandardCharsets.UTF_8);
+
+        Bank bank = new Bank();
+        ImportReport report = bank.importAccounts(file);
+
+        assertEquals(7, report.rows());
+        assertEquals(2, report.imported());
+        assertEquals(1, report.duplicates());
+        assertEquals(4, report.rejected());
+        assertEquals(List.of(
+                "Rad 3: Ogiltiga värden vid skapande av användare.",
+                "Rad 4: Ogiltiga värden vid skapande av användare.",
+                "Rad 6: Ogiltigt belopp.",
+                "Rad 7: Raden ska ha tre fält: id,pin,saldo."), report.errors());
+        assertEquals(50, bank.getUserById("1006").getBalanceCents());
+        assertEquals(1000.0, bank.getUserById("12345").getBalance(), "Befintligt konto ska inte skrivas över");
+        assertTrue(report.summary().contains("2 konton tillagda"));
+    }
+
+    @Test
+    @DisplayName("Stora filer läses i flera bitar utan att rader går förlorade")
+    void testLargeFileAcrossChunks() throws IOException {
+        String pinHash = PinHash.create("1234").encode();
+        Path file = tempDir.resolve("konton.csv");
+        int accounts = 200_000; // Drygt 20 MB, alltså flera bitar
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(AccountCsv.HEADER + "\n");
+            for (int i = 0; i < accounts; i++) {
+                writer.write(i + "," + pinHash + "," + i + ".25\n");
+            }
+            writer.write("sist,1234,x"); // Sista raden utan radbrytning
+        }
+
+        Bank bank = new Bank();
+        ImportReport report = bank.importAccounts(file);
+
+        assertEquals(accounts - 1, report.imported());
+        assertEquals(1, report.duplicates()); // 12345 är standardanvändaren
+        assertEquals(List.of("Rad " + (accounts + 2) + ": Ogiltigt belopp."), report.errors());
+        assertEquals(199_999_25, bank.getUserById("199999").getBalanceCents());
+        assertTrue(bank.verifyPin("123456", "1234"));
+        assertEquals(accounts, bank.countAccountsWithBalanceBetween(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Inlästa konton finns kvar när transaktionsloggen spelas upp")
+    void testImportIsJournaled() throws IOException {
+        Path file = tempDir.resolve("konton.csv");
+        Files.writeString(file, "2001,1111,10\n2002,2222,20\n", StandardCharsets.UTF_8);
+        Path log = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(log)) {
+            assertEquals(2, new Bank(journal).importAccounts(file).imported());
+        }
+        try (TransactionJournal journal = new TransactionJournal(log)) {
+            Bank restored = new Bank(journal);
+            assertEquals(20.0, restored.getUserById("2002").getBalance());
+            assertTrue(restored.verifyPin("2001", "1111"));
+        }
+    }
+
+    @Test
+    @DisplayName("Belopp tolkas till öre utan avrundningsfel")
+    void testParseCents() {
+        assertEquals(123, parse("1.23"));
+        assertEquals(150, parse("1.5"));
+        assertEquals(100_000, parse("1000"));
+        assertEquals(-500, parse("-5"));
+        assertThrows(IllegalArgumentException.class, () -> parse(""));
+        assertThrows(IllegalArgumentException.class, () -> parse("1."));
+        assertThrows(IllegalArgumentException.class, () -> parse("1e5"));
+        assertThrows(IllegalArgumentException.class, () -> parse("99999999999999999999"));
+    }
+
+    private static long parse(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return AccountCsv.parseCents(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AccountSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Ögonblicksbild och loggens slut ger samma tillstånd som före omstart")
+    void testSnapshotPlusJournalTail() throws IOException {
+        Path journalFile = tempDir.resolve("bank.journal");
+        Path snapshotFile = tempDir.resolve("bank.snapshot");
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank bank = new Bank(journal, snapshotFile);
+            bank.addUser(new User("67890", "5678", 300));
+            bank.getUserById("67890").lockCard();
+            bank.deposit("12345", 100);
+            assertEquals(2, bank.writeSnapshot(snapshotFile), "Båda kontona bör finnas i bilden.");
+
+            bank.deposit("12345", 50); // Hamnar bara i loggen efter bilden
+            bank.addUser(new User("11111", "1111", 10));
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank restarted = new Bank(journal, snapshotFile);
+            assertEquals(1150.0, restarted.getUserById("12345").getBalance());
+            assertEquals(300.0, restarted.getUserById("67890").getBalance());
+            assertTrue(restarted.isCardLocked("67890"), "Kortstatus bör följa med bilden.");
+            assertNotNull(restarted.getUserById("11111"), "Konton skapade efter bilden bör spelas upp från loggen.");
+        }
+    }
+
+    @Test
+    @DisplayName("Kort som låses eller nollställs efter bilden har samma status efter omstart")
+    void testCardStateAfterSnapshotIsJournaled() throws IOException {
+        Path journalFile = tempDir.resolve("bank.journal");
+        Path snapshotFile = tempDir.resolve("bank.snapshot");
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank bank = new Bank(journal, snapshotFile);
+            bank.setOutput(SessionOutput.none());
+            bank.addUser(new User("67890", "5678", 300));
+            bank.getUserById("12345").recordFailedAttempt();
+            bank.getUserById("12345").recordFailedAttempt();
+            bank.writeSnapshot(snapshotFile);
+
+            ATMSession terminal = new ATMSession(bank, SessionOutput.none(), "atm-1");
+            terminal.start();
+            terminal.onInput("12345");
+            terminal.onInput("1234"); // Lyckad inloggning nollställer försöken
+            assertEquals(ATMSession.State.MENU, terminal.getState());
+            terminal.onInput("4");
+            terminal.onInput("67890");
+            for (String pin : new String[] {"1111", "2222", "3333"}) {
+                terminal.onInput(pin);
+            }
+            assertTrue(bank.isCardLocked("67890"));
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank restarted = new Bank(journal, snapshotFile);
+            assertEquals(0, restarted.getUserById("12345").getFailedAttempts(), "Nollställningen bör spelas upp.");
+            assertTrue(restarted.isCardLocked("67890"), "Låsningen efter bilden bör spelas upp.");
+            assertEquals(3, restarted.getUserById("67890").getFailedAttempts());
+        }
+    }
+
+    @Test
+    @DisplayName("Bara loggen efter bildens position spelas upp")
+    void testOnlyTailIsReplayed() throws IOException {
+        Path journalFile = tempDir.resolve("bank.journal");
+        Path snapshotFile = tempDir.resolve("bank.snapshot");
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank bank = new Bank(journal);
+            for (int i = 0; i < 100; i++) {
+                bank.deposit("12345", 1);
+            }
+            bank.writeSnapshot(snapshotFile);
+            bank.deposit("12345", 1);
+        }
+
+        long position = AccountSnapshot.read(snapshotFile, user -> { });
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            List<JournalRecord> tail = new ArrayList<>();
+            journal.replay(position, tail::add);
+            assertEquals(1, tail.size(), "Bara insättningen efter bilden bör finnas i loggens slut.");
+        }
+    }
+
+    @Test
+    @DisplayName("En trasig ögonblicksbild ignoreras och hela loggen spelas upp")
+    void testCorruptSnapshotFallsBackToJournal() throws IOException {
+        Path journalFile = tempDir.resolve("bank.journal");
+        Path snapshotFile = tempDir.resolve("bank.snapshot");
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            Bank bank = new Bank(journal);
+            bank.deposit("12345", 250);
+            bank.writeSnapshot(snapshotFile);
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 30); // Förstör en byte i kontodelen
+        }
+
+        assertEquals(-1, AccountSnapshot.read(snapshotFile, user -> fail("Inga konton ska lämnas ut.")));
+        try (TransactionJournal journal = new TransactionJournal(journalFile)) {
+            assertEquals(1250.0, new Bank(journal, snapshotFile).getUserById("12345").getBalance());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncOutputTest {
+
+    // Samlar texterna; anropas bara från skrivartråden
+    private static SessionOutput recording(List<String> lines) {
+        return new SessionOutput() {
+            @Override
+            public void prompt(String text) {
+                lines.add("prompt:" + text);
+            }
+
+            @Override
+            public void message(String text) {
+                lines.add(text);
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Texterna lämnas vidare i samma ordning och med rätt typ")
+    void testOrderAndKind() {
+        List<String> lines = new ArrayList<>();
+        try (AsyncOutput output = new AsyncOutput(recording(lines), 4)) {
+            for (int i = 0; i < 100; i++) { // Många fler än kapaciteten, så skrivaren får vänta in tråden
+                output.message("rad " + i);
+            }
+            output.prompt("Ange PIN: ");
+            output.flush();
+
+            assertEquals(101, lines.size());
+            assertEquals("rad 0", lines.get(0));
+            assertEquals("rad 99", lines.get(99));
+            assertEquals("prompt:Ange PIN: ", lines.get(100));
+        }
+    }
+
+    @Test
+    @DisplayName("Inga meddelanden tappas när många trådar skriver samtidigt")
+    void testConcurrentWritersLoseNothing() throws InterruptedException {
+        List<String> lines = new ArrayList<>();
+        AsyncOutput output = new AsyncOutput(recording(lines), 64);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            String thread = "t" + t;
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    output.message(thread + ":" + i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        output.close(); // Lämnar vidare det som återstår
+
+        assertEquals(80_000, lines.size());
+        // Ordningen per tråd bevaras
+        int[] next = new int[8];
+        for (String line : lines) {
+            int thread = line.charAt(1) - '0';
+            assertEquals("t" + thread + ":" + next[thread]++, line);
+        }
+    }
+
+    @Test
+    @DisplayName("Banken och bankomaten skickar sina meddelanden till den valda utdatan")
+    void testBankAndAtmUseOutput() {
+        List<String> lines = new ArrayList<>();
+        try (AsyncOutput output = new AsyncOutput(recording(lines), 16)) {
+            Bank bank = new Bank();
+            bank.setOutput(output);
+            bank.addUser(new User("67890", "5678", 300));
+            bank.deleteUser("67890");
+
+            ATM atm = new ATM();
+            atm.setBank(bank);
+            atm.setOutput(output);
+            atm.insertCard("12345");
+            atm.handleCheckBalance();
+            output.flush();
+
+            assertEquals(List.of(
+                    "Användare med ID 67890 har lagts till.",
+                    "Användare med ID 67890 har tagits bort.",
+                    "Försöker sätta in kort för ID: 12345",
+                    "Kortet har satts in framgångsrikt.",
+                    "Ditt saldo är: 1000 kr"), lines);
+        }
+    }
+
+    @Test
+    @DisplayName("Stängd utdata tar inte emot fler texter")
+    void testClosed() {
+        AsyncOutput output = new AsyncOutput(SessionOutput.none(), 8);
+        output.close();
+        assertThrows(IllegalStateException.class, () -> output.message("sent"));
+    }
+}
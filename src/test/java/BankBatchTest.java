@@ -0,0 +1,164 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class BankBatchTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.addUser(new User("67890", "5678", 300));
+    }
+
+    @Test
+    @DisplayName("Batchen ger ett resultat per operation och fortsätter efter fel")
+    void testResultPerOperation() {
+        BatchResult result = bank.applyBatch(List.of(
+                BankOperation.deposit("12345", 50_00),
+                BankOperation.withdraw("67890", 1_000_00),
+                BankOperation.withdraw("00000", 100_00),
+                BankOperation.deposit("12345", -1),
+                BankOperation.withdraw("67890", 100_00)));
+
+        assertEquals(5, result.size());
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(3, result.getFailureCount());
+        assertTrue(result.isSuccess(0));
+        assertEquals("Otillräckligt saldo.", result.getError(1));
+        assertEquals("Ogiltigt användar-ID.", result.getError(2));
+        assertEquals("Ogiltigt användar-ID eller belopp.", result.getError(3));
+        assertTrue(result.isSuccess(4));
+        assertEquals(1050.0, bank.getUserById("12345").getBalance());
+        assertEquals(200.0, bank.getUserById("67890").getBalance());
+    }
+
+    @Test
+    @DisplayName("Operationerna utförs i ordning, så en insättning kan täcka ett senare uttag")
+    void testOperationsRunInOrder() {
+        BatchResult result = bank.applyBatch(List.of(
+                BankOperation.deposit("67890", 700_00),
+                BankOperation.withdraw("67890", 1_000_00)));
+
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(0.0, bank.getUserById("67890").getBalance());
+    }
+
+    @Test
+    @DisplayName("Överföring i batch flyttar pengar eller inget alls")
+    void testTransferInBatch() {
+        BatchResult result = bank.applyBatch(List.of(
+                BankOperation.transfer("12345", "67890", 400_00),
+                BankOperation.transfer("67890", "12345", 5_000_00),
+                BankOperation.transfer("12345", "12345", 1_00),
+                BankOperation.transfer("12345", "00000", 1_00)));
+
+        assertTrue(result.isSuccess(0));
+        assertEquals("Otillräckligt saldo.", result.getError(1));
+        assertEquals("Kan inte överföra till samma konto.", result.getError(2));
+        assertEquals("Ogiltigt användar-ID.", result.getError(3));
+        assertEquals(600.0, bank.getUserById("12345").getBalance());
+        assertEquals(700.0, bank.getUserById("67890").getBalance());
+    }
+
+    @Test
+    @DisplayName("En ström av operationer ger samma resultat som en lista")
+    void testStreamBatch() {
+        BatchResult result = bank.applyBatch(Stream.of(
+                BankOperation.deposit("12345", 10_00),
+                BankOperation.withdraw("12345", 20_00)));
+
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(990.0, bank.getUserById("12345").getBalance());
+    }
+
+    @Test
+    @DisplayName("En batch som är större än en låsrunda överlever omstart via loggen")
+    void testJournaledBatchSurvivesRestart() throws IOException {
+        Path file = tempDir.resolve("bank.journal");
+        List<BankOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            operations.add(i % 2 == 0
+                    ? BankOperation.transfer("12345", "67890", 1_00)
+                    : BankOperation.deposit("12345", 3_00));
+        }
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank journaled = new Bank(journal);
+            journaled.addUser(new User("67890", "5678", 0));
+            assertEquals(10_000, journaled.applyBatch(operations).getSuccessCount());
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank restarted = new Bank(journal);
+            assertEquals(1000.0 + 5_000 * 2, restarted.getUserById("12345").getBalance());
+            assertEquals(5_000.0, restarted.getUserById("67890").getBalance());
+        }
+    }
+
+    @Test
+    @DisplayName("Samtidiga batchar med korsvisa överföringar låser inte varandra och bevarar summan")
+    void testConcurrentCrossTransfersConserveTotal() throws InterruptedException {
+        int accounts = 100;
+        for (int i = 0; i < accounts; i++) {
+            bank.addUser(new User("acc" + i, "0000", 1000));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int round = 0; round < 20; round++) {
+                    List<BankOperation> operations = new ArrayList<>();
+                    for (int i = 0; i < 5_000; i++) {
+                        operations.add(BankOperation.transfer("acc" + random.nextInt(accounts),
+                                "acc" + random.nextInt(accounts), 1 + random.nextInt(500_00)));
+                    }
+                    bank.applyBatch(operations);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS), "Batcharna bör bli klara utan dödläge.");
+
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            long balance = bank.getUserById("acc" + i).getBalanceCents();
+            assertTrue(balance >= 0, "Inget konto bör bli övertrasserat.");
+            total += balance;
+        }
+        assertEquals(accounts * 1000_00L, total, "Överföringar bör varken skapa eller förstöra pengar.");
+    }
+
+    @Test
+    @DisplayName("CompactBank stöder batchar via standardimplementationen")
+    void testCompactBankBatch() {
+        CompactBank compact = new CompactBank();
+        compact.addUser(new User("1001", "1234", 100));
+        compact.addUser(new User("1002", "1234", 0));
+
+        BatchResult result = compact.applyBatch(List.of(
+                BankOperation.transfer("1001", "1002", 60_00),
+                BankOperation.withdraw("1002", 100_00)));
+
+        assertTrue(result.isSuccess(0));
+        assertEquals("Otillräckligt saldo.", result.getError(1));
+        assertEquals(40.0, compact.getUserById("1001").getBalance());
+        assertEquals(60.0, compact.getUserById("1002").getBalance());
+    }
+}
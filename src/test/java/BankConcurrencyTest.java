@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BankConcurrencyTest {
+
+    private Bank bank; // En riktig bank som delas mellan flera trådar
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+    }
+
+    // Kör samma uppgift från flera trådar som startar samtidigt
+    private void runConcurrently(int threads, Runnable task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                start.await();
+                task.run();
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS), "Trådarna bör hinna bli klara.");
+    }
+
+    @Test
+    @DisplayName("Samtidiga insättningar tappar inga uppdateringar")
+    void testConcurrentDeposits() throws InterruptedException {
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 1000; i++) {
+                bank.deposit("12345", 10);
+            }
+        });
+
+        assertEquals(1000.0 + 8 * 1000 * 10, bank.getUserById("12345").getBalance(),
+                "Alla insättningar bör synas i saldot.");
+    }
+
+    @Test
+    @DisplayName("Samtidiga uttag kan aldrig övertrassera kontot")
+    void testConcurrentWithdrawalsNeverOverdraw() throws InterruptedException {
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(8, () -> {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    if (bank.withdraw("12345", 100)) {
+                        succeeded.incrementAndGet();
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Otillräckligt saldo är förväntat när kontot är tomt
+                }
+            }
+        });
+
+        assertEquals(10, succeeded.get(), "Exakt tio uttag om 100 kr bör lyckas från 1000 kr.");
+        assertEquals(0.0, bank.getUserById("12345").getBalance(), "Saldot bör vara noll.");
+    }
+
+    @Test
+    @DisplayName("Samtidiga tillägg av samma ID lägger bara till en användare")
+    void testConcurrentAddUser() throws InterruptedException {
+        User first = new User("67890", "5678", 100);
+        runConcurrently(4, () -> bank.addUser(first));
+        runConcurrently(4, () -> bank.addUser(new User("67890", "0000", 999)));
+
+        assertSame(first, bank.getUserById("67890"), "Den första användaren bör ligga kvar.");
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class BankHistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.tryAddUser(User.ofCents("67890", "5678", 0));
+    }
+
+    @Test
+    @DisplayName("De senaste transaktionerna visas nyast först med saldo efter varje transaktion")
+    void testRecentTransactions() {
+        bank.depositCents("12345", 5_000);
+        bank.withdrawCents("12345", 20_000);
+        bank.transferCents("12345", "67890", 1_000);
+
+        List<Transaction> history = bank.getRecentTransactions("12345", 10);
+        assertEquals(3, history.size());
+        assertEquals(Transaction.Type.TRANSFER_OUT, history.get(0).type());
+        assertEquals(1_000, history.get(0).amountCents());
+        assertEquals(84_000, history.get(0).balanceAfterCents());
+        assertEquals(Transaction.Type.WITHDRAW, history.get(1).type());
+        assertEquals(85_000, history.get(1).balanceAfterCents());
+        assertEquals(Transaction.Type.DEPOSIT, history.get(2).type());
+        assertEquals(105_000, history.get(2).balanceAfterCents());
+        assertTrue(history.get(2).timeMillis() <= history.get(0).timeMillis());
+
+        List<Transaction> target = bank.getRecentTransactions("67890", 10);
+        assertEquals(List.of(Transaction.Type.TRANSFER_IN), target.stream().map(Transaction::type).toList());
+        assertEquals(2, bank.getRecentTransactions("12345", 2).size());
+    }
+
+    @Test
+    @DisplayName("Lång historik läses från ringbufferten och vidare bakåt på disken")
+    void testLongHistorySpillsToDisk() {
+        int transactions = 3_000; // Fler grupper än ryms i en sida, så de äldsta läses från filen
+        for (int i = 1; i <= transactions; i++) {
+            bank.depositCents("67890", i);
+        }
+
+        List<Transaction> recent = bank.getRecentTransactions("67890", 10);
+        assertEquals(10, recent.size());
+        assertEquals(transactions, recent.get(0).amountCents());
+
+        List<Transaction> all = bank.getRecentTransactions("67890", Integer.MAX_VALUE);
+        assertEquals(transactions, all.size());
+        long expectedBalance = (long) transactions * (transactions + 1) / 2;
+        for (int i = 0; i < transactions; i++) {
+            Transaction transaction = all.get(i);
+            assertEquals(transactions - i, transaction.amountCents(), "Post " + i);
+            assertEquals(expectedBalance, transaction.balanceAfterCents(), "Post " + i);
+            expectedBalance -= transaction.amountCents();
+        }
+        assertEquals(0, expectedBalance);
+    }
+
+    @Test
+    @DisplayName("Konton i olika låsgrupper fyller var sin sida samtidigt utan att historiken blandas ihop")
+    void testConcurrentSpillsAcrossStripes() throws InterruptedException {
+        int accounts = 16;
+        int transactions = 1_500;
+        for (int a = 0; a < accounts; a++) {
+            bank.tryAddUser(User.ofCents("h" + a, "1234", 0));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int a = 0; a < accounts; a++) {
+            String id = "h" + a;
+            pool.execute(() -> {
+                for (int i = 1; i <= transactions; i++) {
+                    bank.depositCents(id, i);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        for (int a = 0; a < accounts; a++) {
+            List<Transaction> all = bank.getRecentTransactions("h" + a, Integer.MAX_VALUE);
+            assertEquals(transactions, all.size());
+            for (int i = 0; i < transactions; i++) {
+                assertEquals(transactions - i, all.get(i).amountCents(), "h" + a + ", post " + i);
+            }
+        }
+        bank.close();
+        bank.close(); // Ingen effekt andra gången
+    }
+
+    @Test
+    @DisplayName("Fulla sidor skrivs av skrivtråden och close skriver de som väntar")
+    void testFullPagesWrittenBeforeClose() throws Exception {
+        Path file = tempDir.resolve("historik.pages");
+        HistoryStore store = new HistoryStore(file, 2);
+        long[][] histories = {AccountHistory.create(), AccountHistory.create()};
+        int perPage = HistoryStore.PAGE_SIZE / (16 + AccountHistory.SPILL_BATCH * 24);
+        // Ringen fylls först; därefter en grupp per SPILL_BATCH poster, och en sida lämnas ifrån sig när
+        // nästa grupp inte ryms
+        int added = AccountHistory.CAPACITY + (3 * perPage + 1) * AccountHistory.SPILL_BATCH;
+        for (int i = 0; i < added; i++) {
+            for (int stripe = 0; stripe < 2; stripe++) {
+                AccountHistory.add(histories[stripe], store, stripe, Transaction.Type.DEPOSIT, i, i, 0);
+            }
+        }
+        store.close(); // Tre fulla sidor per låsgrupp; den fjärde fylls fortfarande och skrivs inte
+
+        assertEquals(6L * HistoryStore.PAGE_SIZE, Files.size(file));
+        assertEquals(0, store.getLostEntries());
+    }
+
+    @Test
+    @DisplayName("Batchoperationer hamnar i historiken, misslyckade operationer gör det inte")
+    void testBatchHistory() {
+        bank.applyBatch(List.of(
+                BankOperation.deposit("67890", 500),
+                BankOperation.withdraw("67890", 1_000_000),
+                BankOperation.transfer("67890", "12345", 200)));
+
+        List<Transaction> history = bank.getRecentTransactions("67890", 10);
+        assertEquals(List.of(Transaction.Type.TRANSFER_OUT, Transaction.Type.DEPOSIT),
+                history.stream().map(Transaction::type).toList());
+        assertEquals(300, history.get(0).balanceAfterCents());
+    }
+
+    @Test
+    @DisplayName("Konton utan transaktioner har tom historik och okända konton ger fel")
+    void testEmptyAndInvalid() {
+        assertTrue(bank.getRecentTransactions("67890", 10).isEmpty());
+        assertTrue(bank.getRecentTransactions("12345", 0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> bank.getRecentTransactions("saknas", 10));
+        assertThrows(IllegalArgumentException.class, () -> bank.getRecentTransactions("12345", -1));
+    }
+}
@@ -0,0 +1,201 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BankHoldTest {
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.addUser(User.withPinHash("a", PinHash.create("0000"), Money.ofWholeKronor(1_000)));
+        bank.addUser(User.withPinHash("b", PinHash.create("0000"), Money.ofWholeKronor(1_000)));
+    }
+
+    @Test
+    @DisplayName("En reservation minskar det tillgängliga saldot och dras först vid capture")
+    void testHoldAndCapture() {
+        long hold = bank.holdCents("a", Money.ofWholeKronor(300));
+        assertEquals(Money.ofWholeKronor(1_000), bank.getUserById("a").getBalanceCents());
+        assertEquals(Money.ofWholeKronor(700), bank.getAvailableCents("a"));
+
+        bank.captureHold(hold);
+        assertEquals(Money.ofWholeKronor(700), bank.getUserById("a").getBalanceCents());
+        assertEquals(Money.ofWholeKronor(700), bank.getAvailableCents("a"));
+        assertEquals(Transaction.Type.WITHDRAW, bank.getRecentTransactions("a", 1).get(0).type());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> bank.captureHold(hold));
+        assertEquals("Reservationen finns inte eller har gått ut.", e.getMessage());
+        assertFalse(bank.releaseHold(hold));
+        assertThrows(IllegalArgumentException.class, () -> bank.captureHold(0));
+    }
+
+    @Test
+    @DisplayName("En släppt reservation ger tillbaka det tillgängliga saldot och kan inte dras")
+    void testRelease() {
+        long hold = bank.holdCents("a", Money.ofWholeKronor(300));
+        assertTrue(bank.releaseHold(hold));
+        assertFalse(bank.releaseHold(hold));
+        assertThrows(IllegalArgumentException.class, () -> bank.captureHold(hold));
+        assertEquals(Money.ofWholeKronor(1_000), bank.getAvailableCents("a"));
+
+        long next = bank.holdCents("a", Money.ofWholeKronor(100)); // Återanvänder platsen, men med nytt ID
+        assertNotEquals(hold, next);
+        assertFalse(bank.releaseHold(hold));
+        assertEquals(Money.ofWholeKronor(900), bank.getAvailableCents("a"));
+    }
+
+    @Test
+    @DisplayName("Reserverade pengar kan inte tas ut, föras över eller reserveras igen")
+    void testHeldMoneyIsUnavailable() {
+        bank.holdCents("a", Money.ofWholeKronor(800));
+        assertThrows(IllegalArgumentException.class, () -> bank.withdrawCents("a", Money.ofWholeKronor(300)));
+        assertThrows(IllegalArgumentException.class, () -> bank.transferCents("a", "b", Money.ofWholeKronor(300)));
+        assertThrows(IllegalArgumentException.class, () -> bank.holdCents("a", Money.ofWholeKronor(300)));
+        BatchResult result = bank.applyBatch(List.of(BankOperation.withdraw("a", Money.ofWholeKronor(300))));
+        assertEquals("Otillräckligt saldo.", result.getError(0));
+
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(200)));
+        assertEquals(0, bank.getAvailableCents("a"));
+        bank.depositCents("a", Money.ofWholeKronor(50));
+        assertEquals(Money.ofWholeKronor(50), bank.getAvailableCents("a"));
+    }
+
+    @Test
+    @DisplayName("En reservation som inte dras eller släpps går ut av sig själv")
+    void testHoldExpires() throws InterruptedException {
+        bank.setHoldTimeout(Duration.ofMillis(1));
+        long hold = bank.holdCents("a", Money.ofWholeKronor(300));
+        Thread.sleep(3L * HoldTable.TICK_MILLIS);
+
+        assertEquals(Money.ofWholeKronor(1_000), bank.getAvailableCents("a"));
+        assertThrows(IllegalArgumentException.class, () -> bank.captureHold(hold));
+        assertEquals(Money.ofWholeKronor(1_000), bank.getUserById("a").getBalanceCents());
+        assertEquals(1, bank.getMetrics().operation("bank.holdExpired").calls());
+    }
+
+    @Test
+    @DisplayName("En släppt eller utgången reservation räknas av i uttagsgränserna")
+    void testReleasedHoldIsRefundedToLimits() throws InterruptedException {
+        bank.setWithdrawalLimits(new WithdrawalLimits(List.of(
+                WithdrawalLimits.Rule.maxAmount(Duration.ofDays(1), Money.ofWholeKronor(500)),
+                WithdrawalLimits.Rule.maxCount(Duration.ofMinutes(10), 2))));
+        assertTrue(bank.releaseHold(bank.holdCents("a", Money.ofWholeKronor(500))));
+        assertTrue(bank.releaseHold(bank.holdCents("a", Money.ofWholeKronor(500))));
+
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(300)));
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(200))); // Hela gränsen, båda uttagen
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("a", Money.ofWholeKronor(1)));
+        assertEquals(WithdrawalLimits.AMOUNT_EXCEEDED, e.getMessage());
+        assertEquals(Money.ofWholeKronor(500), bank.getUserById("a").getBalanceCents());
+
+        bank.setHoldTimeout(Duration.ofMillis(1));
+        bank.holdCents("b", Money.ofWholeKronor(400));
+        Thread.sleep(3L * HoldTable.TICK_MILLIS);
+        assertEquals(Money.ofWholeKronor(1_000), bank.getAvailableCents("b")); // Går ut här
+        bank.setHoldTimeout(Duration.ofMinutes(1));
+        bank.captureHold(bank.holdCents("b", Money.ofWholeKronor(500))); // Ett draget uttag räknas kvar
+        assertThrows(IllegalArgumentException.class, () -> bank.holdCents("b", 1));
+    }
+
+    @Test
+    @DisplayName("Tidshjulet släpper reservationer först när deras tid är inne, även bortom ett varv")
+    void testTimerWheel() {
+        User user = User.withPinHash("w", PinHash.create("0000"), Money.ofWholeKronor(1_000));
+        HoldTable table = new HoldTable(3, 8);
+        long now = 1_000_000;
+        long shortHold = table.add(user, 100, now, 2_000, now);
+        long longHold = table.add(user, 200, now, 3L * HoldTable.WHEEL_SIZE * HoldTable.TICK_MILLIS, now);
+        long keptHold = table.add(user, 400, now, 10_000, now);
+        assertEquals(3, HoldTable.stripeOf(shortHold, 8));
+        assertEquals(700, user.getHeldCents());
+
+        assertEquals(0, table.expire(now + 1_999, WithdrawalLimits.none()));
+        assertEquals(1, table.expire(now + 2_000, WithdrawalLimits.none()));
+        assertNull(table.find(shortHold));
+        assertEquals(600, user.getHeldCents());
+
+        table.remove(table.find(keptHold));
+        assertEquals(200, user.getHeldCents());
+
+        for (long t = now; t < now + 3L * HoldTable.WHEEL_SIZE * HoldTable.TICK_MILLIS; t += 7_000) {
+            assertEquals(0, table.expire(t, WithdrawalLimits.none())); // Hinken passeras varje varv men tiden är inte inne
+        }
+        assertNotNull(table.find(longHold));
+        assertEquals(1, table.expire(now + 10L * HoldTable.WHEEL_SIZE * HoldTable.TICK_MILLIS, WithdrawalLimits.none())); // Långt uppehåll
+        assertEquals(0, table.size());
+        assertEquals(0, user.getHeldCents());
+    }
+
+    @Test
+    @DisplayName("Samtidiga reservationer överskrider aldrig saldot")
+    void testConcurrentHolds() throws InterruptedException {
+        AtomicLong captured = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 5_000; i++) {
+                    long amount = 1 + random.nextInt(5_000);
+                    try {
+                        long hold = bank.holdCents("a", amount);
+                        if (random.nextBoolean()) {
+                            bank.captureHold(hold);
+                            captured.addAndGet(amount);
+                        } else {
+                            assertTrue(bank.releaseHold(hold));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Otillräckligt saldo
+                    }
+                    bank.depositCents("a", 1_000);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        long balance = bank.getUserById("a").getBalanceCents();
+        assertEquals(Money.ofWholeKronor(1_000) + 4 * 5_000 * 1_000L - captured.get(), balance);
+        assertEquals(balance, bank.getAvailableCents("a"));
+        assertTrue(bank.reconcile().isBalanced());
+    }
+
+    @Test
+    @DisplayName("Bankomaten släpper reservationen om sedlarna inte kan matas ut")
+    void testAtmReleasesHoldWhenDispenseFails() {
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        atm.setCassettes(new CashCassettes(new int[] {100}, new int[] {100}) {
+            @Override
+            public int[] dispense(long amountCents) {
+                return null; // Sedlarna tar slut mellan kontrollen och utmatningen
+            }
+        });
+        atm.insertCard("a");
+        assertFalse(atm.handleWithdraw(new Scanner("500\n")));
+        assertEquals(Money.ofWholeKronor(1_000), bank.getUserById("a").getBalanceCents());
+        assertEquals(Money.ofWholeKronor(1_000), bank.getAvailableCents("a"));
+        assertEquals(1, bank.getMetrics().operation("bank.releaseHold").calls());
+
+        atm.setCassettes(CashCassettes.standard());
+        assertTrue(atm.handleWithdraw(new Scanner("500\n")));
+        assertEquals(Money.ofWholeKronor(500), bank.getUserById("a").getBalanceCents());
+        assertEquals(1, bank.getMetrics().operation("bank.captureHold").calls());
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class BankIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.tryAddUser(User.ofCents("a", "1111", 10_000));
+        bank.tryAddUser(User.ofCents("b", "2222", 50_000));
+        bank.tryAddUser(User.ofCents("c", "3333", 250_000));
+    }
+
+    @Test
+    @DisplayName("Låsta kort syns i indexet och försvinner när kontot tas bort")
+    void testLockedCards() {
+        assertTrue(bank.getLockedCardIds().isEmpty());
+
+        User user = bank.getUserById("b");
+        for (int i = 0; i < 3; i++) {
+            user.recordFailedAttempt();
+        }
+
+        assertEquals(Set.of("b"), bank.getLockedCardIds());
+        assertEquals(1, bank.countLockedCards());
+
+        bank.deleteUser("b");
+        assertEquals(0, bank.countLockedCards());
+    }
+
+    @Test
+    @DisplayName("Intervallfrågan följer insättningar, uttag och överföringar")
+    void testBalanceRangeFollowsTransactions() {
+        // Standardkontot 12345 har 100 000 öre
+        assertEquals(List.of("b", "12345"), bank.findAccountsWithBalanceBetween(50_000, 100_000, 10));
+
+        bank.depositCents("a", 60_000);           // a: 70 000
+        bank.withdrawCents("c", 200_000);         // c: 50 000
+        bank.transferCents("12345", "b", 1_000);  // 12345: 99 000, b: 51 000
+
+        assertEquals(List.of("c", "b", "a", "12345"), bank.findAccountsWithBalanceBetween(50_000, 100_000, 10));
+        assertEquals(List.of("c", "b"), bank.findAccountsWithBalanceBetween(50_000, 100_000, 2));
+        assertEquals(4, bank.countAccountsWithBalanceBetween(50_000, 100_000));
+        assertEquals(0, bank.countAccountsWithBalanceBetween(100_000, 50_000));
+    }
+
+    @Test
+    @DisplayName("Antal i intervall stämmer med en genomgång av alla konton")
+    void testCountMatchesScan() {
+        Random random = new Random(42);
+        long[] balances = new long[5_000];
+        for (int i = 0; i < balances.length; i++) {
+            balances[i] = random.nextInt(3) == 0 ? random.nextInt(100) : (long) (Math.exp(random.nextDouble() * 20));
+            bank.tryAddUser(User.ofCents("u" + i, "1234", balances[i]));
+        }
+
+        for (int query = 0; query < 200; query++) {
+            long a = (long) Math.exp(random.nextDouble() * 21);
+            long b = (long) Math.exp(random.nextDouble() * 21);
+            long min = Math.min(a, b);
+            long max = Math.max(a, b);
+            long expected = 0;
+            for (long balance : balances) {
+                if (balance >= min && balance <= max) {
+                    expected++;
+                }
+            }
+            for (long balance : new long[] {10_000, 50_000, 250_000, 100_000}) {
+                if (balance >= min && balance <= max) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, bank.countAccountsWithBalanceBetween(min, max), min + "-" + max);
+        }
+        assertEquals(balances.length + 4, bank.countAccountsWithBalanceBetween(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Antal i intervall är exakt även när alla konton ligger i samma saldohink")
+    void testCountWithinOneBucket() {
+        for (int i = 0; i < 2_000; i++) {
+            bank.tryAddUser(User.ofCents("s" + i, "1234", 1_000_000 + i));
+        }
+        assertEquals(2_000, bank.countAccountsWithBalanceBetween(1_000_000, 1_001_999));
+        assertEquals(1, bank.countAccountsWithBalanceBetween(1_001_234, 1_001_234));
+        assertEquals(901, bank.countAccountsWithBalanceBetween(1_000_500, 1_001_400));
+        assertEquals(List.of("s500", "s501"), bank.findAccountsWithBalanceBetween(1_000_500, 1_001_400, 2));
+
+        for (int i = 0; i < 2_000; i += 2) {
+            bank.depositCents("s" + i, 100_000); // Varannan flyttas ur intervallet
+        }
+        bank.deleteUser("s1");
+        assertEquals(999, bank.countAccountsWithBalanceBetween(1_000_000, 1_001_999));
+        assertEquals(List.of("s3", "s5"), bank.findAccountsWithBalanceBetween(1_000_000, 1_001_999, 2));
+    }
+
+    @Test
+    @DisplayName("Indexet byggs upp igen när transaktionsloggen spelas upp")
+    void testIndexRebuiltFromJournal() throws IOException {
+        Path log = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(log)) {
+            Bank journaled = new Bank(journal);
+            journaled.tryAddUser(User.ofCents("x", "1111", 500));
+            journaled.depositCents("x", 1_500);
+        }
+        try (TransactionJournal journal = new TransactionJournal(log)) {
+            Bank restored = new Bank(journal);
+            assertEquals(List.of("x"), restored.findAccountsWithBalanceBetween(2_000, 2_000, 10));
+            assertEquals(2, restored.countAccountsWithBalanceBetween(0, Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    @DisplayName("Samtidiga transaktioner lämnar indexet i samma skick som kontona")
+    void testConcurrentUpdatesKeepIndexConsistent() throws InterruptedException {
+        int accounts = 100;
+        for (int i = 0; i < accounts; i++) {
+            bank.tryAddUser(User.ofCents("k" + i, "1234", 1_000_000));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    String from = "k" + random.nextInt(accounts);
+                    String to = "k" + random.nextInt(accounts);
+                    try {
+                        if (random.nextBoolean()) {
+                            bank.transferCents(from, to, 1 + random.nextInt(5_000));
+                        } else {
+                            bank.depositCents(from, 1 + random.nextInt(5_000));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Samma konto eller otillräckligt saldo
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(accounts + 4, bank.countAccountsWithBalanceBetween(0, Long.MAX_VALUE));
+        for (int i = 0; i < accounts; i++) {
+            long balance = bank.getUserById("k" + i).getBalanceCents();
+            assertTrue(bank.findAccountsWithBalanceBetween(balance, balance, Integer.MAX_VALUE).contains("k" + i));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class BankRouterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private List<Bank> shards;
+    private BankRouter router;
+
+    @BeforeEach
+    void setUp() {
+        shards = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Bank bank = new Bank();
+            bank.setOutput(SessionOutput.none());
+            shards.add(bank);
+        }
+        router = BankRouter.consistentHashing(shards);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.close();
+    }
+
+    // Två konton som hamnar i olika shards
+    private String[] accountsOnDifferentShards() {
+        return accountsOnDifferentShards(router);
+    }
+
+    private static String[] accountsOnDifferentShards(BankRouter router) {
+        for (int i = 1; ; i++) {
+            if (router.shardFor("a" + i) != router.shardFor("a0")) {
+                return new String[] {"a0", "a" + i};
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Konsistent hashning sprider kontona jämnt och en ny shard tar bara över en del")
+    void testConsistentHashingDistribution() {
+        int accounts = 20_000;
+        int[] perShard = new int[shards.size()];
+        for (int i = 0; i < accounts; i++) {
+            perShard[shards.indexOf(router.shardFor(Integer.toString(1_000_000 + i)))]++;
+        }
+        for (int count : perShard) {
+            assertTrue(count > accounts / 8 && count < accounts / 2, "Konton per shard: " + count);
+        }
+
+        List<Bank> fiveShards = new ArrayList<>(shards);
+        fiveShards.add(new Bank());
+        try (BankRouter larger = BankRouter.consistentHashing(fiveShards)) {
+            int moved = 0;
+            for (int i = 0; i < accounts; i++) {
+                String id = Integer.toString(1_000_000 + i);
+                Bank after = larger.shardFor(id);
+                if (after != router.shardFor(id)) {
+                    assertSame(fiveShards.get(4), after, "Konton ska bara flytta till den nya shardens");
+                    moved++;
+                }
+            }
+            assertTrue(moved > accounts / 10 && moved < accounts * 3 / 10, "Flyttade konton: " + moved);
+        }
+    }
+
+    @Test
+    @DisplayName("BIN-prefix: längsta prefixet vinner och okända kort går till standardbanken")
+    void testPrefixRouting() {
+        Bank fallback = shards.get(0);
+        try (BankRouter byPrefix = BankRouter.byPrefix(Map.of("4571", shards.get(1), "457100", shards.get(2)), fallback)) {
+            assertSame(shards.get(1), byPrefix.shardFor("4571991234"));
+            assertSame(shards.get(2), byPrefix.shardFor("4571001234"));
+            assertSame(fallback, byPrefix.shardFor("5300001234"));
+            assertSame(fallback, byPrefix.shardFor("45"));
+
+            byPrefix.addUser(User.ofCents("4571001234", "1111", 500));
+            assertNotNull(shards.get(2).getUserById("4571001234"));
+            assertNull(shards.get(1).getUserById("4571001234"));
+            byPrefix.depositCents("4571001234", 100);
+            assertEquals(600, byPrefix.getUserById("4571001234").getBalanceCents());
+        }
+    }
+
+    @Test
+    @DisplayName("Överföring mellan shards flyttar beloppet, och vid fel ändras inget saldo")
+    void testCrossShardTransfer() {
+        String[] ids = accountsOnDifferentShards();
+        router.addUser(User.ofCents(ids[0], "1111", 10_000));
+        router.addUser(User.ofCents(ids[1], "2222", 0));
+
+        router.transferCents(ids[0], ids[1], 2_500);
+        assertEquals(7_500, router.getUserById(ids[0]).getBalanceCents());
+        assertEquals(2_500, router.getUserById(ids[1]).getBalanceCents());
+        assertEquals(Transaction.Type.TRANSFER_OUT, router.shardFor(ids[0]).getRecentTransactions(ids[0], 1).get(0).type());
+        assertEquals(Transaction.Type.TRANSFER_IN, router.shardFor(ids[1]).getRecentTransactions(ids[1], 1).get(0).type());
+
+        IllegalArgumentException noFunds = assertThrows(IllegalArgumentException.class,
+                () -> router.transferCents(ids[1], ids[0], 1_000_000));
+        assertEquals("Otillräckligt saldo.", noFunds.getMessage());
+        IllegalArgumentException noTarget = assertThrows(IllegalArgumentException.class,
+                () -> router.transferCents(ids[0], "saknas", 100));
+        assertEquals("Ogiltigt användar-ID.", noTarget.getMessage());
+        assertEquals(7_500, router.getUserById(ids[0]).getBalanceCents());
+        assertEquals(2_500, router.getUserById(ids[1]).getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Batch över flera shards ger rätt resultat per operation i ursprunglig ordning")
+    void testBatchAcrossShards() {
+        String[] ids = accountsOnDifferentShards();
+        router.addUser(User.ofCents(ids[0], "1111", 0));
+        router.addUser(User.ofCents(ids[1], "2222", 0));
+
+        BatchResult result = router.applyBatch(List.of(
+                BankOperation.withdraw(ids[0], 100),          // Inget saldo än
+                BankOperation.deposit(ids[0], 1_000),
+                BankOperation.transfer(ids[0], ids[1], 600),  // Mellan shards, efter insättningen
+                BankOperation.withdraw(ids[1], 500),          // Efter överföringen
+                BankOperation.deposit("saknas", 100)));
+
+        assertFalse(result.isSuccess(0));
+        assertTrue(result.isSuccess(1));
+        assertTrue(result.isSuccess(2));
+        assertTrue(result.isSuccess(3));
+        assertEquals("Ogiltigt användar-ID eller belopp.", result.getError(4));
+        assertEquals(400, router.getUserById(ids[0]).getBalanceCents());
+        assertEquals(100, router.getUserById(ids[1]).getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Samtidiga överföringar mellan shards varken skapar eller förstör pengar")
+    void testConcurrentTransfersConserveMoney() throws InterruptedException {
+        int accounts = 40;
+        for (int i = 0; i < accounts; i++) {
+            router.addUser(User.ofCents("k" + i, "1234", 10_000));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2_000; i++) {
+                    try {
+                        router.transferCents("k" + random.nextInt(accounts), "k" + random.nextInt(accounts),
+                                1 + random.nextInt(5_000));
+                    } catch (IllegalArgumentException e) {
+                        // Otillräckligt saldo eller samma konto
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            total += router.getUserById("k" + i).getBalanceCents();
+        }
+        assertEquals(accounts * 10_000L, total);
+    }
+
+    @Test
+    @DisplayName("Ett konto med en förberedd överföring kan inte tas bort förrän överföringen är avslutad")
+    void testDeleteWaitsForPreparedTransfer() {
+        Bank bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.addUser(User.ofCents("111", "1111", 10_000));
+        bank.prepareTransferOut(42, "111", "222", 2_500);
+
+        assertFalse(bank.deleteUser("111"), "Beloppet måste kunna sättas tillbaka.");
+        assertEquals(7_500, bank.getUserById("111").getBalanceCents());
+
+        bank.abortTransferOut(42);
+        assertEquals(10_000, bank.getUserById("111").getBalanceCents());
+        assertTrue(bank.pendingTransfersOut().isEmpty());
+        assertTrue(bank.deleteUser("111"));
+
+        bank.addUser(User.ofCents("333", "3333", 10_000));
+        bank.prepareTransferOut(43, "333", "222", 2_500);
+        bank.commitTransferOut(43);
+        assertTrue(bank.deleteUser("333"), "En avslutad överföring hindrar inte borttagning.");
+    }
+
+    @Test
+    @DisplayName("En överföring som avbröts efter dragningen sätts tillbaka vid start, även efter en ögonblicksbild")
+    void testRecoveryReleasesPreparedTransfer() throws IOException {
+        List<TransactionJournal> journals = openJournals();
+        BankRouter before = BankRouter.consistentHashing(openShards(journals));
+        String[] ids = accountsOnDifferentShards(before);
+        before.addUser(User.ofCents(ids[0], "1111", 10_000));
+        before.addUser(User.ofCents(ids[1], "2222", 0));
+        Bank source = before.shardFor(ids[0]);
+        source.prepareTransferOut(42, ids[0], ids[1], 2_500); // Routern stannar mellan faserna
+        source.writeSnapshot(snapshotFile(before.getShards().indexOf(source)));
+        assertEquals(7_500, before.getUserById(ids[0]).getBalanceCents());
+        crash(before, journals);
+
+        journals = openJournals();
+        BankRouter after = BankRouter.consistentHashing(openShards(journals));
+        assertEquals(10_000, after.getUserById(ids[0]).getBalanceCents());
+        assertEquals(0, after.getUserById(ids[1]).getBalanceCents());
+        assertTrue(after.shardFor(ids[0]).pendingTransfersOut().isEmpty());
+        crash(after, journals);
+
+        journals = openJournals(); // Beslutet finns i loggen, så nästa start ändrar inget
+        BankRouter again = BankRouter.consistentHashing(openShards(journals));
+        assertEquals(10_000, again.getUserById(ids[0]).getBalanceCents());
+        assertEquals(0, again.getUserById(ids[1]).getBalanceCents());
+        crash(again, journals);
+    }
+
+    @Test
+    @DisplayName("En överföring som avbröts efter insättningen skrivs klar vid start utan att sättas in igen")
+    void testRecoveryCommitsReceivedTransfer() throws IOException {
+        List<TransactionJournal> journals = openJournals();
+        BankRouter before = BankRouter.consistentHashing(openShards(journals));
+        String[] ids = accountsOnDifferentShards(before);
+        before.addUser(User.ofCents(ids[0], "1111", 10_000));
+        before.addUser(User.ofCents(ids[1], "2222", 0));
+        before.shardFor(ids[0]).prepareTransferOut(7, ids[0], ids[1], 2_500);
+        before.shardFor(ids[1]).receiveTransferIn(7, ids[1], ids[0], 2_500); // Avsändarens beslut hinns inte skrivas
+        crash(before, journals);
+
+        for (int start = 0; start < 2; start++) {
+            journals = openJournals();
+            BankRouter after = BankRouter.consistentHashing(openShards(journals));
+            assertEquals(7_500, after.getUserById(ids[0]).getBalanceCents());
+            assertEquals(2_500, after.getUserById(ids[1]).getBalanceCents());
+            for (Bank bank : after.getShards()) {
+                assertTrue(bank.pendingTransfersOut().isEmpty());
+                assertTrue(bank.pendingTransfersIn().isEmpty());
+            }
+            crash(after, journals);
+        }
+    }
+
+    @Test
+    @DisplayName("Överföringar mellan shards lämnar inga oavslutade överföringar efter sig")
+    void testCompletedTransfersAreForgotten() {
+        String[] ids = accountsOnDifferentShards();
+        router.addUser(User.ofCents(ids[0], "1111", 10_000));
+        router.addUser(User.ofCents(ids[1], "2222", 0));
+        router.transferCents(ids[0], ids[1], 1_000);
+        router.shardFor(ids[1]).deleteUser(ids[1]);
+        assertThrows(IllegalArgumentException.class, () -> router.transferCents(ids[0], ids[1], 1_000));
+
+        assertEquals(9_000, router.getUserById(ids[0]).getBalanceCents());
+        for (Bank bank : shards) {
+            assertTrue(bank.pendingTransfersOut().isEmpty());
+            assertTrue(bank.pendingTransfersIn().isEmpty());
+        }
+    }
+
+    private List<TransactionJournal> openJournals() throws IOException {
+        List<TransactionJournal> journals = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            journals.add(new TransactionJournal(tempDir.resolve("shard" + i + ".journal")));
+        }
+        return journals;
+    }
+
+    private List<Bank> openShards(List<TransactionJournal> journals) {
+        List<Bank> banks = new ArrayList<>();
+        for (int i = 0; i < journals.size(); i++) {
+            Bank bank = new Bank(journals.get(i), snapshotFile(i));
+            bank.setOutput(SessionOutput.none());
+            banks.add(bank);
+        }
+        return banks;
+    }
+
+    private Path snapshotFile(int shard) {
+        return tempDir.resolve("shard" + shard + ".snapshot");
+    }
+
+    // Allt som skrivits finns i loggarna, men inget mer görs: som en krasch efter senaste skrivningen
+    private static void crash(BankRouter router, List<TransactionJournal> journals) throws IOException {
+        router.close();
+        for (TransactionJournal journal : journals) {
+            journal.close();
+        }
+    }
+}
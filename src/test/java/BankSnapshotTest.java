@@ -0,0 +1,185 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BankSnapshotTest {
+
+    private static final int ACCOUNTS = 50;
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            users.add(User.withPinHash("s" + i, PinHash.create("0000"), Money.ofWholeKronor(1_000)));
+        }
+        bank.addUsers(users);
+    }
+
+    @Test
+    @DisplayName("Bilden visar saldona när den öppnades, även efter nya transaktioner och konton")
+    void testPointInTime() {
+        try (BalanceSnapshot snapshot = bank.balanceSnapshot()) {
+            bank.depositCents("s1", Money.ofWholeKronor(500));
+            bank.transferCents("s2", "s3", Money.ofWholeKronor(200));
+            bank.tryAddUser(User.withPinHash("new", PinHash.create("0000"), Money.ofWholeKronor(50)));
+
+            assertEquals(Money.ofWholeKronor(1_000), snapshot.getBalanceCents("s1"));
+            assertEquals(Money.ofWholeKronor(1_000), snapshot.getBalanceCents("s2"));
+            assertEquals(Money.ofWholeKronor(1_000), snapshot.getBalanceCents("s3"));
+            assertEquals(-1, snapshot.getBalanceCents("new"));
+            assertEquals(Money.ofWholeKronor(1_000L * (ACCOUNTS + 1)), snapshot.getTotalCents());
+
+            try (BalanceSnapshot later = bank.balanceSnapshot()) {
+                assertTrue(later.getVersion() > snapshot.getVersion());
+                assertEquals(Money.ofWholeKronor(1_500), later.getBalanceCents("s1"));
+                assertEquals(Money.ofWholeKronor(800), later.getBalanceCents("s2"));
+                assertEquals(Money.ofWholeKronor(50), later.getBalanceCents("new"));
+                assertEquals(Money.ofWholeKronor(1_000L * (ACCOUNTS + 1) + 550), later.getTotalCents());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Summan i varje bild går jämnt ut medan överföringar och batchar pågår")
+    void testConsistentTotalsUnderTransfers() throws InterruptedException {
+        long expected;
+        try (BalanceSnapshot snapshot = bank.balanceSnapshot()) {
+            expected = snapshot.getTotalCents();
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                while (running.get()) {
+                    String from = "s" + random.nextInt(ACCOUNTS);
+                    String to = "s" + random.nextInt(ACCOUNTS);
+                    try {
+                        if (random.nextBoolean()) {
+                            bank.transferCents(from, to, 1 + random.nextInt(10_000));
+                        } else {
+                            bank.applyBatch(List.of(
+                                    BankOperation.transfer(from, to, 1 + random.nextInt(10_000)),
+                                    BankOperation.transfer(to, from, 1 + random.nextInt(10_000))));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Samma konto eller otillräckligt saldo
+                    }
+                }
+            });
+        }
+        try {
+            for (int i = 0; i < 2_000; i++) {
+                try (BalanceSnapshot snapshot = bank.balanceSnapshot()) {
+                    assertEquals(expected, snapshot.getTotalCents(), "Version " + snapshot.getVersion());
+                }
+            }
+        } finally {
+            running.set(false);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            total += bank.getUserById("s" + i).getBalanceCents();
+        }
+        assertEquals(expected, total + bank.getUserById("12345").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Gamla saldon sparas bara så länge någon bild kan behöva dem")
+    void testOldVersionsArePruned() {
+        BalanceSnapshot snapshot = bank.balanceSnapshot();
+        for (int i = 0; i < 3_000; i++) {
+            bank.depositCents("s7", 100);
+        }
+        assertEquals(Money.ofWholeKronor(1_000), snapshot.getBalanceCents("s7"));
+        snapshot.close();
+        assertThrows(IllegalStateException.class, () -> snapshot.getBalanceCents("s7"));
+
+        bank.depositCents("s7", 100);
+        int chain = 0;
+        for (BalanceVersions.Version v = bank.getUserById("s7").getBalanceVersion(); v != null; v = v.older) {
+            chain++;
+        }
+        assertEquals(1, chain); // Bara det nya saldot och saldot närmast före
+    }
+
+    @Test
+    @DisplayName("Avstämningen räknar konton per status och saldona går ihop med insättningar minus uttag")
+    void testReconcile() {
+        bank.depositCents("s1", Money.ofWholeKronor(500));
+        bank.withdrawCents("s2", Money.ofWholeKronor(1_000));
+        bank.transferCents("s3", "s4", Money.ofWholeKronor(300));
+        bank.applyBatch(List.of(
+                BankOperation.deposit("s5", 100),
+                BankOperation.withdraw("s5", 50),
+                BankOperation.transfer("s5", "s6", 25)));
+        bank.deleteUser("s7");
+        for (int i = 0; i < 3; i++) {
+            bank.getUserById("s8").recordFailedAttempt();
+        }
+
+        ReconciliationReport report = bank.reconcile();
+        assertTrue(report.isBalanced(), report.summary());
+        assertEquals(ACCOUNTS, report.accounts()); // 50 konton plus standardkontot, minus s7
+        assertEquals(1, report.lockedAccounts());
+        assertEquals(ACCOUNTS - 1, report.activeAccounts());
+        assertEquals(1, report.emptyAccounts());
+        assertEquals(Money.ofWholeKronor(1_000L * ACCOUNTS + 500 - 1_000) + 50, report.totalBalanceCents());
+        assertEquals(1, bank.getMetrics().operation("bank.reconcile").calls());
+    }
+
+    @Test
+    @DisplayName("Avstämningen går ihop mitt i trafik med insättningar, uttag och överföringar")
+    void testReconcileUnderTraffic() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        for (int t = 0; t < 3; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                while (running.get()) {
+                    String id = "s" + random.nextInt(ACCOUNTS);
+                    long amount = 1 + random.nextInt(10_000);
+                    try {
+                        switch (random.nextInt(3)) {
+                            case 0 -> bank.depositCents(id, amount);
+                            case 1 -> bank.withdrawCents(id, amount);
+                            default -> bank.applyBatch(List.of(
+                                    BankOperation.deposit(id, amount),
+                                    BankOperation.transfer(id, "s" + random.nextInt(ACCOUNTS), amount)));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Otillräckligt saldo eller samma konto
+                    }
+                }
+            });
+        }
+        try {
+            for (int i = 0; i < 1_000; i++) {
+                ReconciliationReport report = bank.reconcile();
+                assertTrue(report.isBalanced(), report.summary());
+                assertEquals(ACCOUNTS + 1, report.accounts());
+            }
+        } finally {
+            running.set(false);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        }
+    }
+}
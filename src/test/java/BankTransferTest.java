@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class BankTransferTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.addUser(new User("67890", "5678", 300));
+    }
+
+    @Test
+    @DisplayName("Överföring flyttar beloppet mellan kontona")
+    void testTransfer() {
+        bank.transfer("12345", "67890", 250);
+
+        assertEquals(750.0, bank.getUserById("12345").getBalance());
+        assertEquals(550.0, bank.getUserById("67890").getBalance());
+    }
+
+    @Test
+    @DisplayName("Misslyckad överföring ändrar inget saldo")
+    void testFailedTransferChangesNothing() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.transfer("67890", "12345", 301));
+        assertEquals("Otillräckligt saldo.", e.getMessage());
+        assertEquals("Ogiltigt användar-ID.",
+                assertThrows(IllegalArgumentException.class, () -> bank.transfer("12345", "00000", 10)).getMessage());
+        assertEquals("Ogiltigt användar-ID.",
+                assertThrows(IllegalArgumentException.class, () -> bank.transfer(null, "12345", 10)).getMessage());
+        assertEquals("Kan inte överföra till samma konto.",
+                assertThrows(IllegalArgumentException.class, () -> bank.transfer("12345", "12345", 10)).getMessage());
+        assertEquals("Beloppet måste vara större än 0.",
+                assertThrows(IllegalArgumentException.class, () -> bank.transfer("12345", "67890", 0)).getMessage());
+
+        assertEquals(1000.0, bank.getUserById("12345").getBalance());
+        assertEquals(300.0, bank.getUserById("67890").getBalance());
+    }
+
+    @Test
+    @DisplayName("Korsvisa överföringar mellan samma konton ger inget dödläge och bevarar summan")
+    void testCrossTransfersDoNotDeadlock() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            boolean forward = t % 2 == 0;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 20_000; i++) {
+                    try {
+                        if (forward) {
+                            bank.transferCents("12345", "67890", 1_00);
+                        } else {
+                            bank.transferCents("67890", "12345", 1_00);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Otillräckligt saldo när ena kontot tömts
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS), "Överföringarna bör bli klara utan dödläge.");
+
+        long total = bank.getUserById("12345").getBalanceCents() + bank.getUserById("67890").getBalanceCents();
+        assertEquals(1300_00L, total, "Summan av saldona bör vara oförändrad.");
+    }
+
+    @Test
+    @DisplayName("Överföringar spelas upp från loggen som en post")
+    void testTransferSurvivesRestart() throws IOException {
+        Path file = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank journaled = new Bank(journal);
+            journaled.addUser(new User("67890", "5678", 300));
+            journaled.transfer("12345", "67890", 123.45);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank restarted = new Bank(journal);
+            assertEquals(876.55, restarted.getUserById("12345").getBalance());
+            assertEquals(423.45, restarted.getUserById("67890").getBalance());
+        }
+    }
+
+    @Test
+    @DisplayName("Överföringsposten kodas med mottagare, övriga poster utan")
+    void testTransferRecordEncoding() {
+        JournalRecord transfer = new JournalRecord(JournalRecord.TRANSFER, "1", "", 500, 100, "2", 900);
+        JournalRecord deposit = new JournalRecord(JournalRecord.DEPOSIT, "1", "", 500, 100);
+
+        assertEquals(transfer, decode(TransactionJournal.encode(transfer)));
+        assertEquals(deposit, decode(TransactionJournal.encode(deposit)));
+        assertNull(decode(TransactionJournal.encode(deposit)).targetId());
+    }
+
+    private static JournalRecord decode(byte[] encoded) {
+        return TransactionJournal.decode(ByteBuffer.wrap(encoded, 8, encoded.length - 8));
+    }
+
+    @Test
+    @DisplayName("CompactBank gör också atomära överföringar")
+    void testCompactBankTransfer() {
+        CompactBank compact = new CompactBank();
+        compact.addUser(new User("1001", "1234", 100));
+        compact.addUser(new User("1002", "1234", 0));
+
+        compact.transfer("1001", "1002", 40);
+        assertThrows(IllegalArgumentException.class, () -> compact.transfer("1002", "1001", 41));
+
+        assertEquals(60.0, compact.getUserById("1001").getBalance());
+        assertEquals(40.0, compact.getUserById("1002").getBalance());
+    }
+}
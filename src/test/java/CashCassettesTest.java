@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CashCassettesTest {
+
+    @Test
+    @DisplayName("Beloppet betalas med färst möjliga sedlar av dem som finns kvar")
+    void testFewestNotes() {
+        CashCassettes cassettes = new CashCassettes(new int[] {100, 500, 200}, new int[] {1, 10, 10});
+        assertArrayEquals(new int[] {500, 200, 100}, cassettes.getDenominations());
+
+        assertArrayEquals(new int[] {1, 1, 0}, cassettes.dispense(Money.ofWholeKronor(700)));
+        assertArrayEquals(new int[] {1, 0, 1}, cassettes.dispense(Money.ofWholeKronor(600)));
+        // Hundralappen är slut: 600 kr måste bli tre 200-lappar i stället för 500 + 100
+        assertArrayEquals(new int[] {0, 3, 0}, cassettes.dispense(Money.ofWholeKronor(600)));
+        assertEquals(8, cassettes.getCount(0));
+        assertEquals(6, cassettes.getCount(1));
+        assertEquals(0, cassettes.getCount(2));
+        assertEquals(Money.ofWholeKronor(8 * 500 + 6 * 200), cassettes.getTotalCents());
+    }
+
+    @Test
+    @DisplayName("Belopp som sedlarna inte räcker till eller inte går jämnt ut avvisas utan att något tas")
+    void testCannotDispense() {
+        CashCassettes cassettes = new CashCassettes(new int[] {500, 200}, new int[] {2, 2});
+        assertFalse(cassettes.canDispense(Money.ofWholeKronor(100)));
+        assertFalse(cassettes.canDispense(Money.ofWholeKronor(300)));
+        assertFalse(cassettes.canDispense(Money.ofWholeKronor(1_500)));
+        assertFalse(cassettes.canDispense(Money.ofKronor(250.5)));
+        assertNull(cassettes.dispense(Money.ofWholeKronor(1_500)));
+        assertEquals(Money.ofWholeKronor(1_400), cassettes.getTotalCents());
+
+        assertTrue(cassettes.canDispense(Money.ofWholeKronor(1_400)));
+        int[] taken = cassettes.dispense(Money.ofWholeKronor(1_400));
+        assertFalse(cassettes.canDispense(Money.ofWholeKronor(200)));
+        cassettes.restore(taken);
+        assertTrue(cassettes.canDispense(Money.ofWholeKronor(200)));
+        assertThrows(IllegalArgumentException.class, () -> cassettes.refill(new int[] {CashCassettes.MAX_NOTES, 0}));
+    }
+
+    @Test
+    @DisplayName("Samtidiga uttag delar aldrig ut fler sedlar än som finns")
+    void testConcurrentDispense() throws InterruptedException {
+        CashCassettes cassettes = new CashCassettes(new int[] {500, 200, 100}, new int[] {300, 300, 300});
+        long before = cassettes.getTotalCents();
+        AtomicLong paid = new AtomicLong();
+        AtomicInteger refused = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 500; i++) {
+                    long amount = Money.ofWholeKronor(100L * (1 + i % 9));
+                    if (cassettes.dispense(amount) != null) {
+                        paid.addAndGet(amount);
+                    } else {
+                        refused.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertTrue(refused.get() > 0, "Kassetterna borde ha tagit slut");
+        assertEquals(before - paid.get(), cassettes.getTotalCents());
+    }
+
+    @Test
+    @DisplayName("Prognosen följer uttagstakten och varnar innan en kassett tar slut")
+    void testLowCashForecast() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        CashCassettes cassettes = new CashCassettes(new int[] {500, 100}, new int[] {1000, 1000}, now::get);
+        assertNull(cassettes.timeUntilEmpty(1));
+        assertFalse(cassettes.isLowCash(Duration.ofDays(1)));
+
+        for (int i = 0; i < 300; i++) { // En hundralapp i minuten i fem timmar
+            cassettes.dispense(Money.ofWholeKronor(100));
+            now.addAndGet(Duration.ofMinutes(1).toMillis());
+        }
+        long minutes = cassettes.timeUntilEmpty(1).toMinutes();
+        assertTrue(minutes > 650 && minutes < 720, "Minuter kvar: " + minutes);
+        assertNull(cassettes.timeUntilEmpty(0));
+        assertTrue(cassettes.isLowCash(Duration.ofHours(12)));
+        assertFalse(cassettes.isLowCash(Duration.ofHours(10)));
+
+        now.addAndGet(Duration.ofHours(48).toMillis()); // Inga uttag på länge: ingen varning
+        assertFalse(cassettes.isLowCash(Duration.ofHours(12)));
+    }
+
+    @Test
+    @DisplayName("Bankomaten godkänner bara belopp den kan betala ut och lägger tillbaka sedlarna vid avslag")
+    void testAtmDispensing() {
+        Bank bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        atm.setCassettes(new CashCassettes(new int[] {500}, new int[] {3}));
+        bank.depositCents("12345", Money.ofWholeKronor(9_000));
+        atm.insertCard("12345");
+
+        assertTrue(atm.handleWithdraw(new Scanner("400\n1000\n"))); // 400 kr avvisas, 1000 kr går
+        assertEquals(Money.ofWholeKronor(9_000), bank.getUserById("12345").getBalanceCents());
+        assertEquals(1, atm.getCassettes().getCount(0));
+
+        bank.setWithdrawalLimits(new WithdrawalLimits(List.of(
+                WithdrawalLimits.Rule.maxCount(Duration.ofMinutes(10), 0))));
+        assertFalse(atm.handleWithdraw(new Scanner("500\n"))); // Banken säger nej
+        assertEquals(1, atm.getCassettes().getCount(0));
+        assertFalse(atm.handleWithdraw(new Scanner("1000\n"))); // Bara en sedel kvar
+        assertEquals(Money.ofWholeKronor(9_000), bank.getUserById("12345").getBalanceCents());
+    }
+}
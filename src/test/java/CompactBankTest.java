@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactBankTest {
+
+    private CompactBank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new CompactBank();
+        bank.addUser(new User("12345", "1234", 1000));
+    }
+
+    @Test
+    @DisplayName("Konton kan läggas till, hämtas och tas bort")
+    void testAddGetDelete() {
+        assertEquals(1000.0, bank.getUserById("12345").getBalance());
+        assertNull(bank.getUserById("99999"), "Okänt ID bör ge null.");
+        assertNull(bank.getUserById(null), "Null-ID bör ge null.");
+
+        assertTrue(bank.deleteUser("12345"));
+        assertNull(bank.getUserById("12345"), "Borttaget konto bör inte hittas.");
+        assertFalse(bank.deleteUser("12345"));
+
+        bank.addUser(new User("12345", "4321", 5));
+        assertEquals(5.0, bank.getUserById("12345").getBalance(), "Kontot bör kunna läggas till igen.");
+    }
+
+    @Test
+    @DisplayName("PIN-koder med inledande nolla och icke-numeriska värden jämförs exakt")
+    void testPinEncoding() {
+        bank.addUser(new User("200", "0123", 0));
+        bank.addUser(new User("konto-a", "hemlig", 0));
+
+        assertTrue(bank.verifyPin("200", "0123"));
+        assertFalse(bank.verifyPin("200", "123"), "Inledande nolla får inte försvinna.");
+        assertTrue(bank.verifyPin("konto-a", "hemlig"));
+        assertTrue(bank.getUserById("200").getPinHash().matches("0123"), "Vyn bör ge samma PIN-hash som kolumnerna.");
+    }
+
+    @Test
+    @DisplayName("Insättning och uttag följer samma regler som Bank")
+    void testDepositAndWithdraw() {
+        bank.deposit("12345", 500);
+        assertTrue(bank.withdraw("12345", 200));
+        assertEquals(1300.0, bank.getUserById("12345").getBalance());
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> bank.withdraw("12345", 2000));
+        assertEquals("Otillräckligt saldo.", exception.getMessage());
+        exception = assertThrows(IllegalArgumentException.class, () -> bank.withdraw(null, 100));
+        assertEquals("Ogiltigt användar-ID.", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> bank.deposit("12345", 0));
+    }
+
+    @Test
+    @DisplayName("Ändringar via vyn syns i banken (t.ex. kortlåsning från ATM)")
+    void testViewWritesThrough() {
+        User view = bank.getUserById("12345");
+        view.incrementFailedAttempts();
+        view.incrementFailedAttempts();
+        assertEquals(2, bank.getUserById("12345").getFailedAttempts());
+        assertFalse(bank.isCardLocked("12345"));
+
+        view.incrementFailedAttempts();
+        assertTrue(bank.isCardLocked("12345"), "Kortet bör låsas efter tre misslyckade försök.");
+    }
+
+    @Test
+    @DisplayName("Indexet växer och hittar alla konton")
+    void testManyAccounts() {
+        CompactBank large = new CompactBank(16);
+        PinHash pinHash = PinHash.create("1234");
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(large.tryAddUser(User.withPinHash(Integer.toString(1_000_000 + i), pinHash, i)));
+        }
+        for (int i = 0; i < 200_000; i += 997) {
+            assertEquals(i, large.getUserById(Integer.toString(1_000_000 + i)).getBalanceCents());
+        }
+        assertFalse(large.tryAddUser(User.withPinHash("1000000", pinHash, 0)), "Dubblett bör inte läggas till.");
+        assertTrue(large.verifyPin("1000199", "1234"));
+    }
+}
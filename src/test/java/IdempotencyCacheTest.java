@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IdempotencyCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.setRequestCache(new IdempotencyCache(1 << 16, Duration.ofMinutes(10), now::get));
+        bank.addUser(User.withPinHash("a", PinHash.create("0000"), Money.ofWholeKronor(1_000)));
+        bank.addUser(User.withPinHash("b", PinHash.create("0000"), Money.ofWholeKronor(1_000)));
+    }
+
+    @Test
+    @DisplayName("En omsänd begäran med samma nyckel utförs bara en gång")
+    void testRetryIsAppliedOnce() {
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(100), 42));
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(100), 42));
+        bank.depositCents("b", Money.ofWholeKronor(50), 43);
+        bank.depositCents("b", Money.ofWholeKronor(50), 43);
+        bank.transferCents("a", "b", Money.ofWholeKronor(10), 44);
+        bank.transferCents("a", "b", Money.ofWholeKronor(10), 44);
+
+        assertEquals(Money.ofWholeKronor(890), bank.getUserById("a").getBalanceCents());
+        assertEquals(Money.ofWholeKronor(1_060), bank.getUserById("b").getBalanceCents());
+        assertEquals(3, bank.getMetrics().operation("bank.replayedRequest").calls());
+
+        bank.withdrawCents("a", Money.ofWholeKronor(100)); // Utan nyckel utförs varje anrop
+        bank.withdrawCents("a", Money.ofWholeKronor(100));
+        assertEquals(Money.ofWholeKronor(690), bank.getUserById("a").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Ett misslyckat uttag ger samma fel igen, även om saldot har räckt sedan dess")
+    void testFailureIsReplayed() {
+        IllegalArgumentException first = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("a", Money.ofWholeKronor(1_500), 7));
+        bank.depositCents("a", Money.ofWholeKronor(1_000));
+        IllegalArgumentException retry = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("a", Money.ofWholeKronor(1_500), 7));
+        assertEquals("Otillräckligt saldo.", first.getMessage());
+        assertEquals(first.getMessage(), retry.getMessage());
+        assertEquals(Money.ofWholeKronor(2_000), bank.getUserById("a").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("En nyckel som återanvänds för en annan transaktion avvisas")
+    void testKeyReusedForOtherRequest() {
+        bank.withdrawCents("a", Money.ofWholeKronor(100), 9);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("a", Money.ofWholeKronor(200), 9));
+        assertEquals(IdempotencyCache.KEY_REUSED, e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> bank.depositCents("a", Money.ofWholeKronor(100), 9));
+        assertEquals(Money.ofWholeKronor(900), bank.getUserById("a").getBalanceCents());
+
+        assertTrue(bank.withdrawCents("a", Money.ofWholeKronor(100), 9)); // Originalet gäller fortfarande
+        assertEquals(Money.ofWholeKronor(900), bank.getUserById("a").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Nycklar finns kvar minst ttl och glöms sedan")
+    void testExpiry() {
+        IdempotencyCache cache = new IdempotencyCache(1 << 16, Duration.ofSeconds(60), now::get);
+        cache.record(1, 11, null);
+        now.addAndGet(30_000);
+        cache.record(2, 22, "Otillräckligt saldo.");
+        now.addAndGet(29_999);
+        assertEquals(IdempotencyCache.SUCCEEDED, cache.find(1, 11));
+        int code = cache.find(2, 22);
+        assertEquals("Otillräckligt saldo.", cache.error(code));
+
+        now.addAndGet(60_000);
+        assertEquals(IdempotencyCache.MISSING, cache.find(1, 11));
+        now.addAndGet(30_000);
+        assertEquals(IdempotencyCache.MISSING, cache.find(2, 22));
+    }
+
+    @Test
+    @DisplayName("Minnet håller sig inom storleken; de äldsta nycklarna glöms först")
+    void testCapacity() {
+        IdempotencyCache cache = new IdempotencyCache(4_096, Duration.ofMinutes(10), now::get);
+        for (long key = 1; key <= 100_000; key++) {
+            cache.record(key, (int) key, null);
+        }
+        assertEquals(IdempotencyCache.MISSING, cache.find(1, 1));
+        for (long key = 99_000; key <= 100_000; key++) {
+            assertEquals(IdempotencyCache.SUCCEEDED, cache.find(key, (int) key), "Nyckel " + key);
+        }
+    }
+
+    @Test
+    @DisplayName("Samtidiga omsändningar av samma uttag dras bara en gång")
+    void testConcurrentRetries() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (long key = 1; key <= 200; key++) {
+                long requestKey = key;
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<Boolean>> retries = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    retries.add(pool.submit(() -> {
+                        go.await();
+                        return bank.withdrawCents("a", 100, requestKey);
+                    }));
+                }
+                go.countDown();
+                for (Future<Boolean> retry : retries) {
+                    assertTrue(retry.get());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        assertEquals(Money.ofWholeKronor(1_000) - 200 * 100, bank.getUserById("a").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Terminalen kan skicka en nyckel efter beloppet")
+    void testSessionKey() {
+        List<String> messages = new ArrayList<>();
+        ATMSession session = new ATMSession(bank, new SessionOutput() {
+            @Override
+            public void message(String text) {
+                messages.add(text);
+            }
+
+            @Override
+            public void prompt(String text) {
+            }
+        });
+        session.start();
+        session.onInput("a");
+        session.onInput("0000");
+        for (int i = 0; i < 2; i++) {
+            session.onInput("3");
+            session.onInput("200 #9f3a71c2e04b");
+        }
+        assertEquals(Money.ofWholeKronor(800), bank.getUserById("a").getBalanceCents());
+        assertEquals(2, messages.stream().filter(m -> m.startsWith("Uttag av 200")).count(), messages.toString());
+
+        session.onInput("3");
+        session.onInput("200 #0");
+        assertEquals("Ogiltig inmatning. Ange ett numeriskt belopp.", messages.get(messages.size() - 1));
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+public class MetricsRegistryTest {
+
+    private Bank bank;
+    private MetricsRegistry metrics;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        metrics = bank.getMetrics();
+    }
+
+    @Test
+    @DisplayName("Lyckade och misslyckade uttag räknas med felorsak och svarstid")
+    void testOperationCountsFailures() {
+        bank.depositCents("12345", 10_000);
+        bank.withdrawCents("12345", 5_000);
+        assertThrows(IllegalArgumentException.class, () -> bank.withdrawCents("12345", 1_000_000));
+        assertThrows(IllegalArgumentException.class, () -> bank.withdraw("12345", -1));
+
+        MetricsRegistry.Operation withdraw = metrics.operation("bank.withdraw");
+        assertEquals(3, withdraw.calls());
+        assertEquals(2, withdraw.failures());
+        assertEquals(1, withdraw.failures("Otillräckligt saldo."));
+        assertEquals(1, withdraw.failures("Beloppet måste vara större än 0."));
+        assertEquals(2, withdraw.latency().count(), "Fel som upptäcks före arbetet ska inte tidsmätas");
+        assertEquals(1, metrics.operation("bank.deposit").calls());
+    }
+
+    @Test
+    @DisplayName("Batchar räknas både som helhet och per operation")
+    void testBatchOperations() {
+        bank.applyBatch(List.of(
+                BankOperation.deposit("12345", 100),
+                BankOperation.withdraw("12345", Long.MAX_VALUE),
+                BankOperation.withdraw("saknas", 100)));
+
+        assertEquals(1, metrics.operation("bank.applyBatch").calls());
+        MetricsRegistry.Operation operations = metrics.countedOperation("bank.applyBatch.operation");
+        assertEquals(3, operations.calls());
+        assertEquals(2, operations.failures());
+    }
+
+    @Test
+    @DisplayName("Låsta kort räknas inom fönstret och bankomatens steg hamnar i bankens register")
+    void testCardsLockedAndAtmSteps() {
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        assertFalse(atm.insertCard("saknas"));
+        assertTrue(atm.insertCard("12345"));
+        assertFalse(atm.handlePinEntry(new Scanner("1\n2\n3\n")));
+
+        MetricsRegistry.Rate cardsLocked = metrics.rate("bank.cardsLocked", java.time.Duration.ofMinutes(1));
+        assertEquals(1, cardsLocked.total());
+        assertEquals(1, cardsLocked.inWindow());
+        assertEquals(2, metrics.countedOperation("atm.insertCard").calls());
+        assertEquals(1, metrics.countedOperation("atm.insertCard").failures("Användaren hittades inte."));
+        assertEquals(1, metrics.countedOperation("atm.pinEntry").failures("Kortet låstes."));
+        assertEquals(3, metrics.operation("bank.verifyPin").failures("Fel PIN."));
+    }
+
+    @Test
+    @DisplayName("Ögonblicksbilden innehåller räknare, percentiler och takter")
+    void testSnapshot() {
+        bank.depositCents("12345", 100);
+        bank.getUserById("12345");
+
+        Map<String, Long> values = metrics.snapshot();
+        assertEquals(1L, values.get("bank.deposit.calls"));
+        assertEquals(0L, values.get("bank.deposit.failures"));
+        assertEquals(1L, values.get("bank.deposit.latency.count"));
+        assertTrue(values.get("bank.deposit.latency.p99Nanos") > 0);
+        assertTrue(values.get("bank.getUserById.calls") >= 1);
+        assertFalse(values.containsKey("bank.getUserById.latency.count"), "Billiga läsningar ska bara räknas");
+        assertEquals(0L, values.get("bank.cardsLocked.inWindow"));
+    }
+
+    @Test
+    @DisplayName("Med urval tidsmäts ungefär vart N:te anrop men alla räknas")
+    void testLatencySampling() {
+        MetricsRegistry.Operation operation = new MetricsRegistry(16).operation("urval");
+        for (int i = 0; i < 16_000; i++) {
+            operation.finish(operation.start(), null);
+        }
+        assertEquals(16_000, operation.calls());
+        long timed = operation.latency().count();
+        assertTrue(timed > 500 && timed < 1_500, "Tidsmätta anrop: " + timed);
+    }
+
+    @Test
+    @DisplayName("Registret kan läsas via JMX")
+    void testJmx() throws Exception {
+        bank.depositCents("12345", 100);
+        ObjectName name = metrics.registerMBean("test-" + System.nanoTime());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertTrue(server.isRegistered(name));
+            // En MXBean visar en Map som en tabell med kolumnerna key och value
+            TabularData values = (TabularData) server.getAttribute(name, "Values");
+            CompositeData deposits = values.get(new Object[] {"bank.deposit.calls"});
+            assertEquals(1L, deposits.get("value"));
+            assertThrows(IllegalStateException.class, () -> metrics.registerMBean(name.getKeyProperty("name")));
+        } finally {
+            metrics.unregisterMBean(name);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    @Test
+    @DisplayName("Omvandling från kronor avrundas till närmaste öre")
+    void testOfKronor() {
+        assertEquals(100_000, Money.ofKronor(1000.0));
+        assertEquals(30, Money.ofKronor(0.1 + 0.2), "Flyttalsfel ska inte följa med in i öre.");
+        assertThrows(IllegalArgumentException.class, () -> Money.ofKronor(Double.NaN));
+    }
+
+    @Test
+    @DisplayName("Addition och subtraktion kastar fel vid överflöde")
+    void testOverflowChecks() {
+        assertEquals(250, Money.add(100, 150));
+        assertEquals(-50, Money.subtract(100, 150));
+        assertThrows(IllegalArgumentException.class, () -> Money.add(Long.MAX_VALUE, 1));
+        assertThrows(IllegalArgumentException.class, () -> Money.subtract(Long.MIN_VALUE, 1));
+    }
+
+    @Test
+    @DisplayName("Summan av många små insättningar blir exakt")
+    void testExactTotals() {
+        Bank bank = new Bank();
+        for (int i = 0; i < 1_000_000; i++) {
+            bank.depositCents("12345", 10); // 10 öre åt gången
+        }
+        assertEquals(100_000 + 10_000_000, bank.getUserById("12345").getBalanceCents());
+    }
+
+    @Test
+    @DisplayName("Formatering av belopp")
+    void testFormat() {
+        assertEquals("1000", Money.format(100_000));
+        assertEquals("12.05", Money.format(1205));
+        assertEquals("-0.50", Money.format(-50));
+    }
+
+    @Test
+    @DisplayName("Multipelkontroll sker i hela kronor")
+    void testIsMultipleOfKronor() {
+        assertTrue(Money.isMultipleOfKronor(Money.ofKronor(500), 100));
+        assertFalse(Money.isMultipleOfKronor(Money.ofKronor(550), 100));
+        assertFalse(Money.isMultipleOfKronor(Money.ofKronor(100.5), 10));
+    }
+}
@@ -0,0 +1,263 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PinAttemptTrackerTest {
+
+    private final AtomicLong now = new AtomicLong(); // Styrd klocka i nanosekunder
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    @DisplayName("Räknaren glömmer värden som hamnat utanför fönstret")
+    void testSlidingWindow() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofSeconds(60), 6, now::get);
+        counter.add(2);
+        advance(Duration.ofSeconds(30));
+        assertEquals(5, counter.add(3));
+        advance(Duration.ofSeconds(35));
+        assertEquals(3, counter.sum(), "De första två bör ha glidit ur fönstret.");
+        advance(Duration.ofSeconds(60));
+        assertTrue(counter.isIdle());
+    }
+
+    @Test
+    @DisplayName("Samtidiga ökningar går inte förlorade")
+    void testConcurrentAdds() throws InterruptedException {
+        SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    counter.add(1);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(80_000, counter.sum());
+    }
+
+    @Test
+    @DisplayName("Ett kort får bara ett visst antal försök per fönster, oavsett terminal")
+    void testCardThrottle() {
+        PinAttemptTracker tracker = new PinAttemptTracker(3, Duration.ofMinutes(1), 100, Duration.ofMinutes(10), now::get);
+
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("12345", "atm-1"));
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("12345", "atm-2"));
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("12345", "atm-3"));
+        assertEquals(PinAttemptTracker.Verdict.CARD_THROTTLED, tracker.tryAttempt("12345", "atm-4"));
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("67890", "atm-4"), "Andra kort påverkas inte.");
+
+        advance(Duration.ofMinutes(2));
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("12345", "atm-1"));
+    }
+
+    @Test
+    @DisplayName("En terminal som gissar mot många kort spärras")
+    void testTerminalThrottle() {
+        PinAttemptTracker tracker = new PinAttemptTracker(5, Duration.ofMinutes(1), 3, Duration.ofMinutes(10), now::get);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("kort" + i, "atm-1"));
+            tracker.recordFailure("atm-1");
+        }
+
+        assertEquals(PinAttemptTracker.Verdict.TERMINAL_THROTTLED, tracker.tryAttempt("kort9", "atm-1"));
+        assertEquals(PinAttemptTracker.Verdict.ALLOWED, tracker.tryAttempt("kort9", "atm-2"));
+        assertEquals(3, tracker.terminalFailures("atm-1"));
+    }
+
+    @Test
+    @DisplayName("Samtidiga fel från många terminaler ger varje terminal ett eget försöksnummer")
+    void testAtomicFailedAttempts() throws InterruptedException {
+        User user = new User("12345", "1234", 0);
+        Set<Integer> seen = Collections.synchronizedSet(new HashSet<>());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                start.await();
+                seen.add(user.recordFailedAttempt());
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(Set.of(1, 2, 3, 4, 5, 6, 7, 8), seen, "Inget försök bör räknas två gånger.");
+        assertTrue(user.isLocked());
+    }
+
+    @Test
+    @DisplayName("Fel från en bankomat räknas av från nästa bankomats försök")
+    void testAttemptsSharedAcrossTerminals() {
+        Bank bank = new Bank();
+        ATM first = new ATM();
+        first.setBank(bank);
+        ATM second = new ATM();
+        second.setBank(bank);
+
+        first.insertCard("12345");
+        assertFalse(first.handlePinEntry(new Scanner("1111\n2222\n0\n")), "Två fel och sedan avbrott.");
+        assertFalse(bank.isCardLocked("12345"));
+
+        second.insertCard("12345");
+        assertFalse(second.handlePinEntry(new Scanner("3333\n1234\n")), "Bara ett försök bör återstå.");
+        assertTrue(bank.isCardLocked("12345"), "Kortet bör låsas efter tre fel totalt.");
+    }
+
+    @Test
+    @DisplayName("Bankomaten avbryter när kortet har för många försök")
+    void testAtmRespectsThrottle() {
+        Bank bank = new Bank();
+        bank.setAttemptTracker(new PinAttemptTracker(1, Duration.ofMinutes(1), 10, Duration.ofMinutes(10), now::get));
+        ATM atm = new ATM();
+        atm.setBank(bank);
+
+        atm.insertCard("12345");
+        assertTrue(atm.handlePinEntry(new Scanner("1234\n")));
+        atm.insertCard("12345");
+        assertFalse(atm.handlePinEntry(new Scanner("1234\n")), "Andra försöket inom fönstret bör stoppas.");
+        assertFalse(bank.isCardLocked("12345"), "Takten låser inte kortet.");
+    }
+
+    @Test
+    @DisplayName("En terminal som väntar på PIN kan inte logga in när en annan terminal har låst kortet")
+    void testLockedWhileWaitingForPin() {
+        Bank bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        ATMSession waiting = new ATMSession(bank, SessionOutput.none(), "atm-1");
+        ATMSession guessing = new ATMSession(bank, SessionOutput.none(), "atm-2");
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        waiting.start();
+        guessing.start();
+        waiting.onInput("12345");
+        guessing.onInput("12345");
+        atm.insertCard("12345");
+
+        for (String pin : new String[] {"1111", "2222", "3333"}) {
+            guessing.onInput(pin);
+        }
+        assertTrue(bank.isCardLocked("12345"));
+
+        waiting.onInput("1234");
+        assertEquals(ATMSession.State.AWAITING_CARD, waiting.getState(), "Rätt PIN bör inte räcka på ett låst kort.");
+        assertFalse(atm.handlePinEntry(new Scanner("1234\n")));
+        assertFalse(bank.verifyPin("12345", "1234"));
+        assertTrue(bank.isCardLocked("12345"));
+        assertEquals(3, bank.getUserById("12345").getFailedAttempts(), "Låst kort bör inte nollställas.");
+    }
+
+    @Test
+    @DisplayName("Terminaler som gissar samtidigt på samma kort får tillsammans högst tre försök")
+    void testConcurrentTerminalsShareThreeAttempts() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            Bank bank = new Bank();
+            bank.setOutput(SessionOutput.none());
+            bank.setAttemptTracker(new PinAttemptTracker(1_000, Duration.ofMinutes(1), 1_000, Duration.ofMinutes(10), now::get));
+            List<ATMSession> terminals = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                ATMSession terminal = new ATMSession(bank, SessionOutput.none(), "atm-" + t);
+                terminal.start();
+                terminal.onInput("12345");
+                terminals.add(terminal);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(terminals.size());
+            CountDownLatch start = new CountDownLatch(1);
+            for (ATMSession terminal : terminals) {
+                executor.submit(() -> {
+                    start.await();
+                    while (terminal.getState() == ATMSession.State.AWAITING_PIN) {
+                        terminal.onInput("9999");
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertTrue(bank.isCardLocked("12345"));
+            assertEquals(3, bank.getMetrics().operation("bank.verifyPin").calls(), "Högst tre PIN-koder bör kontrolleras.");
+        }
+    }
+
+    @Test
+    @DisplayName("Är alla försök upptagna får terminalen vänta på sin tur utan att kortet låses")
+    void testBusyCardIsNotLocked() {
+        User user = new Bank().getUserById("12345");
+        assertEquals(1, user.reservePinAttempt());
+        assertEquals(2, user.reservePinAttempt());
+        assertEquals(3, user.reservePinAttempt());
+        assertEquals(0, user.reservePinAttempt(), "Ett fjärde försök bör få vänta, inte blockera.");
+        assertFalse(user.isLocked());
+
+        user.releasePinAttempt();
+        assertEquals(3, user.reservePinAttempt());
+        assertEquals(0, user.finishPinAttempt(true), "Rätt PIN bör nollställa försöken.");
+        assertEquals(1, user.finishPinAttempt(false));
+        assertEquals(2, user.finishPinAttempt(false));
+        assertFalse(user.isLocked());
+    }
+
+    @Test
+    @DisplayName("Ett försök vars kontroll kastar räknas inte")
+    void testFailedCheckReleasesAttempt() {
+        Bank bank = spy(new Bank());
+        bank.setOutput(SessionOutput.none());
+        bank.setAttemptTracker(PinAttemptTracker.unlimited());
+        doThrow(new IllegalStateException("PIN-kontrollen misslyckades.")).when(bank).verifyPin("12345", "1234");
+        ATMSession terminal = new ATMSession(bank, SessionOutput.none(), "atm-1");
+        terminal.start();
+        terminal.onInput("12345");
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalStateException.class, () -> terminal.onInput("1234"));
+        }
+        ATM atm = new ATM();
+        atm.setBank(bank);
+        atm.setOutput(SessionOutput.none());
+        atm.insertCard("12345");
+        assertThrows(IllegalStateException.class, () -> atm.handlePinEntry(new Scanner("1234\n")));
+        User user = bank.getUserById("12345");
+        assertEquals(0, user.getFailedAttempts());
+        assertFalse(user.isLocked());
+
+        doCallRealMethod().when(bank).verifyPin("12345", "1234");
+        terminal.onInput("1234");
+        assertEquals(ATMSession.State.MENU, terminal.getState(), "Kortet bör fortfarande ha alla tre försök kvar.");
+    }
+
+    @Test
+    @DisplayName("En ögonblicksbild med tre misslyckade försök ger ett låst kort, inte ett som väntar")
+    void testRestoredExhaustedCardIsLocked() {
+        User user = new Bank().getUserById("12345");
+        user.restoreCardState(3, false);
+        assertTrue(user.isLocked());
+        assertEquals(-1, user.reservePinAttempt());
+
+        User other = new Bank().getUserById("12345");
+        other.restoreCardState(2, false);
+        assertEquals(3, other.reservePinAttempt());
+        assertEquals(3, other.finishPinAttempt(false));
+        assertTrue(other.isLocked());
+    }
+}
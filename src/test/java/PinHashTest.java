@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class PinHashTest {
+
+    @Test
+    @DisplayName("Hashen matchar bara rätt PIN och innehåller inte PIN-koden")
+    void testMatches() {
+        PinHash hash = PinHash.create("0123");
+
+        assertTrue(hash.matches("0123"));
+        assertFalse(hash.matches("123"));
+        assertFalse(hash.matches(""));
+        assertFalse(hash.matches(null));
+        assertFalse(hash.encode().contains("0123"), "PIN-koden får inte synas i lagrat format.");
+        assertNotEquals(hash, PinHash.create("0123"), "Samma PIN bör få olika salt.");
+    }
+
+    @Test
+    @DisplayName("Lagrat format läses tillbaka till samma hash")
+    void testEncodeRoundTrip() {
+        PinHash hash = PinHash.create("4321");
+        PinHash read = PinHash.fromStored(hash.encode());
+
+        assertEquals(hash, read);
+        assertTrue(read.matches("4321"));
+        assertThrows(IllegalArgumentException.class, () -> PinHash.fromStored("pbkdf2-sha256$1000$trasig"));
+    }
+
+    @Test
+    @DisplayName("PIN i klartext från äldre filer hashas vid inläsning")
+    void testLegacyPlaintext() {
+        PinHash migrated = PinHash.fromStored("5678");
+
+        assertTrue(migrated.matches("5678"));
+        assertTrue(migrated.encode().startsWith("pbkdf2-sha256$"));
+    }
+
+    @Test
+    @DisplayName("Ogiltig PIN ger samma fel som tidigare vid skapande av användare")
+    void testUserValidation() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> new User("1", "", 10));
+        assertEquals("Ogiltiga värden vid skapande av användare.", exception.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> User.ofCents("1", null, 10));
+        assertThrows(IllegalArgumentException.class, () -> User.withPinHash("1", null, 10));
+    }
+
+    @Test
+    @DisplayName("En lyckad kontroll cachas, en misslyckad gör det inte")
+    void testVerificationCache() {
+        try (PinVerifier verifier = new PinVerifier(1, 16, Duration.ofMinutes(1))) {
+            PinHash hash = PinHash.create("1234");
+
+            assertFalse(verifier.verify("12345", hash, "0000"));
+            assertTrue(verifier.verify("12345", hash, "1234"));
+            assertTrue(verifier.verifyAsync("12345", hash, "1234").isDone(), "Andra kontrollen bör besvaras ur cachen.");
+            assertFalse(verifier.verify("12345", hash, "1235"), "Cachen får inte godkänna en annan PIN.");
+
+            PinHash changed = PinHash.create("1234");
+            assertFalse(verifier.verifyAsync("12345", changed, "1234").isDone(), "Ny hash för kontot bör kontrolleras på nytt.");
+
+            verifier.verify("12345", hash, "1234");
+            verifier.invalidate("12345");
+            assertFalse(verifier.verifyAsync("12345", hash, "1234").isDone(), "Borttagen post bör kontrolleras på nytt.");
+        }
+    }
+
+    @Test
+    @DisplayName("Cacheposter går ut efter sin livslängd")
+    void testCacheExpiry() {
+        try (PinVerifier verifier = new PinVerifier(1, 16, Duration.ZERO)) {
+            PinHash hash = PinHash.create("1234");
+            assertTrue(verifier.verify("12345", hash, "1234"));
+            assertFalse(verifier.verifyAsync("12345", hash, "1234").isDone());
+        }
+    }
+
+    @Test
+    @DisplayName("Många samtidiga inloggningar mot banken ger rätt svar")
+    void testConcurrentBankVerification() {
+        Bank bank = new Bank();
+        for (int i = 0; i < 50; i++) {
+            bank.tryAddUser(new User("user" + i, "pin" + i, 0));
+        }
+        List<CompletableFuture<Boolean>> correct = new ArrayList<>();
+        List<CompletableFuture<Boolean>> wrong = new ArrayList<>();
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 50; i++) {
+                correct.add(bank.verifyPinAsync("user" + i, "pin" + i));
+                wrong.add(bank.verifyPinAsync("user" + i, "pin" + (i + 1)));
+            }
+        }
+
+        correct.forEach(future -> assertTrue(future.join()));
+        wrong.forEach(future -> assertFalse(future.join()));
+        assertFalse(bank.verifyPinAsync("okänd", "1234").join());
+        assertTrue(bank.verifyPin("12345", "1234"));
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TransactionJournalTest {
+
+    @TempDir
+    Path tempDir; // Ny katalog för varje test
+
+    @Test
+    @DisplayName("Saldon återskapas från loggen efter omstart")
+    void testBalancesSurviveRestart() throws IOException {
+        Path file = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank bank = new Bank(journal);
+            bank.deposit("12345", 500);
+            bank.withdraw("12345", 200);
+            bank.addUser(new User("67890", "5678", 300));
+            bank.deposit("67890", 50);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank restarted = new Bank(journal);
+            assertEquals(1300.0, restarted.getUserById("12345").getBalance(), "Saldot bör vara detsamma som före omstart.");
+            assertEquals(350.0, restarted.getUserById("67890").getBalance());
+            assertTrue(restarted.verifyPin("67890", "5678"), "PIN bör följa med kontot.");
+        }
+    }
+
+    @Test
+    @DisplayName("Borttagna konton kommer inte tillbaka efter omstart")
+    void testDeletedUserStaysDeleted() throws IOException {
+        Path file = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            new Bank(journal).deleteUser("12345");
+        }
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            assertNull(new Bank(journal).getUserById("12345"), "Standardanvändaren ska inte återskapas.");
+        }
+    }
+
+    @Test
+    @DisplayName("En halvskriven post i slutet av loggen ignoreras och klipps bort")
+    void testTornTailIsTruncated() throws IOException {
+        Path file = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            new Bank(journal).deposit("12345", 100);
+        }
+        long goodSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            goodSize = channel.size();
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2}), goodSize); // Avbruten skrivning
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            List<JournalRecord> records = new ArrayList<>();
+            assertEquals(goodSize, journal.replay(0, records::add), "Uppspelningen bör sluta vid sista hela posten.");
+            assertEquals(2, records.size(), "Skapande och insättning bör finnas kvar.");
+        }
+        assertEquals(goodSize, java.nio.file.Files.size(file), "Den trasiga svansen bör klippas bort.");
+    }
+
+    @Test
+    @DisplayName("Samtidiga transaktioner grupperas och blir alla beständiga")
+    void testConcurrentTransactionsAreDurable() throws Exception {
+        Path file = tempDir.resolve("bank.journal");
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            Bank bank = new Bank(journal);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 8; i++) {
+                executor.submit(() -> {
+                    for (int j = 0; j < 200; j++) {
+                        bank.depositCents("12345", 1);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file)) {
+            assertEquals(100_000 + 1600, new Bank(journal).getUserById("12345").getBalanceCents());
+        }
+    }
+}
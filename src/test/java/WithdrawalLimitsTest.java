@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WithdrawalLimitsTest {
+
+    private final AtomicLong now = new AtomicLong(Duration.ofDays(1000).toMillis());
+    private Bank bank;
+
+    @BeforeEach
+    void setUp() {
+        bank = new Bank();
+        bank.setOutput(SessionOutput.none());
+        bank.tryAddUser(User.ofCents("67890", "5678", Money.ofWholeKronor(100_000)));
+    }
+
+    private WithdrawalLimits limits(WithdrawalLimits.Rule... rules) {
+        return new WithdrawalLimits(List.of(rules), now::get);
+    }
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toMillis());
+    }
+
+    @Test
+    @DisplayName("Dygnsgränsen stoppar uttag över gränsen och glider med tiden")
+    void testDailyAmountLimit() {
+        bank.setWithdrawalLimits(limits(WithdrawalLimits.Rule.maxAmount(Duration.ofDays(1), Money.ofWholeKronor(5_000))));
+
+        bank.withdrawCents("67890", Money.ofWholeKronor(3_000));
+        advance(Duration.ofHours(12));
+        bank.withdrawCents("67890", Money.ofWholeKronor(2_000));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("67890", Money.ofWholeKronor(100)));
+        assertEquals("Uttagsgränsen är nådd.", e.getMessage());
+        assertEquals(Money.ofWholeKronor(95_000), bank.getUserById("67890").getBalanceCents());
+
+        advance(Duration.ofHours(13)); // Det första uttaget har fallit ur fönstret, det andra inte
+        bank.withdrawCents("67890", Money.ofWholeKronor(3_000));
+        assertThrows(IllegalArgumentException.class, () -> bank.withdrawCents("67890", Money.ofWholeKronor(100)));
+        assertEquals(2, bank.getMetrics().operation("bank.withdraw").failures("Uttagsgränsen är nådd."));
+
+        advance(Duration.ofDays(3)); // Långt uppehåll: allt har fallit ur fönstret
+        bank.withdrawCents("67890", Money.ofWholeKronor(5_000));
+    }
+
+    @Test
+    @DisplayName("Takten begränsar antalet uttag, även i batchar, men inte överföringar")
+    void testVelocityLimit() {
+        bank.setWithdrawalLimits(limits(WithdrawalLimits.Rule.maxCount(Duration.ofMinutes(10), 3)));
+
+        bank.withdrawCents("67890", 100);
+        bank.transferCents("67890", "12345", 100);
+        BatchResult result = bank.applyBatch(List.of(
+                BankOperation.withdraw("67890", 100),
+                BankOperation.withdraw("67890", 100),
+                BankOperation.withdraw("67890", 100)));
+        assertTrue(result.isSuccess(0));
+        assertTrue(result.isSuccess(1));
+        assertEquals("För många uttag på kort tid.", result.getError(2));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("67890", 100));
+        assertEquals("För många uttag på kort tid.", e.getMessage());
+
+        advance(Duration.ofMinutes(11));
+        assertTrue(bank.withdrawCents("67890", 100));
+    }
+
+    @Test
+    @DisplayName("Saldot kontrolleras först och ett uttag som inte görs räknas inte mot gränsen")
+    void testRejectedWithdrawalsAreNotCounted() {
+        bank.setWithdrawalLimits(limits(
+                WithdrawalLimits.Rule.maxCount(Duration.ofMinutes(10), 1),
+                WithdrawalLimits.Rule.maxAmount(Duration.ofDays(1), Money.ofWholeKronor(1_000))));
+
+        IllegalArgumentException noFunds = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("67890", Money.ofWholeKronor(1_000_000)));
+        assertEquals("Otillräckligt saldo.", noFunds.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> bank.withdrawCents("67890", Money.ofWholeKronor(2_000)));
+        assertTrue(bank.withdrawCents("67890", Money.ofWholeKronor(1_000))); // Inget av de avvisade räknades
+    }
+
+    @Test
+    @DisplayName("Nya regler gäller direkt och behåller summorna för fönster som finns kvar")
+    void testReloadKeepsMatchingWindows() {
+        WithdrawalLimits.Rule daily = WithdrawalLimits.Rule.maxAmount(Duration.ofDays(1), Money.ofWholeKronor(5_000));
+        bank.setWithdrawalLimits(limits(daily));
+        bank.withdrawCents("67890", Money.ofWholeKronor(4_000));
+
+        bank.setWithdrawalLimits(limits(daily, WithdrawalLimits.Rule.maxCount(Duration.ofMinutes(10), 1)));
+        assertThrows(IllegalArgumentException.class, () -> bank.withdrawCents("67890", Money.ofWholeKronor(2_000)));
+        bank.withdrawCents("67890", Money.ofWholeKronor(500)); // Taktregeln är ny och börjar på noll
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> bank.withdrawCents("67890", 100));
+        assertEquals("För många uttag på kort tid.", e.getMessage());
+
+        bank.setWithdrawalLimits(WithdrawalLimits.none());
+        assertTrue(bank.withdrawCents("67890", Money.ofWholeKronor(10_000)));
+        assertThrows(IllegalArgumentException.class, () -> new WithdrawalLimits.Rule(
+                WithdrawalLimits.Kind.AMOUNT, Duration.ofMillis(1), 100));
+    }
+}